@@ -3,8 +3,9 @@ package de.qabel.box.http;
 import de.qabel.box.storage.exceptions.QblStorageException;
 import de.qabel.box.storage.exceptions.QblStorageNotFound;
 import de.qabel.box.storage.StorageDownload;
-import de.qabel.box.storage.StorageReadBackend;
+import de.qabel.box.storage.RangedReadBackend;
 import de.qabel.box.storage.UnmodifiedException;
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
@@ -16,7 +17,7 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 
-public class HttpReadBackend extends AbstractHttpStorageBackend implements StorageReadBackend {
+public class HttpReadBackend extends AbstractHttpStorageBackend implements RangedReadBackend {
     public HttpReadBackend(String root) throws URISyntaxException {
         super(root);
     }
@@ -32,12 +33,28 @@ public class HttpReadBackend extends AbstractHttpStorageBackend implements Stora
 
     @Override
     public StorageDownload download(String name, String ifModifiedVersion) throws QblStorageException, UnmodifiedException {
-        info("Downloading " + name);
+        return download(name, ifModifiedVersion, 0L);
+    }
+
+    @Override
+    public StorageDownload downloadFrom(String name, long offset) throws QblStorageException {
+        try {
+            return download(name, null, offset);
+        } catch (UnmodifiedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private StorageDownload download(String name, String ifModifiedVersion, long offset) throws QblStorageException, UnmodifiedException {
+        info("Downloading " + name + (offset > 0 ? " from " + offset : ""));
         URI uri = getRoot().resolve(name);
         HttpGet httpGet = new HttpGet(uri);
         if (ifModifiedVersion != null) {
             httpGet.addHeader(HttpHeaders.IF_NONE_MATCH, ifModifiedVersion);
         }
+        if (offset > 0) {
+            httpGet.addHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+        }
         prepareRequest(httpGet);
 
         try {
@@ -50,7 +67,8 @@ public class HttpReadBackend extends AbstractHttpStorageBackend implements Stora
                 if (status == HttpStatus.SC_NOT_MODIFIED) {
                     throw new UnmodifiedException();
                 }
-                if (status != HttpStatus.SC_OK) {
+                boolean partial = status == HttpStatus.SC_PARTIAL_CONTENT && offset > 0;
+                if (status != HttpStatus.SC_OK && !partial) {
                     throw new QblStorageException("Download error");
                 }
                 String modifiedVersion = response.getFirstHeader(HttpHeaders.ETAG).getValue();
@@ -63,7 +81,13 @@ public class HttpReadBackend extends AbstractHttpStorageBackend implements Stora
                     throw new QblStorageException("No content");
                 }
                 InputStream content = entity.getContent();
-                return new StorageDownload(content, modifiedVersion, entity.getContentLength(), response);
+                long size = entity.getContentLength();
+                if (offset > 0 && !partial) {
+                    // the server ignored the range header and sent the whole file
+                    IOUtils.skipFully(content, offset);
+                    size = size < 0 ? size : size - offset;
+                }
+                return new StorageDownload(content, modifiedVersion, size, response);
             } catch (Exception e) {
                 response.close();
                 throw e;
@@ -1,10 +1,11 @@
 package de.qabel.box.storage
 
-import de.qabel.box.storage.cache.BoxNavigationCache
 import de.qabel.box.storage.cache.CachedFolderNavigationFactory
+import de.qabel.box.storage.cache.UnreachableReleaser
 import de.qabel.box.storage.command.*
 import de.qabel.box.storage.dto.BoxPath
 import de.qabel.box.storage.dto.DMChangeEvent
+import de.qabel.box.storage.exceptions.QblStorageClosed
 import de.qabel.box.storage.exceptions.QblStorageException
 import de.qabel.box.storage.exceptions.QblStorageInvalidKey
 import de.qabel.box.storage.exceptions.QblStorageNameConflict
@@ -12,9 +13,11 @@ import de.qabel.box.storage.exceptions.QblStorageNotFound
 import de.qabel.core.crypto.CryptoUtils
 import de.qabel.core.crypto.QblECPublicKey
 import de.qabel.core.logging.QabelLog
-import de.qabel.core.util.loop
 import org.apache.commons.codec.binary.Hex
 import org.apache.commons.lang3.NotImplementedException
+import org.spongycastle.crypto.digests.SHA256Digest
+import org.spongycastle.crypto.generators.HKDFBytesGenerator
+import org.spongycastle.crypto.params.HKDFParameters
 import org.spongycastle.crypto.params.KeyParameter
 import rx.lang.kotlin.PublishSubject
 import rx.subjects.SerializedSubject
@@ -23,16 +26,45 @@ import java.io.*
 import java.security.InvalidKeyException
 import java.security.MessageDigest
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinTask
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicBoolean
+import javax.crypto.Mac
+import javax.crypto.spec.SecretKeySpec
 
 abstract class AbstractNavigation(
     override val path: BoxPath.FolderLike,
-    open protected var dm: DirectoryMetadata,
+    dm: DirectoryMetadata,
     val volumeConfig: BoxVolumeConfig
 ) : BoxNavigation, QabelLog {
 
+    @Volatile var isClosed = false
+        private set
+
+    /**
+     * Holds the local metadata apart from the navigation, so it can be closed after the navigation became unreachable
+     */
+    private class LocalMetadata(@Volatile var dm: DirectoryMetadata)
+
+    private val local = LocalMetadata(dm)
+
+    /**
+     * Fails fast once the navigation has been closed, its local metadata is gone by then.
+     */
+    protected var dm: DirectoryMetadata
+        get() {
+            if (isClosed) {
+                throw QblStorageClosed("navigation of $path was closed, navigate to the folder again")
+            }
+            return local.dm
+        }
+        set(value) {
+            local.dm = value
+        }
+
     protected val readBackend = volumeConfig.readBackend
     protected val writeBackend = volumeConfig.writeBackend
     protected val deviceId = volumeConfig.deviceId
@@ -41,15 +73,20 @@ abstract class AbstractNavigation(
     protected val fileFactory = volumeConfig.fileFactory
     protected val defaultHashAlgorithm = volumeConfig.defaultHashAlgorithm
     protected val tempDir = volumeConfig.tempDir
-    private val navCache = BoxNavigationCache<FolderNavigation>()
+    private val navCache by lazy { volumeConfig.navigationCache }
 
     protected val folderNavigationFactory by lazy {
         CachedFolderNavigationFactory(indexNavigation, volumeConfig, navCache)
     }
+    /**
+     * Loaded navigations are cached by the caller, so the cache decides about concurrently loaded duplicates
+     */
+    private val loadingNavigationFactory by lazy { FolderNavigationFactory(indexNavigation, volumeConfig) }
     protected val cryptoUtils by lazy { CryptoUtils() }
 
-    private var pendingChanges: List<DMChange<*>> = emptyList()
+    @Volatile private var pendingChanges: List<DMChange<*>> = emptyList()
     private val committing = AtomicBoolean(false)
+    private var batching = false
     override val changes: Subject<DMChangeEvent, DMChangeEvent>
         = SerializedSubject(PublishSubject<DMChangeEvent>())
 
@@ -60,17 +97,48 @@ abstract class AbstractNavigation(
 
     abstract val indexNavigation: IndexNavigation
 
-    private var originalDm = clone(dm)
+    private var originalDm = snapshot(dm)
         set(value) {
             detectDmChanges(value)
             field = value
         }
 
-    protected fun clone(directoryMetadata: DirectoryMetadata): DirectoryMetadata {
-        val tmp = File.createTempFile("dir", "db", tempDir)
-        tmp.deleteOnExit()
-        directoryMetadata.path.copyTo(tmp, true)
-        return directoryFactory.open(tmp, directoryMetadata.fileName)
+    protected fun snapshot(directoryMetadata: DirectoryMetadata) = DirectoryMetadataSnapshot.of(directoryMetadata)
+
+    private fun closeQuietly(metadata: DirectoryMetadata) {
+        try {
+            metadata.close()
+        } catch (e: QblStorageException) {
+            warn("failed to close metadata ${metadata.path}: ${e.message}")
+        }
+    }
+
+    /**
+     * Commits pending changes, closes the local metadata and deletes its files.
+     * The navigation fails with [QblStorageClosed] afterwards.
+     * If the commit fails, the navigation stays open and keeps its pending changes.
+     */
+    @Synchronized @Throws(QblStorageException::class)
+    fun close() {
+        if (isClosed) {
+            return
+        }
+        if (!isUnmodified) {
+            commit()
+        }
+        val metadata = dm
+        isClosed = true
+        closeQuietly(metadata)
+    }
+
+    /**
+     * Closes the local metadata once the navigation became unreachable.
+     * Called when the navigation is evicted from the navigation cache, callers that navigated to it before
+     * can keep using it until they drop it.
+     */
+    fun closeWhenUnreachable(releaser: UnreachableReleaser) {
+        val local = local
+        releaser.register(this) { local.dm.close() }
     }
 
     override fun setAutocommitDelay(delay: Long) {
@@ -82,24 +150,26 @@ abstract class AbstractNavigation(
         set(value) { dm = value }
 
     @Synchronized @Throws(QblStorageException::class)
-    override fun navigate(target: BoxFolder): AbstractNavigation {
+    override fun navigate(target: BoxFolder): AbstractNavigation
+        = navCache.get(target) { loadNavigation(target) }.apply { subscribe(this) }
+
+    @Throws(QblStorageException::class)
+    private fun loadNavigation(target: BoxFolder): FolderNavigation {
         try {
-            return navCache.get(target) {
-                readBackend.download(target.ref).inputStream.use { indexDl ->
-                    val tmp = File.createTempFile("dir", "db2", tempDir)
-                    tmp.deleteOnExit()
-                    val key = KeyParameter(target.key)
-                    if (cryptoUtils.decryptFileAuthenticatedSymmetricAndValidateTag(indexDl, tmp, key)) {
-                        val dm = directoryFactory.open(tmp, target.ref)
-                        folderNavigationFactory.fromDirectoryMetadata(path / target.name, dm, target).apply {
-                            setAutocommit(autocommit)
-                            setAutocommitDelay(autocommitDelay)
-                        }
-                    } else {
-                        throw QblStorageNotFound("Invalid key")
+            return readBackend.download(target.ref).inputStream.use { indexDl ->
+                val tmp = File.createTempFile("dir", "db2", tempDir)
+                tmp.deleteOnExit()
+                val key = KeyParameter(target.key)
+                if (cryptoUtils.decryptFileAuthenticatedSymmetricAndValidateTag(indexDl, tmp, key)) {
+                    val dm = directoryFactory.open(tmp, target.ref)
+                    loadingNavigationFactory.fromDirectoryMetadata(path / target.name, dm, target).apply {
+                        setAutocommit(autocommit)
+                        setAutocommitDelay(autocommitDelay)
                     }
+                } else {
+                    throw QblStorageNotFound("Invalid key")
                 }
-            }.apply { subscribe(this) }
+            }
         } catch (e: IOException) {
             throw QblStorageException(e)
         } catch (e: InvalidKeyException) {
@@ -107,6 +177,76 @@ abstract class AbstractNavigation(
         }
     }
 
+    /**
+     * Runs action on the navigations of all folders, in parallel if the volume's treeParallelism allows it.
+     * The navigations are loaded concurrently as well, only subscribing to their changes happens on the calling thread.
+     * Folders are walked in batches of treeParallelism and the navigations of a batch are kept in the navigation
+     * cache until their action is done, so a walk never evicts the navigations it is about to use.
+     * The tree walk pool never needs the monitor of this navigation, so it may be held by the caller.
+     */
+    @Throws(QblStorageException::class)
+    private fun forEachNavigation(folders: List<BoxFolder>, action: (AbstractNavigation) -> Unit) {
+        if (volumeConfig.treeParallelism <= 1) {
+            folders.forEach { folder ->
+                val nav = navCache.acquire(folder) { loadNavigation(folder) }
+                try {
+                    subscribe(nav)
+                    action(nav)
+                } finally {
+                    navCache.release(folder)
+                }
+            }
+            return
+        }
+        val batchSize = volumeConfig.treeParallelism
+        for (start in 0 until folders.size step batchSize) {
+            val batch = folders.subList(start, Math.min(start + batchSize, folders.size))
+            val acquired = Collections.synchronizedList(mutableListOf<BoxFolder>())
+            try {
+                val navs = forkAll(batch.map { folder ->
+                    { navCache.acquire(folder) { loadNavigation(folder) }.apply { acquired.add(folder) } }
+                })
+                navs.forEach { subscribe(it) }
+                forkAll(navs.map { nav -> { action(nav) } })
+            } finally {
+                acquired.forEach { navCache.release(it) }
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks in the tree walk pool and waits for all of them.
+     * Tasks are forked into the pool if the caller is a worker of the pool itself, so nested walks don't block workers.
+     */
+    @Throws(QblStorageException::class)
+    private fun <T> forkAll(tasks: List<() -> T>): List<T> {
+        val pool = volumeConfig.treeWalkPool
+        val forked = tasks.map { task ->
+            ForkJoinTask.adapt(Callable { task() }).apply {
+                if (ForkJoinTask.getPool() === pool) fork() else pool.execute(this)
+            }
+        }
+        var failure: Throwable? = null
+        val results = forked.map {
+            try {
+                it.join()
+            } catch (e: RuntimeException) {
+                failure = failure ?: e
+                null
+            }
+        }
+        failure?.let { throw storageCause(it) ?: it }
+        return results.map { it!! }
+    }
+
+    private fun storageCause(e: Throwable): QblStorageException? {
+        var cause: Throwable? = e
+        while (cause != null && cause !is QblStorageException) {
+            cause = cause.cause
+        }
+        return cause as QblStorageException?
+    }
+
     private val subscribedNavs = WeakHashMap<FolderNavigation, Subject<*, *>>()
     @Synchronized
     private fun subscribe(nav: FolderNavigation) {
@@ -124,18 +264,66 @@ abstract class AbstractNavigation(
         commit()
     }
 
+    @Synchronized @Throws(QblStorageException::class)
+    override fun <T> batch(block: (BoxNavigation) -> T): T {
+        if (batching) {
+            return block(this)
+        }
+        batching = true
+        val unbatchedChanges = pendingChanges
+        val result = try {
+            dm.transaction { block(this) }
+        } catch (e: Exception) {
+            // the metadata changes of the batch have been rolled back, so they must not be committed later
+            val batchChanges = pendingChanges.drop(unbatchedChanges.size)
+            pendingChanges = unbatchedChanges
+            deleteRolledBackBlocks(batchChanges)
+            throw e
+        } finally {
+            batching = false
+        }
+        commitIfChanged()
+        return result
+    }
+
+    /**
+     * Deletes the blocks that were uploaded for the changes of a rolled back batch,
+     * unless the metadata still references them, e.g. chunks reused from the previous version of a file.
+     */
+    private fun deleteRolledBackBlocks(changes: List<DMChange<*>>) {
+        changes.filterIsInstance<UpdateFileChange>().forEach {
+            try {
+                writeBackend.deleteBlocks(it.newFile, dm)
+            } catch (e: QblStorageException) {
+                warn("failed to delete the blocks of rolled back file ${it.newFile.name}: ${e.message}")
+            }
+        }
+    }
+
     @Synchronized @Throws(QblStorageException::class)
     override fun commit() {
+        if (batching) {
+            trace("deferring commit until the end of the batch")
+            return
+        }
         if (!committing.compareAndSet(false, true)) {
             return
         }
-        do {
-            val commitChanges = pendingChanges
-            pendingChanges = emptyList()
-
-            commit(commitChanges)
-        } while (!pendingChanges.isEmpty())
-        committing.set(false)
+        try {
+            do {
+                val commitChanges = pendingChanges
+                pendingChanges = emptyList()
+
+                try {
+                    commit(commitChanges)
+                } catch (e: Exception) {
+                    pendingChanges = commitChanges + pendingChanges
+                    throw e
+                }
+            } while (!pendingChanges.isEmpty())
+        } finally {
+            committing.set(false)
+        }
     }
 
     private fun commit(changes: List<DMChange<*>>) {
@@ -147,7 +335,7 @@ abstract class AbstractNavigation(
             var updatedDM: DirectoryMetadata? = null
             try {
                 updatedDM = reloadMetadata()
-                originalDm = clone(updatedDM)
+                originalDm = snapshot(updatedDM)
                 info("Remote version is " + String(Hex.encodeHex(updatedDM.version)))
             } catch (e: QblStorageNotFound) {
                 trace("Could not reload metadata, none exists yet")
@@ -171,7 +359,7 @@ abstract class AbstractNavigation(
         }
         changes.postprocess(dm, writeBackend, indexNavigation)
 
-        originalDm = clone(dm)
+        originalDm = snapshot(dm)
     }
 
     @Synchronized @Throws(QblStorageException::class)
@@ -181,8 +369,11 @@ abstract class AbstractNavigation(
 
     @Synchronized @Throws(QblStorageException::class)
     override fun refresh(recursive: Boolean) {
+        if (batching) {
+            throw IllegalStateException("refresh is not allowed inside a batch")
+        }
         dm = reloadMetadata().apply {
-            originalDm = clone(DirectoryMetadata@this)
+            originalDm = snapshot(DirectoryMetadata@this)
             pendingChanges.execute(DirectoryMetadata@this)
         }
         newFolders.forEach { navigate(it).visit { nav, it ->
@@ -195,74 +386,58 @@ abstract class AbstractNavigation(
         newFolders.clear()
 
         if (recursive) {
-            listFolders().forEach {
-                navigate(it).refresh(true)
-            }
+            forEachNavigation(listFolders()) { it.refresh(true) }
         }
     }
 
     override fun visit(consumer: (AbstractNavigation, BoxObject) -> Unit): Unit {
-        listFolders().forEach {
-            consumer(this, it)
-            navigate(it).visit(consumer)
+        // list everything before descending, this navigation may be evicted from the cache meanwhile
+        val folders = listFolders()
+        val files = listFiles()
+        if (volumeConfig.treeParallelism <= 1) {
+            folders.forEach { folder ->
+                consumer(this, folder)
+                forEachNavigation(listOf(folder)) { it.visit(consumer) }
+            }
+        } else {
+            folders.forEach { consumer(this, it) }
+            forEachNavigation(folders) { it.visit(consumer) }
         }
-        listFiles().forEach { consumer(this, it) }
+        files.forEach { consumer(this, it) }
     }
 
     private var newFolders: MutableList<BoxFolder> = mutableListOf()
-    private fun detectDmChanges(newDm: DirectoryMetadata) {
+    private fun detectDmChanges(newDm: DirectoryMetadataSnapshot) {
         if (Arrays.equals(originalDm.version, newDm.version)) {
             return
         }
 
+        val diff = DirectoryMetadataDiff(originalDm, newDm)
+
         // remote folder adds
-        newDm.listFolders()
-            .filter { !originalDm.hasFolder(it.name) }
-            .loop { newFolders.add(it) }
-            .map { remoteFolderAdd(it) }
-            .forEach { push(it) }
+        newFolders.addAll(diff.addedFolders)
+        diff.addedFolders.forEach { push(remoteFolderAdd(it)) }
 
         // remote folder deletes
-        originalDm.listFolders()
-            .filter { !newDm.hasFolder(it.name) }
-            .map { remoteFolderDelete(it) }
-            .forEach { push(it) }
+        diff.deletedFolders.forEach { push(remoteFolderDelete(it)) }
 
         // local file adds
-        newDm.listFiles()
-            .filter { !originalDm.hasFile(it.name) }
-            .map { fileAdd(it) }
-            .forEach { push(it) }
+        diff.addedFiles.forEach { push(fileAdd(it)) }
 
         // local file deletes
-        originalDm.listFiles()
-            .filter { !newDm.hasFile(it.name) }
-            .map { localFileDelete(it) }
-            .forEach { push(it) }
+        diff.deletedFiles.forEach { push(localFileDelete(it)) }
 
         // remote file changes (update, neither add nor delete)
-        newDm.listFiles()
-            .filter { originalDm.hasFile(it.name) && !hashEquals(originalDm.getFile(it.name)!!, it) }
-            .map { fileChange(it) }
-            .forEach { push(it) }
+        diff.updatedFiles.forEach { push(fileChange(it.first, it.second)) }
 
         // detect new shared files
-        newDm.listFiles()
-            .filter { it.isShared() && !(originalDm.getFile(it.name)?.isShared() ?: true) }
-            .map { shareChange(it) }
-            .forEach { push(it) }
+        diff.sharedFiles.forEach { push(shareChange(it)) }
 
         // detect unshared files
-        newDm.listFiles()
-            .filter { !it.isShared() && originalDm.getFile(it.name)?.isShared() ?: false }
-            .map { unshareChange(it) }
-            .forEach { push(it) }
+        diff.unsharedFiles.forEach { push(unshareChange(it)) }
     }
 
-    private fun fileChange(file: BoxFile) = UpdateFileChange(
-        originalDm.getFile(file.name) ?: throw IllegalStateException("file for change event missing: " + file.name),
-        file
-    )
+    private fun fileChange(original: BoxFile, file: BoxFile) = UpdateFileChange(original, file)
     private fun remoteFolderAdd(it: BoxFolder) = CreateFolderChange(this, it.name, folderNavigationFactory, directoryFactory)
     private fun remoteFolderDelete(it: BoxFolder) = DeleteFolderChange(it)
     private fun fileAdd(file: BoxFile) = UpdateFileChange(null, file)
@@ -272,17 +447,15 @@ abstract class AbstractNavigation(
 
     private fun push(change: DMChange<*>) = changes.onNext(DMChangeEvent(change, this))
 
-    private fun hashEquals(oneFile: BoxFile, otherFile: BoxFile): Boolean {
-        if (!oneFile.isHashed() || !otherFile.isHashed()) {
-            return false
-        }
-
-        return oneFile.hashed == otherFile.hashed
-    }
-
     override val isUnmodified: Boolean
         get() = pendingChanges.isEmpty()
 
+    /**
+     * The navigation cache keeps navigations with pending or running commits
+     */
+    val isEvictable: Boolean
+        get() = isUnmodified && !committing.get()
+
     @Throws(QblStorageException::class)
     protected abstract fun uploadDirectoryMetadata()
 
@@ -331,9 +504,9 @@ abstract class AbstractNavigation(
 
     private fun AbstractNavigation.uploadStream(fileInput: InputStream, name: String, size: Long, mtime: Long, listener: ProgressListener?): BoxFile {
         val key = cryptoUtils.generateSymmetricKey()
-        val block = UUID.randomUUID().toString()
-
         val oldFile = dm.getFile(name)
+        val chunked = isChunkedUpload(size, oldFile)
+        val block = (if (chunked) CHUNKED_BLOCK_PREFIX else "") + UUID.randomUUID().toString()
 
         val boxFile = BoxFile(
             prefix,
@@ -346,8 +519,13 @@ abstract class AbstractNavigation(
         )
         boxFile.mtime = mtime
 
-        val uploadResult = uploadEncrypted(fileInput, key, "blocks/" + block, listener)
-        boxFile.hashed = uploadResult.hash
+        if (chunked) {
+            boxFile.hashed = uploadChunked(fileInput, boxFile, oldFile, listener)
+            writeBackend.upload(BLOCKS_PREFIX + block, ByteArrayInputStream(CHUNKED_BLOCK_NOTICE))
+        } else {
+            val uploadResult = uploadEncrypted(fileInput, key, "blocks/" + block, listener, size)
+            boxFile.hashed = uploadResult.hash
+        }
 
         execute(UpdateFileChange(oldFile, boxFile))
 
@@ -364,9 +542,109 @@ abstract class AbstractNavigation(
         return boxFile
     }
 
+    /**
+     * Shared files keep a single block because the FileMetadata references one block only.
+     * The block of a chunked file is marked by its name and only holds an unencrypted notice,
+     * so readers that don't know chunks fail to decrypt it instead of reading a missing block.
+     */
+    private fun isChunkedUpload(size: Long, oldFile: BoxFile?)
+        = volumeConfig.chunkSize in 1..(size - 1) && oldFile?.isShared() != true
+
+    private fun uploadChunked(fileInput: InputStream, boxFile: BoxFile, oldFile: BoxFile?, listener: ProgressListener?): Hash {
+        try {
+            val digest = MessageDigest.getInstance(defaultHashAlgorithm)
+            val input = InputStreamListener(fileInput) { bytes, n -> digest.update(bytes, 0, n) }
+            listener?.setSize(boxFile.size)
+            val reusable = oldFile?.chunks ?: emptyList()
+            val journal = volumeConfig.transferJournal
+            input.use {
+                if (journal == null) {
+                    boxFile.chunks = chunkedTransfer.upload(it, reusable, listener)
+                } else {
+                    boxFile.chunks = uploadJournaled(it, boxFile, reusable, journal, listener)
+                }
+            }
+            return Hash(digest.digest(), defaultHashAlgorithm)
+        } catch (e: IOException) {
+            throw QblStorageException(e.message, e)
+        }
+    }
+
+    /**
+     * Chunks that were uploaded by an interrupted upload of the same path are reused if their content matches.
+     * The journal doesn't store chunk keys, they are derived from the chunk key secret and the block name instead.
+     * If the same path is already uploaded by another thread, the upload is not journaled.
+     */
+    private fun uploadJournaled(
+        input: InputStream,
+        boxFile: BoxFile,
+        reusable: List<BoxChunk>,
+        journal: TransferJournal,
+        listener: ProgressListener?
+    ): List<BoxChunk> {
+        val transfer = UPLOAD_TRANSFER + prefix + (path * boxFile.name)
+        return exclusive(transfer, { chunkedTransfer.upload(input, reusable, listener) }) {
+            val journaled = journal.find(transfer).filter { it.isComplete() }.map { it.chunk.withKey(chunkKey(it.chunk.block)) }
+            if (journaled.isNotEmpty()) {
+                info("resuming upload of ${boxFile.name} with ${journaled.size} uploaded chunks")
+            }
+            val chunks = chunkedTransfer.upload(input, reusable + journaled, listener, { chunkKey(it) }) {
+                journal.update(transfer, TransferProgress(it.withKey(ByteArray(0)), it.size))
+            }
+            val used = chunks.map { it.block }.toSet()
+            journaled.filterNot { it.block in used }.forEach { writeBackend.deleteBlock(it.block) }
+            journal.remove(transfer)
+            chunks
+        }
+    }
+
+    /**
+     * Secret of the navigation that the chunk key secret is derived from
+     */
+    protected abstract val transferSecret: ByteArray
+
+    /**
+     * Key that is only used to derive chunk keys, so the transferSecret itself is never used as a MAC key
+     */
+    private val chunkKeySecret by lazy {
+        ByteArray(CHUNK_KEY_SECRET_SIZE).apply {
+            val hkdf = HKDFBytesGenerator(SHA256Digest())
+            hkdf.init(HKDFParameters(transferSecret, null, CHUNK_KEY_INFO))
+            hkdf.generateBytes(this, 0, size)
+        }
+    }
+
+    private fun chunkKey(block: String): ByteArray {
+        val mac = Mac.getInstance(CHUNK_KEY_ALGORITHM)
+        mac.init(SecretKeySpec(chunkKeySecret, CHUNK_KEY_ALGORITHM))
+        return mac.doFinal(block.toByteArray(Charsets.UTF_8))
+    }
+
+    /**
+     * Runs block unless the transfer is already running on another thread, fallback is run instead then.
+     * Journaled transfers share their journal entries and partial files, so they must not run concurrently.
+     */
+    private fun <T> exclusive(transfer: String, fallback: () -> T, block: () -> T): T {
+        if (!activeTransfers.add(transfer)) {
+            debug("$transfer is already running, transferring without journal")
+            return fallback()
+        }
+        try {
+            return block()
+        } finally {
+            activeTransfers.remove(transfer)
+        }
+    }
+
+    private val chunkedTransfer by lazy {
+        with(volumeConfig) {
+            ChunkedTransfer(readBackend, writeBackend, chunkSize, transferParallelism, cryptoUtils, transferPool)
+        }
+    }
+
     @Throws(QblStorageException::class)
     private fun autocommit() {
-        if (!autocommit) {
+        if (!autocommit || batching) {
             return
         }
         if (autocommitDelay == 0L) {
@@ -392,30 +670,26 @@ abstract class AbstractNavigation(
 
     @Throws(QblStorageException::class)
     @JvmOverloads protected fun uploadEncrypted(file: File, key: KeyParameter, block: String, listener: ProgressListener? = null)
-        = uploadEncrypted(FileInputStream(file), key, block, listener)
+        = uploadEncrypted(FileInputStream(file), key, block, listener, file.length())
 
     @Throws(QblStorageException::class)
-    @JvmOverloads protected fun uploadEncrypted(fileInput: InputStream, key: KeyParameter, block: String, listener: ProgressListener? = null): UploadResult {
+    @JvmOverloads protected fun uploadEncrypted(
+        fileInput: InputStream,
+        key: KeyParameter,
+        block: String,
+        listener: ProgressListener? = null,
+        size: Long? = null
+    ): UploadResult {
         try {
             val hashAlgorithm = defaultHashAlgorithm
-            val tempFile = File.createTempFile("upload", "up", tempDir)
             val digest = MessageDigest.getInstance(hashAlgorithm)
-            val outputStream = FileOutputStream(tempFile)
             val inputStream = InputStreamListener(fileInput) { bytes, n -> digest.update(bytes, 0, n) }
 
-            if (!cryptoUtils.encryptStreamAuthenticatedSymmetric(inputStream, outputStream, key, null)) {
-                throw QblStorageException("Encryption failed")
+            val serverTime = if (volumeConfig.streamingUpload) {
+                uploadStreaming(inputStream, key, block, listener, size)
+            } else {
+                uploadBuffered(inputStream, key, block, listener)
             }
-            outputStream.flush()
-            val serverTime = DeleteOnCloseFileInputStream(tempFile).use { fis: FileInputStream ->
-                if (listener != null) {
-                    listener.setSize(tempFile.length())
-                    val input = ProgressInputStream(fis, listener)
-                    writeBackend.upload(block, input)
-                } else {
-                    writeBackend.upload(block, fis)
-                }
-            }.time.time
             return UploadResult(serverTime, Hash(digest.digest(), hashAlgorithm))
         } catch (e: IOException) {
             throw QblStorageException(e.message, e)
@@ -424,6 +698,36 @@ abstract class AbstractNavigation(
         }
     }
 
+    private fun uploadStreaming(input: InputStream, key: KeyParameter, block: String, listener: ProgressListener?, size: Long?): Long {
+        cryptoUtils.encryptingInputStream(input, key, null).use { encrypted ->
+            if (listener == null) {
+                return writeBackend.upload(block, encrypted).time.time
+            }
+            if (size != null) {
+                listener.setSize(size + CryptoUtils.SYMM_OVERHEAD_BYTE)
+            }
+            return writeBackend.upload(block, ProgressInputStream(encrypted, listener)).time.time
+        }
+    }
+
+    private fun uploadBuffered(input: InputStream, key: KeyParameter, block: String, listener: ProgressListener?): Long {
+        val tempFile = File.createTempFile("upload", "up", tempDir)
+        FileOutputStream(tempFile).use { outputStream ->
+            if (!cryptoUtils.encryptStreamAuthenticatedSymmetric(input, outputStream, key, null)) {
+                throw QblStorageException("Encryption failed")
+            }
+        }
+        return DeleteOnCloseFileInputStream(tempFile).use { fis: FileInputStream ->
+            if (listener != null) {
+                listener.setSize(tempFile.length())
+                val progressInput = ProgressInputStream(fis, listener)
+                writeBackend.upload(block, progressInput)
+            } else {
+                writeBackend.upload(block, fis)
+            }
+        }.time.time
+    }
+
     data class UploadResult(val serverTime: Long, val hash: Hash)
 
     override fun download(filename: String) = download(getFile(filename))
@@ -433,6 +737,20 @@ abstract class AbstractNavigation(
 
     @Throws(QblStorageException::class)
     override fun download(file: BoxFile, listener: ProgressListener?): InputStream {
+        if (file.isChunked()) {
+            return downloadChunked(file, listener)
+        }
+        val journal = volumeConfig.transferJournal
+        if (journal != null && readBackend is RangedReadBackend && file.size >= volumeConfig.resumableDownloadSize) {
+            val transfer = DOWNLOAD_TRANSFER + file.block
+            return exclusive(transfer, { downloadBlock(file, listener) }) {
+                downloadResumable(file, transfer, journal, readBackend, listener)
+            }
+        }
+        return downloadBlock(file, listener)
+    }
+
+    private fun downloadBlock(file: BoxFile, listener: ProgressListener?): InputStream {
         try {
             readBackend.download("blocks/" + file.block).use { download ->
                 var content = download.inputStream
@@ -455,8 +773,162 @@ abstract class AbstractNavigation(
         }
     }
 
+    /**
+     * Keeps the ciphertext downloaded so far in tempDir and continues from the journaled offset.
+     * The key is taken from the file when the download is resumed, it is not journaled.
+     */
+    private fun downloadResumable(
+        file: BoxFile,
+        transfer: String,
+        journal: TransferJournal,
+        backend: RangedReadBackend,
+        listener: ProgressListener?
+    ): InputStream {
+        val partial = File(tempDir, transfer + PARTIAL_SUFFIX)
+        val recorded = journal.find(transfer).firstOrNull()
+        var offset = if (partial.exists()) Math.min(recorded?.offset ?: 0L, partial.length()) else 0L
+        try {
+            if (recorded == null || !recorded.isComplete() || offset < recorded.chunk.size) {
+                if (offset > 0) {
+                    info("resuming download of ${file.name} at $offset")
+                }
+                backend.downloadFrom("blocks/" + file.block, offset).use { download ->
+                    val size = if (download.size < 0) download.size else offset + download.size
+                    listener?.setSize(size)
+                    RandomAccessFile(partial, "rw").use { out ->
+                        out.setLength(offset)
+                        out.seek(offset)
+                        val buffer = ByteArray(BUFFER_SIZE)
+                        var journaled = offset
+                        try {
+                            while (true) {
+                                val read = download.inputStream.read(buffer)
+                                if (read < 0) {
+                                    break
+                                }
+                                out.write(buffer, 0, read)
+                                offset += read
+                                listener?.setProgress(offset)
+                                if (offset - journaled >= JOURNAL_INTERVAL) {
+                                    journal.update(transfer, blockProgress(file, size, offset))
+                                    journaled = offset
+                                }
+                            }
+                        } finally {
+                            journal.update(transfer, blockProgress(file, size, offset))
+                        }
+                    }
+                }
+            }
+            val temp = File.createTempFile("upload", "down", tempDir)
+            temp.deleteOnExit()
+            try {
+                FileInputStream(partial).use {
+                    if (!cryptoUtils.decryptFileAuthenticatedSymmetricAndValidateTag(it, temp, KeyParameter(file.getKey()))) {
+                        temp.delete()
+                        throw QblStorageException("Decryption failed")
+                    }
+                }
+            } finally {
+                partial.delete()
+                journal.remove(transfer)
+            }
+            return DeleteOnCloseFileInputStream(temp)
+        } catch (e: IOException) {
+            throw QblStorageException(e)
+        } catch (e: InvalidKeyException) {
+            throw QblStorageException(e)
+        }
+    }
+
+    private fun blockProgress(file: BoxFile, size: Long, offset: Long)
+        = TransferProgress(BoxChunk(0, file.block, size, ByteArray(0), ByteArray(0)), offset)
+
+    private fun downloadChunked(file: BoxFile, listener: ProgressListener?): InputStream {
+        val journal = volumeConfig.transferJournal
+            ?: return downloadChunkedTemp(file, listener)
+        val transfer = DOWNLOAD_TRANSFER + file.block
+        return exclusive(transfer, { downloadChunkedTemp(file, listener) }) {
+            downloadChunkedJournaled(file, transfer, journal, listener)
+        }
+    }
+
+    private fun downloadChunkedJournaled(
+        file: BoxFile,
+        transfer: String,
+        journal: TransferJournal,
+        listener: ProgressListener?
+    ): InputStream {
+        val partial = File(tempDir, transfer + PARTIAL_SUFFIX)
+        val done = if (partial.exists()) {
+            journal.find(transfer).filter { it.isComplete() }.map { it.chunk.index }.toSet()
+        } else {
+            journal.remove(transfer)
+            emptySet<Int>()
+        }
+        if (done.isNotEmpty()) {
+            info("resuming download of ${file.name} with ${done.size} downloaded chunks")
+        }
+        chunkedTransfer.download(file.chunks, partial, listener, done) {
+            journal.update(transfer, TransferProgress(it.withKey(ByteArray(0)), it.size))
+        }
+        journal.remove(transfer)
+        return DeleteOnCloseFileInputStream(partial)
+    }
+
+    private fun downloadChunkedTemp(file: BoxFile, listener: ProgressListener?): InputStream {
+        val temp = File.createTempFile("upload", "down", tempDir)
+        temp.deleteOnExit()
+        try {
+            chunkedTransfer.download(file.chunks, temp, listener)
+            return DeleteOnCloseFileInputStream(temp)
+        } catch (e: QblStorageException) {
+            temp.delete()
+            throw e
+        }
+    }
+
+    @Throws(QblStorageException::class)
+    override fun downloadStreaming(file: BoxFile, listener: ProgressListener?): InputStream {
+        if (file.isChunked()) {
+            listener?.setSize(file.size)
+            val content = chunkedTransfer.openStream(file.chunks)
+            return if (listener != null) ProgressInputStream(content, listener) else content
+        }
+        val download = readBackend.download("blocks/" + file.block)
+        try {
+            var content = download.inputStream
+            if (listener != null) {
+                listener.setSize(download.size)
+                content = ProgressInputStream(content, listener)
+            }
+            val decrypted = cryptoUtils.decryptingInputStream(content, KeyParameter(file.getKey()))
+            return object : FilterInputStream(decrypted) {
+                override fun close() {
+                    try {
+                        super.close()
+                    } finally {
+                        download.close()
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            download.close()
+            throw QblStorageException(e)
+        } catch (e: InvalidKeyException) {
+            download.close()
+            throw QblStorageException(e)
+        }
+    }
+
+    /**
+     * FileMetadata references a single block, chunked files have to be [unchunked] before.
+     */
     @Throws(QblStorageException::class)
     fun createFileMetadata(owner: QblECPublicKey, boxFile: BoxFile): BoxExternalReference {
+        if (boxFile.isChunked()) {
+            throw QblStorageException("FileMetadata of chunked file ${boxFile.name} would reference a missing block")
+        }
         try {
             if (!boxFile.isShared()) {
                 val block = UUID.randomUUID().toString()
@@ -528,8 +1000,10 @@ abstract class AbstractNavigation(
     @Synchronized @Throws(QblStorageException::class)
     override fun createFolder(name: String): BoxFolder {
         execute(CreateFolderChange(this, name, folderNavigationFactory, directoryFactory))
-        commit()
-        refresh()
+        if (!batching) {
+            commit()
+            refresh()
+        }
         return getFolder(name)
     }
 
@@ -629,11 +1103,31 @@ abstract class AbstractNavigation(
 
     @Throws(QblStorageException::class)
     override fun share(owner: QblECPublicKey, file: BoxFile, recipient: String): BoxExternalReference {
-        val ref = createFileMetadata(owner, file)
-        execute(ShareChange(file, recipient))
+        val shared = unchunked(file)
+        val ref = createFileMetadata(owner, shared)
+        execute(ShareChange(shared, recipient))
         return ref
     }
 
+    /**
+     * Uploads a chunked file again as a single block, so it can be referenced by FileMetadata.
+     * Being shared, the file isn't chunked again by later uploads.
+     */
+    @Throws(QblStorageException::class)
+    fun unchunked(file: BoxFile): BoxFile {
+        if (!file.isChunked()) {
+            return file
+        }
+        info("uploading ${file.name} as a single block to share it")
+        val key = cryptoUtils.generateSymmetricKey()
+        val block = UUID.randomUUID().toString()
+        val boxFile = BoxFile(prefix, block, file.name, file.size, 0L, key.key, file.hashed, file.shared)
+        boxFile.mtime = file.mtime
+        download(file).use { uploadEncrypted(it, key, BLOCKS_PREFIX + block, null, file.size) }
+        execute(UnchunkFileChange(file, boxFile))
+        return boxFile
+    }
+
     @Throws(QblStorageException::class)
     override fun getSharesOf(boxObject: BoxObject): List<BoxShare> {
         return indexNavigation.listShares().filter({ share -> share.ref == boxObject.ref }).toList()
@@ -644,6 +1138,22 @@ abstract class AbstractNavigation(
 
     companion object {
         val BLOCKS_PREFIX = "blocks/"
+        private val UPLOAD_TRANSFER = "upload-"
+        private val DOWNLOAD_TRANSFER = "download-"
+        private val PARTIAL_SUFFIX = ".part"
+        private val BUFFER_SIZE = 8192
+        private val JOURNAL_INTERVAL = 1024 * 1024L
+        private val CHUNK_KEY_ALGORITHM = "HmacSHA256"
+        private val CHUNK_KEY_INFO = "qabel-chunk-key".toByteArray(Charsets.UTF_8)
+        private val CHUNK_KEY_SECRET_SIZE = 32
+        private val CHUNKED_BLOCK_PREFIX = "chunked-"
+        private val CHUNKED_BLOCK_NOTICE = ("This file is stored in chunks, " +
+            "the client that reads it needs to support chunked files.\n").toByteArray(Charsets.UTF_8)
+
+        /**
+         * Journaled transfers that are running in this process
+         */
+        private val activeTransfers = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
 
         private val scheduler = Executors.newScheduledThreadPool(1)
 
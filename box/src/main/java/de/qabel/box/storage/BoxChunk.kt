@@ -0,0 +1,42 @@
+package de.qabel.box.storage
+
+import java.util.*
+
+/**
+ * Separately encrypted part of a chunked [BoxFile], stored as blocks/[block].
+ * The [hash] of the plaintext identifies the content so unchanged chunks can be reused.
+ */
+class BoxChunk(
+    val index: Int,
+    val block: String,
+    val size: Long,
+    val key: ByteArray,
+    val hash: ByteArray
+) {
+    fun withIndex(index: Int) = BoxChunk(index, block, size, key, hash)
+
+    fun withKey(key: ByteArray) = BoxChunk(index, block, size, key, hash)
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) {
+            return true
+        }
+        if (other !is BoxChunk) {
+            return false
+        }
+        return index == other.index
+            && block == other.block
+            && size == other.size
+            && Arrays.equals(key, other.key)
+            && Arrays.equals(hash, other.hash)
+    }
+
+    override fun hashCode(): Int {
+        var result = index
+        result = 31 * result + block.hashCode()
+        result = 31 * result + size.hashCode()
+        result = 31 * result + Arrays.hashCode(key)
+        result = 31 * result + Arrays.hashCode(hash)
+        return result
+    }
+}
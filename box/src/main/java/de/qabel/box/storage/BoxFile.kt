@@ -10,7 +10,8 @@ open class BoxFile(
     mtime: Long,
     key: ByteArray,
     var hashed: Hash? = null,
-    var shared: Share? = null
+    var shared: Share? = null,
+    var chunks: List<BoxChunk> = emptyList()
 ) : BoxObject(name), BoxFileState {
 
     constructor (prefix: String,
@@ -83,7 +84,7 @@ open class BoxFile(
 
     @Throws(CloneNotSupportedException::class)
     protected fun clone(): BoxFile {
-        return BoxFile(prefix, block, name, size, mtime, key, hashed, shared)
+        return BoxFile(prefix, block, name, size, mtime, key, hashed, shared, chunks)
     }
 
     override fun getRef(): String? {
@@ -99,5 +100,6 @@ open class BoxFile(
     }
 
     fun isShared() = shared != null
+    fun isChunked() = chunks.isNotEmpty()
     fun isHashed() = hashed != null
 }
@@ -31,6 +31,18 @@ interface BoxNavigation : ReadableBoxNavigation {
     @Throws(QblStorageException::class)
     fun commitIfChanged()
 
+    /**
+     * Runs block as one batch of changes to the current folder, e.g. for bulk imports.
+     * All changes are applied in a single local transaction and committed (uploaded) once after block finished,
+     * commits requested inside the batch are deferred. If block fails, the changes of the batch are rolled back,
+     * the blocks uploaded by the batch are deleted and nothing is committed.
+     * Refreshing the navigation inside a batch is not allowed.
+     *
+     * @return the result of block
+     */
+    @Throws(QblStorageException::class)
+    fun <T> batch(block: (BoxNavigation) -> T): T
+
     /**
      * Upload a new file to the current folder
      *
@@ -141,6 +153,21 @@ interface BoxNavigation : ReadableBoxNavigation {
     @Throws(QblStorageException::class)
     fun download(file: BoxFile): InputStream = download(file, null)
 
+    /**
+     * Create an [InputStream] for a [BoxFile] that is decrypted while it is downloaded.
+     * Unlike [download], bytes are returned before the whole file arrived and thus before the authentication tag
+     * could be validated. An invalid tag is reported by an [IOException] when reading the end of the stream
+     * and when closing it, so only use this if the caller can tolerate the late validation.
+
+     * @param file file in the current folder
+     * *
+     * @return Decrypting stream
+     * *
+     * @throws QblStorageException if the download could not be started
+     */
+    @Throws(QblStorageException::class)
+    fun downloadStreaming(file: BoxFile, listener: ProgressListener? = null): InputStream
+
     @Throws(IOException::class, InvalidKeyException::class, QblStorageException::class)
     fun getFileMetadata(boxFile: BoxFile): FileMetadata
 
@@ -204,6 +231,7 @@ interface BoxNavigation : ReadableBoxNavigation {
 
     /**
      * Makes the BoxFile shareable. Creates FileMetadata for the file and a share entry in the IndexNavigation.
+     * Chunked files are uploaded again as a single block first, the shared file is listed with the new block.
 
      * @param owner    owner of the share
      * @param file     file to share
@@ -37,4 +37,8 @@ interface BoxVolume {
     @Throws(QblStorageException::class)
     fun loadIndex(indexDirectoryMetadata: DirectoryMetadata): IndexNavigation
 
+    /**
+     * Stops the transfer threads of the volume. Navigations of the volume must not be used afterwards.
+     */
+    fun close() = config.close()
 }
@@ -1,8 +1,14 @@
 package de.qabel.box.storage
 
+import de.qabel.box.storage.cache.BoxNavigationCache
+import de.qabel.box.storage.cache.UnreachableReleaser
 import de.qabel.box.storage.jdbc.JdbcDirectoryMetadataFactory
 import de.qabel.box.storage.jdbc.JdbcFileMetadataFactory
 import java.io.File
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ForkJoinPool
 
 class BoxVolumeConfig(
     val prefix: String,
@@ -18,4 +24,106 @@ class BoxVolumeConfig(
 ) {
     val directoryFactory: DirectoryMetadataFactory by lazy { directoryMetadataFactoryFactory(tempDir, deviceId) }
     val fileFactory: FileMetadataFactory by lazy { fileMetadataFactoryFactory(tempDir) }
+
+    /**
+     * Encrypt uploads while they are sent to the writeBackend.
+     * If disabled, the ciphertext is written to a temporary file in tempDir first.
+     */
+    var streamingUpload = true
+
+    /**
+     * Files larger than chunkSize bytes are split into separately encrypted blocks of chunkSize bytes.
+     * Unchanged chunks are reused when a file is overwritten. 0 disables chunking.
+     */
+    var chunkSize = 0
+
+    /**
+     * Maximum number of chunks that are transferred concurrently.
+     * Has to be set before the first chunked transfer.
+     */
+    var transferParallelism = 4
+
+    private val transferPoolDelegate = lazy {
+        Executors.newFixedThreadPool(transferParallelism) { Thread(it, "chunk-transfer").apply { isDaemon = true } }
+    }
+
+    /**
+     * Transfers the chunks of all chunked uploads and downloads of the volume
+     */
+    val transferPool: ExecutorService by transferPoolDelegate
+
+    /**
+     * Records transfer progress to resume interrupted chunked uploads and downloads.
+     * Uploads can only be resumed if they are chunked.
+     */
+    var transferJournal: TransferJournal? = null
+
+    /**
+     * Unchunked files are downloaded resumably if they have at least this many bytes.
+     * Resumable downloads keep the ciphertext in tempDir before decrypting it, which doubles the disk I/O.
+     */
+    var resumableDownloadSize = DEFAULT_RESUMABLE_DOWNLOAD_SIZE
+
+    /**
+     * Maximum number of folder navigations kept open by the volume, each of them holds database connections.
+     */
+    var navigationCacheSize = BoxNavigationCache.DEFAULT_MAX_ENTRIES
+
+    /**
+     * Maximum size in bytes of the local metadata files of the cached folder navigations.
+     */
+    var navigationCacheBytes = BoxNavigationCache.DEFAULT_MAX_WEIGHT
+
+    /**
+     * Releases evicted navigations, so it doesn't happen on the thread that caused the eviction.
+     */
+    var navigationCloser: Executor = NAVIGATION_CLOSER
+
+    /**
+     * Closes the local metadata of evicted navigations once nobody holds them anymore
+     */
+    val navigationReleaser = UnreachableReleaser()
+
+    /**
+     * Folder navigations of the volume by ref, navigations with pending changes are not evicted.
+     * Evicted navigations stay usable for callers that navigated to them before, their local metadata is
+     * closed by the navigationReleaser after they became unreachable.
+     * The limits and the closer have to be set before the first navigation is created.
+     */
+    val navigationCache: BoxNavigationCache<FolderNavigation> by lazy {
+        BoxNavigationCache<FolderNavigation>(navigationCacheSize, navigationCacheBytes,
+            { if (it.isClosed) 0L else it.metadata.path.length() },
+            { it.closeWhenUnreachable(navigationReleaser) }, { it.isEvictable }, navigationCloser)
+    }
+
+    /**
+     * Maximum number of folders that are downloaded concurrently by recursive refreshes and visits.
+     * With more than 1, visit consumers are called from multiple threads. 1 walks the tree on the calling thread.
+     * Has to be set before the first recursive refresh or visit.
+     */
+    var treeParallelism = 1
+
+    private val treeWalkPoolDelegate = lazy { ForkJoinPool(treeParallelism) }
+
+    val treeWalkPool: ForkJoinPool by treeWalkPoolDelegate
+
+    /**
+     * Stops the thread pools of the volume, running transfers and tree walks are interrupted.
+     */
+    fun close() {
+        if (transferPoolDelegate.isInitialized()) {
+            transferPool.shutdownNow()
+        }
+        if (treeWalkPoolDelegate.isInitialized()) {
+            treeWalkPool.shutdownNow()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_RESUMABLE_DOWNLOAD_SIZE = 8L * 1024 * 1024
+
+        private val NAVIGATION_CLOSER: Executor by lazy {
+            Executors.newSingleThreadExecutor { Thread(it, "navigation-closer").apply { isDaemon = true } }
+        }
+    }
 }
@@ -0,0 +1,219 @@
+package de.qabel.box.storage
+
+import de.qabel.box.storage.exceptions.QblStorageException
+import de.qabel.core.crypto.CryptoUtils
+import de.qabel.core.logging.QabelLog
+import org.apache.commons.io.IOUtils
+import org.spongycastle.crypto.params.KeyParameter
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.security.InvalidKeyException
+import java.security.MessageDigest
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Transfers files as a list of separately encrypted chunks of chunkSize bytes.
+ * Each chunk is stored as blocks/[BoxChunk.block] and up to parallelism chunks of a file are transferred at once.
+ * The chunks are transferred on the executor, which is shared by all transfers of the volume.
+ */
+class ChunkedTransfer(
+    private val readBackend: StorageReadBackend,
+    private val writeBackend: StorageWriteBackend,
+    private val chunkSize: Int,
+    private val parallelism: Int,
+    private val cryptoUtils: CryptoUtils,
+    private val executor: ExecutorService
+) : QabelLog {
+
+    /**
+     * Splits input into chunks and uploads them.
+     * Chunks with the same plaintext hash as one of the reusable chunks are not uploaded again.
+     * The key of a new chunk is chunkKey of its block name, a random key by default.
+     * If chunkDone is given, it is called for every uploaded chunk and uploaded chunks are kept on failure.
+     */
+    @Throws(QblStorageException::class)
+    @JvmOverloads
+    fun upload(
+        input: InputStream,
+        reusable: List<BoxChunk>,
+        listener: ProgressListener?,
+        chunkKey: (String) -> ByteArray = { cryptoUtils.generateSymmetricKey().key },
+        chunkDone: ((BoxChunk) -> Unit)? = null
+    ): List<BoxChunk> {
+        val reusableByHash = reusable.associateBy { ByteBuffer.wrap(it.hash) }
+        val chunks = ArrayList<BoxChunk>()
+        val uploads = ArrayList<Future<BoxChunk>>()
+        val uploaded = Collections.synchronizedList(ArrayList<String>())
+        val completed = Collections.synchronizedSet(HashSet<String>())
+        val progress = AtomicLong()
+        try {
+            var index = 0
+            while (true) {
+                val buffer = ByteArray(chunkSize)
+                val read = IOUtils.read(input, buffer)
+                if (read == 0) {
+                    break
+                }
+                val hash = MessageDigest.getInstance(HASH_ALGORITHM).apply { update(buffer, 0, read) }.digest()
+                val reuse = reusableByHash[ByteBuffer.wrap(hash)]
+                if (reuse != null && reuse.size == read.toLong()) {
+                    trace("reusing chunk $index of size $read")
+                    chunks.add(reuse.withIndex(index))
+                    listener?.setProgress(progress.addAndGet(read.toLong()))
+                } else {
+                    val block = UUID.randomUUID().toString()
+                    val chunk = BoxChunk(index, block, read.toLong(), chunkKey(block), hash)
+                    chunks.add(chunk)
+                    uploaded.add(chunk.block)
+                    uploads.add(executor.submit<BoxChunk> {
+                        uploadChunk(chunk, ByteArrayInputStream(buffer, 0, read))
+                        if (chunkDone != null) {
+                            synchronized(this) { chunkDone(chunk) }
+                            completed.add(chunk.block)
+                        }
+                        listener?.setProgress(progress.addAndGet(read.toLong()))
+                        chunk
+                    })
+                    awaitAll(uploads, parallelism)
+                }
+                index++
+                if (read < chunkSize) {
+                    break
+                }
+            }
+            awaitAll(uploads, 0)
+            return chunks
+        } catch (e: Exception) {
+            cancelAll(uploads)
+            uploaded.filterNot { it in completed }.forEach {
+                try {
+                    writeBackend.delete(BLOCKS_PREFIX + it)
+                } catch (ignored: QblStorageException) {
+                }
+            }
+            throw when (e) {
+                is QblStorageException -> e
+                else -> QblStorageException(e.message, e)
+            }
+        }
+    }
+
+    private fun uploadChunk(chunk: BoxChunk, plaintext: InputStream) {
+        cryptoUtils.encryptingInputStream(plaintext, KeyParameter(chunk.key), null).use {
+            writeBackend.upload(BLOCKS_PREFIX + chunk.block, it)
+        }
+    }
+
+    /**
+     * Downloads and decrypts all chunks concurrently into target.
+     * Chunks with an index in skip are expected to be in target already, chunkDone is called for every
+     * downloaded chunk.
+     */
+    @Throws(QblStorageException::class)
+    @JvmOverloads
+    fun download(
+        chunks: List<BoxChunk>,
+        target: File,
+        listener: ProgressListener?,
+        skip: Set<Int> = emptySet(),
+        chunkDone: ((BoxChunk) -> Unit)? = null
+    ) {
+        val size = chunks.map { it.size }.sum()
+        listener?.setSize(size)
+        val progress = AtomicLong()
+        val downloads = ArrayList<Future<*>>()
+        try {
+            RandomAccessFile(target, "rw").use { file ->
+                // transferFrom does not write beyond the end of the file
+                file.setLength(size)
+                var offset = 0L
+                for (chunk in chunks) {
+                    val position = offset
+                    offset += chunk.size
+                    if (chunk.index in skip) {
+                        listener?.setProgress(progress.addAndGet(chunk.size))
+                        continue
+                    }
+                    downloads.add(executor.submit<Unit> {
+                        openChunk(chunk).use {
+                            val written = file.channel.transferFrom(Channels.newChannel(it), position, chunk.size)
+                            if (written != chunk.size || it.read() != -1) {
+                                throw QblStorageException("Chunk ${chunk.index} does not match its size")
+                            }
+                        }
+                        if (chunkDone != null) {
+                            synchronized(this) { chunkDone(chunk) }
+                        }
+                        listener?.setProgress(progress.addAndGet(chunk.size))
+                    })
+                }
+                awaitAll(downloads, 0)
+            }
+        } catch (e: IOException) {
+            throw QblStorageException(e)
+        } finally {
+            cancelAll(downloads)
+        }
+    }
+
+    /**
+     * Opens a stream of the decrypted chunks that downloads each chunk when it is reached.
+     */
+    fun openStream(chunks: List<BoxChunk>): InputStream {
+        val remaining = chunks.iterator()
+        return SequenceInputStream(object : Enumeration<InputStream> {
+            override fun hasMoreElements() = remaining.hasNext()
+            override fun nextElement(): InputStream = openChunk(remaining.next())
+        })
+    }
+
+    @Throws(QblStorageException::class)
+    private fun openChunk(chunk: BoxChunk): InputStream {
+        val download = readBackend.download(BLOCKS_PREFIX + chunk.block)
+        try {
+            val decrypted = cryptoUtils.decryptingInputStream(download.inputStream, KeyParameter(chunk.key))
+            return object : FilterInputStream(decrypted) {
+                override fun close() {
+                    try {
+                        super.close()
+                    } finally {
+                        download.close()
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            download.close()
+            throw QblStorageException(e)
+        } catch (e: InvalidKeyException) {
+            download.close()
+            throw QblStorageException(e)
+        }
+    }
+
+    private fun cancelAll(futures: List<Future<*>>) = futures.forEach { it.cancel(true) }
+
+    private fun awaitAll(futures: MutableList<out Future<*>>, maxPending: Int) {
+        try {
+            while (futures.size > maxPending) {
+                futures.removeAt(0).get()
+            }
+        } catch (e: ExecutionException) {
+            val cause = e.cause
+            throw when (cause) {
+                is QblStorageException -> cause
+                is IOException -> QblStorageException(cause)
+                else -> QblStorageException(cause ?: e)
+            }
+        }
+    }
+
+    companion object {
+        const val HASH_ALGORITHM = "SHA-256"
+        private const val BLOCKS_PREFIX = "blocks/"
+    }
+}
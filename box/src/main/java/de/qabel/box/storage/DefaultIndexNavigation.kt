@@ -18,6 +18,9 @@ class DefaultIndexNavigation(dm: DirectoryMetadata, val keyPair: QblECKeyPair, v
     : AbstractNavigation(BoxPath.Root, dm, volumeConfig), IndexNavigation {
     private val directoryMetadataMHashes = WeakHashMap<Int, String>()
     private val logger by lazy { LoggerFactory.getLogger(DefaultIndexNavigation::class.java) }
+
+    override val transferSecret: ByteArray
+        get() = keyPair.privateKey
     private val indexDmDownloader = object : IndexDMDownloader(readBackend, keyPair, tempDir, directoryFactory) {
         override fun startDownload(rootRef: String): StorageDownload {
             return readBackend.download(rootRef, directoryMetadataMHashes[Arrays.hashCode(dm.version)])
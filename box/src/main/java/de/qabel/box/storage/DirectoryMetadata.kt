@@ -54,4 +54,23 @@ interface DirectoryMetadata {
     fun commit()
 
     fun listShares(): List<BoxShare>
+
+    /**
+     * Whether a file references block as its block or as one of its chunks
+     */
+    @Throws(QblStorageException::class)
+    fun isBlockReferenced(block: String) = listFiles().any { it.block == block || it.chunks.any { it.block == block } }
+
+    /**
+     * Runs block in a single transaction of the local metadata storage.
+     * If block fails, its changes are rolled back by storages that support transactions.
+     */
+    @Throws(QblStorageException::class)
+    fun <T> transaction(block: () -> T): T = block()
+
+    /**
+     * Close the database and delete the local metadata file. The metadata must not be used afterwards.
+     */
+    @Throws(QblStorageException::class)
+    fun close()
 }
@@ -0,0 +1,56 @@
+package de.qabel.box.storage
+
+import java.util.*
+
+/**
+ * Differences between two [DirectoryMetadataSnapshot]s, computed in a single pass over each side.
+ * Files are matched by name, a file counts as updated if the hashes of both versions differ or are unknown.
+ */
+class DirectoryMetadataDiff(original: DirectoryMetadataSnapshot, newer: DirectoryMetadataSnapshot) {
+    val addedFolders: List<BoxFolder>
+    val deletedFolders: List<BoxFolder>
+    val addedFiles: List<BoxFile>
+    val deletedFiles: List<BoxFile>
+    /** pairs of original and new version */
+    val updatedFiles: List<Pair<BoxFile, BoxFile>>
+    val sharedFiles: List<BoxFile>
+    val unsharedFiles: List<BoxFile>
+
+    init {
+        addedFolders = newer.listFolders().filter { !original.hasFolder(it.name) }
+        deletedFolders = original.listFolders().filter { !newer.hasFolder(it.name) }
+        deletedFiles = original.listFiles().filter { !newer.hasFile(it.name) }
+
+        val added = ArrayList<BoxFile>()
+        val updated = ArrayList<Pair<BoxFile, BoxFile>>()
+        val shared = ArrayList<BoxFile>()
+        val unshared = ArrayList<BoxFile>()
+        for (file in newer.listFiles()) {
+            val originalFile = original.getFile(file.name)
+            if (originalFile == null) {
+                added.add(file)
+                continue
+            }
+            if (!hashEquals(originalFile, file)) {
+                updated.add(Pair(originalFile, file))
+            }
+            if (file.isShared() && !originalFile.isShared()) {
+                shared.add(file)
+            } else if (!file.isShared() && originalFile.isShared()) {
+                unshared.add(file)
+            }
+        }
+        addedFiles = added
+        updatedFiles = updated
+        sharedFiles = shared
+        unsharedFiles = unshared
+    }
+
+    private fun hashEquals(oneFile: BoxFile, otherFile: BoxFile): Boolean {
+        if (!oneFile.isHashed() || !otherFile.isHashed()) {
+            return false
+        }
+
+        return oneFile.hashed == otherFile.hashed
+    }
+}
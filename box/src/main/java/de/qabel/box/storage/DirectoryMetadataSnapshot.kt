@@ -0,0 +1,28 @@
+package de.qabel.box.storage
+
+import de.qabel.box.storage.exceptions.QblStorageException
+
+/**
+ * Read-only in-memory copy of the files and folders of a [DirectoryMetadata] version.
+ * Used to detect the changes between two versions without copying the metadata database.
+ */
+class DirectoryMetadataSnapshot(val version: ByteArray, files: List<BoxFile>, folders: List<BoxFolder>) {
+    private val files = files.associateBy { it.name }
+    private val folders = folders.associateBy { it.name }
+
+    fun listFiles(): List<BoxFile> = files.values.toList()
+
+    fun listFolders(): List<BoxFolder> = folders.values.toList()
+
+    fun getFile(name: String) = files[name]
+
+    fun hasFile(name: String) = files.containsKey(name)
+
+    fun hasFolder(name: String) = folders.containsKey(name)
+
+    companion object {
+        @JvmStatic
+        @Throws(QblStorageException::class)
+        fun of(dm: DirectoryMetadata) = DirectoryMetadataSnapshot(dm.version, dm.listFiles(), dm.listFolders())
+    }
+}
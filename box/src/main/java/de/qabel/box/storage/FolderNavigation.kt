@@ -20,6 +20,9 @@ class FolderNavigation(
     private val directoryMetadataMHashes = WeakHashMap<Int, String>()
     private val logger by lazy { LoggerFactory.getLogger(FolderNavigation::class.java) }
 
+    override val transferSecret: ByteArray
+        get() = key
+
     @Throws(QblStorageException::class)
     override fun uploadDirectoryMetadata() {
         logger.trace("Uploading directory metadata")
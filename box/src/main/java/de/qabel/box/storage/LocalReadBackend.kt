@@ -8,7 +8,7 @@ import java.io.File
 import java.io.FileInputStream
 import java.io.IOException
 
-class LocalReadBackend(private val root: File) : StorageReadBackend {
+class LocalReadBackend(private val root: File) : RangedReadBackend {
 
     @Throws(QblStorageException::class)
     override fun download(name: String): StorageDownload {
@@ -44,6 +44,19 @@ class LocalReadBackend(private val root: File) : StorageReadBackend {
 
     }
 
+    @Throws(QblStorageException::class)
+    override fun downloadFrom(name: String, offset: Long): StorageDownload {
+        val file = root.resolve(name)
+        logger.info("Downloading file path $file from $offset")
+        try {
+            val input = FileInputStream(file)
+            input.channel.position(offset)
+            return StorageDownload(input, getMHash(file), Math.max(0L, file.length() - offset))
+        } catch (e: IOException) {
+            throw QblStorageNotFound(e)
+        }
+    }
+
     @Throws(IOException::class)
     private fun getMHash(file: File): String {
         FileInputStream(file).use { data -> return String(DigestUtils.md5(data)) }
@@ -2,12 +2,12 @@ package de.qabel.box.storage
 
 import de.qabel.box.storage.exceptions.QblStorageException
 import de.qabel.box.storage.hash.Md5Hasher
-import org.apache.commons.io.IOUtils
 import org.slf4j.LoggerFactory
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
 import java.io.InputStream
+import java.nio.channels.Channels
 import java.util.*
 
 class LocalWriteBackend(private val root: File) : StorageWriteBackend {
@@ -41,9 +41,9 @@ class LocalWriteBackend(private val root: File) : StorageWriteBackend {
             }
             root.resolve("blocks").mkdirs()
             FileOutputStream(file).use { output ->
-                output.write(IOUtils.toByteArray(content))
-                return StorageWriteBackend.UploadResult(Date(), hasher.getHash(file))
+                output.channel.transferFrom(Channels.newChannel(content), 0, Long.MAX_VALUE)
             }
+            return StorageWriteBackend.UploadResult(Date(), hasher.getHash(file))
         } catch (e: IOException) {
             throw QblStorageException(e.message, e)
         }
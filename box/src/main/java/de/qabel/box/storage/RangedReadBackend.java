@@ -0,0 +1,12 @@
+package de.qabel.box.storage;
+
+import de.qabel.box.storage.exceptions.QblStorageException;
+
+public interface RangedReadBackend extends StorageReadBackend {
+
+    /**
+     * Download a file from the storage, skipping the first offset bytes.
+     * The size of the returned download is the number of remaining bytes.
+     */
+    StorageDownload downloadFrom(String name, long offset) throws QblStorageException;
+}
@@ -0,0 +1,29 @@
+package de.qabel.box.storage
+
+/**
+ * Persists the progress of chunk and block transfers, so an interrupted transfer
+ * can be resumed without repeating completed work, even after a restart.
+ */
+interface TransferJournal {
+    /**
+     * Recorded progress of the transfer, one entry per chunk
+     */
+    fun find(transfer: String): List<TransferProgress>
+
+    /**
+     * Record the progress of a chunk, replacing the progress recorded for the same chunk index
+     */
+    fun update(transfer: String, progress: TransferProgress)
+
+    /**
+     * Forget the transfer after it completed or was abandoned
+     */
+    fun remove(transfer: String)
+}
+
+/**
+ * offset bytes of chunk have been transferred. Single block transfers are recorded as one chunk.
+ */
+class TransferProgress(val chunk: BoxChunk, val offset: Long) {
+    fun isComplete() = chunk.size >= 0 && offset >= chunk.size
+}
@@ -2,29 +2,170 @@ package de.qabel.box.storage.cache
 
 import de.qabel.box.storage.BoxFolder
 import de.qabel.box.storage.BoxNavigation
+import org.slf4j.LoggerFactory
 import java.util.*
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicLong
 
-class BoxNavigationCache<C : BoxNavigation> {
-    private val navs = WeakHashMap<String, C>()
+/**
+ * LRU cache of navigations by folder ref.
+ * Entries are evicted when more than maxEntries are cached or their weight exceeds maxWeight.
+ * Navigations grow while they are cached, so all entries are weighed again before evicting.
+ * Only navigations that are evictable (e.g. have no pending changes) and not acquired are evicted,
+ * the others stay cached over budget.
+ * Evicted navigations are passed to onEvict on the evictionExecutor after they have been removed from the cache.
+ * If onEvict fails, the navigation is cached again.
+ */
+class BoxNavigationCache<C : BoxNavigation> @JvmOverloads constructor(
+    val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    val maxWeight: Long = DEFAULT_MAX_WEIGHT,
+    private val weigher: (C) -> Long = { 0L },
+    private val onEvict: (C) -> Unit = {},
+    private val evictable: (C) -> Boolean = { true },
+    private val evictionExecutor: Executor = Executor { it.run() }
+) {
+    private val navs = LinkedHashMap<String, Entry<C>>(16, 0.75f, true)
+    private var weight = 0L
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
 
     fun cache(folder: BoxFolder, nav: C) {
-        navs.put(folder.ref, nav)
+        val evicted = synchronized(this) {
+            val entry = Entry(nav, weigher(nav))
+            val replaced = navs.put(folder.ref, entry)
+            replaced?.let { weight -= it.weight }
+            weight += entry.weight
+            val evicted = evict(folder.ref)
+            if (replaced != null && replaced.nav !== nav) {
+                evicted.add(Pair(folder.ref, replaced))
+            }
+            evicted
+        }
+        evicted.forEach { dispose(it.first, it.second) }
+    }
+
+    private fun dispose(ref: String, entry: Entry<C>) = evictionExecutor.execute {
+        try {
+            onEvict(entry.nav)
+        } catch (e: Exception) {
+            logger.warn("failed to release evicted navigation, keeping it: " + e.message, e)
+            synchronized(this) {
+                if (!navs.containsKey(ref)) {
+                    navs.put(ref, entry)
+                    weight += entry.weight
+                }
+            }
+        }
     }
 
+    @Synchronized
     fun has(folder: BoxFolder): Boolean {
         return navs.containsKey(folder.ref)
     }
 
-    operator fun get(folder: BoxFolder, default: () -> C): C {
-        return navs[folder.ref] ?: default().apply {
-            cache(folder, this)
+    operator fun get(folder: BoxFolder, default: () -> C): C = load(folder, default, false)
+
+    /**
+     * Gets or loads the navigation like [get] and keeps it from being evicted until it is [release]d.
+     * Acquiring is counted, every acquire needs its own release.
+     */
+    fun acquire(folder: BoxFolder, default: () -> C): C = load(folder, default, true)
+
+    fun release(folder: BoxFolder) {
+        val evicted = synchronized(this) {
+            navs[folder.ref]?.let { if (it.pins > 0) it.pins-- }
+            evict(null)
+        }
+        evicted.forEach { dispose(it.first, it.second) }
+    }
+
+    /**
+     * Loads missing navigations outside of the lock. If another thread cached the folder meanwhile,
+     * its navigation is returned and the one that was loaded in vain is disposed.
+     */
+    private fun load(folder: BoxFolder, default: () -> C, pin: Boolean): C {
+        synchronized(this) {
+            navs[folder.ref]?.let {
+                hits.incrementAndGet()
+                if (pin) it.pins++
+                return it.nav
+            }
         }
+        misses.incrementAndGet()
+        val loaded = default()
+        val evicted = mutableListOf<Pair<String, Entry<C>>>()
+        val cached = synchronized(this) {
+            var entry = navs[folder.ref]
+            if (entry == null) {
+                entry = Entry(loaded, weigher(loaded))
+                navs.put(folder.ref, entry)
+                weight += entry.weight
+                evicted.addAll(evict(folder.ref))
+            }
+            if (pin) entry.pins++
+            entry.nav
+        }
+        evicted.forEach { dispose(it.first, it.second) }
+        if (cached !== loaded) {
+            dispose(folder.ref, Entry(loaded, 0L))
+        }
+        return cached
     }
 
+    @Synchronized
     fun remove(folder: BoxFolder) {
-        navs.remove(folder.ref)
+        navs.remove(folder.ref)?.let { weight -= it.weight }
     }
 
     val all: Iterable<C>
-        get() = navs.values
+        @Synchronized get() = navs.values.map { it.nav }
+
+    /**
+     * The weight is the sum of the entry weights at the last insert or release
+     */
+    val stats: Stats
+        @Synchronized get() = Stats(hits.get(), misses.get(), evictions.get(), navs.size, weight)
+
+    /**
+     * Removes the least recently used evictable entries until the cache is within its budget again.
+     * The entry that was just added is kept, even if it exceeds the budget on its own.
+     */
+    private fun evict(keep: String?): MutableList<Pair<String, Entry<C>>> {
+        val evicted = mutableListOf<Pair<String, Entry<C>>>()
+        reweigh()
+        val iterator = navs.entries.iterator()
+        while ((navs.size > maxEntries || weight > maxWeight) && iterator.hasNext()) {
+            val (ref, entry) = iterator.next()
+            if (ref == keep || entry.pins > 0 || !evictable(entry.nav)) {
+                continue
+            }
+            iterator.remove()
+            weight -= entry.weight
+            evictions.incrementAndGet()
+            evicted.add(Pair(ref, entry))
+        }
+        return evicted
+    }
+
+    private fun reweigh() {
+        weight = 0L
+        navs.values.forEach {
+            it.weight = weigher(it.nav)
+            weight += it.weight
+        }
+    }
+
+    private class Entry<out C>(val nav: C, var weight: Long) {
+        var pins = 0
+    }
+
+    data class Stats(val hits: Long, val misses: Long, val evictions: Long, val size: Int, val weight: Long)
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(BoxNavigationCache::class.java)
+
+        const val DEFAULT_MAX_ENTRIES = 100
+        const val DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024
+    }
 }
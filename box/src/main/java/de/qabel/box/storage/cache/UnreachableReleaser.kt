@@ -0,0 +1,55 @@
+package de.qabel.box.storage.cache
+
+import org.slf4j.LoggerFactory
+import java.lang.ref.PhantomReference
+import java.lang.ref.ReferenceQueue
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Releases the resources of objects after they became unreachable, e.g. navigations evicted from the cache
+ * that callers may still hold.
+ * The release action must not reference its owner, otherwise the owner never becomes unreachable.
+ * Actions are run by [releaseUnreachable], which every [register] calls first.
+ */
+class UnreachableReleaser {
+    private val queue = ReferenceQueue<Any>()
+    private val pending = Collections.newSetFromMap(ConcurrentHashMap<Release, Boolean>())
+
+    fun register(owner: Any, release: () -> Unit) {
+        releaseUnreachable()
+        pending.add(Release(owner, queue, release))
+    }
+
+    /**
+     * Runs the release actions of all owners that became unreachable since the last call
+     *
+     * @return number of released owners
+     */
+    fun releaseUnreachable(): Int {
+        var released = 0
+        while (true) {
+            val reference = queue.poll() as Release? ?: return released
+            pending.remove(reference)
+            try {
+                reference.release()
+            } catch (e: Exception) {
+                logger.warn("failed to release unreachable resources: " + e.message, e)
+            }
+            released++
+        }
+    }
+
+    /**
+     * Number of registered owners that have not been released yet
+     */
+    val size: Int
+        get() = pending.size
+
+    private class Release(owner: Any, queue: ReferenceQueue<Any>, val release: () -> Unit)
+        : PhantomReference<Any>(owner, queue)
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(UnreachableReleaser::class.java)
+    }
+}
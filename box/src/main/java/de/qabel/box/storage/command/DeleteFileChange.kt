@@ -13,7 +13,7 @@ class DeleteFileChange(val file: BoxFile): DMChange<Unit>, Postprocessable {
     }
 
     override fun postprocess(dm: DirectoryMetadata, writeBackend: StorageWriteBackend, shares: ShareHolder) {
-        writeBackend.deleteBlock(file.block)
+        writeBackend.deleteBlocks(file, dm)
         if (file.isShared()) {
             UnshareChange(file).postprocess(dm, writeBackend, shares)
             file.shared = null
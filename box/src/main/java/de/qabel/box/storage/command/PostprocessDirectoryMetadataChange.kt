@@ -1,5 +1,6 @@
 package de.qabel.box.storage.command
 
+import de.qabel.box.storage.BoxFile
 import de.qabel.box.storage.DirectoryMetadata
 import de.qabel.box.storage.ShareHolder
 import de.qabel.box.storage.StorageWriteBackend
@@ -11,3 +12,12 @@ fun List<DMChange<*>>.postprocess(
 ) = filterIsInstance<Postprocessable>().forEach { it.postprocess(dm, writeBackend, indexNavigation) }
 
 fun StorageWriteBackend.deleteBlock(blockReference: String) = delete("blocks/" + blockReference)
+
+/**
+ * Deletes the block of file or the marker block and the chunk blocks of a chunked file.
+ * Blocks are shared by other versions of the file, so only the blocks that no file in dm references are deleted.
+ */
+fun StorageWriteBackend.deleteBlocks(file: BoxFile, dm: DirectoryMetadata) =
+    (file.chunks.map { it.block } + file.block).distinct().filterNot { dm.isBlockReferenced(it) }.forEach {
+        deleteBlock(it)
+    }
@@ -0,0 +1,16 @@
+package de.qabel.box.storage.command
+
+import de.qabel.box.storage.BoxFile
+import de.qabel.box.storage.DirectoryMetadata
+import de.qabel.box.storage.ShareHolder
+import de.qabel.box.storage.StorageWriteBackend
+
+/**
+ * Replaces the chunked file by its copy in a single block and deletes the chunks that are not referenced anymore.
+ */
+class UnchunkFileChange(val chunkedFile: BoxFile, newFile: BoxFile) : UpdateFileChange(chunkedFile, newFile) {
+    override fun postprocess(dm: DirectoryMetadata, writeBackend: StorageWriteBackend, shares: ShareHolder) {
+        super.postprocess(dm, writeBackend, shares)
+        writeBackend.deleteBlocks(chunkedFile, dm)
+    }
+}
@@ -17,7 +17,7 @@ open class UpdateFileChange(
 
     override fun postprocess(dm: DirectoryMetadata, writeBackend: StorageWriteBackend, shares: ShareHolder) {
         if (sameFileByHash) {
-            writeBackend.deleteBlock(newFile.block)
+            writeBackend.deleteBlocks(newFile, dm)
         }
     }
 
@@ -0,0 +1,8 @@
+package de.qabel.box.storage.exceptions;
+
+public class QblStorageClosed extends QblStorageException {
+
+    public QblStorageClosed(String s) {
+        super(s);
+    }
+}
@@ -2,6 +2,7 @@ package de.qabel.box.storage.jdbc
 
 import de.qabel.box.storage.*
 import de.qabel.box.storage.exceptions.*
+import de.qabel.core.repository.exception.TransactionException
 import de.qabel.core.repository.sqlite.ClientDatabase
 import de.qabel.core.repository.sqlite.tryWith
 import org.apache.commons.codec.DecoderException
@@ -11,6 +12,7 @@ import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import java.sql.SQLException
 import java.util.*
+import java.util.concurrent.Callable
 
 class JdbcDirectoryMetadata(
     connection: ClientDatabase,
@@ -163,6 +165,7 @@ class JdbcDirectoryMetadata(
                 FROM files""")) {
                 tryWith(executeQuery()) {
                     val files = ArrayList<BoxFile>()
+                    val chunks = listChunks()
                     while (next()) {
                         var i = 0
                         files.add(BoxFile(
@@ -174,7 +177,7 @@ class JdbcDirectoryMetadata(
                             getBytes(++i),
                             Hash.create(getBytes(++i), getString(++i)),
                             Share.create(getString(++i), getBytes(++i))
-                        ))
+                        ).apply { this.chunks = chunks[name] ?: emptyList() })
                     }
                     return files
                 }
@@ -210,6 +213,82 @@ class JdbcDirectoryMetadata(
                     setBytes(++i, file.shared?.metaKey)
                 }
             }
+            insertChunks(file)
+        } catch (e: SQLException) {
+            throw QblStorageException(e)
+        }
+    }
+
+    @Throws(SQLException::class)
+    private fun insertChunks(file: BoxFile) {
+        if (!file.isChunked()) {
+            return
+        }
+        tryWith(connection.prepare(
+            "INSERT INTO chunks (file, idx, block, size, key, hash) VALUES (?, ?, ?, ?, ?, ?)")) {
+            for (chunk in file.chunks) {
+                var i = 0
+                setString(++i, file.name)
+                setInt(++i, chunk.index)
+                setString(++i, chunk.block)
+                setLong(++i, chunk.size)
+                setBytes(++i, chunk.key)
+                setBytes(++i, chunk.hash)
+                addBatch()
+            }
+            executeBatch()
+        }
+    }
+
+    @Throws(QblStorageException::class)
+    internal fun findChunks(name: String): List<BoxChunk> {
+        try {
+            tryWith(connection.prepare(
+                "SELECT idx, block, size, key, hash FROM chunks WHERE file=? ORDER BY idx")) {
+                setString(1, name)
+                tryWith(executeQuery()) {
+                    val chunks = ArrayList<BoxChunk>()
+                    while (next()) {
+                        chunks.add(BoxChunk(getInt(1), getString(2), getLong(3), getBytes(4), getBytes(5)))
+                    }
+                    return chunks
+                }
+            }
+        } catch (e: SQLException) {
+            throw QblStorageException(e)
+        }
+    }
+
+    @Throws(QblStorageException::class)
+    private fun listChunks(): Map<String, List<BoxChunk>> {
+        try {
+            tryWith(connection.prepare(
+                "SELECT file, idx, block, size, key, hash FROM chunks ORDER BY file, idx")) {
+                tryWith(executeQuery()) {
+                    val chunks = HashMap<String, MutableList<BoxChunk>>()
+                    while (next()) {
+                        chunks.getOrPut(getString(1)) { ArrayList() }
+                            .add(BoxChunk(getInt(2), getString(3), getLong(4), getBytes(5), getBytes(6)))
+                    }
+                    return chunks
+                }
+            }
+        } catch (e: SQLException) {
+            throw QblStorageException(e)
+        }
+    }
+
+    @Throws(QblStorageException::class)
+    override fun isBlockReferenced(block: String): Boolean {
+        try {
+            tryWith(connection.prepare(
+                "SELECT 1 FROM files WHERE block=? UNION ALL SELECT 1 FROM chunks WHERE block=? LIMIT 1")) {
+                setString(1, block)
+                setString(2, block)
+                tryWith(executeQuery()) {
+                    return next()
+                }
+            }
         } catch (e: SQLException) {
             throw QblStorageException(e)
         }
@@ -224,6 +303,10 @@ class JdbcDirectoryMetadata(
                     throw QblStorageException("Failed to delete file: Not found")
                 }
             }
+            tryWith(connection.prepare("DELETE FROM chunks WHERE file=?")) {
+                setString(1, file.getName())
+                executeUpdate()
+            }
         } catch (e: SQLException) {
             throw QblStorageException(e)
         }
@@ -307,6 +390,31 @@ class JdbcDirectoryMetadata(
 
     }
 
+    @Throws(QblStorageException::class)
+    override fun <T> transaction(block: () -> T): T {
+        try {
+            return connection.transactionManager.transactional(Callable { block() })
+        } catch (e: TransactionException) {
+            val cause = e.cause
+            when (cause) {
+                is QblStorageException -> throw cause
+                is RuntimeException -> throw cause
+                else -> throw QblStorageException(e)
+            }
+        }
+    }
+
+    @Throws(QblStorageException::class)
+    override fun close() {
+        try {
+            connection.close()
+        } catch (e: SQLException) {
+            throw QblStorageException(e)
+        } finally {
+            path.delete()
+        }
+    }
+
     @JvmName("insertExternal")
     @Throws(QblStorageException::class)
     internal fun insertExternal(external: BoxExternalReference) {
@@ -370,7 +478,8 @@ class JdbcDirectoryMetadata(
                             mtime = getLong(++i) * 1000,
                             key = getBytes(++i),
                             hashed = Hash.create(getBytes(++i), getString(++i)),
-                            shared = Share.create(getString(++i), getBytes(++i))
+                            shared = Share.create(getString(++i), getBytes(++i)),
+                            chunks = findChunks(name)
                         )
                     }
                     return null
@@ -402,24 +511,22 @@ class JdbcDirectoryMetadata(
 
     @Throws(QblStorageException::class)
     internal fun isA(name: String): Int {
-        val types = arrayOf("files", "folders", "externals")
-        for (type in 0..2) {
-            try {
-                tryWith(connection.prepare(
-                    "SELECT name FROM " + types[type] + " WHERE name=?")) {
-                    setString(1, name)
-                    tryWith(executeQuery()) {
-                        if (next()) {
-                            return type
-                        }
-                    }
+        try {
+            tryWith(connection.prepare("""
+                SELECT $TYPE_FILE FROM files WHERE name=?
+                UNION ALL SELECT $TYPE_FOLDER FROM folders WHERE name=?
+                UNION ALL SELECT $TYPE_EXTERNAL FROM externals WHERE name=?
+                LIMIT 1""")) {
+                setString(1, name)
+                setString(2, name)
+                setString(3, name)
+                tryWith(executeQuery()) {
+                    return if (next()) getInt(1) else TYPE_NONE
                 }
-            } catch (e: SQLException) {
-                throw QblStorageException(e)
             }
-
+        } catch (e: SQLException) {
+            throw QblStorageException(e)
         }
-        return TYPE_NONE
     }
 
     companion object {
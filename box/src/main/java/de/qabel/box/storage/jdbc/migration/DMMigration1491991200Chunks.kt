@@ -0,0 +1,23 @@
+package de.qabel.box.storage.jdbc.migration
+
+import de.qabel.core.repository.sqlite.migration.AbstractMigration
+import java.sql.Connection
+
+class DMMigration1491991200Chunks(connection: Connection) : AbstractMigration(connection) {
+    override fun getVersion() = 1491991200L
+
+    override fun up() {
+        execute("""CREATE TABLE IF NOT EXISTS chunks (
+                file VARCHAR(255) NOT NULL,
+                idx INTEGER NOT NULL,
+                block VARCHAR(255) NOT NULL,
+                size LONG NOT NULL,
+                key BLOB NOT NULL,
+                hash BLOB NOT NULL,
+                PRIMARY KEY (file, idx) )""")
+    }
+
+    override fun down() {
+        execute("DROP TABLE chunks")
+    }
+}
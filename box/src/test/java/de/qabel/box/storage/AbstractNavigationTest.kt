@@ -75,6 +75,19 @@ abstract class AbstractNavigationTest {
 
     private fun upload(filename: String) = nav.upload(filename, ByteArrayInputStream("content".toByteArray()), 7)
 
+    @Test
+    fun reportsEncryptedSizeToProgressListener() {
+        var reportedSize = 0L
+        nav.upload("test", ByteArrayInputStream("content".toByteArray()), 7, object : ProgressListener() {
+            override fun setProgress(progress: Long) {}
+            override fun setSize(size: Long) {
+                reportedSize = size
+            }
+        })
+
+        assertEquals(7L + CryptoUtils.SYMM_OVERHEAD_BYTE, reportedSize)
+    }
+
     @Test
     fun notifiesAboutShares() {
         upload("test").letApply {
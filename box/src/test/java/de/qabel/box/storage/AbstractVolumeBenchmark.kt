@@ -0,0 +1,44 @@
+package de.qabel.box.storage
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.crypto.QblECKeyPair
+import org.apache.commons.io.FileUtils
+import org.junit.After
+import org.junit.Before
+import org.junit.BeforeClass
+import java.io.File
+
+/**
+ * Temporary local storage for volume benchmarks, all volumes share the key pair so they can read each other.
+ * Subclasses create their volumes in their own @Before method, which runs after this setup.
+ */
+abstract class AbstractVolumeBenchmark {
+    protected lateinit var storage: File
+    protected lateinit var tempDir: File
+    protected val keyPair = QblECKeyPair()
+
+    @Before
+    fun setUpStorage() {
+        storage = createTempDir("storage")
+        tempDir = createTempDir("tmp")
+    }
+
+    @After
+    fun tearDownStorage() {
+        FileUtils.deleteQuietly(storage)
+        FileUtils.deleteQuietly(tempDir)
+    }
+
+    protected fun createVolume(readBackend: StorageReadBackend = LocalReadBackend(storage), device: String = "device")
+        = BoxVolumeImpl(readBackend, LocalWriteBackend(storage), keyPair, device.toByteArray(), tempDir, "")
+
+    /**
+     * Volume with an index, ready to navigate
+     */
+    protected fun createIndexedVolume() = createVolume().apply { createIndex("qabel", "") }
+
+    companion object {
+        @BeforeClass @JvmStatic
+        fun assumeEnabled() = assumeBenchmark()
+    }
+}
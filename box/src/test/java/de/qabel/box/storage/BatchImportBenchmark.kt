@@ -0,0 +1,39 @@
+package de.qabel.box.storage
+
+import de.qabel.core.measure
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+
+/**
+ * Importing many small files with a commit per file compared to a single batch
+ */
+class BatchImportBenchmark : AbstractVolumeBenchmark() {
+    private lateinit var volume: BoxVolumeImpl
+
+    @Before
+    fun setUp() {
+        volume = createIndexedVolume()
+    }
+
+    @Test
+    fun import1000() {
+        val files = 1000
+        val nav = volume.navigate()
+        var run = 0
+        measure("import $files files with autocommit", warmups = 1, runs = 2) {
+            val prefix = "autocommit" + run++
+            for (i in 1..files) {
+                nav.upload("$prefix-$i", ByteArrayInputStream(ByteArray(10)), 10L)
+            }
+        }
+        measure("import $files files in a batch", warmups = 1, runs = 2) {
+            val prefix = "batch" + run++
+            nav.batch {
+                for (i in 1..files) {
+                    it.upload("$prefix-$i", ByteArrayInputStream(ByteArray(10)), 10L)
+                }
+            }
+        }
+    }
+}
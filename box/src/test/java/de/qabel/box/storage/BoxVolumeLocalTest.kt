@@ -1,11 +1,20 @@
 package de.qabel.box.storage
 
+import de.qabel.box.storage.exceptions.QblStorageClosed
+import de.qabel.box.storage.exceptions.QblStorageException
+import de.qabel.core.extensions.assertThrows
 import org.apache.commons.io.FileUtils
+import org.apache.commons.io.IOUtils
 import org.hamcrest.MatcherAssert.assertThat
 import org.hamcrest.core.IsEqual.equalTo
+import org.hamcrest.core.IsNot.not
+import org.junit.Assert.assertFalse
 import org.junit.Test
+import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.IOException
+import java.util.*
+import java.util.concurrent.Executor
 
 class BoxVolumeLocalTest : BoxVolumeTest() {
     private val tempFolder: File by lazy { createTempDir("longerPrefix") }
@@ -34,4 +43,194 @@ class BoxVolumeLocalTest : BoxVolumeTest() {
     fun rootRefNotChanged() {
         assertThat(volume.rootRef, equalTo("300c9c96-03b9-2a4b-39ed-3958bf924011"))
     }
+
+    @Test
+    fun streamingDownloadFailsOnModifiedBlock() {
+        val file = volume.navigate().upload("file", ByteArrayInputStream(ByteArray(10000)), 10000L)
+        val block = tempFolder.resolve("blocks/" + file.block)
+        val content = block.readBytes()
+        content[100] = (content[100].toInt() xor 1).toByte()
+        block.writeBytes(content)
+
+        val stream = volume.navigate().downloadStreaming(file)
+
+        assertThrows(IOException::class) { IOUtils.toByteArray(stream) }
+        assertThrows(IOException::class) { stream.close() }
+    }
+
+    @Test
+    fun uploadsChunked() {
+        volume.config.chunkSize = 1024
+        val content = Random().run { ByteArray(5000).apply { nextBytes(this) } }
+
+        val file = volume.navigate().upload("file", ByteArrayInputStream(content), content.size.toLong())
+
+        assertThat(file.chunks.size, equalTo(5))
+        assertThat(file.chunks.map { it.size }, equalTo(listOf(1024L, 1024L, 1024L, 1024L, 904L)))
+        assertThat(IOUtils.toByteArray(volume.navigate().download(file)), equalTo(content))
+        assertThat(IOUtils.toByteArray(volume.navigate().downloadStreaming(file)), equalTo(content))
+        assertThat(IOUtils.toByteArray(volume2.navigate().download("file")), equalTo(content))
+    }
+
+    @Test
+    fun overwriteReusesUnchangedChunks() {
+        volume.config.chunkSize = 1024
+        val content = Random().run { ByteArray(5000).apply { nextBytes(this) } }
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+
+        content[4500] = (content[4500].toInt() xor 1).toByte()
+        val source = createTempFile().apply { writeBytes(content) }
+        val updated = nav.overwrite("file", source)
+
+        assertThat(updated.chunks.take(4).map { it.block }, equalTo(file.chunks.take(4).map { it.block }))
+        assertThat(updated.chunks[4].block, not(equalTo(file.chunks[4].block)))
+        assertThat(IOUtils.toByteArray(nav.download("file")), equalTo(content))
+        source.delete()
+    }
+
+    @Test
+    fun deletesChunkBlocks() {
+        volume.config.chunkSize = 1024
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(ByteArray(3000)), 3000L)
+
+        nav.delete(file)
+
+        file.chunks.forEach { assertFalse(tempFolder.resolve("blocks/" + it.block).exists()) }
+        assertFalse(tempFolder.resolve("blocks/" + file.block).exists())
+    }
+
+    @Test
+    fun marksChunkedBlocks() {
+        volume.config.chunkSize = 1024
+        val file = volume.navigate().upload("file", ByteArrayInputStream(ByteArray(3000)), 3000L)
+
+        assertThat(file.block.startsWith("chunked-"), equalTo(true))
+        assertThrows(QblStorageException::class) {
+            volume.navigate().download(BoxFile(file.prefix, file.block, file.name, file.size, file.mtime, file.key))
+        }
+    }
+
+    @Test
+    fun sharesChunkedFilesAsSingleBlock() {
+        volume.config.chunkSize = 1024
+        val content = Random().run { ByteArray(5000).apply { nextBytes(this) } }
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+
+        nav.share(keyPair.pub, file, "recipient")
+
+        file.chunks.forEach { assertFalse(tempFolder.resolve("blocks/" + it.block).exists()) }
+        assertFalse(tempFolder.resolve("blocks/" + file.block).exists())
+        val shared = volume2.navigate().getFile("file")
+        assertFalse(shared.isChunked())
+        assertThat(nav.getFileMetadata(shared).file.block, equalTo(shared.block))
+        assertThat(IOUtils.toByteArray(volume2.navigate().download(shared)), equalTo(content))
+
+        val updated = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+        assertFalse(updated.isChunked())
+    }
+
+    @Test
+    fun keepsEvictedNavigationsUsable() {
+        volume.config.navigationCacheSize = 1
+        volume.config.navigationCloser = Executor { it.run() }
+        val nav = volume.navigate()
+        nav.createFolder("a")
+        nav.createFolder("b")
+
+        val a = nav.navigate("a")
+        nav.navigate("b")
+        assertThat(volume.config.navigationCache.stats.size, equalTo(1))
+
+        a.upload("file", ByteArrayInputStream(ByteArray(1)), 1L)
+        assertThat(a.listFiles().map { it.name }, equalTo(listOf("file")))
+        assertThat(nav.navigate("a").listFiles().map { it.name }, equalTo(listOf("file")))
+    }
+
+    @Test
+    fun closesEvictedNavigationsOnceUnreachable() {
+        volume.config.navigationCacheSize = 1
+        volume.config.navigationCloser = Executor { it.run() }
+        val nav = volume.navigate()
+        nav.createFolder("a")
+        nav.createFolder("b")
+
+        val metadataFile = metadataFileOf(nav, "a")
+        nav.navigate("b")
+
+        val releaser = volume.config.navigationReleaser
+        for (attempt in 1..50) {
+            System.gc()
+            if (releaser.releaseUnreachable() > 0) {
+                break
+            }
+            Thread.sleep(10)
+        }
+        assertFalse(metadataFile.exists())
+        assertThat(nav.navigate("a").listFiles(), equalTo(emptyList<BoxFile>()))
+    }
+
+    @Test
+    fun failsAfterClose() {
+        val nav = volume.navigate()
+        nav.createFolder("a")
+        val a = nav.navigate("a") as AbstractNavigation
+
+        a.close()
+        assertThrows(QblStorageClosed::class) { a.listFiles() }
+    }
+
+    private fun metadataFileOf(nav: BoxNavigation, folder: String) =
+        (nav.navigate(folder) as AbstractNavigation).metadata.path
+
+    @Test
+    fun keepsNavigationsWithPendingChanges() {
+        volume.config.navigationCacheSize = 1
+        volume.config.navigationCloser = Executor { it.run() }
+        val nav = volume.navigate()
+        nav.createFolder("a")
+        nav.createFolder("b")
+
+        val a = nav.navigate("a")
+        a.setAutocommit(false)
+        a.upload("file", ByteArrayInputStream(ByteArray(1)), 1L)
+        nav.navigate("b")
+
+        assertThat(volume.config.navigationCache.stats.size, equalTo(2))
+        assertThat(a.listFiles().map { it.name }, equalTo(listOf("file")))
+        a.commit()
+        assertThat(volume2.navigate().navigate("a").listFiles().map { it.name }, equalTo(listOf("file")))
+    }
+
+    @Test
+    fun walksTreeInParallel() {
+        volume2.config.treeParallelism = 4
+        val nav = volume.navigate()
+        (1..5).forEach { nav.navigate(nav.createFolder("folder$it")).createFolder("sub") }
+
+        val nav2 = volume2.navigate()
+        val visited = Collections.synchronizedList(mutableListOf<String>())
+        nav2.visit { parent, it -> visited.add(parent.path.toString() + it.name) }
+        assertThat(visited.size, equalTo(10))
+
+        nav.navigate("folder3").navigate("sub").upload("file", ByteArrayInputStream(ByteArray(1)), 1L)
+        nav2.refresh(true)
+        assertThat(nav2.navigate("folder3").navigate("sub").listFiles().map { it.name }, equalTo(listOf("file")))
+    }
+
+    @Test
+    fun walksMoreFoldersThanTheCacheHolds() {
+        volume2.config.treeParallelism = 2
+        volume2.config.navigationCacheSize = 2
+        volume2.config.navigationCloser = Executor { it.run() }
+        val nav = volume.navigate()
+        (1..5).forEach { nav.navigate(nav.createFolder("folder$it")).createFolder("sub") }
+
+        val visited = Collections.synchronizedList(mutableListOf<String>())
+        volume2.navigate().visit { parent, it -> visited.add(parent.path.toString() + it.name) }
+
+        assertThat(visited.size, equalTo(10))
+    }
 }
@@ -79,6 +79,8 @@ abstract class BoxVolumeTest {
     @After
     open fun cleanUp() {
         cleanVolume()
+        volume.close()
+        volume2.close()
         FileUtils.deleteDirectory(volumeTmpDir)
     }
 
@@ -111,6 +113,14 @@ abstract class BoxVolumeTest {
         }
     }
 
+    @Test
+    open fun testCleansUpTmpBufferedUploads() {
+        volume.config.streamingUpload = false
+        uploadFile(volume.navigate())
+
+        assertNoTmpFiles()
+    }
+
     @Test
     open fun testCleansUpTmpDownloads() {
         val nav = volume.navigate()
@@ -141,6 +151,56 @@ abstract class BoxVolumeTest {
         assertTrue(nav.isUnmodified)
     }
 
+    @Test
+    open fun batchCommitsOnce() {
+        val nav = volume.navigate()
+        val version = nav.reloadMetadata().version
+
+        val files = nav.batch {
+            val files = (1..3).map { i -> it.upload("file$i", ByteArrayInputStream(ByteArray(i)), i.toLong()) }
+            it.createFolder("folder")
+            assertArrayEquals(version, nav.reloadMetadata().version)
+            files.map { it.name }
+        }
+
+        assertTrue(nav.isUnmodified)
+        val nav2 = volume2.navigate()
+        assertThat(nav2.listFiles().map { it.name }, containsInAnyOrder(*files.toTypedArray()))
+        assertThat(nav2.listFolders().map { it.name }, contains("folder"))
+    }
+
+    @Test
+    open fun batchRollsBackOnFailure() {
+        val nav = volume.navigate()
+        val existing = nav.upload("existing", ByteArrayInputStream(ByteArray(1)), 1L)
+        var uploaded: BoxFile? = null
+
+        try {
+            nav.batch {
+                uploaded = it.upload("file", ByteArrayInputStream(ByteArray(1)), 1L)
+                throw QblStorageException("failed import")
+            }
+            fail("batch should rethrow")
+        } catch (e: QblStorageException) {
+            assertThat(e.message, equalTo("failed import"))
+        }
+
+        assertTrue(nav.isUnmodified)
+        assertThat(nav.listFiles().map { it.name }, contains("existing"))
+        assertThat(volume2.navigate().listFiles().map { it.name }, contains("existing"))
+        try {
+            readBackend.download("blocks/" + uploaded!!.block)
+            fail("block of the rolled back upload was not deleted")
+        } catch (e: QblStorageNotFound) {
+        }
+        readBackend.download("blocks/" + existing.block).close()
+    }
+
+    @Test(expected = IllegalStateException::class)
+    open fun refreshInBatchFails() {
+        volume.navigate().batch { it.refresh() }
+    }
+
     @Test(expected = QblStorageNotFound::class)
     open fun testDeleteFile() {
         val nav = volume.navigate()
@@ -167,6 +227,16 @@ abstract class BoxVolumeTest {
         assertEquals("testContent", String(IOUtils.toByteArray(out)))
     }
 
+    @Test
+    open fun downloadsStreaming() {
+        val nav = volume.navigate()
+        val file = nav.upload("streamedFile", ByteArrayInputStream("testContent".toByteArray()), 11L)
+
+        val out = volume2.navigate().downloadStreaming(file)
+
+        assertEquals("testContent", out.use { String(IOUtils.toByteArray(it)) })
+    }
+
     @Test
     open fun hasUsefulDefaultTimeProvider() {
         val file = volume.navigate().upload("a", ByteArrayInputStream("x".toByteArray()), 1L)
@@ -213,6 +283,14 @@ abstract class BoxVolumeTest {
         assertEquals("a23818f6a36f37ded50028f8fe008b0473cc7416", Hex.toHexString(file.hashed!!.hash))
     }
 
+    @Test
+    open fun hashIsCalculatedOnBufferedUpload() {
+        volume.config.defaultHashAlgorithm = "SHA-1"
+        volume.config.streamingUpload = false
+        val file = uploadFile(volume.navigate(), "testfile")
+        assertEquals("a23818f6a36f37ded50028f8fe008b0473cc7416", Hex.toHexString(file.hashed!!.hash))
+    }
+
     @Test
     open fun defaultsToBlake2bInDm() {
         uploadFile(volume.navigate(), "testfile")
@@ -0,0 +1,43 @@
+package de.qabel.box.storage
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Change detection between two versions of a large folder with 1% added, deleted, updated and shared files
+ */
+class DirectoryMetadataDiffBenchmark {
+    @Before
+    fun setUp() = assumeBenchmark()
+
+    @Test
+    fun diff10k() = benchmarkDiff(10000)
+
+    @Test
+    fun diff100k() = benchmarkDiff(100000)
+
+    private fun benchmarkDiff(files: Int) {
+        val share = Share("meta", ByteArray(32))
+        val original = (0..files - 1).map { file(it, "hash") }
+        val newer = original.mapIndexed { i, file ->
+            when (i % 100) {
+                0 -> file(i + files, "hash")
+                1 -> null
+                2 -> file(i, "updated")
+                3 -> file(i, "hash").apply { shared = share }
+                else -> file
+            }
+        }.filterNotNull()
+        val originalSnapshot = DirectoryMetadataSnapshot("v1".toByteArray(), original, emptyList())
+        val newSnapshot = DirectoryMetadataSnapshot("v2".toByteArray(), newer, emptyList())
+
+        measure("diff of $files files", warmups = 5, runs = 20) {
+            DirectoryMetadataDiff(originalSnapshot, newSnapshot)
+        }
+    }
+
+    private fun file(i: Int, hash: String)
+        = BoxFile("prefix", "block$i", "file$i", i.toLong(), 0L, ByteArray(32), Hash(hash.toByteArray(), "Blake2b"))
+}
@@ -0,0 +1,71 @@
+package de.qabel.box.storage
+
+import com.natpryce.hamkrest.assertion.assertThat
+import com.natpryce.hamkrest.equalTo
+import com.natpryce.hamkrest.isEmpty
+import org.junit.Test
+
+class DirectoryMetadataDiffTest {
+    private val kept = file("kept", "hash1")
+    private val changed = file("changed", "hash1")
+    private val deleted = file("deleted", "hash1")
+    private val folder = BoxFolder("ref", "folder", ByteArray(32))
+    private val original = DirectoryMetadataSnapshot("v1".toByteArray(), listOf(kept, changed, deleted), listOf(folder))
+
+    @Test
+    fun detectsNothingForEqualContent() {
+        val diff = DirectoryMetadataDiff(original,
+            DirectoryMetadataSnapshot("v2".toByteArray(), listOf(kept, changed, deleted), listOf(folder)))
+
+        assertThat(diff.addedFolders, isEmpty)
+        assertThat(diff.deletedFolders, isEmpty)
+        assertThat(diff.addedFiles, isEmpty)
+        assertThat(diff.deletedFiles, isEmpty)
+        assertThat(diff.updatedFiles, isEmpty)
+        assertThat(diff.sharedFiles, isEmpty)
+        assertThat(diff.unsharedFiles, isEmpty)
+    }
+
+    @Test
+    fun detectsAddsDeletesAndUpdates() {
+        val added = file("added", "hash1")
+        val newFolder = BoxFolder("ref2", "newFolder", ByteArray(32))
+        val update = file("changed", "hash2")
+        val diff = DirectoryMetadataDiff(original,
+            DirectoryMetadataSnapshot("v2".toByteArray(), listOf(kept, update, added), listOf(newFolder)))
+
+        assertThat(diff.addedFolders, equalTo(listOf(newFolder)))
+        assertThat(diff.deletedFolders, equalTo(listOf(folder)))
+        assertThat(diff.addedFiles, equalTo(listOf(added)))
+        assertThat(diff.deletedFiles, equalTo(listOf(deleted)))
+        assertThat(diff.updatedFiles, equalTo(listOf(Pair(changed, update))))
+    }
+
+    @Test
+    fun unhashedFilesAreAlwaysUpdated() {
+        val unhashed = BoxFile("prefix", "block", "kept", 1L, 0L, ByteArray(32))
+        val diff = DirectoryMetadataDiff(
+            DirectoryMetadataSnapshot("v1".toByteArray(), listOf(unhashed), emptyList()),
+            DirectoryMetadataSnapshot("v2".toByteArray(), listOf(unhashed), emptyList()))
+
+        assertThat(diff.updatedFiles, equalTo(listOf(Pair(unhashed, unhashed))))
+    }
+
+    @Test
+    fun detectsShares() {
+        val share = Share("meta", ByteArray(32))
+        val sharedKept = file("kept", "hash1").apply { shared = share }
+        val sharedAdd = file("added", "hash1").apply { shared = share }
+        val toShared = DirectoryMetadataDiff(original,
+            DirectoryMetadataSnapshot("v2".toByteArray(), listOf(sharedKept, changed, deleted, sharedAdd), listOf(folder)))
+        assertThat(toShared.sharedFiles, equalTo(listOf(sharedKept)))
+
+        val fromShared = DirectoryMetadataDiff(
+            DirectoryMetadataSnapshot("v2".toByteArray(), listOf(sharedKept), emptyList()),
+            DirectoryMetadataSnapshot("v3".toByteArray(), listOf(kept), emptyList()))
+        assertThat(fromShared.unsharedFiles, equalTo(listOf(kept)))
+    }
+
+    private fun file(name: String, hash: String)
+        = BoxFile("prefix", "block-" + name, name, 1L, 0L, ByteArray(32), Hash(hash.toByteArray(), "Blake2b"))
+}
@@ -21,6 +21,9 @@ class InMemoryDirectoryMetadata : DirectoryMetadata {
 
     override fun listShares(): List<BoxShare> = shares.values.toList()
 
+    override fun close() {
+    }
+
     override fun deleteShare(share: BoxShare) {
         shares.remove(share.ref)
     }
@@ -0,0 +1,15 @@
+package de.qabel.box.storage
+
+class InMemoryTransferJournal : TransferJournal {
+    val transfers = mutableMapOf<String, MutableMap<Int, TransferProgress>>()
+
+    override fun find(transfer: String) = transfers[transfer]?.values?.sortedBy { it.chunk.index } ?: emptyList()
+
+    override fun update(transfer: String, progress: TransferProgress) {
+        transfers.getOrPut(transfer) { mutableMapOf() }[progress.chunk.index] = progress
+    }
+
+    override fun remove(transfer: String) {
+        transfers.remove(transfer)
+    }
+}
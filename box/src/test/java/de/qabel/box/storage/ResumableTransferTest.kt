@@ -0,0 +1,158 @@
+package de.qabel.box.storage
+
+import de.qabel.box.storage.exceptions.QblStorageException
+import de.qabel.core.crypto.CryptoUtils
+import de.qabel.core.crypto.QblECKeyPair
+import de.qabel.core.extensions.assertThrows
+import org.apache.commons.io.FileUtils
+import org.apache.commons.io.IOUtils
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.*
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.*
+
+class ResumableTransferTest {
+    private val remote = createTempDir("remote")
+    private val tempDir = createTempDir("volume")
+    private val journal = InMemoryTransferJournal()
+    private val readBackend = InterruptingReadBackend(LocalReadBackend(remote))
+    private val writeBackend = InterruptingWriteBackend(LocalWriteBackend(remote))
+    private val content = Random().run { ByteArray(5000).apply { nextBytes(this) } }
+    private lateinit var volume: BoxVolumeImpl
+
+    @Before
+    fun setUp() {
+        volume = BoxVolumeImpl(readBackend, writeBackend, QblECKeyPair(), CryptoUtils().getRandomBytes(16), tempDir, "")
+        volume.createIndex("qabel", "")
+        volume.config.transferJournal = journal
+    }
+
+    @After
+    fun tearDown() {
+        FileUtils.deleteDirectory(remote)
+        FileUtils.deleteDirectory(tempDir)
+    }
+
+    @Test
+    fun resumesChunkedUpload() {
+        volume.config.chunkSize = 1024
+        volume.config.transferParallelism = 1
+        val nav = volume.navigate()
+        writeBackend.failAfterUploads = 2
+
+        assertThrows(QblStorageException::class) {
+            nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+        }
+        assertThat(journal.transfers.values.single().size, equalTo(2))
+        assertThat(journal.transfers.values.single().values.map { it.chunk.key.size }, everyItem(equalTo(0)))
+
+        writeBackend.failAfterUploads = null
+        writeBackend.uploads.clear()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+
+        assertThat(writeBackend.uploads.filter { it.startsWith("blocks/") }.size, equalTo(3))
+        assertThat(journal.transfers.size, equalTo(0))
+        assertThat(IOUtils.toByteArray(nav.download(file)), equalTo(content))
+    }
+
+    @Test
+    fun resumesBlockDownload() {
+        volume.config.resumableDownloadSize = 0
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+        readBackend.failAfterBytes = 2000L
+
+        assertThrows(QblStorageException::class) { nav.download(file) }
+        assertThat(journal.transfers.values.single()[0]!!.offset, equalTo(2000L))
+        assertThat(journal.transfers.values.single()[0]!!.chunk.key.size, equalTo(0))
+
+        readBackend.failAfterBytes = null
+        val downloaded = IOUtils.toByteArray(nav.download(file))
+
+        assertThat(readBackend.offsets, equalTo(listOf(0L, 2000L)))
+        assertThat(downloaded, equalTo(content))
+        assertThat(journal.transfers.size, equalTo(0))
+    }
+
+    @Test
+    fun downloadsSmallFilesWithoutJournal() {
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+
+        assertThat(IOUtils.toByteArray(nav.download(file)), equalTo(content))
+        assertThat(readBackend.offsets, equalTo(emptyList<Long>()))
+        assertThat(journal.transfers.size, equalTo(0))
+    }
+
+    @Test
+    fun resumesChunkedDownload() {
+        volume.config.chunkSize = 1024
+        volume.config.transferParallelism = 1
+        val nav = volume.navigate()
+        val file = nav.upload("file", ByteArrayInputStream(content), content.size.toLong())
+        readBackend.failAfterDownloads = 2
+
+        assertThrows(QblStorageException::class) { nav.download(file) }
+        assertThat(journal.transfers.values.single().size, equalTo(2))
+        assertThat(journal.transfers.values.single().values.map { it.chunk.key.size }, everyItem(equalTo(0)))
+
+        readBackend.failAfterDownloads = null
+        readBackend.downloads.clear()
+        val downloaded = IOUtils.toByteArray(nav.download(file))
+
+        assertThat(readBackend.downloads, equalTo(file.chunks.drop(2).map { "blocks/" + it.block }))
+        assertThat(downloaded, equalTo(content))
+    }
+
+    class InterruptingWriteBackend(private val backend: StorageWriteBackend) : StorageWriteBackend by backend {
+        var failAfterUploads: Int? = null
+        val uploads = mutableListOf<String>()
+
+        override fun upload(name: String, content: InputStream): StorageWriteBackend.UploadResult {
+            if (name.startsWith("blocks/") && uploads.count { it.startsWith("blocks/") } == failAfterUploads) {
+                throw QblStorageException("connection lost")
+            }
+            uploads.add(name)
+            return backend.upload(name, content)
+        }
+    }
+
+    class InterruptingReadBackend(private val backend: LocalReadBackend) : RangedReadBackend by backend {
+        var failAfterBytes: Long? = null
+        var failAfterDownloads: Int? = null
+        val offsets = mutableListOf<Long>()
+        val downloads = mutableListOf<String>()
+
+        override fun download(name: String): StorageDownload {
+            if (name.startsWith("blocks/")) {
+                if (downloads.size == failAfterDownloads) {
+                    throw QblStorageException("connection lost")
+                }
+                downloads.add(name)
+            }
+            return backend.download(name)
+        }
+
+        override fun downloadFrom(name: String, offset: Long): StorageDownload {
+            offsets.add(offset)
+            val download = backend.downloadFrom(name, offset)
+            val limit = failAfterBytes ?: return download
+            return StorageDownload(object : FilterInputStream(download.inputStream) {
+                var read = 0L
+
+                override fun read(b: ByteArray, off: Int, len: Int): Int {
+                    if (read >= limit) {
+                        throw IOException("connection lost")
+                    }
+                    return super.read(b, off, Math.min(len.toLong(), limit - read).toInt()).apply { read += this }
+                }
+            }, download.mHash, download.size, download)
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package de.qabel.box.storage
+
+import de.qabel.core.measure
+import org.junit.Before
+import org.junit.Test
+import java.io.ByteArrayInputStream
+
+/**
+ * Commit latency of large directories, dominated by the snapshot that is taken for change detection.
+ */
+class SnapshotBenchmark : AbstractVolumeBenchmark() {
+    private lateinit var volume: BoxVolumeImpl
+
+    @Before
+    fun setUp() {
+        volume = createIndexedVolume()
+    }
+
+    @Test
+    fun commit10k() = benchmarkCommit(10000)
+
+    @Test
+    fun commit100k() = benchmarkCommit(100000)
+
+    private fun benchmarkCommit(files: Int) {
+        val nav = volume.navigate()
+        insertFiles(nav.metadata, files)
+        nav.commit()
+
+        var upload = 0
+        measure("upload and commit in a folder with $files files", warmups = 2, runs = 5) {
+            nav.upload("new" + upload++, ByteArrayInputStream(ByteArray(10)), 10L)
+        }
+        println("  temp files left: " + tempDir.listFiles().size)
+    }
+}
+
+/**
+ * Inserts the given number of files into dm
+ */
+internal fun insertFiles(dm: DirectoryMetadata, files: Int) {
+    for (i in 0..files - 1) {
+        dm.insertFile(BoxFile("prefix", "block$i", "file$i", i.toLong(), 0L, ByteArray(32),
+            Hash(ByteArray(64), "Blake2b")))
+    }
+}
@@ -0,0 +1,52 @@
+package de.qabel.box.storage
+
+import de.qabel.core.measure
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Recursive refresh of a folder tree from a local storage with simulated request latency
+ */
+class TreeWalkBenchmark : AbstractVolumeBenchmark() {
+    @Before
+    fun setUp() {
+        val volume = createVolume(device = "writer")
+        volume.createIndex("qabel", "")
+        val nav = volume.navigate()
+        for (i in 1..10) {
+            val folder = nav.navigate(nav.createFolder("folder$i"))
+            (1..5).forEach { folder.createFolder("sub$it") }
+        }
+    }
+
+    @Test
+    fun refreshRecursive() {
+        for (parallelism in listOf(1, 4, 16)) {
+            measure("refresh 60 folders, parallelism $parallelism", warmups = 0, runs = 3) {
+                val volume = createVolume(SlowReadBackend(LocalReadBackend(storage), LATENCY), "reader")
+                volume.config.treeParallelism = parallelism
+                volume.navigate().refresh(true)
+            }
+        }
+    }
+
+    /**
+     * Stand-in for a remote block server, every request takes at least latency milliseconds
+     */
+    private class SlowReadBackend(private val backend: StorageReadBackend, private val latency: Long)
+        : StorageReadBackend by backend {
+        override fun download(name: String): StorageDownload {
+            Thread.sleep(latency)
+            return backend.download(name)
+        }
+
+        override fun download(name: String, ifModifiedVersion: String?): StorageDownload {
+            Thread.sleep(latency)
+            return backend.download(name, ifModifiedVersion)
+        }
+    }
+
+    companion object {
+        private val LATENCY = 20L
+    }
+}
@@ -0,0 +1,61 @@
+package de.qabel.box.storage
+
+import de.qabel.core.crypto.CryptoUtils
+import de.qabel.core.measure
+import org.apache.commons.io.FileUtils
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class UploadBenchmark : AbstractVolumeBenchmark() {
+    private val size = 64L * 1024 * 1024
+    private lateinit var source: File
+    private lateinit var volume: BoxVolumeImpl
+
+    @Before
+    fun setUp() {
+        source = createTempFile("source").apply { writeBytes(CryptoUtils().getRandomBytes(size.toInt())) }
+        volume = createIndexedVolume()
+    }
+
+    @After
+    fun tearDown() {
+        FileUtils.deleteQuietly(source)
+    }
+
+    @Test
+    fun bufferedUpload() = benchmarkUpload(streaming = false)
+
+    @Test
+    fun streamingUpload() = benchmarkUpload(streaming = true)
+
+    private fun benchmarkUpload(streaming: Boolean) {
+        volume.config.streamingUpload = streaming
+        val nav = volume.navigate()
+        val sampler = DiskUsageSampler(tempDir).apply { start() }
+        val nanos = measure("upload ${size / 1024 / 1024} MiB, streaming=$streaming") {
+            nav.overwrite("file", source)
+        }
+        sampler.interrupt()
+        sampler.join()
+
+        println("  throughput: %.1f MiB/s, peak tmp usage: %.1f MiB".format(
+            size / 1024.0 / 1024.0 / (nanos / 1e9),
+            sampler.peak / 1024.0 / 1024.0))
+    }
+
+    private class DiskUsageSampler(val dir: File) : Thread() {
+        @Volatile var peak = 0L
+
+        override fun run() {
+            try {
+                while (!isInterrupted) {
+                    peak = Math.max(peak, dir.walkTopDown().filter { it.isFile }.map { it.length() }.sum())
+                    Thread.sleep(5)
+                }
+            } catch (e: InterruptedException) {
+            }
+        }
+    }
+}
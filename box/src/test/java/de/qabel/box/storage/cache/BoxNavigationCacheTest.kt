@@ -42,4 +42,109 @@ class BoxNavigationCacheTest {
 
     @Test
     fun has() = assertThat(cache.apply { cache(folder1, instance1) }.has(folder1), equalTo(true))
+
+    @Test
+    fun evictsLeastRecentlyUsed() {
+        val evicted = mutableListOf<BoxNavigation>()
+        val cache = BoxNavigationCache<BoxNavigation>(maxEntries = 2, onEvict = { evicted.add(it) })
+        val instance3: BoxNavigation = mock()
+        cache.cache(folder1, instance1)
+        cache.cache(folder2, instance2)
+        cache.get(folder1) { instance3 }
+
+        cache.cache(BoxFolder("ref3", "name3", "key3".toByteArray()), instance3)
+
+        assertThat(evicted, equalTo(listOf(instance2)))
+        assertThat(cache.has(folder1), equalTo(true))
+        assertThat(cache.has(folder2), equalTo(false))
+    }
+
+    @Test
+    fun evictsByWeight() {
+        val weights = mapOf(instance1 to 60L, instance2 to 50L)
+        val cache = BoxNavigationCache<BoxNavigation>(maxWeight = 100L, weigher = { weights[it]!! })
+        cache.cache(folder1, instance1)
+        cache.cache(folder2, instance2)
+
+        assertThat(cache.has(folder1), equalTo(false))
+        assertThat(cache.stats.weight, equalTo(50L))
+    }
+
+    @Test
+    fun reweighsEntriesBeforeEvicting() {
+        val weights = mutableMapOf(instance1 to 10L, instance2 to 10L)
+        val cache = BoxNavigationCache<BoxNavigation>(maxWeight = 100L, weigher = { weights[it]!! })
+        cache.cache(folder1, instance1)
+        weights[instance1] = 95L
+        cache.cache(folder2, instance2)
+
+        assertThat(cache.has(folder1), equalTo(false))
+        assertThat(cache.stats.weight, equalTo(10L))
+    }
+
+    @Test
+    fun keepsSingleEntryAboveBudget() {
+        val cache = BoxNavigationCache<BoxNavigation>(maxWeight = 10L, weigher = { 50L })
+        cache.cache(folder1, instance1)
+        assertThat(cache.has(folder1), equalTo(true))
+    }
+
+    @Test
+    fun keepsEntriesThatAreNotEvictable() {
+        val evicted = mutableListOf<BoxNavigation>()
+        val cache = BoxNavigationCache<BoxNavigation>(maxEntries = 1, onEvict = { evicted.add(it) },
+            evictable = { it !== instance1 })
+        cache.cache(folder1, instance1)
+        cache.cache(folder2, instance2)
+
+        assertThat(evicted, equalTo(emptyList<BoxNavigation>()))
+        assertThat(cache.has(folder1), equalTo(true))
+        assertThat(cache.stats.size, equalTo(2))
+    }
+
+    @Test
+    fun cachesAgainIfReleaseFails() {
+        val cache = BoxNavigationCache<BoxNavigation>(maxEntries = 1, onEvict = { throw IllegalStateException() })
+        cache.cache(folder1, instance1)
+        cache.cache(folder2, instance2)
+
+        assertThat(cache.get(folder1) { instance2 }, sameInstance(instance1))
+    }
+
+    @Test
+    fun keepsAcquiredEntries() {
+        val cache = BoxNavigationCache<BoxNavigation>(maxEntries = 1)
+        cache.acquire(folder1) { instance1 }
+        cache.cache(folder2, instance2)
+        assertThat(cache.has(folder1), equalTo(true))
+
+        cache.release(folder1)
+        assertThat(cache.has(folder1), equalTo(false))
+        assertThat(cache.stats.size, equalTo(1))
+    }
+
+    @Test
+    fun concurrentMissesReturnTheCachedNavigation() {
+        val disposed = mutableListOf<BoxNavigation>()
+        val cache = BoxNavigationCache<BoxNavigation>(onEvict = { disposed.add(it) })
+
+        val loaded = cache.get(folder1) {
+            cache.cache(folder1, instance1)
+            instance2
+        }
+
+        assertThat(loaded, sameInstance(instance1))
+        assertThat(cache.get(folder1) { instance2 }, sameInstance(instance1))
+        assertThat(disposed, equalTo(listOf(instance2)))
+    }
+
+    @Test
+    fun countsHitsMissesAndEvictions() {
+        val cache = BoxNavigationCache<BoxNavigation>(maxEntries = 1)
+        cache.get(folder1) { instance1 }
+        cache.get(folder1) { instance2 }
+        cache.get(folder2) { instance2 }
+
+        assertThat(cache.stats, equalTo(BoxNavigationCache.Stats(hits = 1, misses = 2, evictions = 1, size = 1, weight = 0)))
+    }
 }
@@ -0,0 +1,42 @@
+package de.qabel.box.storage.cache
+
+import com.natpryce.hamkrest.assertion.assertThat
+import com.natpryce.hamkrest.equalTo
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+
+class UnreachableReleaserTest {
+    private val releaser = UnreachableReleaser()
+    private val released = AtomicInteger()
+    private val reachable = Any()
+
+    @Test
+    fun keepsReachableOwners() {
+        releaser.register(reachable) { released.incrementAndGet() }
+
+        collect()
+        assertThat(released.get(), equalTo(0))
+        assertThat(releaser.size, equalTo(1))
+    }
+
+    @Test
+    fun releasesUnreachableOwners() {
+        register()
+
+        collect()
+        assertThat(released.get(), equalTo(1))
+        assertThat(releaser.size, equalTo(0))
+    }
+
+    private fun register() = releaser.register(Any()) { released.incrementAndGet() }
+
+    private fun collect() {
+        for (attempt in 1..50) {
+            System.gc()
+            if (releaser.releaseUnreachable() > 0) {
+                return
+            }
+            Thread.sleep(10)
+        }
+    }
+}
@@ -34,4 +34,25 @@ class DeleteFileChangeTest {
             readBackend.download("blocks/${file.block}")
         }
     }
+
+    @Test
+    fun keepsChunksOfOtherFiles() {
+        val shared = BoxChunk(0, "shared", 1, ByteArray(0), ByteArray(0))
+        val own = BoxChunk(1, "own", 1, ByteArray(0), ByteArray(0))
+        file.chunks = listOf(shared, own)
+        val conflict = BoxFile("p", "block2", "filename_conflict", 1, 2, ByteArray(0)).apply { chunks = listOf(shared) }
+        dm.insertFile(file)
+        dm.insertFile(conflict)
+        listOf(file.block, shared.block, own.block).forEach {
+            writeBackend.upload("blocks/$it", ByteArrayInputStream("content".toByteArray()))
+        }
+
+        val change = DeleteFileChange(file)
+        change.execute(dm)
+        change.postprocess(dm, writeBackend, indexNavigation)
+
+        readBackend.download("blocks/${shared.block}").close()
+        assertThrows(QblStorageNotFound::class) { readBackend.download("blocks/${own.block}") }
+        assertThrows(QblStorageNotFound::class) { readBackend.download("blocks/${file.block}") }
+    }
 }
@@ -99,10 +99,13 @@ class UpdateFileChangeTest {
             }
         }
 
-        val change = UpdateFileChange(null, hashedFile)
+        val duplicate = BoxFile("p", "block2", "filename", 1, 2, ByteArray(0))
+        duplicate.setHash(byteArrayOf(1,2,3), "foo")
+
+        val change = UpdateFileChange(null, duplicate)
         change.execute(dm)
         change.postprocess(dm, backend, mock())
-        assertEquals("Block was not deleted", "blocks/" + hashedFile.block, deleted)
+        assertEquals("Block was not deleted", "blocks/" + duplicate.block, deleted)
 
         assertThat(dm.listFiles(), allOf(containsInAnyOrder(hashedFile), hasSize(1)))
         assertThat(hashedFile.name, equalTo("filename"))
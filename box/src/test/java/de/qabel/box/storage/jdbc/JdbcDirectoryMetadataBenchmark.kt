@@ -0,0 +1,46 @@
+package de.qabel.box.storage.jdbc
+
+import de.qabel.box.storage.BoxFile
+import de.qabel.box.storage.Hash
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import de.qabel.core.repository.sqlite.tryWith
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Statement-heavy bulk operations on a directory metadata database
+ */
+class JdbcDirectoryMetadataBenchmark {
+    private lateinit var dm: JdbcDirectoryMetadata
+
+    @Before
+    fun setUp() {
+        assumeBenchmark()
+        dm = JdbcDirectoryMetadataFactory(createTempDir(), ByteArray(16)).create("https://localhost")
+    }
+
+    @After
+    fun tearDown() = dm.close()
+
+    @Test
+    fun bulkInsertAndLookup() {
+        val files = 10000
+        var run = 0
+        measure("insert $files files in a transaction", warmups = 2, runs = 5) {
+            val prefix = "run" + run++
+            tryWith(dm.connection.prepare("BEGIN")) { execute() }
+            for (i in 0..files - 1) {
+                dm.insertFile(BoxFile("prefix", "block$i", "$prefix-$i", i.toLong(), 0L, ByteArray(32),
+                    Hash(ByteArray(64), "Blake2b")))
+            }
+            tryWith(dm.connection.prepare("COMMIT")) { execute() }
+        }
+        measure("look up $files files", warmups = 2, runs = 5) {
+            for (i in 0..files - 1) {
+                dm.getFile("run0-$i")
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package de.qabel.box.storage.jdbc
 
+import de.qabel.box.storage.BoxChunk
 import de.qabel.box.storage.BoxFile
 import de.qabel.box.storage.BoxFolder
 import de.qabel.box.storage.BoxShare
@@ -51,6 +52,24 @@ class JdbcDirectoryMetadataTest {
         assertNull(dm.getFile("name"))
     }
 
+    @org.junit.Test
+    fun testChunkOperations() {
+        val chunks = listOf(
+            BoxChunk(0, "block0", 10L, byteArrayOf(1), byteArrayOf(2)),
+            BoxChunk(1, "block1", 5L, byteArrayOf(3), byteArrayOf(4))
+        )
+        val file = BoxFile("prefix", "block", "name", 15L, 10000L, byteArrayOf(1, 2), chunks = chunks)
+        dm.insertFile(file)
+        assertThat(dm.getFile("name")!!.chunks, equalTo(chunks))
+        assertThat(dm.listFiles()[0].chunks, equalTo(chunks))
+        assertThat(dm.isBlockReferenced("block"), equalTo(true))
+        assertThat(dm.isBlockReferenced("block1"), equalTo(true))
+        assertThat(dm.isBlockReferenced("block2"), equalTo(false))
+        dm.deleteFile(file)
+        assertThat(dm.findChunks("name").size, equalTo(0))
+        assertThat(dm.isBlockReferenced("block1"), equalTo(false))
+    }
+
     @org.junit.Test
     fun testFolderOperations() {
         val folder = BoxFolder("block", "name", byteArrayOf(1, 2))
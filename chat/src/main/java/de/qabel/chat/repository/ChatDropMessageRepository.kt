@@ -5,6 +5,8 @@ import de.qabel.core.config.Contact
 import de.qabel.core.config.Identity
 import de.qabel.chat.repository.entities.ChatDropMessage
 import de.qabel.core.repository.framework.Repository
+import de.qabel.core.repository.framework.KeysetPage
+import de.qabel.core.repository.framework.PageKey
 import de.qabel.core.repository.framework.PagingResult
 
 interface ChatDropMessageRepository : Repository<ChatDropMessage> {
@@ -16,8 +18,22 @@ interface ChatDropMessageRepository : Repository<ChatDropMessage> {
 
     fun exists(chatDropMessage : ChatDropMessage): Boolean
 
+    /**
+     * Persists the messages that are not stored yet in one transaction, duplicates within the batch are stored once.
+     * @param prepare is called for every new message before it is persisted, messages are skipped if it returns false
+     * @return the persisted messages in the order of the batch
+     */
+    fun persistIfAbsent(messages: List<ChatDropMessage>,
+                        prepare: (ChatDropMessage) -> Boolean = { true }): List<ChatDropMessage>
+
     fun markAsRead(contact: Contact, identity: Identity)
     fun findByContact(contactId: Int, identityId: Int, offset: Int, pageSize: Int): PagingResult<ChatDropMessage>
 
+    /**
+     * Page of the conversation, newest messages first
+     * @param after key of the previous page, null for the newest messages
+     */
+    fun findByContact(contactId: Int, identityId: Int, after: PageKey?, pageSize: Int): KeysetPage<ChatDropMessage>
+
     open fun findByShare(share: BoxFileChatShare): List<ChatDropMessage>
 }
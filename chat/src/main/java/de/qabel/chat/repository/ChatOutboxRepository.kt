@@ -0,0 +1,19 @@
+package de.qabel.chat.repository
+
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.core.repository.framework.Repository
+
+interface ChatOutboxRepository : Repository<ChatOutboxEntry> {
+
+    /**
+     * @return at most limit entries that are due at the given time, the longest waiting first
+     */
+    fun findDue(now: Long, limit: Int): List<ChatOutboxEntry>
+
+    /**
+     * @return the entry of the message or null if it is not queued
+     */
+    fun findByMessageId(messageId: Int): ChatOutboxEntry?
+
+    fun count(): Int
+}
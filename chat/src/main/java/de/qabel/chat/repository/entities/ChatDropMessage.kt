@@ -25,7 +25,7 @@ data class ChatDropMessage(val contactId: Int,
         MessagePayload.fromString(messageType, payloadString), createdOn, id)
 
     enum class Status(override val type: Int) : PersistableEnum<Int> {
-        NEW(0), READ(1), PENDING(2), SENT(3);
+        NEW(0), READ(1), PENDING(2), SENT(3), FAILED(4);
     }
 
     enum class MessageType(override val type: String) : PersistableEnum<String> {
@@ -0,0 +1,15 @@
+package de.qabel.chat.repository.entities
+
+import de.qabel.core.repository.framework.BaseEntity
+
+/**
+ * Outgoing chat message that waits to be sent
+ *
+ * @param attempts    failed attempts to send the message
+ * @param nextAttempt time in milliseconds when the message is sent (again)
+ */
+data class ChatOutboxEntry(val messageId: Int,
+                           var attempts: Int = 0,
+                           var nextAttempt: Long = 0,
+                           val createdOn: Long = System.currentTimeMillis(),
+                           override var id: Int = 0) : BaseEntity
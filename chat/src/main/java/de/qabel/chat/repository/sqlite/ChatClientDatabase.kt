@@ -2,17 +2,34 @@ package de.qabel.chat.repository.sqlite
 
 import de.qabel.chat.repository.sqlite.migration.Migration1460997040ChatDropMessage
 import de.qabel.chat.repository.sqlite.migration.Migration1460997041ChatShares
+import de.qabel.chat.repository.sqlite.migration.Migration1492164000ChatDropMessageHash
+import de.qabel.chat.repository.sqlite.migration.Migration1492250400ChatOutbox
+import de.qabel.chat.repository.sqlite.migration.Migration1492336800ChatHistoryIndex
 import de.qabel.core.repository.sqlite.DesktopClientDatabase
 import de.qabel.core.repository.sqlite.PragmaVersionAdapter
+import de.qabel.core.repository.sqlite.ReadConnectionPool
 import de.qabel.core.repository.sqlite.migration.AbstractMigration
 import java.sql.Connection
+import java.sql.DriverManager
 
-open class ChatClientDatabase(connection: Connection) : DesktopClientDatabase(connection) {
+open class ChatClientDatabase @JvmOverloads constructor(connection: Connection, readers: ReadConnectionPool? = null)
+    : DesktopClientDatabase(connection, readers) {
 
     override var version by PragmaVersionAdapter(connection)
 
     override fun getMigrations(connection: Connection): Array<AbstractMigration> =
         super.getMigrations(connection) +
-            listOf(Migration1460997040ChatDropMessage(connection), Migration1460997041ChatShares(connection))
+            listOf(Migration1460997040ChatDropMessage(connection), Migration1460997041ChatShares(connection),
+                Migration1492164000ChatDropMessageHash(connection), Migration1492250400ChatOutbox(connection),
+                Migration1492336800ChatHistoryIndex(connection))
 
+    companion object {
+        /**
+         * Opens the database with readers for queries, unless it is in memory
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun open(url: String, readers: Int = ReadConnectionPool.DEFAULT_READERS) =
+            ChatClientDatabase(DriverManager.getConnection(url), ReadConnectionPool.forUrl(url, readers))
+    }
 }
@@ -14,24 +14,90 @@ import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.CREATED_ON
 import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.DIRECTION
 import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.IDENTITY_ID
 import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.PAYLOAD
+import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.PAYLOAD_HASH
 import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.PAYLOAD_TYPE
 import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB.STATUS
 import de.qabel.chat.repository.sqlite.schemas.ChatShareDB
 import de.qabel.core.config.Contact
 import de.qabel.core.config.Identity
+import de.qabel.core.extensions.use
 import de.qabel.core.repository.EntityManager
 import de.qabel.core.repository.exception.EntityNotFoundException
 import de.qabel.core.repository.framework.BaseRepository
+import de.qabel.core.repository.framework.KeysetPage
+import de.qabel.core.repository.framework.PageKey
 import de.qabel.core.repository.framework.PagingResult
 import de.qabel.core.repository.framework.QueryBuilder
 import de.qabel.core.repository.sqlite.ClientDatabase
 import de.qabel.core.repository.sqlite.schemas.ContactDB
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.sql.Types
+import java.util.concurrent.Callable
 
 class SqliteChatDropMessageRepository(database: ClientDatabase,
                                       entityManager: EntityManager) :
     BaseRepository<ChatDropMessage>(ChatDropMessageDB, ChatDropMessageAdapter(), database, entityManager),
     ChatDropMessageRepository {
 
+    companion object {
+        /**
+         * hashes per lookup query, SQLite allows at most 999 parameters per statement
+         */
+        private const val MAX_PARAMETERS = 500
+
+        private val PAYLOAD_HASH_INDEX = ChatDropMessageDB.ENTITY_FIELDS.indexOf(PAYLOAD_HASH) + 1
+    }
+
+    /**
+     * A received message that is already stored is stored again without payload hash,
+     * only the first copy keeps the unique hash. Use [persistIfAbsent] to skip such copies.
+     */
+    override fun persist(model: ChatDropMessage) {
+        try {
+            super.persist(model)
+        } catch (e: SQLException) {
+            if (!isPayloadHashConflict(e, model)) {
+                throw e
+            }
+            executeStatement(insertStatement, { bindWithoutPayloadHash(it, model) }, {
+                it.generatedKeys.use {
+                    it.next()
+                    model.id = it.getInt(1)
+                }
+                entityManager.put(model.javaClass, model, model.id)
+            })
+        }
+    }
+
+    /**
+     * Copies of a received message keep their missing payload hash, see [persist]
+     */
+    override fun update(model: ChatDropMessage) {
+        try {
+            super.update(model)
+        } catch (e: SQLException) {
+            if (!isPayloadHashConflict(e, model)) {
+                throw e
+            }
+            executeStatement(updateStatement, {
+                val i = beforeUpdate(bindWithoutPayloadHash(it, model), it, model)
+                it.setInt(i, model.id)
+            }, {
+                entityManager.put(model.javaClass, model, model.id)
+            })
+        }
+    }
+
+    private fun isPayloadHashConflict(e: SQLException, model: ChatDropMessage) =
+        ChatDropMessageDB.payloadHash(model) != null && e.message?.contains(PAYLOAD_HASH.name) ?: false
+
+    private fun bindWithoutPayloadHash(statement: PreparedStatement, model: ChatDropMessage): Int {
+        val i = relation.applyValues(1, statement, model)
+        statement.setNull(PAYLOAD_HASH_INDEX, Types.VARCHAR)
+        return i
+    }
+
     override fun createEntityQuery(): QueryBuilder =
         super.createEntityQuery().apply {
             select(ChatShareDB.ID)
@@ -50,11 +116,22 @@ class SqliteChatDropMessageRepository(database: ClientDatabase,
             return getPagingResult(it, resultAdapter, offset, pageSize)
         }
 
+    override fun findByContact(contactId: Int, identityId: Int, after: PageKey?,
+                               pageSize: Int): KeysetPage<ChatDropMessage> =
+        getKeysetPage(createConversationQuery(contactId, identityId), resultAdapter,
+            listOf(CREATED_ON, ChatDropMessageDB.ID), QueryBuilder.Direction.DESCENDING, after, pageSize) {
+            PageKey(listOf(it.createdOn, it.id))
+        }
+
     private fun createChatQuery(contactId: Int, identityId: Int): QueryBuilder =
+        createConversationQuery(contactId, identityId).apply {
+            orderBy(CREATED_ON.exp(), QueryBuilder.Direction.DESCENDING)
+        }
+
+    private fun createConversationQuery(contactId: Int, identityId: Int): QueryBuilder =
         createEntityQuery().apply {
             whereAndEquals(CONTACT_ID, contactId)
             whereAndEquals(IDENTITY_ID, identityId)
-            orderBy(CREATED_ON.exp(), QueryBuilder.Direction.DESCENDING)
         }
 
     override fun findNew(identityId: Int): List<ChatDropMessage> =
@@ -81,7 +158,11 @@ class SqliteChatDropMessageRepository(database: ClientDatabase,
             return getResultList(this)
         }
 
-    override fun exists(chatDropMessage: ChatDropMessage): Boolean =
+    override fun exists(chatDropMessage: ChatDropMessage): Boolean {
+        val hash = ChatDropMessageDB.payloadHash(chatDropMessage)
+        if (hash != null) {
+            return findExistingHashes(listOf(hash)).isNotEmpty()
+        }
         with(createEntityQuery()) {
             whereAndEquals(IDENTITY_ID, chatDropMessage.identityId)
             whereAndEquals(CONTACT_ID, chatDropMessage.contactId)
@@ -95,6 +176,39 @@ class SqliteChatDropMessageRepository(database: ClientDatabase,
                 false
             }
         }
+    }
+
+    override fun persistIfAbsent(messages: List<ChatDropMessage>,
+                                 prepare: (ChatDropMessage) -> Boolean): List<ChatDropMessage> =
+        client.transactionManager.transactional(Callable {
+            val stored = findExistingHashes(messages.map { ChatDropMessageDB.payloadHash(it) }.filterNotNull())
+                .toMutableSet()
+            messages.filter { message ->
+                val hash = ChatDropMessageDB.payloadHash(message)
+                if ((hash == null || stored.add(hash)) && prepare(message)) {
+                    persist(message)
+                    true
+                } else false
+            }
+        })
+
+    private fun findExistingHashes(hashes: List<String>): Set<String> {
+        val existing = mutableSetOf<String>()
+        for (start in 0 until hashes.size step MAX_PARAMETERS) {
+            val chunk = hashes.subList(start, Math.min(hashes.size, start + MAX_PARAMETERS))
+            val query = "SELECT ${PAYLOAD_HASH.name} FROM ${relation.TABLE_NAME} " +
+                "WHERE ${PAYLOAD_HASH.name} IN (${chunk.joinToString(",") { "?" }})"
+            client.prepare(query).use { statement ->
+                chunk.forEachIndexed { i, hash -> statement.setString(i + 1, hash) }
+                statement.executeQuery().use {
+                    while (it.next()) {
+                        existing.add(it.getString(1))
+                    }
+                }
+            }
+        }
+        return existing
+    }
 
     override fun markAsRead(contact: Contact, identity: Identity) {
         val statement = "UPDATE " + relation.TABLE_NAME +
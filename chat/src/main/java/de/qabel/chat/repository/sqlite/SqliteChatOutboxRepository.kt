@@ -0,0 +1,39 @@
+package de.qabel.chat.repository.sqlite
+
+import de.qabel.chat.repository.ChatOutboxRepository
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.chat.repository.sqlite.adapter.ChatOutboxAdapter
+import de.qabel.chat.repository.sqlite.schemas.ChatOutboxDB
+import de.qabel.chat.repository.sqlite.schemas.ChatOutboxDB.NEXT_ATTEMPT
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.exception.EntityNotFoundException
+import de.qabel.core.repository.framework.BaseRepository
+import de.qabel.core.repository.sqlite.ClientDatabase
+
+class SqliteChatOutboxRepository(database: ClientDatabase,
+                                 entityManager: EntityManager) :
+    BaseRepository<ChatOutboxEntry>(ChatOutboxDB, ChatOutboxAdapter(), database, entityManager),
+    ChatOutboxRepository {
+
+    override fun findDue(now: Long, limit: Int): List<ChatOutboxEntry> =
+        with(createEntityQuery()) {
+            where("WHERE " + NEXT_ATTEMPT.exp() + " <= ?")
+            params.add(now)
+            orderBy(NEXT_ATTEMPT.exp())
+            setPaging(0, limit)
+            getResultList(this)
+        }
+
+    override fun findByMessageId(messageId: Int): ChatOutboxEntry? =
+        with(createEntityQuery()) {
+            whereAndEquals(ChatOutboxDB.MESSAGE_ID, messageId)
+            try {
+                getSingleResult<ChatOutboxEntry>(this)
+            } catch (notFound: EntityNotFoundException) {
+                null
+            }
+        }
+
+    override fun count(): Int = executeCount(createEntityQuery())
+
+}
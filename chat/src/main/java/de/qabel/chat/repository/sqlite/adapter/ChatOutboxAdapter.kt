@@ -0,0 +1,21 @@
+package de.qabel.chat.repository.sqlite.adapter
+
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.chat.repository.sqlite.schemas.ChatOutboxDB
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.sqlite.hydrator.BaseEntityResultAdapter
+import java.sql.ResultSet
+
+class ChatOutboxAdapter() : BaseEntityResultAdapter<ChatOutboxEntry>(ChatOutboxDB) {
+
+    override fun hydrateEntity(entityId: Int, resultSet: ResultSet,
+                               entityManager: EntityManager, detached: Boolean): ChatOutboxEntry =
+        with(resultSet) {
+            ChatOutboxEntry(getInt(ChatOutboxDB.MESSAGE_ID.alias()),
+                getInt(ChatOutboxDB.ATTEMPTS.alias()),
+                getLong(ChatOutboxDB.NEXT_ATTEMPT.alias()),
+                getLong(ChatOutboxDB.CREATED_ON.alias()),
+                entityId)
+        }
+
+}
@@ -0,0 +1,63 @@
+package de.qabel.chat.repository.sqlite.migration
+
+import de.qabel.chat.repository.entities.ChatDropMessage.Direction
+import de.qabel.chat.repository.sqlite.schemas.ChatDropMessageDB
+import de.qabel.core.extensions.use
+import de.qabel.core.repository.sqlite.migration.AbstractMigration
+import java.sql.Connection
+
+class Migration1492164000ChatDropMessageHash(private val connection: Connection) : AbstractMigration(connection) {
+
+    override fun getVersion() = 1492164000L
+
+    /**
+     * Messages that were received more than once are kept, but only the first copy of each message (the one with
+     * the lowest id) gets the hash, the other copies keep NULL like outgoing messages.
+     */
+    override fun up() {
+        execute("ALTER TABLE chat_drop_message ADD COLUMN payload_hash TEXT DEFAULT NULL")
+        val hashes = mutableSetOf<String>()
+        connection.prepareStatement("UPDATE chat_drop_message SET payload_hash=? WHERE id=?").use { update ->
+            connection.prepareStatement("SELECT id, identity_id, contact_id, created_on, payload_type, payload " +
+                "FROM chat_drop_message WHERE direction=${Direction.INCOMING.type} ORDER BY id").use {
+                it.executeQuery().use { rows ->
+                    while (rows.next()) {
+                        val hash = ChatDropMessageDB.payloadHash(rows.getInt(2), rows.getInt(3),
+                            rows.getTimestamp(4).time, rows.getString(5), rows.getString(6) ?: "")
+                        if (hashes.add(hash)) {
+                            update.setString(1, hash)
+                            update.setInt(2, rows.getInt(1))
+                            update.addBatch()
+                        }
+                    }
+                }
+            }
+            update.executeBatch()
+        }
+        execute("CREATE UNIQUE INDEX chat_drop_message_payload_hash ON chat_drop_message (payload_hash)")
+    }
+
+    override fun down() {
+        execute("DROP INDEX chat_drop_message_payload_hash")
+        execute(
+            "CREATE TABLE new_chat_drop_message (" +
+                "id INTEGER PRIMARY KEY," +
+                "contact_id INTEGER NOT NULL," +
+                "identity_id INTEGER NOT NULL," +
+                "status INTEGER NOT NULL," +
+                "direction INTEGER NOT NULL," +
+                "payload_type VARCHAR(255) NOT NULL," +
+                "payload TEXT," +
+                "created_on TIMESTAMP NOT NULL," +
+                "share_id INTEGER REFERENCES chat_share(id) ON UPDATE CASCADE," +
+                "FOREIGN KEY (contact_id) REFERENCES contact (id) ON DELETE CASCADE," +
+                "FOREIGN KEY (identity_id) REFERENCES identity (id) ON DELETE CASCADE" +
+                ")")
+        execute("INSERT INTO new_chat_drop_message " +
+            "(id, contact_id, identity_id, status, direction, payload_type, payload, created_on, share_id) " +
+            "SELECT id, contact_id, identity_id, status, direction, payload_type, payload, created_on, share_id " +
+            "FROM chat_drop_message")
+        execute("DROP TABLE chat_drop_message")
+        execute("ALTER TABLE new_chat_drop_message RENAME TO chat_drop_message")
+    }
+}
@@ -0,0 +1,24 @@
+package de.qabel.chat.repository.sqlite.migration
+
+import de.qabel.core.repository.sqlite.migration.AbstractMigration
+import java.sql.Connection
+
+class Migration1492250400ChatOutbox(connection: Connection) : AbstractMigration(connection) {
+
+    override fun getVersion() = 1492250400L
+
+    override fun up() {
+        execute("""CREATE TABLE chat_outbox (
+                id INTEGER PRIMARY KEY,
+                message_id INTEGER NOT NULL UNIQUE,
+                attempts INTEGER NOT NULL DEFAULT 0,
+                next_attempt LONG NOT NULL,
+                created_on LONG NOT NULL,
+                FOREIGN KEY (message_id) REFERENCES chat_drop_message (id) ON DELETE CASCADE)""")
+        execute("CREATE INDEX chat_outbox_next_attempt ON chat_outbox (next_attempt)")
+    }
+
+    override fun down() {
+        execute("DROP TABLE chat_outbox")
+    }
+}
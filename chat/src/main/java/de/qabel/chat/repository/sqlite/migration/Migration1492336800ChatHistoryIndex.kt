@@ -0,0 +1,21 @@
+package de.qabel.chat.repository.sqlite.migration
+
+import de.qabel.core.repository.sqlite.migration.AbstractMigration
+import java.sql.Connection
+
+class Migration1492336800ChatHistoryIndex(connection: Connection) : AbstractMigration(connection) {
+
+    override fun getVersion() = 1492336800L
+
+    /**
+     * The history of a conversation is read by identity and contact ordered by creation time and id,
+     * the id is part of every SQLite index, so the index serves the order and the keyset paging without sorting
+     */
+    override fun up() {
+        execute("CREATE INDEX chat_drop_message_history ON chat_drop_message (identity_id, contact_id, created_on)")
+    }
+
+    override fun down() {
+        execute("DROP INDEX chat_drop_message_history")
+    }
+}
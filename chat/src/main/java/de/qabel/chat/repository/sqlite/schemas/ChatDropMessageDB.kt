@@ -6,6 +6,8 @@ import de.qabel.chat.repository.entities.ChatDropMessage.*
 import de.qabel.core.repository.framework.DBField
 import de.qabel.core.repository.framework.DBRelation
 import de.qabel.core.repository.sqlite.hydrator.BaseEntityResultAdapter
+import org.spongycastle.util.encoders.Hex
+import java.security.MessageDigest
 import java.sql.PreparedStatement
 import java.sql.ResultSet
 import java.sql.Timestamp
@@ -28,8 +30,14 @@ object ChatDropMessageDB : DBRelation<ChatDropMessage> {
 
     val CREATED_ON = field("created_on")
 
+    /**
+     * Unique hash of incoming messages to recognize messages that are received twice.
+     * Null for outgoing messages and for further copies of a received message that were stored anyway.
+     */
+    val PAYLOAD_HASH = field("payload_hash")
+
     override val ENTITY_FIELDS = listOf(CONTACT_ID, IDENTITY_ID, DIRECTION, STATUS,
-        PAYLOAD_TYPE, PAYLOAD, CREATED_ON, SHARE_ID)
+        PAYLOAD_TYPE, PAYLOAD, CREATED_ON, PAYLOAD_HASH, SHARE_ID)
 
     override val ENTITY_CLASS: Class<ChatDropMessage> = ChatDropMessage::class.java
 
@@ -44,12 +52,25 @@ object ChatDropMessageDB : DBRelation<ChatDropMessage> {
             setString(i++, model.messageType.type)
             setString(i++, payLoad.toString())
             setTimestamp(i++, Timestamp(model.createdOn))
+            setString(i++, payloadHash(model))
             if (payLoad is MessagePayload.ShareMessage) {
                 setInt(i++, payLoad.shareData.id)
             }
             return i
         }
 
+    fun payloadHash(model: ChatDropMessage): String? =
+        if (model.direction != Direction.INCOMING) null
+        else payloadHash(model.identityId, model.contactId, model.createdOn, model.messageType.type,
+            model.payload.toString())
+
+    fun payloadHash(identityId: Int, contactId: Int, createdOn: Long, payloadType: String, payload: String): String =
+        MessageDigest.getInstance("SHA-256").let {
+            it.update("$identityId:$contactId:$createdOn:$payloadType:".toByteArray())
+            it.update(payload.toByteArray())
+            Hex.toHexString(it.digest())
+        }
+
     fun <X : Enum<X>, S : Any> toEnum(enum: Array<X>, value: S, extract: (enum: X) -> S) =
         enum.find {
             extract(it).equals(value)
@@ -0,0 +1,32 @@
+package de.qabel.chat.repository.sqlite.schemas
+
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.core.repository.framework.DBField
+import de.qabel.core.repository.framework.DBRelation
+import java.sql.PreparedStatement
+
+object ChatOutboxDB : DBRelation<ChatOutboxEntry> {
+
+    override val TABLE_NAME = "chat_outbox"
+    override val TABLE_ALIAS = "co"
+
+    override val ID: DBField = field("id")
+    val MESSAGE_ID = field("message_id")
+    val ATTEMPTS = field("attempts")
+    val NEXT_ATTEMPT = field("next_attempt")
+    val CREATED_ON = field("created_on")
+
+    override val ENTITY_FIELDS = listOf(MESSAGE_ID, ATTEMPTS, NEXT_ATTEMPT, CREATED_ON)
+
+    override val ENTITY_CLASS: Class<ChatOutboxEntry> = ChatOutboxEntry::class.java
+
+    override fun applyValues(startIndex: Int, statement: PreparedStatement, model: ChatOutboxEntry): Int =
+        with(statement) {
+            var i = startIndex
+            setInt(i++, model.messageId)
+            setInt(i++, model.attempts)
+            setLong(i++, model.nextAttempt)
+            setLong(i++, model.createdOn)
+            return i
+        }
+}
@@ -0,0 +1,200 @@
+package de.qabel.chat.service
+
+import de.qabel.chat.repository.ChatDropMessageRepository
+import de.qabel.chat.repository.ChatOutboxRepository
+import de.qabel.chat.repository.entities.ChatDropMessage
+import de.qabel.chat.repository.entities.ChatDropMessage.Status
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.core.drop.DropConnector
+import de.qabel.core.drop.http.DropHttpClients
+import de.qabel.core.repository.ContactRepository
+import de.qabel.core.repository.IdentityRepository
+import de.qabel.core.repository.exception.EntityNotFoundException
+import org.slf4j.LoggerFactory
+import rx.Observable
+import rx.Scheduler
+import rx.Subscription
+import rx.subjects.PublishSubject
+import rx.subjects.SerializedSubject
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Persistent queue of outgoing chat messages.
+ * Due messages are encrypted and sent in parallel on the executor. The drop transport keeps its connections alive,
+ * so the POSTs to a drop server reuse its pooled connections instead of connecting for every message.
+ * Failed messages are retried with an exponential backoff, after maxAttempts they are marked FAILED
+ * and emitted by [failures].
+ * [enqueue] and [flush] may be called from different threads, e.g. by the sending thread and the scheduler of
+ * [start]. The repositories are only used while holding the outbox lock, which is not held while messages are sent.
+ */
+class ChatOutbox @JvmOverloads constructor(
+    private val dropConnector: DropConnector,
+    private val identityRepository: IdentityRepository,
+    private val contactRepository: ContactRepository,
+    private val chatDropMessageRepository: ChatDropMessageRepository,
+    private val outboxRepository: ChatOutboxRepository,
+    private val config: Config = Config(),
+    private val executor: ExecutorService = DEFAULT_EXECUTOR
+) {
+
+    /**
+     * @param batchSize messages that are sent by one flush at most
+     */
+    data class Config @JvmOverloads constructor(
+        val maxAttempts: Int = 10,
+        val initialBackoffMillis: Long = 1000,
+        val maxBackoffMillis: Long = 300000,
+        val batchSize: Int = 100
+    )
+
+    /**
+     * A message that was given up after maxAttempts, error is the cause of the last attempt
+     */
+    data class Failure(val message: ChatDropMessage, val error: Throwable)
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(ChatOutbox::class.java)
+
+        private val DEFAULT_EXECUTOR: ExecutorService by lazy {
+            Executors.newFixedThreadPool(DropHttpClients.DEFAULT_CONNECTIONS) {
+                Thread(it, "chat-outbox").apply { isDaemon = true }
+            }
+        }
+    }
+
+    private val lock = Any()
+    private val flushLock = Any()
+    private val sent = AtomicLong()
+    private val failedAttempts = AtomicLong()
+    private val totalLatency = AtomicLong()
+    private val failed = AtomicLong()
+
+    /**
+     * Messages that have been given up, they are emitted on the flushing thread while the outbox is locked
+     */
+    val failures: Observable<Failure>
+        get() = failureSubject.asObservable()
+
+    private val failureSubject = SerializedSubject(PublishSubject.create<Failure>())
+
+    /**
+     * Messages that wait to be sent
+     */
+    val queueDepth: Int
+        get() = synchronized(lock) { outboxRepository.count() }
+
+    val sentMessages: Long
+        get() = sent.get()
+
+    val failedSendAttempts: Long
+        get() = failedAttempts.get()
+
+    val failedMessages: Long
+        get() = failed.get()
+
+    /**
+     * Mean time in milliseconds from enqueueing a message until it was sent
+     */
+    val averageLatencyMillis: Long
+        get() = sent.get().let { if (it == 0L) 0 else totalLatency.get() / it }
+
+    /**
+     * Queues a persisted message to be sent with the next flush, a message that is queued already is not queued again
+     */
+    fun enqueue(message: ChatDropMessage) {
+        synchronized(lock) {
+            if (outboxRepository.findByMessageId(message.id) == null) {
+                outboxRepository.persist(ChatOutboxEntry(message.id))
+            }
+        }
+    }
+
+    /**
+     * Sends the messages that are due, blocks until all of them are sent or failed.
+     * Concurrent flushes wait for each other.
+     * @return the messages that have been sent
+     */
+    fun flush(): List<ChatDropMessage> = synchronized(flushLock) {
+        val sending = synchronized(lock) { submitDue() }
+        sending.map {
+            val (entry, message, future) = it
+            try {
+                future.get()
+                synchronized(lock) {
+                    message.status = Status.SENT
+                    chatDropMessageRepository.update(message)
+                    outboxRepository.delete(entry.id)
+                }
+                sent.incrementAndGet()
+                totalLatency.addAndGet(System.currentTimeMillis() - entry.createdOn)
+                message
+            } catch (e: ExecutionException) {
+                synchronized(lock) { retry(entry, message, e.cause ?: e) }
+                null
+            }
+        }.filterNotNull()
+    }
+
+    private fun submitDue() =
+        outboxRepository.findDue(System.currentTimeMillis(), config.batchSize).map { entry ->
+            var message: ChatDropMessage? = null
+            try {
+                val found = chatDropMessageRepository.findById(entry.messageId)
+                message = found
+                val outgoing = OutgoingDropMessage.create(found, identityRepository, contactRepository)
+                Triple(entry, found, executor.submit(Callable { outgoing.send(dropConnector) }))
+            } catch (e: EntityNotFoundException) {
+                logger.warn("Dropping message {} from outbox", entry.messageId, e)
+                outboxRepository.delete(entry.id)
+                null
+            } catch (e: Exception) {
+                retry(entry, message, e)
+                null
+            }
+        }.filterNotNull()
+
+    private fun retry(entry: ChatOutboxEntry, message: ChatDropMessage?, error: Throwable) {
+        failedAttempts.incrementAndGet()
+        entry.attempts++
+        if (entry.attempts >= config.maxAttempts) {
+            logger.error("Giving up to send message {} after {} attempts", entry.messageId, entry.attempts, error)
+            outboxRepository.delete(entry.id)
+            giveUp(entry, message, error)
+            return
+        }
+        val backoff = Math.min(config.maxBackoffMillis,
+            config.initialBackoffMillis * (1L shl Math.min(entry.attempts - 1, 30)))
+        entry.nextAttempt = System.currentTimeMillis() + backoff
+        logger.warn("Sending message {} failed, retrying in {} ms", entry.messageId, backoff, error)
+        outboxRepository.update(entry)
+    }
+
+    private fun giveUp(entry: ChatOutboxEntry, message: ChatDropMessage?, error: Throwable) {
+        failed.incrementAndGet()
+        val failedMessage = try {
+            message ?: chatDropMessageRepository.findById(entry.messageId)
+        } catch (e: EntityNotFoundException) {
+            return
+        }
+        failedMessage.status = Status.FAILED
+        chatDropMessageRepository.update(failedMessage)
+        failureSubject.onNext(Failure(failedMessage, error))
+    }
+
+    /**
+     * Flushes the outbox periodically on the scheduler until the subscription is unsubscribed
+     */
+    fun start(scheduler: Scheduler, intervalMillis: Long): Subscription =
+        Observable.interval(0, intervalMillis, TimeUnit.MILLISECONDS, scheduler).subscribe {
+            try {
+                flush()
+            } catch (e: Exception) {
+                logger.error("Failed to flush the chat outbox", e)
+            }
+        }
+}
@@ -13,6 +13,12 @@ import rx.Observable
 interface ChatService {
 
     fun sendTextMessage(text : String, identity: Identity, contact : Contact) : Observable<ChatDropMessage>
+
+    /**
+     * Sends the text to all contacts, emits one message per contact that is SENT, or PENDING (queued for a retry)
+     * or FAILED if sending failed
+     */
+    fun broadcastTextMessage(text: String, identity: Identity, contacts: List<Contact>): Observable<ChatDropMessage>
     fun sendShareMessage(text : String, identity: Identity, contact: Contact,
                          boxFile: BoxFile, boxNavigation: BoxNavigation) : Observable<ChatDropMessage>
 
@@ -9,7 +9,8 @@ import de.qabel.core.config.Contact
 import de.qabel.core.config.Identity
 import de.qabel.core.drop.DropConnector
 import de.qabel.core.drop.DropMessage
-import de.qabel.core.drop.DropMessageMetadata
+import de.qabel.core.drop.DropPoller
+import de.qabel.core.drop.DropURL
 import de.qabel.core.repository.ContactRepository
 import de.qabel.core.repository.DropStateRepository
 import de.qabel.core.repository.IdentityRepository
@@ -20,16 +21,27 @@ import org.slf4j.LoggerFactory
 import rx.Observable
 import rx.Scheduler
 import rx.lang.kotlin.observable
+import java.util.concurrent.ConcurrentHashMap
 
 
 open class MainChatService(val dropConnector: DropConnector, val identityRepository: IdentityRepository, val contactRepository: ContactRepository,
                            val chatDropMessageRepository: ChatDropMessageRepository, val dropStateRepository: DropStateRepository,
-                           val sharingService: SharingService, val ioScheduler : Scheduler) : ChatService {
+                           val sharingService: SharingService, val ioScheduler : Scheduler,
+                           val dropPoller: DropPoller = DropPoller(dropConnector),
+                           val outbox: ChatOutbox? = null) : ChatService {
 
     companion object {
         private val logger = LoggerFactory.getLogger(MainChatService::class.java)
     }
 
+    private val fetchTimes = ConcurrentHashMap<DropURL, Long>()
+
+    /**
+     * Duration in milliseconds of the last fetch of each drop
+     */
+    val dropFetchTimes: Map<DropURL, Long>
+        get() = fetchTimes
+
     override fun sendTextMessage(text: String, identity: Identity, contact: Contact): Observable<ChatDropMessage> =
         observable<ChatDropMessage> { subscriber ->
             val textMessage = createOutgoingMessage(identity, contact,
@@ -41,6 +53,56 @@ open class MainChatService(val dropConnector: DropConnector, val identityReposit
             subscriber.onCompleted()
         }.subscribeOn(ioScheduler)
 
+    /**
+     * The drop message is encrypted for all contacts at once, the messages are emitted when all of them are sent.
+     * Messages that could not be sent are retried by the outbox if the service has one, and FAILED otherwise.
+     */
+    override fun broadcastTextMessage(text: String, identity: Identity,
+                                      contacts: List<Contact>): Observable<ChatDropMessage> =
+        observable<ChatDropMessage> { subscriber ->
+            val messages = contacts.map {
+                createOutgoingMessage(identity, it, MessageType.BOX_MESSAGE, MessagePayload.TextMessage(text)).apply {
+                    chatDropMessageRepository.persist(this)
+                }
+            }
+            val results = contacts.indices.groupBy { OutgoingDropMessage.isKnown(contacts[it]) }.values.flatMap { group ->
+                val groupContacts = group.map { contacts[it] }
+                group.zip(try {
+                    val dropMessage = OutgoingDropMessage.createDropMessage(messages[group.first()], identity,
+                        contacts[group.first()])
+                    dropConnector.broadcastDropMessage(identity, groupContacts, dropMessage)
+                } catch (e: Exception) {
+                    logger.warn("Cannot broadcast message to {} contacts", group.size, e)
+                    groupContacts.map { DropConnector.BroadcastResult(it, e) }
+                })
+            }
+            results.sortedBy { it.first }.forEach {
+                val (index, result) = it
+                val message = messages[index]
+                if (result.sent) {
+                    message.status = Status.SENT
+                    chatDropMessageRepository.update(message)
+                } else {
+                    logger.warn("Cannot send message to {}", result.contact.alias, result.error)
+                    retryLater(message)
+                }
+                subscriber.onNext(message)
+            }
+            subscriber.onCompleted()
+        }.subscribeOn(ioScheduler)
+
+    /**
+     * Queues a message that could not be sent in the outbox, or marks it FAILED if there is no outbox
+     */
+    private fun retryLater(message: ChatDropMessage) {
+        outbox?.let {
+            it.enqueue(message)
+            return
+        }
+        message.status = Status.FAILED
+        chatDropMessageRepository.update(message)
+    }
+
     override fun sendShareMessage(text: String, identity: Identity, contact: Contact, boxFile: BoxFile, boxNavigation: BoxNavigation): Observable<ChatDropMessage> =
         observable<ChatDropMessage> { subscriber ->
             val boxShare = sharingService.getOrCreateOutgoingShare(identity, contact, boxFile, boxNavigation)
@@ -60,26 +122,21 @@ open class MainChatService(val dropConnector: DropConnector, val identityReposit
             System.currentTimeMillis())
 
 
+    /**
+     * Sends the message right away, or queues it if the service has an outbox
+     */
     override fun sendMessage(message: ChatDropMessage) {
-        val sender = identityRepository.find(message.identityId)
-        val receiver = contactRepository.find(message.contactId)
-
-        val dropMessage = message.toDropMessage(sender)
-        var email = ""
-        var phone = ""
-        if (receiver.status != Contact.ContactStatus.UNKNOWN) {
-            email = sender.email ?: ""
-            phone = sender.phone ?: ""
-        }
-        dropMessage.dropMessageMetadata = DropMessageMetadata(sender.alias, sender.ecPublicKey,
-            sender.dropUrls.first(), email, phone)
-
         if (message.id == 0) {
             chatDropMessageRepository.persist(message)
         }
+        outbox?.let {
+            it.enqueue(message)
+            return
+        }
 
+        val outgoing = OutgoingDropMessage.create(message, identityRepository, contactRepository)
         logger.info("Send DropMessage...")
-        dropConnector.sendDropMessage(sender, receiver, dropMessage, receiver.dropUrls.first())
+        outgoing.send(dropConnector)
         logger.info("DropMessage sent")
         message.status = Status.SENT
         chatDropMessageRepository.update(message)
@@ -87,44 +144,55 @@ open class MainChatService(val dropConnector: DropConnector, val identityReposit
 
     override fun refreshMessages(): Map<String, List<ChatDropMessage>> {
         val resultMap = DefaultHashMap<String, MutableList<ChatDropMessage>>({ mutableListOf() })
-        identityRepository.findAll().entities.forEach { identity ->
-            identity.dropUrls.forEach { dropUrl ->
+        val requests = identityRepository.findAll().entities.flatMap { identity ->
+            identity.dropUrls.map { dropUrl ->
                 val dropState = dropStateRepository.getDropState(dropUrl)
                 logger.info("Fetching DropMessages from {} with eTag {}", dropState.drop, dropState.eTag)
-                try {
-                    val dropResult = dropConnector.receiveDropMessages(identity, dropUrl, dropState)
-                    val newMessages = handleDropUpdate(identity, dropResult.dropState, dropResult.dropMessages)
-
-                    resultMap.getOrDefault(identity.keyIdentifier).addAll(newMessages)
-                } catch(ex: Throwable) {
-                    logger.warn("Cannot receive messages from {}", dropState.drop, ex)
-                }
+                DropPoller.Request(identity, dropUrl, dropState)
+            }
+        }
+        dropPoller.poll(requests).forEach { result ->
+            val (identity, dropUrl, dropState) = result.request
+            fetchTimes[dropUrl] = result.durationMillis
+            logger.debug("Fetched {} in {} ms", dropState.drop, result.durationMillis)
+            try {
+                val dropResult = result.get()
+                val newMessages = handleDropUpdate(identity, dropResult.dropState, dropResult.dropMessages)
+
+                resultMap.getOrDefault(identity.keyIdentifier).addAll(newMessages)
+            } catch(ex: Throwable) {
+                logger.warn("Cannot receive messages from {}", dropState.drop, ex)
             }
         }
         return resultMap.filter { !it.value.isEmpty() }
     }
 
     override fun handleDropUpdate(identity: Identity, dropState: DropState, messages: List<DropMessage>): List<ChatDropMessage> {
-        val resultList = mutableListOf<ChatDropMessage>()
-        messages.forEach {
-            getMessageContact(it, identity)?.apply {
+        val chatMessages = messages.map {
+            getMessageContact(it, identity)?.let { contact ->
                 try {
-                    val message = it.toChatDropMessage(identity, this)
-                    if (!chatDropMessageRepository.exists(message)) {
-                        if (message.payload is MessagePayload.ShareMessage) {
-                            message.payload.apply {
-                                shareData = sharingService.getOrCreateIncomingShare(identity, message, message.payload)
-                            }
-                        }
-                        chatDropMessageRepository.persist(message)
-                        resultList.add(message)
-                    } else {
-                        logger.debug("Ignoring duplicated msg to " + identity.keyIdentifier)
-                    }
+                    it.toChatDropMessage(identity, contact)
                 } catch (ex: Throwable) {
                     logger.error("Error parsing DropMessage ${it.dropPayloadType}${it.dropPayload}")
+                    null
                 }
             }
+        }.filterNotNull()
+        val resultList = chatDropMessageRepository.persistIfAbsent(chatMessages) { message ->
+            try {
+                if (message.payload is MessagePayload.ShareMessage) {
+                    message.payload.apply {
+                        shareData = sharingService.getOrCreateIncomingShare(identity, message, message.payload)
+                    }
+                }
+                true
+            } catch (ex: Throwable) {
+                logger.error("Error receiving share of DropMessage ${message.payload}", ex)
+                false
+            }
+        }
+        if (resultList.size < chatMessages.size) {
+            logger.debug("Ignoring {} duplicated msgs to {}", chatMessages.size - resultList.size, identity.keyIdentifier)
         }
         dropStateRepository.setDropState(dropState)
         logger.info("Handle DropMessages ({}) from {} with eTag {}", messages.size,
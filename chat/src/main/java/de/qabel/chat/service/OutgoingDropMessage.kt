@@ -0,0 +1,53 @@
+package de.qabel.chat.service
+
+import de.qabel.chat.repository.entities.ChatDropMessage
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.drop.DropConnector
+import de.qabel.core.drop.DropMessage
+import de.qabel.core.drop.DropMessageMetadata
+import de.qabel.core.repository.ContactRepository
+import de.qabel.core.repository.IdentityRepository
+
+/**
+ * Drop message of an outgoing chat message, ready to be encrypted for the receiver
+ */
+class OutgoingDropMessage(val sender: Identity, val receiver: Contact, val dropMessage: DropMessage) {
+
+    companion object {
+        /**
+         * Looks up sender and receiver of the message, the sender's email and phone are only shared with known contacts
+         */
+        fun create(message: ChatDropMessage, identityRepository: IdentityRepository,
+                   contactRepository: ContactRepository): OutgoingDropMessage {
+            val sender = identityRepository.find(message.identityId)
+            val receiver = contactRepository.find(message.contactId)
+            return OutgoingDropMessage(sender, receiver, createDropMessage(message, sender, receiver))
+        }
+
+        /**
+         * The drop message only depends on the receiver by its status, so it can be shared by receivers with the
+         * same [isKnown] value
+         */
+        fun createDropMessage(message: ChatDropMessage, sender: Identity, receiver: Contact): DropMessage {
+            val dropMessage = DropMessage(sender, message.payload.toString(), message.messageType.type)
+            var email = ""
+            var phone = ""
+            if (isKnown(receiver)) {
+                email = sender.email ?: ""
+                phone = sender.phone ?: ""
+            }
+            dropMessage.dropMessageMetadata = DropMessageMetadata(sender.alias, sender.ecPublicKey,
+                sender.dropUrls.first(), email, phone)
+            return dropMessage
+        }
+
+        fun isKnown(receiver: Contact) = receiver.status != Contact.ContactStatus.UNKNOWN
+    }
+
+    /**
+     * Encrypts the message for the receiver and sends it to the first drop of the receiver
+     */
+    fun send(dropConnector: DropConnector) =
+        dropConnector.sendDropMessage(sender, receiver, dropMessage, receiver.dropUrls.first())
+}
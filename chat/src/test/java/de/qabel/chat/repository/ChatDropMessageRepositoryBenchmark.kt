@@ -0,0 +1,68 @@
+package de.qabel.chat.repository
+
+import de.qabel.chat.repository.entities.ChatDropMessage
+import de.qabel.chat.repository.entities.ChatDropMessage.*
+import de.qabel.chat.repository.sqlite.ChatClientDatabase
+import de.qabel.chat.repository.sqlite.SqliteChatDropMessageRepository
+import de.qabel.core.config.Contact
+import de.qabel.core.crypto.QblECPublicKey
+import de.qabel.core.drop.DropURL
+import de.qabel.core.measure
+import de.qabel.core.repository.AbstractSqliteBenchmark
+import de.qabel.core.repository.sqlite.ClientDatabase
+import org.junit.Before
+import org.junit.Test
+import java.sql.Connection
+import java.util.*
+import java.util.concurrent.Callable
+
+/**
+ * Receiving batches of drop messages into a chat history of 100k messages
+ */
+class ChatDropMessageRepositoryBenchmark : AbstractSqliteBenchmark() {
+    private val historySize = 100000
+    private val batchSize = 200
+
+    private lateinit var repo: SqliteChatDropMessageRepository
+    private var identityId = 0
+    private var contactId = 0
+    private var time = 0L
+
+    override fun createDatabase(connection: Connection): ClientDatabase = ChatClientDatabase(connection)
+
+    @Before
+    fun setUp() {
+        repo = SqliteChatDropMessageRepository(database, em)
+
+        val contact = Contact("contact", LinkedList<DropURL>(), QblECPublicKey("contact".toByteArray()))
+        contactRepo.save(contact, identity)
+        identityId = identity.id
+        contactId = contact.id
+
+        database.transactionManager.transactional(Callable {
+            repeat(historySize) { repo.persist(createMessage()) }
+        })
+    }
+
+    private fun createMessage() = ChatDropMessage(contactId, identityId, Direction.INCOMING, Status.NEW,
+        MessageType.BOX_MESSAGE, MessagePayload.TextMessage("message ${time++} " + "x".repeat(200)), time)
+
+    @Test
+    fun receiveBatch() {
+        measure("receive $batchSize messages one by one", warmups = 2, runs = 5) {
+            (1..batchSize).map { createMessage() }.forEach {
+                if (!repo.exists(it)) {
+                    repo.persist(it)
+                }
+            }
+        }
+        measure("receive $batchSize messages as batch", warmups = 2, runs = 5) {
+            repo.persistIfAbsent((1..batchSize).map { createMessage() })
+        }
+        val duplicates = (1..batchSize).map { createMessage() }
+        repo.persistIfAbsent(duplicates)
+        measure("receive $batchSize duplicates as batch", warmups = 2, runs = 5) {
+            repo.persistIfAbsent(duplicates.map { it.copy(id = 0) })
+        }
+    }
+}
@@ -116,6 +116,25 @@ class SqliteChatDropMessageRepositoryTest : AbstractSqliteRepositoryTest<ChatDro
         assertThat(messages.reversed(), equalTo(resultList.toList()))
     }
 
+    @Test
+    fun testFindByContactWithKeyset() {
+        val time = System.currentTimeMillis()
+        val messages = (0 until 45).map {
+            message.copy(payload = createTextPayload("BLUBB BLUBB" + it), createdOn = time + it / 2)
+        }
+        messages.forEach { dropRepo.persist(it) }
+
+        val pageA = dropRepo.findByContact(contactA.id, identityA.id, null, 20)
+        val pageB = dropRepo.findByContact(contactA.id, identityA.id, pageA.next, 20)
+        val pageC = dropRepo.findByContact(contactA.id, identityA.id, pageB.next, 20)
+
+        assertThat(pageA.result, hasSize(20))
+        assertThat(pageB.result, hasSize(20))
+        assertThat(pageC.result, hasSize(5))
+        assertThat(pageC.next, nullValue())
+        assertThat(pageA.result + pageB.result + pageC.result, equalTo(messages.reversed()))
+    }
+
     @Test
     fun testPersist() {
         dropRepo.persist(message)
@@ -198,6 +217,51 @@ class SqliteChatDropMessageRepositoryTest : AbstractSqliteRepositoryTest<ChatDro
         assertFalse(dropRepo.exists(message))
     }
 
+    @Test
+    fun testExistsOutgoing() {
+        val outgoing = message.copy(direction = Direction.OUTGOING)
+        dropRepo.persist(outgoing)
+        assertTrue(dropRepo.exists(outgoing))
+        assertFalse(dropRepo.exists(message))
+    }
+
+    @Test
+    fun testPersistDuplicate() {
+        dropRepo.persist(message)
+        val duplicate = message.copy(status = Status.NEW, id = 0)
+        dropRepo.persist(duplicate)
+
+        assertThat(duplicate.id, not(equalTo(message.id)))
+        assertThat(dropRepo.findByContact(contactA.id, identityA.id), containsInAnyOrder(message, duplicate))
+        assertTrue(dropRepo.exists(duplicate))
+        assertThat(dropRepo.persistIfAbsent(listOf(message.copy(id = 0))) { true }, empty())
+    }
+
+    @Test
+    fun testUpdateDuplicate() {
+        dropRepo.persist(message)
+        val duplicate = message.copy(status = Status.NEW, id = 0)
+        dropRepo.persist(duplicate)
+
+        duplicate.status = Status.READ
+        dropRepo.update(duplicate)
+
+        assertThat(dropRepo.findNew(identityA.id), empty())
+    }
+
+    @Test
+    fun testPersistIfAbsent() {
+        dropRepo.persist(message)
+        val msgB = message.copy(createdOn = now + 1, id = 0)
+        val msgC = message.copy(payload = createTextPayload("C"), id = 0)
+
+        val persisted = dropRepo.persistIfAbsent(listOf(message.copy(status = Status.NEW, id = 0), msgB,
+            msgB.copy(), msgC)) { it != msgC }
+
+        assertThat(persisted, contains(msgB))
+        assertThat(dropRepo.findByContact(contactA.id, identityA.id), containsInAnyOrder(message, msgB))
+    }
+
     @Test
     fun testFindWithShare(){
         dropRepo.persist(message)
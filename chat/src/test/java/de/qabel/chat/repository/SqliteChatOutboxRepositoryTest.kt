@@ -0,0 +1,89 @@
+package de.qabel.chat.repository
+
+import de.qabel.chat.repository.entities.ChatDropMessage
+import de.qabel.chat.repository.entities.ChatDropMessage.*
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.chat.repository.sqlite.ChatClientDatabase
+import de.qabel.chat.repository.sqlite.SqliteChatDropMessageRepository
+import de.qabel.chat.repository.sqlite.SqliteChatOutboxRepository
+import de.qabel.core.config.Contact
+import de.qabel.core.config.factory.IdentityBuilder
+import de.qabel.core.crypto.QblECPublicKey
+import de.qabel.core.drop.DropURL
+import de.qabel.core.dropUrlGenerator
+import de.qabel.core.repository.AbstractSqliteRepositoryTest
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.sqlite.ClientDatabase
+import de.qabel.core.repository.sqlite.SqliteContactRepository
+import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
+import de.qabel.core.repository.sqlite.SqliteIdentityRepository
+import org.hamcrest.Matchers.*
+import org.junit.Assert.assertThat
+import org.junit.Test
+import java.sql.Connection
+import java.util.*
+
+class SqliteChatOutboxRepositoryTest : AbstractSqliteRepositoryTest<ChatOutboxRepository>() {
+
+    override fun createDatabase(connection: Connection): ClientDatabase = ChatClientDatabase(connection)
+
+    lateinit var dropRepo: ChatDropMessageRepository
+    lateinit var messages: List<ChatDropMessage>
+
+    override fun createRepo(clientDatabase: ClientDatabase, em: EntityManager): ChatOutboxRepository {
+        val identityRepo = SqliteIdentityRepository(clientDatabase, em)
+        val contactRepo = SqliteContactRepository(clientDatabase, em, SqliteDropUrlRepository(clientDatabase), identityRepo)
+        dropRepo = SqliteChatDropMessageRepository(clientDatabase, em)
+
+        val identity = IdentityBuilder(dropUrlGenerator).withAlias("identity").build()
+        identityRepo.save(identity)
+        val contact = Contact("contact", LinkedList<DropURL>(), QblECPublicKey("contact".toByteArray()))
+        contactRepo.save(contact, identity)
+        messages = (1..3).map {
+            ChatDropMessage(contact.id, identity.id, Direction.OUTGOING, Status.PENDING, MessageType.BOX_MESSAGE,
+                MessagePayload.TextMessage("message $it"), System.currentTimeMillis()).apply { dropRepo.persist(this) }
+        }
+        return SqliteChatOutboxRepository(clientDatabase, em)
+    }
+
+    @Test
+    fun testFindDue() {
+        val first = ChatOutboxEntry(messages[0].id, nextAttempt = 200)
+        val second = ChatOutboxEntry(messages[1].id, nextAttempt = 100)
+        val later = ChatOutboxEntry(messages[2].id, nextAttempt = 1000)
+        listOf(first, second, later).forEach { repo.persist(it) }
+
+        assertThat(repo.findDue(500, 10), contains(second, first))
+        assertThat(repo.findDue(500, 1), contains(second))
+        assertThat(repo.count(), equalTo(3))
+    }
+
+    @Test
+    fun testFindByMessageId() {
+        val entry = ChatOutboxEntry(messages[0].id)
+        repo.persist(entry)
+
+        assertThat(repo.findByMessageId(messages[0].id), equalTo(entry))
+        assertThat(repo.findByMessageId(messages[1].id), nullValue())
+    }
+
+    @Test
+    fun testUpdate() {
+        val entry = ChatOutboxEntry(messages[0].id)
+        repo.persist(entry)
+        entry.attempts = 2
+        entry.nextAttempt = 300
+        repo.update(entry)
+
+        val stored = SqliteChatOutboxRepository(clientDatabase, EntityManager()).findById(entry.id)
+        assertThat(stored, equalTo(entry))
+    }
+
+    @Test
+    fun testDeletedWithMessage() {
+        repo.persist(ChatOutboxEntry(messages[0].id))
+        dropRepo.delete(messages[0].id)
+
+        assertThat(repo.count(), equalTo(0))
+    }
+}
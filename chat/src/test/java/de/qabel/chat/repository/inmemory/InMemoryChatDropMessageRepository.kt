@@ -6,6 +6,8 @@ import de.qabel.chat.repository.ChatDropMessageRepository
 import de.qabel.chat.repository.entities.BoxFileChatShare
 import de.qabel.chat.repository.entities.ChatDropMessage
 import de.qabel.core.repository.exception.EntityNotFoundException
+import de.qabel.core.repository.framework.KeysetPage
+import de.qabel.core.repository.framework.PageKey
 import de.qabel.core.repository.framework.PagingResult
 
 open class InMemoryChatDropMessageRepository : ChatDropMessageRepository {
@@ -65,11 +67,34 @@ open class InMemoryChatDropMessageRepository : ChatDropMessageRepository {
         }
     }
 
+    override fun persistIfAbsent(messages: List<ChatDropMessage>,
+                                 prepare: (ChatDropMessage) -> Boolean): List<ChatDropMessage> =
+        messages.filter {
+            if (!exists(it) && prepare(it)) {
+                persist(it)
+                true
+            } else false
+        }
+
     override fun findByContact(contactId: Int, identityId: Int, offset: Int, pageSize: Int): PagingResult<ChatDropMessage> =
         findByContact(contactId, identityId).let {
             PagingResult(it.size, it.filterIndexed { i, chatDropMessage -> i >= offset && i < (offset + pageSize) })
         }
 
+    override fun findByContact(contactId: Int, identityId: Int, after: PageKey?, pageSize: Int): KeysetPage<ChatDropMessage> {
+        val conversation = findByContact(contactId, identityId)
+            .sortedWith(compareByDescending<ChatDropMessage> { it.createdOn }.thenByDescending { it.id })
+            .filter {
+                after == null || it.createdOn < after.values[0] as Long ||
+                    (it.createdOn == after.values[0] && it.id < after.values[1] as Int)
+            }
+        if (conversation.size <= pageSize) {
+            return KeysetPage(conversation, null)
+        }
+        return KeysetPage(conversation.take(pageSize), PageKey(listOf(conversation[pageSize - 1].createdOn,
+            conversation[pageSize - 1].id)))
+    }
+
     override fun findByShare(share: BoxFileChatShare): List<ChatDropMessage> =
         messages.filter {
             it.payload is ChatDropMessage.MessagePayload.ShareMessage &&
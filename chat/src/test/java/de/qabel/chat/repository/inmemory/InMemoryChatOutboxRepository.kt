@@ -0,0 +1,37 @@
+package de.qabel.chat.repository.inmemory
+
+import de.qabel.chat.repository.ChatOutboxRepository
+import de.qabel.chat.repository.entities.ChatOutboxEntry
+import de.qabel.core.repository.exception.EntityNotFoundException
+
+class InMemoryChatOutboxRepository : ChatOutboxRepository {
+
+    val entries = mutableListOf<ChatOutboxEntry>()
+    private var nextId = 1
+
+    override fun findById(id: Int): ChatOutboxEntry =
+        entries.find { it.id == id } ?: throw EntityNotFoundException("ChatOutboxEntry not found")
+
+    override fun findByIds(ids: List<Int>): List<ChatOutboxEntry> = entries.filter { ids.contains(it.id) }
+
+    override fun persist(model: ChatOutboxEntry) {
+        model.id = nextId++
+        entries.add(model)
+    }
+
+    override fun update(model: ChatOutboxEntry) {
+        delete(model.id)
+        entries.add(model)
+    }
+
+    override fun delete(id: Int) {
+        entries.remove(findById(id))
+    }
+
+    override fun findDue(now: Long, limit: Int): List<ChatOutboxEntry> =
+        entries.filter { it.nextAttempt <= now }.sortedBy { it.nextAttempt }.take(limit)
+
+    override fun findByMessageId(messageId: Int): ChatOutboxEntry? = entries.find { it.messageId == messageId }
+
+    override fun count(): Int = entries.size
+}
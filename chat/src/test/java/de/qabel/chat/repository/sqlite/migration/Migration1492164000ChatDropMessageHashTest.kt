@@ -0,0 +1,111 @@
+package de.qabel.chat.repository.sqlite.migration
+
+import de.qabel.chat.repository.entities.ChatDropMessage.Direction
+import de.qabel.chat.repository.sqlite.ChatClientDatabase
+import de.qabel.core.config.Contact
+import de.qabel.core.config.factory.IdentityBuilder
+import de.qabel.core.crypto.QblECPublicKey
+import de.qabel.core.drop.DropURL
+import de.qabel.core.dropUrlGenerator
+import de.qabel.core.extensions.use
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.sqlite.SqliteContactRepository
+import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
+import de.qabel.core.repository.sqlite.SqliteIdentityRepository
+import de.qabel.core.repository.sqlite.migration.AbstractSqliteTest
+import org.junit.Assert.*
+import org.junit.Test
+import java.sql.SQLException
+import java.sql.Timestamp
+import java.util.*
+
+class Migration1492164000ChatDropMessageHashTest : AbstractSqliteTest() {
+    private lateinit var migration: Migration1492164000ChatDropMessageHash
+    private var identityId = 0
+    private var contactId = 0
+
+    override fun setUp() {
+        super.setUp()
+        migration = Migration1492164000ChatDropMessageHash(connection)
+        val database = ChatClientDatabase(connection)
+        database.migrateTo(migration.version - 1)
+        val em = EntityManager()
+        val identityRepo = SqliteIdentityRepository(database, em)
+        val identity = IdentityBuilder(dropUrlGenerator).withAlias("identity").build()
+        identityRepo.save(identity)
+        val contact = Contact("contact", LinkedList<DropURL>(), QblECPublicKey("contact".toByteArray()))
+        SqliteContactRepository(database, em, SqliteDropUrlRepository(database), identityRepo).save(contact, identity)
+        identityId = identity.id
+        contactId = contact.id
+    }
+
+    private fun insert(id: Int, direction: Direction, payload: String) {
+        connection.prepareStatement("INSERT INTO chat_drop_message " +
+            "(id, contact_id, identity_id, status, direction, payload_type, payload, created_on) " +
+            "VALUES (?, ?, ?, 0, ?, 'box_message', ?, ?)").use {
+            it.setInt(1, id)
+            it.setInt(2, contactId)
+            it.setInt(3, identityId)
+            it.setInt(4, direction.type)
+            it.setString(5, payload)
+            it.setTimestamp(6, Timestamp(1000))
+            it.execute()
+        }
+    }
+
+    private fun hashes(): Map<Int, String?> {
+        val hashes = mutableMapOf<Int, String?>()
+        connection.prepareStatement("SELECT id, payload_hash FROM chat_drop_message").use {
+            it.executeQuery().use { rows ->
+                while (rows.next()) {
+                    hashes[rows.getInt(1)] = rows.getString(2)
+                }
+            }
+        }
+        return hashes
+    }
+
+    @Test
+    fun keepsDuplicatesButHashesTheFirstCopyOnly() {
+        insert(1, Direction.INCOMING, "{\"msg\": \"first\"}")
+        insert(2, Direction.INCOMING, "{\"msg\": \"first\"}")
+        insert(3, Direction.INCOMING, "{\"msg\": \"second\"}")
+        insert(4, Direction.OUTGOING, "{\"msg\": \"first\"}")
+
+        migration.up()
+
+        val hashes = hashes()
+        assertEquals(setOf(1, 2, 3, 4), hashes.keys)
+        assertNotNull(hashes[1])
+        assertNull(hashes[2])
+        assertNotNull(hashes[3])
+        assertNotEquals(hashes[1], hashes[3])
+        assertNull(hashes[4])
+    }
+
+    @Test
+    fun dropsColumnAndIndexOnDown() {
+        insert(1, Direction.INCOMING, "{\"msg\": \"first\"}")
+        migration.up()
+
+        migration.down()
+
+        try {
+            connection.prepareStatement("SELECT payload_hash FROM chat_drop_message").use { it.execute() }
+            fail("payload_hash was not dropped")
+        } catch (e: SQLException) { }
+        connection.prepareStatement("SELECT COUNT(*) FROM sqlite_master WHERE name='chat_drop_message_payload_hash'").use {
+            it.executeQuery().use {
+                assertTrue(it.next())
+                assertEquals(0, it.getInt(1))
+            }
+        }
+        connection.prepareStatement("SELECT id, payload FROM chat_drop_message").use {
+            it.executeQuery().use {
+                assertTrue(it.next())
+                assertEquals(1, it.getInt(1))
+                assertEquals("{\"msg\": \"first\"}", it.getString(2))
+            }
+        }
+    }
+}
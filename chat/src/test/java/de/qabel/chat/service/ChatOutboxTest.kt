@@ -0,0 +1,213 @@
+package de.qabel.chat.service
+
+import de.qabel.box.storage.jdbc.JdbcFileMetadataFactory
+import de.qabel.chat.repository.entities.ChatDropMessage
+import de.qabel.chat.repository.entities.ChatDropMessage.*
+import de.qabel.chat.repository.inmemory.InMemoryChatDropMessageRepository
+import de.qabel.chat.repository.inmemory.InMemoryChatOutboxRepository
+import de.qabel.chat.repository.inmemory.InMemoryChatShareRepository
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.drop.DropConnector
+import de.qabel.core.drop.DropMessage
+import de.qabel.core.drop.DropURL
+import de.qabel.core.drop.MainDropConnector
+import de.qabel.core.extensions.CoreTestCase
+import de.qabel.core.extensions.createContact
+import de.qabel.core.extensions.createIdentity
+import de.qabel.core.http.MockDropServer
+import de.qabel.core.repository.entities.DropState
+import de.qabel.core.repository.inmemory.InMemoryContactRepository
+import de.qabel.core.repository.inmemory.InMemoryDropStateRepository
+import de.qabel.core.repository.inmemory.InMemoryIdentityRepository
+import org.hamcrest.Matchers.*
+import org.junit.Assert.assertThat
+import org.junit.Before
+import org.junit.Test
+import rx.observers.TestSubscriber
+import rx.schedulers.Schedulers
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class ChatOutboxTest : CoreTestCase {
+
+    val identity: Identity = createIdentity("Identity")
+    val receiver: Identity = createIdentity("Receiver")
+    val contact: Contact = createContact(receiver.alias, receiver.helloDropUrl, receiver.ecPublicKey)
+    val identityRepository = InMemoryIdentityRepository()
+    val contactRepository = InMemoryContactRepository()
+    val chatDropRepo = InMemoryChatDropMessageRepository()
+    val outboxRepo = InMemoryChatOutboxRepository()
+    val dropServer = MockDropServer()
+
+    @Before
+    fun setUp() {
+        identityRepository.save(identity)
+        contactRepository.save(contact, identity)
+    }
+
+    private fun createOutbox(dropConnector: DropConnector, config: ChatOutbox.Config = ChatOutbox.Config()) =
+        ChatOutbox(dropConnector, identityRepository, contactRepository, chatDropRepo, outboxRepo, config)
+
+    private fun enqueue(outbox: ChatOutbox, text: String): ChatDropMessage =
+        ChatDropMessage(contact.id, identity.id, Direction.OUTGOING, Status.PENDING, MessageType.BOX_MESSAGE,
+            MessagePayload.TextMessage(text), System.currentTimeMillis()).apply {
+            chatDropRepo.persist(this)
+            outbox.enqueue(this)
+        }
+
+    @Test
+    fun sendsQueuedMessages() {
+        val outbox = createOutbox(MainDropConnector(dropServer))
+        val messages = (1..20).map { enqueue(outbox, "message $it") }
+        assertThat(outbox.queueDepth, equalTo(20))
+
+        val sent = outbox.flush()
+
+        assertThat(sent, containsInAnyOrder(*messages.toTypedArray()))
+        assertThat(messages.map { it.status }, everyItem(equalTo(Status.SENT)))
+        assertThat(outbox.queueDepth, equalTo(0))
+        assertThat(outbox.sentMessages, equalTo(20L))
+        val received = MainDropConnector(dropServer)
+            .receiveDropMessages(receiver, receiver.helloDropUrl, DropState(receiver.helloDropUrl.toString()))
+        assertThat(received.dropMessages, hasSize(20))
+    }
+
+    @Test
+    fun enqueuesMessagesOnce() {
+        val outbox = createOutbox(MainDropConnector(dropServer))
+        val message = enqueue(outbox, "twice")
+
+        outbox.enqueue(message)
+
+        assertThat(outbox.queueDepth, equalTo(1))
+        assertThat(outbox.flush(), contains(message))
+    }
+
+    @Test
+    fun enqueuesWhileFlushing() {
+        val sending = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val connector = object : DropConnector by MainDropConnector(dropServer) {
+            override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+                sending.countDown()
+                release.await()
+            }
+        }
+        val outbox = createOutbox(connector)
+        val first = enqueue(outbox, "first")
+        val flushed = Executors.newSingleThreadExecutor().submit(Callable { outbox.flush() })
+        sending.await()
+
+        val second = enqueue(outbox, "second")
+        release.countDown()
+
+        assertThat(flushed.get(), contains(first))
+        assertThat(outbox.queueDepth, equalTo(1))
+        assertThat(outbox.flush(), contains(second))
+    }
+
+    @Test
+    fun retriesWithBackoff() {
+        val attempts = AtomicInteger()
+        val connector = object : DropConnector by MainDropConnector(dropServer) {
+            override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+                if (attempts.incrementAndGet() == 1) {
+                    throw RuntimeException("server unavailable")
+                }
+            }
+        }
+        val outbox = createOutbox(connector, ChatOutbox.Config(initialBackoffMillis = 0))
+        val message = enqueue(outbox, "retried")
+
+        assertThat(outbox.flush(), hasSize(0))
+        assertThat(message.status, equalTo(Status.PENDING))
+        assertThat(outboxRepo.entries.single().attempts, equalTo(1))
+        assertThat(outbox.failedSendAttempts, equalTo(1L))
+
+        assertThat(outbox.flush(), contains(message))
+        assertThat(message.status, equalTo(Status.SENT))
+        assertThat(outbox.queueDepth, equalTo(0))
+    }
+
+    @Test
+    fun delaysRetries() {
+        val connector = object : DropConnector by MainDropConnector(dropServer) {
+            override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+                throw RuntimeException("server unavailable")
+            }
+        }
+        val outbox = createOutbox(connector, ChatOutbox.Config(initialBackoffMillis = 60000))
+        enqueue(outbox, "delayed")
+
+        outbox.flush()
+        outbox.flush()
+
+        assertThat(outbox.failedSendAttempts, equalTo(1L))
+        assertThat(outbox.queueDepth, equalTo(1))
+    }
+
+    @Test
+    fun givesUpAfterMaxAttempts() {
+        val connector = object : DropConnector by MainDropConnector(dropServer) {
+            override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+                throw RuntimeException("server unavailable")
+            }
+        }
+        val outbox = createOutbox(connector, ChatOutbox.Config(maxAttempts = 2, initialBackoffMillis = 0))
+        val failures = TestSubscriber<ChatOutbox.Failure>()
+        outbox.failures.subscribe(failures)
+        val message = enqueue(outbox, "lost")
+
+        outbox.flush()
+        assertThat(message.status, equalTo(Status.PENDING))
+        outbox.flush()
+
+        assertThat(outbox.queueDepth, equalTo(0))
+        assertThat(message.status, equalTo(Status.FAILED))
+        assertThat(chatDropRepo.findById(message.id).status, equalTo(Status.FAILED))
+        assertThat(outbox.failedMessages, equalTo(1L))
+        val failure = failures.onNextEvents.single()
+        assertThat(failure.message, equalTo(message))
+        assertThat(failure.error.message, equalTo("server unavailable"))
+    }
+
+    @Test
+    fun chatServiceQueuesFailedBroadcasts() {
+        val connector = object : DropConnector by MainDropConnector(dropServer) {
+            override fun broadcastDropMessage(identity: Identity, contacts: List<Contact>,
+                                              message: DropMessage): List<DropConnector.BroadcastResult> =
+                throw IllegalStateException("broadcast failed")
+        }
+        val outbox = createOutbox(MainDropConnector(dropServer))
+        val chatService = MainChatService(connector, identityRepository, contactRepository,
+            chatDropRepo, InMemoryDropStateRepository(), MainSharingService(InMemoryChatShareRepository(),
+            contactRepository, createTempDir(), JdbcFileMetadataFactory(createTempDir())),
+            Schedulers.immediate(), outbox = outbox)
+
+        val message = chatService.broadcastTextMessage("queued", identity, listOf(contact)).toBlocking().single()
+
+        assertThat(message.status, equalTo(Status.PENDING))
+        assertThat(outbox.queueDepth, equalTo(1))
+        assertThat(outbox.flush(), contains(message))
+        assertThat(message.status, equalTo(Status.SENT))
+    }
+
+    @Test
+    fun chatServiceQueuesMessages() {
+        val outbox = createOutbox(MainDropConnector(dropServer))
+        val chatService = MainChatService(MainDropConnector(dropServer), identityRepository, contactRepository,
+            chatDropRepo, InMemoryDropStateRepository(), MainSharingService(InMemoryChatShareRepository(),
+            contactRepository, createTempDir(), JdbcFileMetadataFactory(createTempDir())),
+            Schedulers.immediate(), outbox = outbox)
+
+        val message = chatService.sendTextMessage("queued", identity, contact).toBlocking().single()
+
+        assertThat(message.status, equalTo(Status.PENDING))
+        assertThat(outbox.queueDepth, equalTo(1))
+        outbox.flush()
+        assertThat(message.status, equalTo(Status.SENT))
+    }
+}
@@ -8,6 +8,7 @@ import de.qabel.chat.repository.inmemory.InMemoryChatShareRepository
 import de.qabel.core.config.Contact
 import de.qabel.core.config.Identity
 import de.qabel.core.crypto.CryptoUtils
+import de.qabel.core.crypto.QblECKeyPair
 import de.qabel.core.drop.DropConnector
 import de.qabel.core.drop.DropMessage
 import de.qabel.core.drop.MainDropConnector
@@ -93,6 +94,43 @@ class ChatServiceTest : CoreTestCase {
         assertThat(received.status, equalTo(ChatDropMessage.Status.NEW))
     }
 
+    @Test
+    fun testBroadcast() {
+        val unreachable = Contact("unreachable", emptyList(), QblECKeyPair().pub)
+        contactARepository.save(unreachable, identityA)
+
+        val sent = chatServiceA.broadcastTextMessage("Hello all", identityA, listOf(contactB, unreachable))
+            .toList().toBlocking().single()
+
+        assertThat(sent.map { it.contactId }, contains(contactB.id, unreachable.id))
+        assertThat(sent.map { it.status }, contains(ChatDropMessage.Status.SENT, ChatDropMessage.Status.FAILED))
+        assertThat(chatDropRepoA.findByContact(unreachable.id, identityA.id).single().status,
+            equalTo(ChatDropMessage.Status.FAILED))
+
+        val received = chatServiceB.refreshMessages().values.single()
+        assertThat(received, hasSize(1))
+        assertThat(received.first().payload.toString(), equalTo(sent[0].payload.toString()))
+    }
+
+    @Test
+    fun testBroadcastFailure() {
+        val connector = object : DropConnector by dropConnector {
+            override fun broadcastDropMessage(identity: Identity, contacts: List<Contact>,
+                                              message: DropMessage): List<DropConnector.BroadcastResult> =
+                throw IllegalStateException("broadcast failed")
+        }
+        val chatService = MainChatService(connector, identityARepository, contactARepository, chatDropRepoA,
+            dropStateRepo, MainSharingService(InMemoryChatShareRepository(), contactARepository, createTempDir(),
+            fileMetadataFactory), Schedulers.immediate())
+
+        val sent = chatService.broadcastTextMessage("Hello all", identityA, listOf(contactB))
+            .toList().toBlocking().single()
+
+        assertThat(sent.map { it.status }, contains(ChatDropMessage.Status.FAILED))
+        assertThat(chatDropRepoA.findByContact(contactB.id, identityA.id).single().status,
+            equalTo(ChatDropMessage.Status.FAILED))
+    }
+
     @Test
     fun testReceiveMessages() {
         val message = createMessage(identityA, contactB, "Blub blub blubb")
@@ -2,12 +2,27 @@ package de.qabel.client
 
 import de.qabel.chat.repository.sqlite.ChatClientDatabase
 import de.qabel.client.box.storage.repository.migrations.LocalStorageMigration1460997045Init
+import de.qabel.client.box.storage.repository.migrations.LocalStorageMigration1492077600TransferJournal
+import de.qabel.core.repository.sqlite.ReadConnectionPool
 import de.qabel.core.repository.sqlite.migration.AbstractMigration
 import java.sql.Connection
+import java.sql.DriverManager
 
-open class MainClientDatabase(connection: Connection) : ChatClientDatabase(connection) {
+open class MainClientDatabase @JvmOverloads constructor(connection: Connection, readers: ReadConnectionPool? = null)
+    : ChatClientDatabase(connection, readers) {
 
     override fun getMigrations(connection: Connection): Array<AbstractMigration> =
-        super.getMigrations(connection) + listOf(LocalStorageMigration1460997045Init(connection))
+        super.getMigrations(connection) + listOf(
+            LocalStorageMigration1460997045Init(connection),
+            LocalStorageMigration1492077600TransferJournal(connection))
 
+    companion object {
+        /**
+         * Opens the database with readers for queries, unless it is in memory
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun open(url: String, readers: Int = ReadConnectionPool.DEFAULT_READERS) =
+            MainClientDatabase(DriverManager.getConnection(url), ReadConnectionPool.forUrl(url, readers))
+    }
 }
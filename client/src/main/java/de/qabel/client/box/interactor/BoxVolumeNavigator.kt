@@ -4,6 +4,7 @@ import de.qabel.box.storage.*
 import de.qabel.box.storage.dto.BoxPath
 import de.qabel.box.storage.exceptions.QblStorageNotFound
 import de.qabel.client.box.storage.LocalStorage
+import de.qabel.client.box.storage.repository.TransferJournalRepository
 import de.qabel.core.extensions.letApply
 import de.qabel.core.logging.QabelLog
 import java.io.FileNotFoundException
@@ -13,6 +14,16 @@ class BoxVolumeNavigator @Inject constructor(keyAndPrefix: BoxReadFileBrowser.Ke
                                              private val volume: BoxVolume,
                                              private val localStorage: LocalStorage) : VolumeNavigator, QabelLog {
 
+    /**
+     * Records the chunked transfers of the volume in the transferJournal, so they can be resumed after a restart
+     */
+    constructor(keyAndPrefix: BoxReadFileBrowser.KeyAndPrefix,
+                volume: BoxVolume,
+                localStorage: LocalStorage,
+                transferJournal: TransferJournalRepository) : this(keyAndPrefix, volume, localStorage) {
+        volume.config.transferJournal = transferJournal
+    }
+
     override val key = keyAndPrefix.publicKey
     override val prefix = keyAndPrefix.prefix
 
@@ -0,0 +1,62 @@
+package de.qabel.client.box.storage.repository
+
+import de.qabel.box.storage.BoxChunk
+import de.qabel.box.storage.TransferProgress
+import de.qabel.client.box.storage.repository.TransferEntryDB.CHUNK
+import de.qabel.client.box.storage.repository.TransferEntryDB.TABLE_NAME
+import de.qabel.client.box.storage.repository.TransferEntryDB.TRANSFER
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.framework.BaseRepository
+import de.qabel.core.repository.framework.QueryBuilder
+import de.qabel.core.repository.sqlite.ClientDatabase
+
+/**
+ * Transfer journal stored next to the storage entries, so transfers can be resumed after a restart.
+ * Chunk keys are not stored, the navigations take them from the file or derive them again.
+ */
+class BoxTransferJournalRepository(database: ClientDatabase,
+                                   entityManager: EntityManager) : TransferJournalRepository,
+    BaseRepository<TransferEntry>(TransferEntryDB, TransferEntryResultAdapter(), database, entityManager) {
+
+    @Synchronized
+    override fun find(transfer: String): List<TransferProgress> =
+        findEntries(transfer).map {
+            TransferProgress(BoxChunk(it.chunk, it.block, it.size, ByteArray(0), it.hash), it.offset)
+        }
+
+    @Synchronized
+    override fun update(transfer: String, progress: TransferProgress) {
+        val chunk = progress.chunk
+        val entry = TransferEntry(transfer, chunk.index, chunk.block, chunk.size, chunk.hash, progress.offset)
+        val existing = findEntries(transfer).find { it.chunk == chunk.index }
+        if (existing == null) {
+            persist(entry)
+        } else {
+            entry.id = existing.id
+            update(entry)
+        }
+    }
+
+    @Synchronized
+    override fun remove(transfer: String) =
+        executeStatement("DELETE FROM $TABLE_NAME WHERE ${TRANSFER.name}=?", {
+            it.setString(1, transfer)
+        })
+
+    /**
+     * Entries are hydrated detached because removed ids may be reused by sqlite.
+     */
+    private fun findEntries(transfer: String): List<TransferEntry> =
+        with(createEntityQuery()) {
+            whereAndEquals(TRANSFER, transfer)
+            orderBy(CHUNK.exp(), QueryBuilder.Direction.ASCENDING)
+            executeQuery(this, {
+                val results = mutableListOf<TransferEntry>()
+                while (it.next()) {
+                    results.add(resultAdapter.hydrateOne(it, entityManager, true))
+                }
+                results
+            })
+        }
+
+}
@@ -0,0 +1,60 @@
+package de.qabel.client.box.storage.repository
+
+import de.qabel.client.box.storage.repository.TransferEntryDB.BLOCK
+import de.qabel.client.box.storage.repository.TransferEntryDB.CHUNK
+import de.qabel.client.box.storage.repository.TransferEntryDB.HASH
+import de.qabel.client.box.storage.repository.TransferEntryDB.SIZE
+import de.qabel.client.box.storage.repository.TransferEntryDB.TRANSFER
+import de.qabel.client.box.storage.repository.TransferEntryDB.TRANSFERRED
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.framework.DBField
+import de.qabel.core.repository.framework.DBRelation
+import de.qabel.core.repository.sqlite.hydrator.BaseEntityResultAdapter
+import java.sql.PreparedStatement
+import java.sql.ResultSet
+
+object TransferEntryDB : DBRelation<TransferEntry> {
+
+    override val TABLE_NAME = "transfer_journal"
+    override val TABLE_ALIAS = "tj"
+
+    override val ID = field("id")
+    val TRANSFER = field("transfer")
+    val CHUNK = field("chunk")
+    val BLOCK = field("block")
+    val SIZE = field("size")
+    val HASH = field("hash")
+    val TRANSFERRED = field("transferred")
+
+    override val ENTITY_FIELDS: List<DBField> = listOf(TRANSFER, CHUNK, BLOCK, SIZE, HASH, TRANSFERRED)
+
+    override val ENTITY_CLASS: Class<TransferEntry> = TransferEntry::class.java
+
+    override fun applyValues(startIndex: Int, statement: PreparedStatement, model: TransferEntry): Int =
+        with(statement) {
+            var i = startIndex
+            setString(i++, model.transfer)
+            setInt(i++, model.chunk)
+            setString(i++, model.block)
+            setLong(i++, model.size)
+            setBytes(i++, model.hash)
+            setLong(i++, model.offset)
+            return i
+        }
+
+}
+
+class TransferEntryResultAdapter : BaseEntityResultAdapter<TransferEntry>(TransferEntryDB) {
+
+    override fun hydrateEntity(entityId: Int, resultSet: ResultSet, entityManager: EntityManager, detached: Boolean): TransferEntry =
+        with(resultSet) {
+            TransferEntry(getString(TRANSFER.alias()),
+                getInt(CHUNK.alias()),
+                getString(BLOCK.alias()),
+                getLong(SIZE.alias()),
+                getBytes(HASH.alias()),
+                getLong(TRANSFERRED.alias()),
+                entityId)
+        }
+
+}
@@ -0,0 +1,6 @@
+package de.qabel.client.box.storage.repository
+
+import de.qabel.box.storage.TransferJournal
+import de.qabel.core.repository.framework.Repository
+
+interface TransferJournalRepository : Repository<TransferEntry>, TransferJournal
@@ -0,0 +1,25 @@
+package de.qabel.client.box.storage.repository.migrations
+
+import de.qabel.core.repository.sqlite.migration.AbstractMigration
+import java.sql.Connection
+
+class LocalStorageMigration1492077600TransferJournal(connection: Connection) : AbstractMigration(connection) {
+
+    override fun getVersion() = 1492077600L
+
+    override fun up() {
+        execute("""CREATE TABLE IF NOT EXISTS transfer_journal (
+                id INTEGER PRIMARY KEY,
+                transfer VARCHAR(255) NOT NULL,
+                chunk INTEGER NOT NULL,
+                block VARCHAR(255) NOT NULL,
+                size LONG NOT NULL,
+                hash BLOB NOT NULL,
+                transferred LONG NOT NULL,
+                UNIQUE (transfer, chunk))""")
+    }
+
+    override fun down() {
+        execute("DROP TABLE transfer_journal")
+    }
+}
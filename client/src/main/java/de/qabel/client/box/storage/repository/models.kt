@@ -17,3 +17,11 @@ enum class EntryType(override val type: Int) : PersistableEnum<Int> {
     FILE(1),
     DIRECTORY_METADATA(2)
 }
+
+data class TransferEntry(val transfer: String,
+                         val chunk: Int,
+                         val block: String,
+                         val size: Long,
+                         val hash: ByteArray,
+                         var offset: Long,
+                         override var id: Int = 0) : BaseEntity
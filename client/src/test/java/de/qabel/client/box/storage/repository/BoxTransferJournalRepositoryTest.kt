@@ -0,0 +1,65 @@
+package de.qabel.client.box.storage.repository
+
+import de.qabel.box.storage.BoxChunk
+import de.qabel.box.storage.TransferProgress
+import de.qabel.client.MainClientDatabase
+import de.qabel.core.repository.EntityManager
+import org.hamcrest.Matchers.empty
+import org.hamcrest.Matchers.equalTo
+import org.junit.Assert.assertThat
+import org.junit.Before
+import org.junit.Test
+import java.sql.DriverManager
+
+class BoxTransferJournalRepositoryTest {
+
+    lateinit var repository: BoxTransferJournalRepository
+
+    val chunk = BoxChunk(1, "block", 100L, ByteArray(0), byteArrayOf(3, 4))
+
+    @Before
+    fun setUp() {
+        val clientDatabase = MainClientDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"))
+        clientDatabase.migrate()
+        repository = BoxTransferJournalRepository(clientDatabase, EntityManager())
+    }
+
+    @Test
+    fun findsRecordedProgress() {
+        repository.update("transfer", TransferProgress(chunk, 40L))
+
+        val progress = repository.find("transfer").single()
+        assertThat(progress.chunk, equalTo(chunk))
+        assertThat(progress.offset, equalTo(40L))
+        assertThat(repository.find("other"), empty())
+    }
+
+    @Test
+    fun doesNotStoreKeys() {
+        repository.update("transfer", TransferProgress(chunk.withKey(byteArrayOf(1, 2)), 40L))
+
+        assertThat(repository.find("transfer").single().chunk, equalTo(chunk))
+    }
+
+    @Test
+    fun updatesProgressOfChunk() {
+        repository.update("transfer", TransferProgress(chunk, 40L))
+        repository.update("transfer", TransferProgress(chunk, 100L))
+
+        val progress = repository.find("transfer").single()
+        assertThat(progress.offset, equalTo(100L))
+        assertThat(progress.isComplete(), equalTo(true))
+    }
+
+    @Test
+    fun removesTransfer() {
+        repository.update("transfer", TransferProgress(chunk, 100L))
+        repository.update("transfer", TransferProgress(chunk.withIndex(2), 0L))
+        repository.update("other", TransferProgress(chunk, 100L))
+
+        repository.remove("transfer")
+
+        assertThat(repository.find("transfer"), empty())
+        assertThat(repository.find("other").size, equalTo(1))
+    }
+}
@@ -53,8 +53,10 @@ abstract class AbstractBinaryDropMessage {
 
     protected abstract val payloadSize: Int
 
-    protected val paddedMessage: ByteArray
-        get() = Arrays.copyOf(plainPayload, payloadSize)
+    /**
+     * Padded once and shared by all recipients of the message, must not be modified
+     */
+    protected val paddedMessage: ByteArray by lazy { Arrays.copyOf(plainPayload, payloadSize) }
 
     /**
      * Assembles a binary transport message for the given recipient.
@@ -100,8 +102,7 @@ abstract class AbstractBinaryDropMessage {
         private val logger = LoggerFactory.getLogger(AbstractBinaryDropMessage::class.java.name)
 
         private fun serializeMessage(dropMessage: DropMessage): ByteArray {
-            val gson = DropMessageGson.create()
-            return gson.toJson(dropMessage).toByteArray()
+            return DropMessageGson.shared.toJson(dropMessage).toByteArray()
         }
 
         /**
@@ -111,9 +112,8 @@ abstract class AbstractBinaryDropMessage {
          * @return deserialized Dropmessage or null if deserialization error occurred.
          */
         private fun deserialize(plainJson: String): DropMessage? {
-            val gson = DropMessageGson.create()
             try {
-                return gson.fromJson(plainJson, DropMessage::class.java)
+                return DropMessageGson.shared.fromJson(plainJson, DropMessage::class.java)
             } catch (e: JsonParseException) {
                 logger.debug("Deserialization failed due to invalid json syntax", e)
                 return null
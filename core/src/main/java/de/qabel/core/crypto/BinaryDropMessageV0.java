@@ -22,7 +22,23 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
     private static final int HEADER_SIZE = 1;
     private static final int BOX_HEADER_SIZE = 100;
     private static final int PAYLOAD_SIZE = 2048;
+    /**
+     * Size of every message in this format
+     */
+    public static final int MESSAGE_SIZE = HEADER_SIZE + BOX_HEADER_SIZE + PAYLOAD_SIZE;
     private byte[] binaryMessage;
+    private byte[] noiseBox;
+    private EcdhCache staticDhCache;
+
+    /**
+     * CryptoUtils creates a SecureRandom and a key generator, both are not needed more than once per thread
+     */
+    private static final ThreadLocal<CryptoUtils> cryptoUtils = new ThreadLocal<CryptoUtils>() {
+        @Override
+        protected CryptoUtils initialValue() {
+            return new CryptoUtils();
+        }
+    };
 
     private static final Logger logger = LoggerFactory
         .getLogger(BinaryDropMessageV0.class.getName());
@@ -33,9 +49,18 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
     }
 
     public BinaryDropMessageV0(byte[] binaryMessage)
+        throws QblVersionMismatchException, QblDropInvalidMessageSizeException {
+        this(binaryMessage, null);
+    }
+
+    /**
+     * @param staticDhCache caches the static DH results of the recipients and senders of received messages
+     */
+    public BinaryDropMessageV0(byte[] binaryMessage, EcdhCache staticDhCache)
         throws QblVersionMismatchException, QblDropInvalidMessageSizeException {
         super(binaryMessage);
         this.binaryMessage = binaryMessage;
+        this.staticDhCache = staticDhCache;
     }
 
     @Override
@@ -54,11 +79,11 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
 
     @Override
     protected int getTotalSize() {
-        return PAYLOAD_SIZE + HEADER_SIZE + BOX_HEADER_SIZE;
+        return MESSAGE_SIZE;
     }
 
     private byte[] buildBody(Contact recipient, Identity sender) {
-        CryptoUtils cu = new CryptoUtils();
+        CryptoUtils cu = cryptoUtils.get();
         byte[] box;
         try {
             box = cu.createBox(sender.getPrimaryKeyPair(),
@@ -78,11 +103,12 @@ public class BinaryDropMessageV0 extends AbstractBinaryDropMessage {
 
     @Override
     public DecryptedPlaintext disassembleRawMessage(Identity identity) {
-        CryptoUtils cu = new CryptoUtils();
+        if (noiseBox == null) {
+            noiseBox = Arrays.copyOfRange(binaryMessage, HEADER_SIZE, binaryMessage.length);
+        }
         DecryptedPlaintext decryptedPlaintext = null;
         try {
-            decryptedPlaintext = cu.readBox(identity.getPrimaryKeyPair(),
-                Arrays.copyOfRange(binaryMessage, HEADER_SIZE, binaryMessage.length));
+            decryptedPlaintext = cryptoUtils.get().readBox(identity.getPrimaryKeyPair(), noiseBox, staticDhCache);
         } catch (InvalidKeyException e) {
             logger.debug("Message invalid or not meant for this recipient");
         } catch (InvalidCipherTextException e) {
@@ -5,9 +5,8 @@ import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.CipherKeyGenerator;
 import org.spongycastle.crypto.InvalidCipherTextException;
 import org.spongycastle.crypto.KeyGenerationParameters;
-import org.spongycastle.crypto.digests.SHA512Digest;
 import org.spongycastle.crypto.engines.AESEngine;
-import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
 import org.spongycastle.crypto.modes.GCMBlockCipher;
 import org.spongycastle.crypto.params.AEADParameters;
 import org.spongycastle.crypto.params.KeyParameter;
@@ -20,28 +19,50 @@ import java.util.Arrays;
 
 public class CryptoUtils {
     // https://github.com/Qabel/qabel-doc/wiki/Components-Crypto
-    private static final int SYMM_GCM_READ_SIZE_BYTE = 4096; // Should be multiple of 4096 byte due to flash block size.
+    private static final int SYMM_GCM_READ_SIZE_BYTE = 16 * 4096; // Should be multiple of 4096 byte due to flash block size.
     private static final int SYMM_NONCE_SIZE_BYTE = 12;
     private static final int AES_KEY_SIZE_BYTE = 32;
     private static final int AES_KEY_SIZE_BIT = AES_KEY_SIZE_BYTE * 8;
 
-    private static byte[] SUITE_NAME = "Noise255/AES256-GCM\0\0\0\0\0".getBytes();
-    private static final int H_LEN = 64;
-    private static final int CV_LEN_BYTE = 48;
-    private static final int SYMM_KEY_LEN_BYTE = 32;
-    private static final int NONCE_LEN_BYTE = 12;
     private static final int MAC_BIT = 128;
-    private static final int HEADER_CIPHER_TEXT_LEN_BYTE = 48;
-    private static final int PADDING_LEN_BYTES = 4;
     public static final int ASYM_KEY_SIZE_BYTE = 32;
+    /**
+     * Number of bytes the symmetric authenticated encryption adds to the plaintext (nonce and tag)
+     */
+    public static final int SYMM_OVERHEAD_BYTE = SYMM_NONCE_SIZE_BYTE + MAC_BIT / 8;
 
     private static final Logger logger = LoggerFactory.getLogger(CryptoUtils.class
         .getName());
 
+    /**
+     * Noise boxes are handled by a codec per thread, because instances of CryptoUtils are shared between threads
+     */
+    private static final ThreadLocal<NoiseBoxCodec> noiseBoxCodec = new ThreadLocal<NoiseBoxCodec>() {
+        @Override
+        protected NoiseBoxCodec initialValue() {
+            return new NoiseBoxCodec();
+        }
+    };
+
     private SecureRandom secRandom;
     private CipherKeyGenerator keyGenerator;
+    private final SymmetricCipherProvider cipherProvider;
+    private final int bufferSize;
 
     public CryptoUtils() {
+        this(SymmetricCipherProviders.getDefault(), SYMM_GCM_READ_SIZE_BYTE);
+    }
+
+    /**
+     * @param cipherProvider AES-GCM implementation for files and streams
+     * @param bufferSize     number of bytes encrypted or decrypted per step of files and streams
+     */
+    public CryptoUtils(SymmetricCipherProvider cipherProvider, int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        this.cipherProvider = cipherProvider;
+        this.bufferSize = bufferSize;
         secRandom = new SecureRandom();
 
         //New key generator needs random for initialization
@@ -64,7 +85,7 @@ public class CryptoUtils {
     /**
      * Encrypts a File to an OutputStream. The OutputStream gets the result
      * immediately while encrypting. The step size of every seperate decryption
-     * step is defined in SYMM_ALT_READ_SIZE_BYTE.
+     * step is the buffer size of this instance.
      *
      * @param file         Input file that will be encrypted
      * @param outputStream OutputStream where ciphertext is streamed to
@@ -80,7 +101,7 @@ public class CryptoUtils {
     /**
      * Encrypts a File to an OutputStream. The OutputStream gets the result
      * immediately while encrypting. The step size of every seperate decryption
-     * step is defined in SYMM_ALT_READ_SIZE_BYTE. Nonce of size
+     * step is the buffer size of this instance. Nonce of size
      * SYMM_NONCE_SIZE_BIT is taken as nonce directly, else a random nonce is
      * generated.
      *
@@ -100,7 +121,7 @@ public class CryptoUtils {
     /**
      * Encrypts an InputStream to an OutputStream. The OutputStream gets the result
      * immediately while encrypting. The step size of every separate decryption
-     * step is defined in SYMM_GCM_READ_SIZE_BYTE. Nonce of size
+     * step is the buffer size of this instance. Nonce of size
      * SYMM_NONCE_SIZE_BIT is taken as nonce directly, else a random nonce is
      * generated.
      *
@@ -114,15 +135,15 @@ public class CryptoUtils {
     public boolean encryptStreamAuthenticatedSymmetric(InputStream inputStream, OutputStream outputStream,
                                                        KeyParameter key, byte[] nonce) throws InvalidKeyException {
         DataOutputStream cipherText = new DataOutputStream(outputStream);
-        byte[] tempIn = new byte[SYMM_GCM_READ_SIZE_BYTE];
-        byte[] tempOut = new byte[SYMM_GCM_READ_SIZE_BYTE];
+        byte[] tempIn = new byte[bufferSize];
+        byte[] tempOut = new byte[bufferSize + 64];
         int usedBytes;
 
         if (nonce == null || nonce.length != SYMM_NONCE_SIZE_BYTE) {
             nonce = getRandomBytes(SYMM_NONCE_SIZE_BYTE);
         }
 
-        GCMBlockCipher gcmCipher = new GCMBlockCipher(new AESEngine());
+        AEADBlockCipher gcmCipher = cipherProvider.createGcmCipher(true);
         try {
             gcmCipher.init(true, new AEADParameters(key, MAC_BIT, nonce, null));
         } catch (IllegalArgumentException e) {
@@ -149,6 +170,34 @@ public class CryptoUtils {
         return true;
     }
 
+    /**
+     * Wraps an InputStream into a stream that yields the encrypted content while it is read.
+     * The result has the same format as the output of
+     * {@link #encryptStreamAuthenticatedSymmetric(InputStream, OutputStream, KeyParameter, byte[])},
+     * but no OutputStream (or temporary file) is needed to collect the ciphertext.
+     * Closing the returned stream closes the given InputStream.
+     *
+     * @param inputStream InputStream that will be encrypted
+     * @param key         Key which is used to en-/decrypt
+     * @param nonce       Random value which is concatenated to a counter
+     * @return InputStream of the ciphertext
+     * @throws InvalidKeyException if key is invalid
+     */
+    public InputStream encryptingInputStream(InputStream inputStream, KeyParameter key, byte[] nonce)
+        throws InvalidKeyException {
+        if (nonce == null || nonce.length != SYMM_NONCE_SIZE_BYTE) {
+            nonce = getRandomBytes(SYMM_NONCE_SIZE_BYTE);
+        }
+
+        AEADBlockCipher gcmCipher = cipherProvider.createGcmCipher(true);
+        try {
+            gcmCipher.init(true, new AEADParameters(key, MAC_BIT, nonce, null));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeyException("Encryption: Wrong parameters for file encryption cipher.", e);
+        }
+        return new EncryptingInputStream(inputStream, gcmCipher, nonce, bufferSize);
+    }
+
     /**
      * Decrypts ciphertext from an InputStream to a file. The decrypted content
      * is written to the file immediately. If decryption was successful true
@@ -165,8 +214,8 @@ public class CryptoUtils {
     public boolean decryptFileAuthenticatedSymmetricAndValidateTag(InputStream inputStream, File file, KeyParameter key)
         throws InvalidKeyException, IOException {
         byte[] nonce = new byte[SYMM_NONCE_SIZE_BYTE];
-        byte[] tempIn = new byte[SYMM_GCM_READ_SIZE_BYTE];
-        byte[] tempOut = new byte[SYMM_GCM_READ_SIZE_BYTE];
+        byte[] tempIn = new byte[bufferSize];
+        byte[] tempOut = new byte[bufferSize + 64];
         BufferedInputStream bufferedInput = new BufferedInputStream(inputStream);
         int usedBytes;
 
@@ -177,7 +226,7 @@ public class CryptoUtils {
             throw e;
         }
 
-        GCMBlockCipher gcmCipher = new GCMBlockCipher(new AESEngine());
+        AEADBlockCipher gcmCipher = cipherProvider.createGcmCipher(false);
         try {
             gcmCipher.init(false, new AEADParameters(key, MAC_BIT, nonce, null));
         } catch (IllegalArgumentException e) {
@@ -186,8 +235,7 @@ public class CryptoUtils {
 
         FileOutputStream fileOutput = new FileOutputStream(file);
         try {
-            while ((usedBytes = bufferedInput.read(tempIn, 0,
-                SYMM_GCM_READ_SIZE_BYTE)) > 0) {
+            while ((usedBytes = bufferedInput.read(tempIn, 0, bufferSize)) > 0) {
                 /*
 				 * reading from a buffered input stream ensures that enough bytes
 				 * are read to fulfill the block cipher min. length requirements.
@@ -212,54 +260,45 @@ public class CryptoUtils {
     }
 
     /**
-     * Generates a new symmetric key for encryption.
+     * Wraps an InputStream of ciphertext (as created by
+     * {@link #encryptStreamAuthenticatedSymmetric(InputStream, OutputStream, KeyParameter, byte[])})
+     * into a stream that yields the plaintext while the ciphertext is read.
+     * In contrast to {@link #decryptFileAuthenticatedSymmetricAndValidateTag(InputStream, File, KeyParameter)}
+     * the plaintext is available before the authentication tag is validated. An invalid tag is reported
+     * by an IOException when the end of the stream is read and again when it is closed.
      *
-     * @return new symmetric key.
+     * @param inputStream InputStream from where the ciphertext is read
+     * @param key         Key which is used to en-/decrypt the file
+     * @return InputStream of the plaintext
+     * @throws InvalidKeyException if key is invalid
+     * @throws IOException         if the nonce cannot be read
      */
-    public KeyParameter generateSymmetricKey() {
-        return new KeyParameter(keyGenerator.generateKey());
+    public DecryptingInputStream decryptingInputStream(InputStream inputStream, KeyParameter key)
+        throws InvalidKeyException, IOException {
+        byte[] nonce = new byte[SYMM_NONCE_SIZE_BYTE];
+        try {
+            new DataInputStream(inputStream).readFully(nonce);
+        } catch (IOException e) {
+            logger.debug("Decryption: Ciphertext (in this case the nonce) can not be read.", e);
+            throw e;
+        }
+
+        AEADBlockCipher gcmCipher = cipherProvider.createGcmCipher(false);
+        try {
+            gcmCipher.init(false, new AEADParameters(key, MAC_BIT, nonce, null));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidKeyException("Decryption: Wrong parameters for file decryption.", e);
+        }
+        return new DecryptingInputStream(inputStream, gcmCipher, bufferSize);
     }
 
     /**
-     * Noise Key derivation function. Outputs a byte sequence that the caller typically splits into multiple variables
-     * such as a chain variable and cipher context, or two cipher contexts.
+     * Generates a new symmetric key for encryption.
      *
-     * @param secret      secret for key derivation
-     * @param extraSecret is used to pass a chaining variable to mix into the KDF.
-     * @param info        ensures that applying the KDF to the same secret values will produce independent output,
-     *                    provided 'info' is different.
-     * @param outputLen   length out the output
-     * @return derived key or null on unexpected errors
-     * @throws InvalidKeyException if secret cannot be used as a HMAC secret
+     * @return new symmetric key.
      */
-    byte[] kdf(byte[] secret, byte[] extraSecret, byte[] info, int outputLen) throws InvalidKeyException {
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        byte[] t = new byte[H_LEN];
-
-        // Not required to init the ByteArrayOutputStream with the
-        // expected length, but it might improve the performance
-        KeyParameter key = new KeyParameter(secret);
-        ByteArrayOutputStream bs = new ByteArrayOutputStream(info.length + 1 + 32 + extraSecret.length);
-        HMac hmac = new HMac(new SHA512Digest());
-        for (int c = 0; c <= Math.ceil((double) outputLen / H_LEN) - 1; c++) {
-            try {
-                bs.write(info);
-                bs.write(c);
-                bs.write(t, 0, 32);
-                bs.write(extraSecret);
-
-                hmac.init(key);
-                hmac.update(bs.toByteArray(), 0, bs.size());
-                hmac.doFinal(t, 0);
-                outputStream.write(t);
-                bs.reset();
-            } catch (IOException e) {
-                // Should never occur
-                logger.error("Cannot write to ByteArrayOutputStream!", e);
-                return null;
-            }
-        }
-        return Arrays.copyOfRange(outputStream.toByteArray(), 0, outputLen);
+    public KeyParameter generateSymmetricKey() {
+        return new KeyParameter(keyGenerator.generateKey());
     }
 
     /**
@@ -279,71 +318,9 @@ public class CryptoUtils {
         if (appData == null) {
             appData = new byte[0];
         }
-
-        QblECKeyPair ephKey = new QblECKeyPair();
-        ByteArrayInputStream key1, key2;
-        ByteArrayOutputStream header = new ByteArrayOutputStream();
-        ByteArrayOutputStream body = new ByteArrayOutputStream();
-        ByteArrayOutputStream noiseBox = new ByteArrayOutputStream();
-        ByteArrayOutputStream authtext = new ByteArrayOutputStream();
-        ByteArrayOutputStream paddedPlaintext = new ByteArrayOutputStream(appData.length + PADDING_LEN_BYTES);
-        byte[] cv1 = new byte[CV_LEN_BYTE];
-        byte[] symmKey1 = new byte[SYMM_KEY_LEN_BYTE];
-        byte[] nonce1 = new byte[NONCE_LEN_BYTE];
-        byte[] symmKey2 = new byte[SYMM_KEY_LEN_BYTE];
-        byte[] nonce2 = new byte[NONCE_LEN_BYTE];
-        byte[] dh1 = ephKey.ECDH(targetPubKey);
-        byte[] dh2 = senderKey.ECDH(targetPubKey);
-        byte[] info = Arrays.copyOf(SUITE_NAME, SUITE_NAME.length + 1);
-        try {
-            // disable negative padding
-            if (padLen < 0) {
-                padLen = 0;
-            }
-            byte[] encryptedPaddingLen = ByteBuffer.allocate(PADDING_LEN_BYTES).putInt(padLen).array();
-            paddedPlaintext.write(appData);
-            if (padLen > 0) {
-                paddedPlaintext.write(getRandomBytes(padLen));
-            }
-            paddedPlaintext.write(encryptedPaddingLen);
-
-            // kdf
-            key1 = new ByteArrayInputStream(kdf(dh1, new byte[CV_LEN_BYTE], info, CV_LEN_BYTE + SYMM_KEY_LEN_BYTE + NONCE_LEN_BYTE));
-            key1.read(cv1);
-            key1.read(symmKey1);
-            key1.read(nonce1);
-            info[info.length - 1] += (byte) 0x01;
-
-            // header = eph_key.pub || ENCRYPT(cc1, sender_key.pub, target_pubkey || eph_key.pub)
-            authtext.write(targetPubKey.getKey());
-            authtext.write(ephKey.getPub().getKey());
-
-            header.write(ephKey.getPub().getKey());
-            header.write(encrypt(new KeyParameter(symmKey1), nonce1, senderKey.getPub().getKey(), authtext.toByteArray()));
-
-            // body = noise_body(cc2, appData, target_pubkey || header)
-            key2 = new ByteArrayInputStream(kdf(dh2, cv1, info, CV_LEN_BYTE + SYMM_KEY_LEN_BYTE + NONCE_LEN_BYTE));
-            key2.skip(CV_LEN_BYTE);    // Not used, so discarded
-            key2.read(symmKey2);
-            key2.read(nonce2);
-            authtext.reset();
-            authtext.write(targetPubKey.getKey());
-            header.writeTo(authtext);
-            body.write(encrypt(new KeyParameter(symmKey2), nonce2, paddedPlaintext.toByteArray(), authtext.toByteArray()));
-
-            // noise box = header || body
-            header.writeTo(noiseBox);
-            body.writeTo(noiseBox);
-        } catch (IOException e) {
-            // Should never occur
-            logger.error("Cannot write to ByteArrayOutputStream!", e);
-            throw new RuntimeException(e);
-        } catch (InvalidCipherTextException e) {
-            // Should never occur
-            logger.error("Unknown encryption error!", e);
-            throw new RuntimeException(e);
-        }
-        return noiseBox.toByteArray();
+        byte[] noiseBox = new byte[NoiseBoxCodec.boxSize(appData.length, padLen)];
+        noiseBoxCodec.get().createBox(senderKey, targetPubKey, ByteBuffer.wrap(appData), padLen, ByteBuffer.wrap(noiseBox));
+        return noiseBox;
     }
 
     /**
@@ -356,89 +333,25 @@ public class CryptoUtils {
      * @throws InvalidCipherTextException on decryption errors
      */
     public DecryptedPlaintext readBox(QblECKeyPair targetKey, byte[] noiseBox) throws InvalidKeyException, InvalidCipherTextException {
-        ByteArrayInputStream key1, key2;
-        ByteArrayInputStream cipherStream = new ByteArrayInputStream(noiseBox);
-        ByteArrayOutputStream authtext = new ByteArrayOutputStream();
-        QblECPublicKey senderKey;
-        int encryptedPaddingLength;
-        byte[] ephRawKey = new byte[QblECPublicKey.KEY_SIZE_BYTE];
-        byte[] cv1 = new byte[CV_LEN_BYTE];
-        byte[] symmKey1 = new byte[SYMM_KEY_LEN_BYTE];
-        byte[] nonce1 = new byte[NONCE_LEN_BYTE];
-        byte[] symmKey2 = new byte[SYMM_KEY_LEN_BYTE];
-        byte[] nonce2 = new byte[NONCE_LEN_BYTE];
-        byte[] headerCipherText = new byte[HEADER_CIPHER_TEXT_LEN_BYTE];
-        byte[] paddedPlaintext;
-        byte[] bodyCipherText;
-        byte[] info = Arrays.copyOf(SUITE_NAME, SUITE_NAME.length + 1);
-        try {
-            // read ephKey
-            if (cipherStream.read(ephRawKey) != ASYM_KEY_SIZE_BYTE) {
-                throw new InvalidCipherTextException("Invalid ephKey length!");
-            }
-            QblECPublicKey ephKey = new QblECPublicKey(ephRawKey);
-
-            // first kdf
-            byte[] dh1 = targetKey.ECDH(ephKey);
-            key1 = new ByteArrayInputStream(kdf(dh1, new byte[CV_LEN_BYTE], info, CV_LEN_BYTE + SYMM_KEY_LEN_BYTE + NONCE_LEN_BYTE));
-            if (key1.read(cv1) != CV_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid cv1 length!");
-            }
-            if (key1.read(symmKey1) != SYMM_KEY_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid symmKey length!");
-            }
-            if (key1.read(nonce1) != NONCE_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid nonce1 length!");
-            }
-
-            // sender_key.pub = DECRYPT(cc1, header_cipher_text, target_pubkey || eph_key.pub)
-            authtext.write(targetKey.getPub().getKey());
-            authtext.write(ephRawKey);
-            if (cipherStream.read(headerCipherText) != HEADER_CIPHER_TEXT_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid headerCipherText length!");
-            }
-
-            byte[] senderRawKey = decrypt(new KeyParameter(symmKey1), nonce1, headerCipherText, authtext.toByteArray());
-            senderKey = new QblECPublicKey(senderRawKey);
-
-            // second kdf
-            byte[] dh2 = targetKey.ECDH(senderKey);
-            info[info.length - 1] += (byte) 0x01;
-            key2 = new ByteArrayInputStream(kdf(dh2, cv1, info, CV_LEN_BYTE + SYMM_KEY_LEN_BYTE + NONCE_LEN_BYTE));
-            if (key2.skip(CV_LEN_BYTE) != CV_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid cv2 length!");
-            }
-            if (key2.read(symmKey2) != SYMM_KEY_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid symmKey2 length!");
-            }
-            if (key2.read(nonce2) != NONCE_LEN_BYTE) {
-                throw new InvalidCipherTextException("Invalid nonce2 length!");
-            }
-
-            // plaintext = noise_body^-1(cc2, body, target_pubkey || header)
-            authtext.reset();
-            authtext.write(targetKey.getPub().getKey());
-            authtext.write(ephRawKey);
-            authtext.write(headerCipherText);
-            bodyCipherText = new byte[cipherStream.available()];
-            cipherStream.read(bodyCipherText);
-
-        } catch (IOException e) {
-            throw new InvalidCipherTextException("Invalid ciphertext!");
-        }
-
-        paddedPlaintext = decrypt(new KeyParameter(symmKey2), nonce2, bodyCipherText, authtext.toByteArray());
-        encryptedPaddingLength = ByteBuffer.wrap(
-            Arrays.copyOfRange(paddedPlaintext, paddedPlaintext.length - PADDING_LEN_BYTES, paddedPlaintext.length)).getInt();
-
-        // Validate padding length
-        if (encryptedPaddingLength < 0 || encryptedPaddingLength > paddedPlaintext.length - PADDING_LEN_BYTES) {
-            throw new InvalidCipherTextException("Invalid padding length!");
-        }
-        return new DecryptedPlaintext(senderKey,
-            Arrays.copyOfRange(paddedPlaintext, 0, paddedPlaintext.length - PADDING_LEN_BYTES - encryptedPaddingLength));
+        return readBox(targetKey, noiseBox, null);
     }
 
+    /**
+     * Gets the plain content from a received noise box.
+     *
+     * @param targetKey     receivers EC key pair
+     * @param noiseBox      ciphertext which is received
+     * @param staticDhCache cache for DH(target, sender) of the second kdf, may be null
+     * @return plaintext which is the content of the received noise box
+     * @throws InvalidKeyException                  if kdf cannot distribute a key from DH of given EC keys
+     * @throws InvalidCipherTextException on decryption errors
+     */
+    public DecryptedPlaintext readBox(QblECKeyPair targetKey, byte[] noiseBox, EcdhCache staticDhCache)
+        throws InvalidKeyException, InvalidCipherTextException {
+        ByteBuffer plaintext = ByteBuffer.allocate(Math.max(noiseBox.length - NoiseBoxCodec.OVERHEAD_BYTE, 0));
+        QblECPublicKey senderKey = noiseBoxCodec.get().readBox(targetKey, ByteBuffer.wrap(noiseBox), plaintext, staticDhCache);
+        return new DecryptedPlaintext(senderKey, Arrays.copyOf(plaintext.array(), plaintext.position()));
+    }
 
     /**
      * Encrypts a plaintext with associated data with AES GCM
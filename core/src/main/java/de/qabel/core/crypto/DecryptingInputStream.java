@@ -0,0 +1,100 @@
+package de.qabel.core.crypto;
+
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decrypts the wrapped ciphertext stream (without the leading nonce) while it is read.
+ * Plaintext is returned before the authentication tag could be validated. The tag is checked when
+ * the end of the ciphertext is reached: if it is invalid, the final read and every following
+ * read or close throw an IOException, so a consumer never completes with unauthenticated content.
+ */
+public class DecryptingInputStream extends InputStream {
+    private final InputStream ciphertext;
+    private final AEADBlockCipher cipher;
+    private final byte[] readBuffer;
+    private final byte[] outBuffer;
+    private int outPos;
+    private int outLen;
+    private boolean finished;
+    private IOException failure;
+
+    DecryptingInputStream(InputStream ciphertext, AEADBlockCipher cipher, int bufferSize) {
+        this.ciphertext = ciphertext;
+        this.cipher = cipher;
+        readBuffer = new byte[bufferSize];
+        // the cipher holds back up to one block and the tag until more ciphertext (or the end) arrives
+        outBuffer = new byte[bufferSize + 64];
+    }
+
+    private boolean fill() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        while (outPos == outLen) {
+            if (finished) {
+                return false;
+            }
+            outPos = 0;
+            int read = ciphertext.read(readBuffer);
+            if (read < 0) {
+                finished = true;
+                try {
+                    outLen = cipher.doFinal(outBuffer, 0);
+                } catch (InvalidCipherTextException e) {
+                    outLen = 0;
+                    failure = new IOException("Decryption: Either cipher text is too short or authentication tag is invalid!", e);
+                    throw failure;
+                }
+            } else {
+                outLen = cipher.processBytes(readBuffer, 0, read, outBuffer, 0);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return outBuffer[outPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, outLen - outPos);
+        System.arraycopy(outBuffer, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outLen - outPos;
+    }
+
+    /**
+     * Whether the whole ciphertext has been read and the authentication tag was valid
+     */
+    public boolean isAuthenticated() {
+        return finished && failure == null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ciphertext.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
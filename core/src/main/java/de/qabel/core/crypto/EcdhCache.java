@@ -0,0 +1,60 @@
+package de.qabel.core.crypto;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of static Diffie-Hellman results between an own key pair and a contact's public key,
+ * e.g. the second key derivation of {@link CryptoUtils#readBox(QblECKeyPair, byte[], EcdhCache)}.
+ * Ephemeral keys must not be cached, each of them is only used once.
+ */
+public class EcdhCache {
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final Map<Map.Entry<QblECPublicKey, QblECPublicKey>, byte[]> results;
+    private long hits;
+    private long misses;
+
+    public EcdhCache() {
+        this(DEFAULT_SIZE);
+    }
+
+    public EcdhCache(final int maxSize) {
+        results = new LinkedHashMap<Map.Entry<QblECPublicKey, QblECPublicKey>, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Map.Entry<QblECPublicKey, QblECPublicKey>, byte[]> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the shared secret of keyPair and publicKey, computed only if it is not cached yet
+     */
+    public byte[] ecdh(QblECKeyPair keyPair, QblECPublicKey publicKey) {
+        Map.Entry<QblECPublicKey, QblECPublicKey> key
+            = new AbstractMap.SimpleImmutableEntry<>(keyPair.getPub(), publicKey);
+        synchronized (this) {
+            byte[] result = results.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+        byte[] result = keyPair.ECDH(publicKey);
+        synchronized (this) {
+            results.put(key, result);
+        }
+        return result;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
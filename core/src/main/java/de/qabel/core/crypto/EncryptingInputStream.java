@@ -0,0 +1,85 @@
+package de.qabel.core.crypto;
+
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encrypts the wrapped plaintext stream while it is read. The produced bytes have the same
+ * nonce || ciphertext || tag format as {@link CryptoUtils#encryptStreamAuthenticatedSymmetric},
+ * so the stream can be handed to an upload directly instead of buffering the ciphertext in a file.
+ */
+public class EncryptingInputStream extends InputStream {
+    private final InputStream plaintext;
+    private final AEADBlockCipher cipher;
+    private final byte[] readBuffer;
+    private final byte[] outBuffer;
+    private int outPos;
+    private int outLen;
+    private boolean finished;
+
+    EncryptingInputStream(InputStream plaintext, AEADBlockCipher cipher, byte[] nonce, int bufferSize) {
+        this.plaintext = plaintext;
+        this.cipher = cipher;
+        readBuffer = new byte[bufferSize];
+        // processBytes may flush up to one buffered block, doFinal emits the last block and the tag
+        outBuffer = new byte[Math.max(nonce.length, cipher.getOutputSize(bufferSize) + 16)];
+        System.arraycopy(nonce, 0, outBuffer, 0, nonce.length);
+        outLen = nonce.length;
+    }
+
+    private boolean fill() throws IOException {
+        while (outPos == outLen) {
+            if (finished) {
+                return false;
+            }
+            outPos = 0;
+            int read = plaintext.read(readBuffer);
+            if (read < 0) {
+                try {
+                    outLen = cipher.doFinal(outBuffer, 0);
+                } catch (InvalidCipherTextException e) {
+                    throw new IOException("Encryption failed", e);
+                }
+                finished = true;
+            } else {
+                outLen = cipher.processBytes(readBuffer, 0, read, outBuffer, 0);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return outBuffer[outPos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, outLen - outPos);
+        System.arraycopy(outBuffer, outPos, b, off, n);
+        outPos += n;
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return outLen - outPos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        plaintext.close();
+    }
+}
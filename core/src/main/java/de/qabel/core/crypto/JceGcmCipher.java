@@ -0,0 +1,161 @@
+package de.qabel.core.crypto;
+
+import org.spongycastle.crypto.BlockCipher;
+import org.spongycastle.crypto.CipherParameters;
+import org.spongycastle.crypto.DataLengthException;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.OutputLengthException;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * {@link AEADBlockCipher} view of the JCE "AES/GCM/NoPadding" cipher.
+ * The JCE cipher holds back all plaintext until the tag is validated on decryption, so this is meant for
+ * encryption, see {@link SymmetricCipherProviders#JCE}.
+ */
+public class JceGcmCipher implements AEADBlockCipher {
+    private final Cipher cipher;
+    private boolean forEncryption;
+    private AEADParameters params;
+    private int macSize;
+    private byte[] macBlock;
+
+    public JceGcmCipher() throws GeneralSecurityException {
+        cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    @Override
+    public void init(boolean forEncryption, CipherParameters params) throws IllegalArgumentException {
+        if (!(params instanceof AEADParameters)) {
+            throw new IllegalArgumentException("invalid parameters passed to GCM");
+        }
+        AEADParameters aeadParams = (AEADParameters) params;
+        KeyParameter keyParam = aeadParams.getKey();
+        if (keyParam == null || aeadParams.getNonce() == null) {
+            throw new IllegalArgumentException("key and nonce must be set");
+        }
+        try {
+            initCipher(forEncryption, aeadParams);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid parameters for AES/GCM", e);
+        }
+        this.forEncryption = forEncryption;
+        this.params = aeadParams;
+    }
+
+    private void initCipher(boolean forEncryption, AEADParameters aeadParams) throws GeneralSecurityException {
+        macSize = aeadParams.getMacSize() / 8;
+        macBlock = null;
+        cipher.init(forEncryption ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE,
+            new SecretKeySpec(aeadParams.getKey().getKey(), "AES"),
+            new GCMParameterSpec(aeadParams.getMacSize(), aeadParams.getNonce()));
+        byte[] associatedText = aeadParams.getAssociatedText();
+        if (associatedText != null) {
+            cipher.updateAAD(associatedText);
+        }
+    }
+
+    @Override
+    public String getAlgorithmName() {
+        return "AES/GCM";
+    }
+
+    /**
+     * The block cipher is provided by the JCE, there is no SpongyCastle implementation underneath
+     *
+     * @return null
+     */
+    @Override
+    public BlockCipher getUnderlyingCipher() {
+        return null;
+    }
+
+    @Override
+    public void processAADByte(byte in) {
+        cipher.updateAAD(new byte[]{in});
+    }
+
+    @Override
+    public void processAADBytes(byte[] in, int inOff, int len) {
+        cipher.updateAAD(in, inOff, len);
+    }
+
+    @Override
+    public int processByte(byte in, byte[] out, int outOff) throws DataLengthException {
+        return processBytes(new byte[]{in}, 0, 1, out, outOff);
+    }
+
+    @Override
+    public int processBytes(byte[] in, int inOff, int len, byte[] out, int outOff) throws DataLengthException {
+        if (in.length - inOff < len) {
+            throw new DataLengthException("Input buffer too short");
+        }
+        try {
+            return cipher.update(in, inOff, len, out, outOff);
+        } catch (ShortBufferException e) {
+            throw new OutputLengthException("Output buffer too short");
+        }
+    }
+
+    @Override
+    public int doFinal(byte[] out, int outOff) throws IllegalStateException, InvalidCipherTextException {
+        try {
+            int written = cipher.doFinal(out, outOff);
+            if (written >= macSize) {
+                macBlock = Arrays.copyOfRange(out, outOff + written - macSize, outOff + written);
+            }
+            return written;
+        } catch (ShortBufferException e) {
+            throw new OutputLengthException("Output buffer too short");
+        } catch (AEADBadTagException e) {
+            throw new InvalidCipherTextException("mac check in GCM failed");
+        } catch (GeneralSecurityException e) {
+            throw new InvalidCipherTextException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the tag after encryption, the JCE doesn't expose it after decryption
+     */
+    @Override
+    public byte[] getMac() {
+        return macBlock == null ? new byte[macSize] : Arrays.clone(macBlock);
+    }
+
+    @Override
+    public int getUpdateOutputSize(int len) {
+        return cipher.getOutputSize(len);
+    }
+
+    @Override
+    public int getOutputSize(int len) {
+        return cipher.getOutputSize(len);
+    }
+
+    /**
+     * Initializes the cipher again with the key, nonce and associated text of the last {@link #init}.
+     * Associated text that was processed after init is discarded.
+     *
+     * @throws IllegalStateException for encryption, the JCE refuses to encrypt twice with the same key and nonce
+     */
+    @Override
+    public void reset() {
+        if (params == null) {
+            return;
+        }
+        try {
+            initCipher(forEncryption, params);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM cannot be reset, init it with a new nonce instead", e);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package de.qabel.core.crypto;
+
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.digests.SHA512Digest;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.modes.GCMBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Creates and reads noise boxes in the format of {@link CryptoUtils#createBox} and {@link CryptoUtils#readBox}
+ * on caller supplied buffers.
+ * The HMAC, the GCM cipher, the ephemeral public key of read boxes and all scratch arrays are kept between calls,
+ * so an instance is not thread safe and should be confined to a single thread.
+ * It is not allocation free: every box still allocates the Curve25519 results, the HMAC and AES keys,
+ * a fresh ephemeral key pair when it is created and the sender key that is returned when it is read.
+ */
+public class NoiseBoxCodec {
+    private static final byte[] SUITE_NAME = "Noise255/AES256-GCM\0\0\0\0\0".getBytes();
+    private static final int KEY_SIZE_BYTE = QblECPublicKey.KEY_SIZE_BYTE;
+    private static final int H_LEN = 64;
+    private static final int CV_LEN_BYTE = 48;
+    private static final int SYMM_KEY_LEN_BYTE = 32;
+    private static final int NONCE_LEN_BYTE = 12;
+    private static final int MAC_BIT = 128;
+    private static final int MAC_LEN_BYTE = MAC_BIT / 8;
+    private static final int KDF_LEN_BYTE = CV_LEN_BYTE + SYMM_KEY_LEN_BYTE + NONCE_LEN_BYTE;
+    private static final int HEADER_CIPHER_TEXT_LEN_BYTE = KEY_SIZE_BYTE + MAC_LEN_BYTE;
+    private static final int PADDING_LEN_BYTES = 4;
+
+    /**
+     * Length of the header: ephemeral public key and encrypted sender key
+     */
+    public static final int HEADER_SIZE_BYTE = KEY_SIZE_BYTE + HEADER_CIPHER_TEXT_LEN_BYTE;
+    /**
+     * Number of bytes a noise box adds to the app data besides the padding
+     */
+    public static final int OVERHEAD_BYTE = HEADER_SIZE_BYTE + PADDING_LEN_BYTES + MAC_LEN_BYTE;
+
+    private final HMac hmac = new HMac(new SHA512Digest());
+    private final GCMBlockCipher gcm = new GCMBlockCipher(new AESEngine());
+    private final SecureRandom random;
+
+    private final byte[] info = Arrays.copyOf(SUITE_NAME, SUITE_NAME.length + 1);
+    private final byte[] t = new byte[H_LEN];
+    private final byte[] keyMaterial = new byte[(KDF_LEN_BYTE + H_LEN - 1) / H_LEN * H_LEN];
+    private final byte[] emptyCv = new byte[CV_LEN_BYTE];
+    private final byte[] cv1 = new byte[CV_LEN_BYTE];
+    private final byte[] nonce = new byte[NONCE_LEN_BYTE];
+    private final byte[] authtext = new byte[KEY_SIZE_BYTE + HEADER_SIZE_BYTE];
+    private final byte[] headerPlaintext = new byte[KEY_SIZE_BYTE];
+    private final byte[] receivedEphRawKey = new byte[KEY_SIZE_BYTE];
+    private final QblECPublicKey receivedEphKey = new QblECPublicKey(receivedEphRawKey);
+    private final byte[] randomPool = new byte[1024];
+    private int randomPosition = randomPool.length;
+    private byte[] plaintext = new byte[256];
+    private byte[] ciphertext = new byte[256];
+
+    public NoiseBoxCodec() {
+        this(new SecureRandom());
+    }
+
+    public NoiseBoxCodec(SecureRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Size of the noise box for app data of the given length
+     *
+     * @param appDataLength length of the app data
+     * @param padLen        length of the padding, negative values are ignored
+     * @return number of bytes {@link #createBox} writes
+     */
+    public static int boxSize(int appDataLength, int padLen) {
+        return appDataLength + Math.max(padLen, 0) + OVERHEAD_BYTE;
+    }
+
+    /**
+     * Encrypts the remaining bytes of appData into a noise box written to out.
+     * Both buffers are advanced by the consumed and written bytes.
+     *
+     * @param senderKey    senders key pair
+     * @param targetPubKey receivers public key
+     * @param appData      app data to encrypt
+     * @param padLen       length of padding added to the box. Negative values are ignored.
+     * @param out          buffer with at least {@link #boxSize} bytes remaining
+     * @throws BufferOverflowException if out is too small
+     */
+    public void createBox(QblECKeyPair senderKey, QblECPublicKey targetPubKey, ByteBuffer appData, int padLen,
+                          ByteBuffer out) {
+        // the ephemeral key must never be reused
+        createBox(senderKey, targetPubKey, appData, padLen, out, new QblECKeyPair());
+    }
+
+    void createBox(QblECKeyPair senderKey, QblECPublicKey targetPubKey, ByteBuffer appData, int padLen,
+                   ByteBuffer out, QblECKeyPair ephKey) {
+        if (padLen < 0) {
+            padLen = 0;
+        }
+        int appDataLength = appData.remaining();
+        int paddedLength = appDataLength + padLen + PADDING_LEN_BYTES;
+        if (out.remaining() < boxSize(appDataLength, padLen)) {
+            throw new BufferOverflowException();
+        }
+
+        byte[] targetRawKey = targetPubKey.getKey();
+        byte[] ephRawKey = ephKey.getPub().getKey();
+        try {
+            // header = eph_key.pub || ENCRYPT(cc1, sender_key.pub, target_pubkey || eph_key.pub)
+            kdf(ephKey.ECDH(targetPubKey), emptyCv, (byte) 0);
+            System.arraycopy(keyMaterial, 0, cv1, 0, CV_LEN_BYTE);
+            System.arraycopy(targetRawKey, 0, authtext, 0, KEY_SIZE_BYTE);
+            System.arraycopy(ephRawKey, 0, authtext, KEY_SIZE_BYTE, KEY_SIZE_BYTE);
+            initCipher(true, KEY_SIZE_BYTE * 2);
+            byte[] senderRawKey = senderKey.getPub().getKey();
+            int headerLength = gcm.processBytes(senderRawKey, 0, KEY_SIZE_BYTE, authtext, KEY_SIZE_BYTE * 2);
+            gcm.doFinal(authtext, KEY_SIZE_BYTE * 2 + headerLength);
+
+            // body = noise_body(cc2, appData || padding || padLen, target_pubkey || header)
+            byte[] padded = plaintextBuffer(paddedLength);
+            appData.get(padded, 0, appDataLength);
+            if (padLen > 0) {
+                randomBytes(padded, appDataLength, padLen);
+            }
+            writeInt(padded, appDataLength + padLen, padLen);
+
+            kdf(senderKey.ECDH(targetPubKey), cv1, (byte) 1);
+            initCipher(true, authtext.length);
+            out.put(authtext, KEY_SIZE_BYTE, HEADER_SIZE_BYTE);
+            byte[] body = ciphertextBuffer(paddedLength + MAC_LEN_BYTE);
+            int bodyLength = gcm.processBytes(padded, 0, paddedLength, body, 0);
+            bodyLength += gcm.doFinal(body, bodyLength);
+            out.put(body, 0, bodyLength);
+        } catch (InvalidCipherTextException e) {
+            // Should never occur
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Decrypts the remaining bytes of noiseBox and writes the app data to plaintextOut.
+     * noiseBox is consumed completely.
+     *
+     * @param targetKey     receivers EC key pair
+     * @param noiseBox      ciphertext which is received
+     * @param plaintextOut  buffer with at least noiseBox.remaining() - {@link #OVERHEAD_BYTE} bytes remaining
+     * @param staticDhCache cache for DH(target, sender) of the second kdf, may be null
+     * @return public key of the sender
+     * @throws InvalidCipherTextException on decryption errors
+     * @throws BufferOverflowException    if plaintextOut is too small for the app data
+     */
+    public QblECPublicKey readBox(QblECKeyPair targetKey, ByteBuffer noiseBox, ByteBuffer plaintextOut,
+                                  EcdhCache staticDhCache) throws InvalidCipherTextException {
+        if (noiseBox.remaining() < KEY_SIZE_BYTE) {
+            throw new InvalidCipherTextException("Invalid ephKey length!");
+        }
+        if (noiseBox.remaining() < HEADER_SIZE_BYTE) {
+            throw new InvalidCipherTextException("Invalid headerCipherText length!");
+        }
+        int bodyLength = noiseBox.remaining() - HEADER_SIZE_BYTE;
+        // receivedEphKey wraps receivedEphRawKey
+        noiseBox.get(receivedEphRawKey);
+
+        // sender_key.pub = DECRYPT(cc1, header_cipher_text, target_pubkey || eph_key.pub)
+        kdf(targetKey.ECDH(receivedEphKey), emptyCv, (byte) 0);
+        System.arraycopy(keyMaterial, 0, cv1, 0, CV_LEN_BYTE);
+        System.arraycopy(targetKey.getPub().getKey(), 0, authtext, 0, KEY_SIZE_BYTE);
+        System.arraycopy(receivedEphRawKey, 0, authtext, KEY_SIZE_BYTE, KEY_SIZE_BYTE);
+        noiseBox.get(authtext, KEY_SIZE_BYTE * 2, HEADER_CIPHER_TEXT_LEN_BYTE);
+        initCipher(false, KEY_SIZE_BYTE * 2);
+        int senderLength = gcm.processBytes(authtext, KEY_SIZE_BYTE * 2, HEADER_CIPHER_TEXT_LEN_BYTE, headerPlaintext, 0);
+        gcm.doFinal(headerPlaintext, senderLength);
+        // the sender key is returned, so it gets its own copy
+        QblECPublicKey senderKey = new QblECPublicKey(Arrays.copyOf(headerPlaintext, KEY_SIZE_BYTE));
+
+        // plaintext = noise_body^-1(cc2, body, target_pubkey || header)
+        byte[] dh2 = staticDhCache == null ? targetKey.ECDH(senderKey) : staticDhCache.ecdh(targetKey, senderKey);
+        kdf(dh2, cv1, (byte) 1);
+        initCipher(false, authtext.length);
+        byte[] body = ciphertextBuffer(bodyLength);
+        noiseBox.get(body, 0, bodyLength);
+        byte[] padded = plaintextBuffer(bodyLength);
+        int paddedLength = gcm.processBytes(body, 0, bodyLength, padded, 0);
+        paddedLength += gcm.doFinal(padded, paddedLength);
+
+        // Validate padding length
+        if (paddedLength < PADDING_LEN_BYTES) {
+            throw new InvalidCipherTextException("Invalid padding length!");
+        }
+        int encryptedPaddingLength = readInt(padded, paddedLength - PADDING_LEN_BYTES);
+        if (encryptedPaddingLength < 0 || encryptedPaddingLength > paddedLength - PADDING_LEN_BYTES) {
+            throw new InvalidCipherTextException("Invalid padding length!");
+        }
+        plaintextOut.put(padded, 0, paddedLength - PADDING_LEN_BYTES - encryptedPaddingLength);
+        return senderKey;
+    }
+
+    /**
+     * Fills keyMaterial with the noise kdf of secret and extraSecret, followed by the
+     * symmetric key and nonce which are used by {@link #initCipher}
+     */
+    private void kdf(byte[] secret, byte[] extraSecret, byte infoSuffix) {
+        info[info.length - 1] = infoSuffix;
+        Arrays.fill(t, (byte) 0);
+        hmac.init(new KeyParameter(secret));
+        for (int c = 0; c * H_LEN < KDF_LEN_BYTE; c++) {
+            hmac.update(info, 0, info.length);
+            hmac.update((byte) c);
+            hmac.update(t, 0, 32);
+            hmac.update(extraSecret, 0, extraSecret.length);
+            hmac.doFinal(t, 0);
+            System.arraycopy(t, 0, keyMaterial, c * H_LEN, H_LEN);
+        }
+        System.arraycopy(keyMaterial, CV_LEN_BYTE + SYMM_KEY_LEN_BYTE, nonce, 0, NONCE_LEN_BYTE);
+    }
+
+    private void initCipher(boolean forEncryption, int authtextLength) {
+        KeyParameter key = new KeyParameter(keyMaterial, CV_LEN_BYTE, SYMM_KEY_LEN_BYTE);
+        gcm.init(forEncryption, new AEADParameters(key, MAC_BIT, nonce));
+        gcm.processAADBytes(authtext, 0, authtextLength);
+    }
+
+    private void randomBytes(byte[] target, int offset, int length) {
+        while (length > 0) {
+            if (randomPosition == randomPool.length) {
+                random.nextBytes(randomPool);
+                randomPosition = 0;
+            }
+            int chunk = Math.min(length, randomPool.length - randomPosition);
+            System.arraycopy(randomPool, randomPosition, target, offset, chunk);
+            randomPosition += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    private byte[] plaintextBuffer(int length) {
+        if (plaintext.length < length) {
+            plaintext = new byte[Math.max(length, plaintext.length * 2)];
+        }
+        return plaintext;
+    }
+
+    private byte[] ciphertextBuffer(int length) {
+        if (ciphertext.length < length) {
+            ciphertext = new byte[Math.max(length, ciphertext.length * 2)];
+        }
+        return ciphertext;
+    }
+
+    private static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] source, int offset) {
+        return (source[offset] & 0xff) << 24
+            | (source[offset + 1] & 0xff) << 16
+            | (source[offset + 2] & 0xff) << 8
+            | source[offset + 3] & 0xff;
+    }
+}
@@ -12,7 +12,12 @@ import java.util.Arrays;
 public class QblECKeyPair implements Serializable {
     public static final int KEY_SIZE_BYTE = 32;
 
-    private Curve25519 curve25519;
+    /**
+     * Curve25519 has no state, all key pairs share one instance
+     */
+    private static final Curve25519 CURVE25519 = new Curve25519();
+
+    private Curve25519 curve25519 = CURVE25519;
     private byte[] privateKey;
     private QblECPublicKey pubKey;
 
@@ -22,13 +27,22 @@ public class QblECKeyPair implements Serializable {
      * @param privateKey private key which is used to calculate public point
      */
     public QblECKeyPair(byte[] privateKey) {
-
-        curve25519 = new Curve25519();
-
         this.privateKey = privateKey;
         pubKey = new QblECPublicKey(curve25519.cryptoScalarmultBase(this.privateKey));
     }
 
+    /**
+     * Creates an elliptic curve key pair from a private key and its known public key.
+     * The public key is not recalculated, so it has to match the private key.
+     *
+     * @param privateKey private key of the pair
+     * @param pubKey     public key that has been calculated from the private key before
+     */
+    public QblECKeyPair(byte[] privateKey, QblECPublicKey pubKey) {
+        this.privateKey = privateKey;
+        this.pubKey = pubKey;
+    }
+
     /**
      * Generates an elliptic curve key pair with a random private key
      */
@@ -0,0 +1,23 @@
+package de.qabel.core.crypto;
+
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+
+/**
+ * Source of the AES-256-GCM ciphers that {@link CryptoUtils} uses for files and streams.
+ * All implementations must produce the same nonce || ciphertext || tag format.
+ *
+ * @see SymmetricCipherProviders
+ */
+public interface SymmetricCipherProvider {
+    /**
+     * @return name of the implementation for logging
+     */
+    String getName();
+
+    /**
+     * @param forEncryption whether the cipher will be initialized for encryption, implementations may use
+     *                      different backends for both directions
+     * @return a new cipher that still has to be initialized with {@link org.spongycastle.crypto.params.AEADParameters}
+     */
+    AEADBlockCipher createGcmCipher(boolean forEncryption);
+}
@@ -0,0 +1,142 @@
+package de.qabel.core.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.engines.AESEngine;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+import org.spongycastle.crypto.modes.GCMBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.util.encoders.Hex;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+/**
+ * The available {@link SymmetricCipherProvider}s. {@link #getDefault()} picks the JCE backend if it passes the
+ * NIST GCM test vectors on this JVM and falls back to the pure Java SpongyCastle cipher otherwise.
+ */
+public final class SymmetricCipherProviders {
+    private static final Logger logger = LoggerFactory.getLogger(SymmetricCipherProviders.class);
+
+    /**
+     * Pure Java AES-GCM, available everywhere
+     */
+    public static final SymmetricCipherProvider SPONGY_CASTLE = new SymmetricCipherProvider() {
+        @Override
+        public String getName() {
+            return "SpongyCastle";
+        }
+
+        @Override
+        public AEADBlockCipher createGcmCipher(boolean forEncryption) {
+            return new GCMBlockCipher(new AESEngine());
+        }
+    };
+
+    /**
+     * Encrypts with the JCE "AES/GCM/NoPadding" cipher, see {@link JceGcmCipher}.
+     * Decrypts with SpongyCastle, because the JCE cipher holds back the whole plaintext until the tag is validated.
+     */
+    public static final SymmetricCipherProvider JCE = new SymmetricCipherProvider() {
+        @Override
+        public String getName() {
+            return "JCE";
+        }
+
+        @Override
+        public AEADBlockCipher createGcmCipher(boolean forEncryption) {
+            if (!forEncryption) {
+                return SPONGY_CASTLE.createGcmCipher(false);
+            }
+            try {
+                return new JceGcmCipher();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES/GCM is not available in the JCE", e);
+            }
+        }
+    };
+
+    /**
+     * Test cases 13 to 16 of the GCM specification (AES-256, 96 bit IV): key, IV, plaintext, associated data and
+     * ciphertext with tag. They cover empty text, a single block, multiple blocks and a partial block with
+     * associated data.
+     */
+    static final String[][] TEST_VECTORS = {
+        {"0000000000000000000000000000000000000000000000000000000000000000", "000000000000000000000000",
+            "", "", "530f8afbc74536b9a963b4f1c4cb738b"},
+        {"0000000000000000000000000000000000000000000000000000000000000000", "000000000000000000000000",
+            "00000000000000000000000000000000", "",
+            "cea7403d4d606b6e074ec5d3baf39d18d0d1c8a799996bf0265b98b5d48ab919"},
+        {"feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308", "cafebabefacedbaddecaf888",
+            "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+                + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255", "",
+            "522dc1f099567d07f47f37a32a84427d643a8cdcbfe5c0c97598a2bd2555d1aa"
+                + "8cb08e48590dbb3da7b08b1056828838c5f61e6393ba7a0abcc9f662898015ad"
+                + "b094dac5d93471bdec1a502270e3cc6c"},
+        {"feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308", "cafebabefacedbaddecaf888",
+            "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+                + "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39",
+            "feedfacedeadbeeffeedfacedeadbeefabaddad2",
+            "522dc1f099567d07f47f37a32a84427d643a8cdcbfe5c0c97598a2bd2555d1aa"
+                + "8cb08e48590dbb3da7b08b1056828838c5f61e6393ba7a0abcc9f662"
+                + "76fc6ece0f4e1768cddf8853bb2d551b"}
+    };
+
+    private static class DefaultHolder {
+        static final SymmetricCipherProvider DEFAULT = probe();
+    }
+
+    private SymmetricCipherProviders() {
+    }
+
+    /**
+     * @return the provider chosen by {@link #probe()} on first use
+     */
+    public static SymmetricCipherProvider getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * Checks whether the JCE supports 256 bit AES keys and encrypts and decrypts the {@link #TEST_VECTORS}.
+     *
+     * @return {@link #JCE} if it passed the check, else {@link #SPONGY_CASTLE}
+     */
+    public static SymmetricCipherProvider probe() {
+        try {
+            if (passesTestVectors(JCE)) {
+                logger.debug("Using JCE for symmetric encryption");
+                return JCE;
+            }
+            logger.warn("JCE AES-GCM does not match the GCM test vectors, using SpongyCastle for symmetric encryption");
+        } catch (InvalidCipherTextException | RuntimeException e) {
+            logger.info("JCE AES-GCM is not available, using SpongyCastle for symmetric encryption: " + e.getMessage());
+        }
+        return SPONGY_CASTLE;
+    }
+
+    static boolean passesTestVectors(SymmetricCipherProvider provider) throws InvalidCipherTextException {
+        for (String[] vector : TEST_VECTORS) {
+            byte[] key = Hex.decode(vector[0]);
+            byte[] nonce = Hex.decode(vector[1]);
+            byte[] plaintext = Hex.decode(vector[2]);
+            byte[] aad = Hex.decode(vector[3]);
+            byte[] ciphertext = Hex.decode(vector[4]);
+            if (!Arrays.equals(ciphertext, crypt(provider.createGcmCipher(true), true, key, nonce, aad, plaintext))
+                || !Arrays.equals(plaintext, crypt(provider.createGcmCipher(false), false, key, nonce, aad, ciphertext))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] crypt(AEADBlockCipher cipher, boolean forEncryption, byte[] key, byte[] nonce, byte[] aad,
+                                byte[] in) throws InvalidCipherTextException {
+        cipher.init(forEncryption, new AEADParameters(new KeyParameter(key), 128, nonce, aad));
+        byte[] out = new byte[cipher.getOutputSize(in.length)];
+        int written = cipher.processBytes(in, 0, in.length, out, 0);
+        written += cipher.doFinal(out, written);
+        return Arrays.copyOf(out, written);
+    }
+}
@@ -3,9 +3,21 @@ package de.qabel.core.drop
 import de.qabel.core.config.Identities
 import de.qabel.core.config.Identity
 import de.qabel.core.crypto.BinaryDropMessageV0
+import de.qabel.core.crypto.EcdhCache
 import de.qabel.core.exceptions.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
-class DefaultDropParser: DropParser {
+/**
+ * Parses drop messages by trying all receiving identities.
+ * The static DH results of receivers and senders are cached, batches are decrypted on the executor.
+ */
+class DefaultDropParser @JvmOverloads constructor(
+    private val executor: ExecutorService = DEFAULT_EXECUTOR,
+    private val staticDhCache: EcdhCache = EcdhCache()
+) : DropParser {
 
     @Throws(QblException::class)
     override fun parse(message: ByteArray, receivers: Identities): Pair<Identity, DropMessage> {
@@ -13,7 +25,7 @@ class DefaultDropParser: DropParser {
         if (binaryFormatVersion != 0.toByte()) {
             throw QblUnkownVersionException()
         }
-        val binaryMessage = BinaryDropMessageV0(message)
+        val binaryMessage = BinaryDropMessageV0(message, staticDhCache)
         receivers.identities.forEach { identity ->
            binaryMessage.disassembleMessage(identity)?.let {
                return Pair(identity, it)
@@ -22,6 +34,33 @@ class DefaultDropParser: DropParser {
         throw QblDropParseException()
     }
 
-}
-
+    override fun parseAll(messages: Collection<ByteArray>, receivers: Identities,
+                          onError: (QblException) -> Unit): List<Pair<Identity, DropMessage>> {
+        if (messages.size <= 1) {
+            return super.parseAll(messages, receivers, onError)
+        }
+        val futures = messages.map { message ->
+            executor.submit(Callable { parse(message, receivers) })
+        }
+        return futures.map {
+            try {
+                it.get()
+            } catch (e: ExecutionException) {
+                val cause = e.cause
+                if (cause !is QblException) {
+                    throw cause ?: e
+                }
+                onError(cause)
+                null
+            }
+        }.filterNotNull()
+    }
 
+    companion object {
+        private val DEFAULT_EXECUTOR: ExecutorService by lazy {
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) {
+                Thread(it, "drop-parser").apply { isDaemon = true }
+            }
+        }
+    }
+}
@@ -6,10 +6,53 @@ import de.qabel.core.drop.DropMessage
 import de.qabel.core.drop.DropURL
 import de.qabel.core.drop.http.DropServerHttp
 import de.qabel.core.repository.entities.DropState
+import rx.Observable
 
 interface DropConnector {
 
+    /**
+     * Outcome of sending a broadcast to one contact, error is null if the message was sent
+     */
+    data class BroadcastResult(val contact: Contact, val error: Throwable? = null) {
+        val sent: Boolean
+            get() = error == null
+    }
+
     fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL)
+
+    /**
+     * Sends the same message to the first drop of every contact.
+     * This default implementation sends to one contact after the other.
+     *
+     * @return one result per contact, in the order of the contacts
+     */
+    fun broadcastDropMessage(identity: Identity, contacts: List<Contact>, message: DropMessage): List<BroadcastResult> =
+        contacts.map {
+            try {
+                sendDropMessage(identity, it, message, it.dropUrls.first())
+                BroadcastResult(it)
+            } catch (e: Exception) {
+                BroadcastResult(it, e)
+            }
+        }
+
     fun receiveDropMessages(identity: Identity, dropUrl: DropURL, dropState: DropState): DropServerHttp.DropServerResponse<DropMessage>
 
+    /**
+     * Receives the messages of a drop lazily when the observable is subscribed, the eTag of the drop state is updated
+     * before the first message is emitted.
+     * This default implementation receives all messages at once.
+     */
+    fun receiveDropMessageStream(identity: Identity, dropUrl: DropURL, dropState: DropState): Observable<DropMessage> =
+        Observable.defer { Observable.from(receiveDropMessages(identity, dropUrl, dropState).dropMessages) }
+
+    /**
+     * Emits new messages of the drops until the subscription is unsubscribed.
+     * The eTags of the drop states are updated before their messages are emitted, so the subscriber may persist them.
+     * This default implementation polls every drop with an adaptive interval.
+     */
+    fun subscribe(identity: Identity, dropStates: Collection<DropState>,
+                  config: DropSubscriptionConfig = DropSubscriptionConfig()): Observable<DropMessage> =
+        DropSubscription(this, identity, dropStates, config).observable()
+
 }
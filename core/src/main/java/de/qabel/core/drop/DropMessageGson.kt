@@ -11,6 +11,12 @@ import de.qabel.core.crypto.QblEcPublicKeyTypeAdapter
 
 object DropMessageGson {
 
+    /**
+     * Gson is thread safe, so drop messages share one instance instead of creating their own
+     */
+    @JvmStatic
+    val shared: Gson by lazy { create() }
+
     fun create(): Gson = GsonBuilder()
         .registerTypeAdapter(DropMessage::class.java, DropSerializer())
         .registerTypeAdapter(DropMessageMetadata::class.java, DropMessageMetaDataSerializer())
@@ -2,9 +2,23 @@ package de.qabel.core.drop
 
 import de.qabel.core.config.Identities
 import de.qabel.core.config.Identity
+import de.qabel.core.exceptions.QblException
 
 interface DropParser {
     fun parse(message: ByteArray, receivers: Identities): Pair<Identity, DropMessage>
-}
-
 
+    /**
+     * Parses a batch of messages, messages that cannot be parsed are passed to onError and left out.
+     * The result keeps the order of messages.
+     */
+    fun parseAll(messages: Collection<ByteArray>, receivers: Identities,
+                 onError: (QblException) -> Unit = {}): List<Pair<Identity, DropMessage>> =
+        messages.map {
+            try {
+                parse(it, receivers)
+            } catch (e: QblException) {
+                onError(e)
+                null
+            }
+        }.filterNotNull()
+}
@@ -0,0 +1,76 @@
+package de.qabel.core.drop
+
+import de.qabel.core.config.Identity
+import de.qabel.core.drop.http.DropServerHttp.DropServerResponse
+import de.qabel.core.repository.entities.DropState
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Fetches many drops concurrently. The number of requests in flight is bounded by the threads of the executor.
+ */
+class DropPoller @JvmOverloads constructor(
+    private val dropConnector: DropConnector,
+    private val executor: ExecutorService = DEFAULT_EXECUTOR
+) {
+
+    data class Request(val identity: Identity, val dropUrl: DropURL, val dropState: DropState)
+
+    /**
+     * Outcome of fetching a single drop, either a response or the error that occurred
+     */
+    class Result(val request: Request,
+                 val response: DropServerResponse<DropMessage>?,
+                 val error: Throwable?,
+                 val durationNanos: Long) {
+
+        val durationMillis: Long
+            get() = TimeUnit.NANOSECONDS.toMillis(durationNanos)
+
+        /**
+         * @return the response or throws the error of the fetch
+         */
+        fun get(): DropServerResponse<DropMessage> = response ?: throw error!!
+    }
+
+    /**
+     * @return one result per request, in the order of the requests
+     */
+    fun poll(requests: List<Request>): List<Result> {
+        if (requests.size <= 1) {
+            return requests.map { fetch(it) }
+        }
+        return requests.map { request ->
+            executor.submit(Callable { fetch(request) })
+        }.mapIndexed { i, future ->
+            try {
+                future.get()
+            } catch (e: ExecutionException) {
+                Result(requests[i], null, e.cause ?: e, 0)
+            }
+        }
+    }
+
+    private fun fetch(request: Request): Result {
+        val start = System.nanoTime()
+        return try {
+            val response = dropConnector.receiveDropMessages(request.identity, request.dropUrl, request.dropState)
+            Result(request, response, null, System.nanoTime() - start)
+        } catch (e: Throwable) {
+            Result(request, null, e, System.nanoTime() - start)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_PARALLELISM = 8
+
+        private val DEFAULT_EXECUTOR: ExecutorService by lazy {
+            Executors.newFixedThreadPool(DEFAULT_PARALLELISM) {
+                Thread(it, "drop-poller").apply { isDaemon = true }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.qabel.core.drop
+
+import de.qabel.core.config.Identity
+import de.qabel.core.repository.entities.DropState
+import org.slf4j.LoggerFactory
+import rx.Observable
+import rx.Scheduler
+import rx.Subscriber
+import rx.schedulers.Schedulers
+import java.net.URI
+
+/**
+ * @param longPollTimeoutSeconds how long a drop server may hold a subscription request
+ * @param minPollIntervalMillis  polling interval while messages keep arriving
+ * @param maxPollIntervalMillis  upper bound of the polling interval for quiet drops and failing servers
+ * @param maxLongPollFailures    consecutive failed subscriptions after which the drop server is polled instead
+ * @param scheduler              runs one blocking loop per drop server
+ */
+data class DropSubscriptionConfig @JvmOverloads constructor(
+    val longPollTimeoutSeconds: Int = 30,
+    val minPollIntervalMillis: Long = 1000,
+    val maxPollIntervalMillis: Long = 60000,
+    val maxLongPollFailures: Int = 3,
+    val scheduler: Scheduler = Schedulers.io()
+)
+
+/**
+ * Polling interval that doubles with every poll without new messages (or with an error) up to the maximum,
+ * and falls back to the minimum as soon as messages arrive.
+ */
+class AdaptivePollInterval(private val minMillis: Long, private val maxMillis: Long) {
+    var currentMillis = minMillis
+        private set
+
+    /**
+     * @return the time to wait before the next poll
+     */
+    fun next(receivedMessages: Boolean): Long {
+        val interval = if (receivedMessages) minMillis else currentMillis
+        currentMillis = if (receivedMessages) minMillis else Math.min(maxMillis, currentMillis * 2)
+        return interval
+    }
+
+    fun reset() {
+        currentMillis = minMillis
+    }
+}
+
+/**
+ * Follows the drops of an identity: every drop server is watched by its own loop on the scheduler.
+ * It subscribes all drops of the server with a single long poll if longPoll is given and the server supports it,
+ * and polls them with an [AdaptivePollInterval] otherwise. longPoll returns null if the server doesn't support it.
+ * A server whose subscriptions keep failing is polled as well, see [DropSubscriptionConfig.maxLongPollFailures].
+ * The drop states are updated in place before their messages are emitted.
+ */
+class DropSubscription(private val dropConnector: DropConnector,
+                       private val identity: Identity,
+                       private val dropStates: Collection<DropState>,
+                       private val config: DropSubscriptionConfig,
+                       private val longPoll: ((Identity, List<DropState>, Int) -> List<DropMessage>?)? = null) {
+
+    companion object {
+        private val logger = LoggerFactory.getLogger(DropSubscription::class.java)
+
+        private fun serverOf(dropState: DropState): URI = URI(dropState.drop).resolve(".")
+    }
+
+    fun observable(): Observable<DropMessage> = Observable.merge(
+        dropStates.groupBy { serverOf(it) }.map {
+            val server = it.key
+            val states = it.value
+            Observable.create<DropMessage> { subscriber -> follow(server, states, subscriber) }
+                .subscribeOn(config.scheduler)
+        })
+
+    private fun follow(server: URI, states: List<DropState>, subscriber: Subscriber<in DropMessage>) {
+        var longPolling = longPoll != null
+        var longPollFailures = 0
+        val interval = AdaptivePollInterval(config.minPollIntervalMillis, config.maxPollIntervalMillis)
+        try {
+            while (!subscriber.isUnsubscribed) {
+                if (longPolling) {
+                    try {
+                        val messages = longPoll!!(identity, states, config.longPollTimeoutSeconds)
+                        if (messages == null) {
+                            logger.info("{} does not support subscriptions, polling instead", server)
+                            longPolling = false
+                        } else {
+                            messages.forEach { subscriber.onNext(it) }
+                            longPollFailures = 0
+                            interval.reset()
+                        }
+                    } catch (e: InterruptedException) {
+                        throw e
+                    } catch (e: Exception) {
+                        logger.warn("Subscription to {} failed", server, e)
+                        if (++longPollFailures >= config.maxLongPollFailures) {
+                            logger.info("Subscriptions to {} keep failing, polling instead", server)
+                            longPolling = false
+                            interval.reset()
+                        } else {
+                            Thread.sleep(interval.next(false))
+                        }
+                    }
+                    continue
+                }
+
+                var received = false
+                states.forEach { dropState ->
+                    try {
+                        val response = dropConnector.receiveDropMessages(identity, DropURL(dropState.drop), dropState)
+                        response.dropMessages.forEach {
+                            received = true
+                            subscriber.onNext(it)
+                        }
+                    } catch (e: InterruptedException) {
+                        throw e
+                    } catch (e: Exception) {
+                        logger.warn("Cannot receive messages from {}", dropState.drop, e)
+                    }
+                }
+                Thread.sleep(interval.next(received))
+            }
+        } catch (e: InterruptedException) {
+            // unsubscribed while waiting
+        }
+    }
+}
@@ -8,6 +8,7 @@ import de.qabel.core.drop.DefaultDropParser
 import de.qabel.core.drop.DropConnector
 import de.qabel.core.drop.DropMessage
 import de.qabel.core.drop.DropURL
+import de.qabel.core.drop.http.DropHttpClients
 import de.qabel.core.drop.http.DropServerHttp
 import de.qabel.core.exceptions.QblDropInvalidMessageSizeException
 import de.qabel.core.exceptions.QblException
@@ -16,14 +17,28 @@ import de.qabel.core.exceptions.QblVersionMismatchException
 import de.qabel.core.drop.http.DropServerHttp.DropServerResponse
 import de.qabel.core.repository.entities.DropState
 import org.slf4j.LoggerFactory
+import rx.Observable
+import java.net.URI
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 
-class MainDropConnector(val dropServer: DropServerHttp):
-    DropConnector {
+class MainDropConnector @JvmOverloads constructor(
+    val dropServer: DropServerHttp,
+    private val executor: ExecutorService = DEFAULT_EXECUTOR
+) : DropConnector {
 
     private val parser = DefaultDropParser()
 
     companion object {
         private val logger = LoggerFactory.getLogger(MainDropConnector::class.java)
+
+        private val DEFAULT_EXECUTOR: ExecutorService by lazy {
+            Executors.newFixedThreadPool(DropHttpClients.DEFAULT_CONNECTIONS) {
+                Thread(it, "drop-sender").apply { isDaemon = true }
+            }
+        }
     }
 
     override fun sendDropMessage(identity: Identity, contact: Contact,
@@ -33,32 +48,88 @@ class MainDropConnector(val dropServer: DropServerHttp):
         dropServer.sendBytes(server.uri, messageBytes)
     }
 
+    /**
+     * The message is serialized and padded once, the boxes for the contacts are encrypted and sent in parallel
+     */
+    override fun broadcastDropMessage(identity: Identity, contacts: List<Contact>,
+                                      message: DropMessage): List<DropConnector.BroadcastResult> {
+        val binaryMessage = BinaryDropMessageV0(message)
+        return contacts.map { contact ->
+            executor.submit(Callable {
+                dropServer.sendBytes(contact.dropUrls.first().uri, binaryMessage.assembleMessageFor(contact, identity))
+            })
+        }.mapIndexed { i, future ->
+            try {
+                future.get()
+                DropConnector.BroadcastResult(contacts[i])
+            } catch (e: ExecutionException) {
+                DropConnector.BroadcastResult(contacts[i], e.cause ?: e)
+            }
+        }
+    }
+
     override fun receiveDropMessages(identity: Identity, dropUrl: DropURL, dropState: DropState): DropServerResponse<DropMessage> {
         val (status, eTag, byteMessages) = dropServer.receiveMessageBytes(dropUrl.uri, dropState.eTag)
+        return handleResponse(identity, dropState, status, eTag, byteMessages)
+    }
+
+    /**
+     * Every message is decoded as soon as its part is read, while the rest of the response is still being received.
+     * Messages are requested from the response as fast as the subscriber requests them.
+     */
+    override fun receiveDropMessageStream(identity: Identity, dropUrl: DropURL,
+                                          dropState: DropState): Observable<DropMessage> {
+        val receivers = Identities().apply { put(identity) }
+        return Observable.using<DropMessage, DropServerHttp.MessageStream>({
+            dropServer.openMessageStream(dropUrl.uri, dropState.eTag)
+        }, { stream ->
+            if (!stream.eTag.isEmpty()) {
+                dropState.eTag = stream.eTag
+            }
+            // each part is parsed while the stream advances, so only one undecrypted part is held at a time
+            Observable.from(Iterable {
+                stream.messages.asSequence().flatMap {
+                    parser.parseAll(listOf(it), receivers, logParseError).map { it.second }.asSequence()
+                }.iterator()
+            })
+        }, { it.close() }, true)
+    }
+
+    /**
+     * Subscribes all drops of a drop server with one long poll, servers without subscription support are polled
+     */
+    override fun subscribe(identity: Identity, dropStates: Collection<DropState>,
+                           config: DropSubscriptionConfig): Observable<DropMessage> =
+        DropSubscription(this, identity, dropStates, config) { receiver, states, timeout ->
+            val statesByUri = states.associateBy { URI(it.drop) }
+            val responses = dropServer.waitForMessageBytes(statesByUri.mapValues { it.value.eTag }, timeout)
+            responses?.flatMap {
+                val (status, eTag, byteMessages) = it.value
+                val dropState = statesByUri[it.key]
+                if (dropState == null) emptyList()
+                else handleResponse(receiver, dropState, status, eTag, byteMessages).dropMessages
+            }
+        }.observable()
+
+    private fun handleResponse(identity: Identity, dropState: DropState, status: Int, eTag: String,
+                               byteMessages: Collection<ByteArray>): DropServerResponse<DropMessage> {
         if (!eTag.isEmpty()) {
             dropState.eTag = eTag
         }
         val receivers = Identities().apply { put(identity) }
-        val messages = byteMessages.map { byteMessage ->
-            try {
-                parser.parse(byteMessage, receivers).second
-            } catch (e: QblVersionMismatchException) {
-                logger.warn("Received DropMessage with version mismatch")
-                null
-            } catch (e: QblDropInvalidMessageSizeException) {
-                // Invalid message uploads may happen with malicious intent
-                // or by broken clients. Skip.
-                logger.warn("Received DropMessage with invalid size")
-                null
-            } catch(ex: QblSpoofedSenderException) {
-                logger.warn("QblSpoofedSenderException while disassembling message")
-                null
-            } catch (ex: QblException) {
-                logger.warn("Another QblException while parsing the message", ex)
-                null
-            }
-        }.filterNotNull()
+        val messages = parser.parseAll(byteMessages, receivers, logParseError).map { it.second }
         return DropServerResponse(status, dropState, messages)
     }
 
+    private val logParseError: (QblException) -> Unit = { e ->
+        when (e) {
+            is QblVersionMismatchException -> logger.warn("Received DropMessage with version mismatch")
+            // Invalid message uploads may happen with malicious intent
+            // or by broken clients. Skip.
+            is QblDropInvalidMessageSizeException -> logger.warn("Received DropMessage with invalid size")
+            is QblSpoofedSenderException -> logger.warn("QblSpoofedSenderException while disassembling message")
+            else -> logger.warn("Another QblException while parsing the message", e)
+        }
+    }
+
 }
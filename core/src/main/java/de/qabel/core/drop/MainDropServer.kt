@@ -1,82 +1,235 @@
 package de.qabel.core.drop
 
+import de.qabel.core.crypto.BinaryDropMessageV0
+import de.qabel.core.drop.http.DropHttpClients
 import de.qabel.core.drop.http.DropServerHttp
 import de.qabel.core.exceptions.QblDropInvalidMessageSizeException
 import de.qabel.core.exceptions.QblDropInvalidURL
+import de.qabel.core.drop.http.DropServerHttp.MessageStream
 import de.qabel.core.drop.http.DropServerHttp.QblHeaders
 import de.qabel.core.drop.http.DropServerHttp.QblStatusCodes
+import com.google.gson.JsonObject
+import com.google.gson.JsonPrimitive
 import org.apache.commons.io.IOUtils
+import org.apache.http.HttpStatus
+import org.apache.http.client.config.RequestConfig
+import org.apache.http.client.methods.CloseableHttpResponse
+import org.apache.http.client.methods.HttpGet
+import org.apache.http.client.methods.HttpPost
+import org.apache.http.client.methods.HttpUriRequest
+import org.apache.http.entity.ByteArrayEntity
+import org.apache.http.entity.ContentType
+import org.apache.http.entity.StringEntity
+import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.util.EntityUtils
 import org.apache.james.mime4j.stream.EntityState
 import org.apache.james.mime4j.stream.MimeTokenStream
-import java.io.DataOutputStream
-import java.net.HttpURLConnection
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
 import java.net.URI
+import java.util.concurrent.ArrayBlockingQueue
 
-class MainDropServer : DropServerHttp {
+/**
+ * Drop transport on a pooled HTTP client, connections are kept alive between requests and may be used concurrently.
+ */
+class MainDropServer @JvmOverloads constructor(
+    private val httpClient: CloseableHttpClient = DropHttpClients.shared()
+) : DropServerHttp {
 
     companion object {
         const val DROP_CONTENT_TYPE_KEY = "Content-Type"
         const val DROP_CONTENT_TYPE = "application/octet-stream"
+        const val SUBSCRIBE_PATH = "subscribe"
+        /**
+         * Answers to a subscription by servers without subscriptions.
+         * Drop servers take `subscribe` for an invalid drop id and answer 400.
+         */
+        private val SUBSCRIBE_UNSUPPORTED = setOf(HttpStatus.SC_BAD_REQUEST, HttpStatus.SC_NOT_FOUND,
+            HttpStatus.SC_METHOD_NOT_ALLOWED, HttpStatus.SC_NOT_IMPLEMENTED)
+
+        /**
+         * Buffers for V0 messages, at most one per pooled connection is kept
+         */
+        private val buffers = ArrayBlockingQueue<ByteArray>(DropHttpClients.DEFAULT_CONNECTIONS)
     }
 
-    override fun sendBytes(uri: URI, messageBytes: ByteArray) =
-        connect(uri).use {
-            it.doOutput = true // indicates POST method
-            it.setRequestProperty(DROP_CONTENT_TYPE_KEY, DROP_CONTENT_TYPE)
-            it.setRequestProperty(QblHeaders.AUTHORIZATION, DropServerHttp.DEFAULT_AUTH_TOKEN)
+    override fun sendBytes(uri: URI, messageBytes: ByteArray) {
+        val request = HttpPost(uri)
+        request.setHeader(QblHeaders.AUTHORIZATION, DropServerHttp.DEFAULT_AUTH_TOKEN)
+        request.entity = ByteArrayEntity(messageBytes, ContentType.create(DROP_CONTENT_TYPE))
 
-            DataOutputStream(it.outputStream).use {
-                it.write(messageBytes)
-            }
-            when (it.responseCode) {
+        execute(request) {
+            when (it.statusLine.statusCode) {
                 QblStatusCodes.OK -> Unit
                 QblStatusCodes.INVALID -> throw QblDropInvalidURL()
                 QblStatusCodes.INVALID_SIZE -> throw QblDropInvalidMessageSizeException()
-                else -> throw RuntimeException("Received unknown statusCode $it.statusLine.statusCode")
+                else -> throw RuntimeException("Received unknown statusCode ${it.statusLine.statusCode}")
             }
         }
+    }
 
     override fun receiveMessageBytes(uri: URI, eTag: String): Triple<Int, String, Collection<ByteArray>> =
-        connect(uri).use {
-            if (!eTag.isEmpty()) {
-                it.addRequestProperty(QblHeaders.X_QABEL_NEW_SINCE, eTag)
+        openMessageStream(uri, eTag, null).use {
+            Triple(it.statusCode, it.eTag, it.messages.asSequence().toList())
+        }
+
+    /**
+     * Parts are read through a pooled buffer of the size of a V0 message, every part is returned as its own array
+     */
+    override fun openMessageStream(uri: URI, eTag: String): MessageStream =
+        openMessageStream(uri, eTag, buffers.poll() ?: ByteArray(BinaryDropMessageV0.MESSAGE_SIZE))
+
+    private fun openMessageStream(uri: URI, eTag: String, buffer: ByteArray?): MessageStream {
+        val request = HttpGet(uri)
+        if (!eTag.isEmpty()) {
+            request.addHeader(QblHeaders.X_QABEL_NEW_SINCE, eTag)
+        }
+
+        val response = httpClient.execute(request)
+        val close = {
+            EntityUtils.consumeQuietly(response.entity)
+            response.close()
+            buffer?.let { buffers.offer(it) }
+            Unit
+        }
+        try {
+            val statusCode = response.statusLine.statusCode
+            val messages: Iterator<ByteArray> = when (statusCode) {
+                QblStatusCodes.OK -> MimePartIterator(response.entity.content, response.entity.contentType?.value, buffer)
+                QblStatusCodes.NOT_MODIFIED -> emptyList<ByteArray>().iterator()
+                QblStatusCodes.EMPTY_DROP -> emptyList<ByteArray>().iterator()
+                QblStatusCodes.INVALID -> throw QblDropInvalidURL()
+                else -> throw RuntimeException("Received unknown statusCode $statusCode")
+            }
+            val responseETag = response.getFirstHeader(QblHeaders.X_QABEL_LATEST)?.value ?: ""
+
+            return MessageStream(statusCode, responseETag, messages, close)
+        } catch (e: Exception) {
+            close()
+            throw e
+        }
+    }
+
+    /**
+     * Reads the parts of a multipart response one at a time.
+     * Parts are read into the buffer and copied from it, so callers may keep them after the next part.
+     */
+    private class MimePartIterator(inputStream: InputStream, contentType: String?,
+                                   private val buffer: ByteArray?) : Iterator<ByteArray> {
+        private val stream = MimeTokenStream().apply { parseHeadless(inputStream, contentType) }
+        private var state = stream.state
+
+        override fun hasNext(): Boolean {
+            while (state != EntityState.T_BODY && state != EntityState.T_END_OF_STREAM) {
+                state = stream.next()
             }
+            return state == EntityState.T_BODY
+        }
 
-            val statusCode = it.responseCode
-            val messages: List<ByteArray> = when (statusCode) {
+        override fun next(): ByteArray {
+            if (!hasNext()) {
+                throw NoSuchElementException()
+            }
+            val part = readPart(stream.inputStream)
+            state = stream.next()
+            return part
+        }
+
+        private fun readPart(inputStream: InputStream): ByteArray {
+            if (buffer == null) {
+                return IOUtils.toByteArray(inputStream)
+            }
+            val read = IOUtils.read(inputStream, buffer)
+            if (read < buffer.size) {
+                return buffer.copyOf(read)
+            }
+            val next = inputStream.read()
+            if (next == -1) {
+                return buffer.copyOf()
+            }
+            val part = ByteArrayOutputStream(buffer.size * 2)
+            part.write(buffer)
+            part.write(next)
+            IOUtils.copy(inputStream, part)
+            return part.toByteArray()
+        }
+    }
+
+    /**
+     * Subscribes the drops with `POST <drop server>/subscribe` and a JSON body
+     * `{"timeout": <seconds>, "drops": {"<drop id>": "<eTag>", ...}}`.
+     * The server answers when messages arrive with a multipart response like [receiveMessageBytes], but every part
+     * carries the drop id in `X-Qabel-Drop` and the eTag of the message in `X-Qabel-Latest`.
+     * After the timeout it answers with 304.
+     */
+    override fun waitForMessageBytes(drops: Map<URI, String>,
+                                     timeoutSeconds: Int): Map<URI, Triple<Int, String, Collection<ByteArray>>>? {
+        if (drops.isEmpty()) {
+            return emptyMap()
+        }
+        val dropsById = drops.keys.associateBy { it.path.substringAfterLast('/') }
+        val body = JsonObject().apply {
+            addProperty("timeout", timeoutSeconds)
+            add("drops", JsonObject().apply {
+                dropsById.forEach { add(it.key, JsonPrimitive(drops[it.value] ?: "")) }
+            })
+        }
+        val request = HttpPost(drops.keys.first().resolve(SUBSCRIBE_PATH))
+        request.setHeader(QblHeaders.AUTHORIZATION, DropServerHttp.DEFAULT_AUTH_TOKEN)
+        request.entity = StringEntity(body.toString(), ContentType.APPLICATION_JSON)
+        // a silent server must not block the subscription forever
+        request.config = RequestConfig.custom().setSocketTimeout((timeoutSeconds + 30) * 1000).build()
+
+        return execute(request) {
+            val statusCode = it.statusLine.statusCode
+            when (statusCode) {
                 QblStatusCodes.OK -> {
-                    it.inputStream.use { inputStream ->
+                    val eTags = mutableMapOf<URI, String>()
+                    val messages = mutableMapOf<URI, MutableList<ByteArray>>()
+                    it.entity.content.use { inputStream ->
                         val stream = MimeTokenStream()
-                        stream.parseHeadless(inputStream, it.contentType)
-                        val messages = mutableListOf<ByteArray>()
+                        stream.parseHeadless(inputStream, it.entity.contentType?.value)
+                        var drop: URI? = null
+                        var eTag = ""
                         var state = stream.state
                         while (state != EntityState.T_END_OF_STREAM) {
-                            if (state == EntityState.T_BODY) {
-                                val bytes = IOUtils.toByteArray(stream.inputStream)
-                                messages.add(bytes)
+                            when (state) {
+                                EntityState.T_START_HEADER -> {
+                                    drop = null
+                                    eTag = ""
+                                }
+                                EntityState.T_FIELD -> when (stream.field.name) {
+                                    QblHeaders.X_QABEL_DROP -> drop = dropsById[stream.field.body.trim()]
+                                    QblHeaders.X_QABEL_LATEST -> eTag = stream.field.body.trim()
+                                }
+                                EntityState.T_BODY -> drop?.let { uri ->
+                                    messages.getOrPut(uri) { mutableListOf() }.add(IOUtils.toByteArray(stream.inputStream))
+                                    eTags[uri] = eTag
+                                }
+                                else -> Unit
                             }
                             state = stream.next()
                         }
-                        messages
                     }
+                    messages.mapValues { Triple(QblStatusCodes.OK, eTags[it.key] ?: "", it.value as Collection<ByteArray>) }
                 }
-                QblStatusCodes.NOT_MODIFIED -> emptyList()
-                QblStatusCodes.EMPTY_DROP -> emptyList()
-                QblStatusCodes.INVALID -> throw QblDropInvalidURL()
-                else -> throw RuntimeException("Received unknown statusCode")
+                QblStatusCodes.NOT_MODIFIED -> emptyMap()
+                in SUBSCRIBE_UNSUPPORTED -> null
+                else -> throw RuntimeException("Received unknown statusCode $statusCode")
             }
-            val responseETag = it.getHeaderField(QblHeaders.X_QABEL_LATEST) ?: ""
-
-            Triple(statusCode, responseETag, messages)
         }
+    }
 
-    private fun connect(url: URI) = url.toURL().openConnection() as HttpURLConnection
-
-    fun <X> HttpURLConnection.use(block: (HttpURLConnection) -> X): X {
+    /**
+     * Consumes the rest of the response, so the connection goes back to the pool instead of being closed
+     */
+    private fun <X> execute(request: HttpUriRequest, block: (CloseableHttpResponse) -> X): X {
+        val response = httpClient.execute(request)
         try {
-            return block(this)
+            return block(response)
         } finally {
-            disconnect()
+            EntityUtils.consumeQuietly(response.entity)
+            response.close()
         }
     }
 }
@@ -7,6 +7,14 @@ import org.spongycastle.util.encoders.Base64;
 import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ProofOfWork {
     /**
@@ -21,6 +29,11 @@ public class ProofOfWork {
     private byte[] pow;
     static final int longLength = Long.SIZE / Byte.SIZE;
     static final int hashLength = 256 / 8; //SHA-256
+    /**
+     * Number of counters between checks for timeouts and interrupts
+     */
+    private static final int CHECK_INTERVAL = 1 << 12;
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
 
     /**
      * Initializes PoW
@@ -60,14 +73,43 @@ public class ProofOfWork {
     }
 
     /**
-     * Calculates the PoW for given parameters
+     * Calculates the PoW for given parameters on all cores
      *
      * @param leadingZeros     Number of leading zero bits of PoW hash
      * @param initVectorServer Server IV which is part of the PoW
      * @param messageHash      hash of message to be sent
      * @return byte[][]: byte[0]=plain parameters byte[1]=PoW hash
+     * @throws IllegalStateException if the calculating thread was interrupted
      */
     public static ProofOfWork calculate(int leadingZeros, byte[] initVectorServer, byte[] messageHash) {
+        try {
+            return calculate(leadingZeros, initVectorServer, messageHash,
+                DefaultExecutor.INSTANCE, DEFAULT_PARALLELISM, 0L, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while calculating the proof of work", e);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Calculates the PoW for given parameters. The counter space is split across the calling thread
+     * and parallelism - 1 tasks on the executor, the result is the smallest valid counter like on a single thread.
+     * Interrupting the calling thread cancels the calculation.
+     *
+     * @param leadingZeros     Number of leading zero bits of PoW hash
+     * @param initVectorServer Server IV which is part of the PoW
+     * @param messageHash      hash of message to be sent
+     * @param executor         runs the additional searches
+     * @param parallelism      number of concurrent searches including the calling thread
+     * @param timeout          maximum time to search, 0 to search until a counter is found
+     * @throws TimeoutException     if no counter was found within the timeout
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    public static ProofOfWork calculate(int leadingZeros, byte[] initVectorServer, byte[] messageHash,
+                                        Executor executor, int parallelism, long timeout, TimeUnit unit)
+        throws InterruptedException, TimeoutException {
         long time;
         long counter;
         byte[] initVectorClient;
@@ -83,7 +125,7 @@ public class ProofOfWork {
         byte[] fix = composeFixParts(initVectorServer, initVectorClient, timeBytes, messageHash);
 
         //Find counter which fulfills pattern
-        counter = calculatePow(pow, fix, leadingZeros);
+        counter = calculatePow(pow, fix, leadingZeros, executor, parallelism, unit.toNanos(timeout));
 
         return new ProofOfWork(leadingZeros, initVectorServer, initVectorClient, time, messageHash, counter, pow);
     }
@@ -102,49 +144,165 @@ public class ProofOfWork {
     }
 
     /**
-     * Checks whether hash starts with required leading zero bits
+     * Checks whether hash starts with required leading zero bits.
+     * Bits are counted from the least significant bit of each byte, whole bytes are compared at once.
      *
      * @param hash         hash to be verified
      * @param leadingZeros required leading zeros
      * @return true of hash starts with required leading zero bits
      */
-    private static boolean enoughZeros(byte[] hash, int leadingZeros) {
-        for (int i = 0; i < leadingZeros; i++) {
-            //check whether i-th bit is zero
-            if ((hash[i / 8] >> i % 8 & 1) != 0) {
+    static boolean enoughZeros(byte[] hash, int leadingZeros) {
+        int zeroBytes = leadingZeros >>> 3;
+        for (int i = 0; i < zeroBytes; i++) {
+            if (hash[i] != 0) {
                 return false;
             }
         }
-        return true;
+        int zeroBits = leadingZeros & 7;
+        return zeroBits == 0 || (hash[zeroBytes] & ((1 << zeroBits) - 1)) == 0;
     }
 
     /**
-     * Finds a valid proof of work hash with leading zeros
+     * Finds the smallest counter for a valid proof of work hash with leading zeros
      *
-     * @param pow          result of the calculation
-     * @param fix          fix part of the proof of work
-     * @param leadingZeros required leading zeros
+     * @param pow           result of the calculation
+     * @param fix           fix part of the proof of work
+     * @param leadingZeros  required leading zeros
+     * @param executor      runs the additional searches
+     * @param parallelism   number of concurrent searches including the calling thread
+     * @param timeoutNanos  maximum time to search, 0 for no timeout
      * @return counter for the valid hash
      */
-    private static long calculatePow(byte[] pow, byte[] fix, int leadingZeros) {
-        SHA256Digest digest = new SHA256Digest();
-        long counter = 0;
-        if (pow.length == hashLength) {
-            digest.update(fix, 0, fix.length);
-            digest.update(toByteArray(counter), 0, longLength);
-            digest.doFinal(pow, 0);
-
-            while (!enoughZeros(pow, leadingZeros)) {
-                counter++;
-                digest.reset();
-                digest.update(fix, 0, fix.length);
-                digest.update(toByteArray(counter), 0, longLength);
-                digest.doFinal(pow, 0);
+    static long calculatePow(byte[] pow, byte[] fix, int leadingZeros, Executor executor, int parallelism,
+                             long timeoutNanos) throws InterruptedException, TimeoutException {
+        if (pow.length != hashLength) {
+            return 0;
+        }
+        SHA256Digest midstate = new SHA256Digest();
+        midstate.update(fix, 0, fix.length);
+        long deadline = timeoutNanos > 0 ? System.nanoTime() + timeoutNanos : 0;
+        final Search search = new Search(midstate, leadingZeros, Math.max(1, parallelism), deadline);
+
+        final CountDownLatch helpers = new CountDownLatch(search.stride - 1);
+        try {
+            for (int i = 1; i < search.stride; i++) {
+                final int start = i;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            search.run(start);
+                        } finally {
+                            helpers.countDown();
+                        }
+                    }
+                });
             }
-            digest.reset();
-            return counter;
+            search.run(0);
+            if (!search.cancelled) {
+                waitFor(helpers, deadline);
+            }
+        } finally {
+            search.cancelled = true;
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException("proof of work calculation interrupted");
+        }
+        long counter = search.best.get();
+        if (counter == Long.MAX_VALUE) {
+            throw new TimeoutException("no proof of work with " + leadingZeros + " leading zeros found in time");
+        }
+        SHA256Digest digest = new SHA256Digest(midstate);
+        digest.update(toByteArray(counter), 0, longLength);
+        digest.doFinal(pow, 0);
+        return counter;
+    }
+
+    private static void waitFor(CountDownLatch latch, long deadline) throws InterruptedException {
+        if (deadline == 0) {
+            latch.await();
         } else {
-            return 0;
+            latch.await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Search over every stride-th counter. All searches stop at the smallest counter found so far,
+     * on timeouts and if the calling thread is interrupted.
+     */
+    private static class Search {
+        private final SHA256Digest midstate;
+        private final int leadingZeros;
+        private final int stride;
+        private final long deadline;
+        private final AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+        private final Thread caller = Thread.currentThread();
+        volatile boolean cancelled;
+
+        Search(SHA256Digest midstate, int leadingZeros, int stride, long deadline) {
+            this.midstate = midstate;
+            this.leadingZeros = leadingZeros;
+            this.stride = stride;
+            this.deadline = deadline;
+        }
+
+        void run(long start) {
+            SHA256Digest digest = new SHA256Digest(midstate);
+            byte[] counterBytes = new byte[longLength];
+            byte[] hash = new byte[hashLength];
+            int untilCheck = CHECK_INTERVAL;
+            for (long counter = start; counter < best.get() && !cancelled; counter += stride) {
+                digest.reset(midstate);
+                writeLong(counterBytes, counter);
+                digest.update(counterBytes, 0, longLength);
+                digest.doFinal(hash, 0);
+                if (enoughZeros(hash, leadingZeros)) {
+                    updateBest(counter);
+                    return;
+                }
+                if (--untilCheck == 0) {
+                    untilCheck = CHECK_INTERVAL;
+                    checkCancelled();
+                }
+            }
+        }
+
+        private void updateBest(long counter) {
+            long current = best.get();
+            while (counter < current && !best.compareAndSet(current, counter)) {
+                current = best.get();
+            }
+        }
+
+        private void checkCancelled() {
+            if ((deadline != 0 && System.nanoTime() - deadline > 0)
+                || (Thread.currentThread() == caller && caller.isInterrupted())) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * Daemon threads for the searches of {@link #calculate(int, byte[], byte[])}, idle threads are stopped after a minute
+     */
+    private static class DefaultExecutor {
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "proof-of-work");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Big-endian encoding like {@link #toByteArray(long)}, into an existing array
+     */
+    static void writeLong(byte[] target, long number) {
+        for (int i = longLength - 1; i >= 0; i--) {
+            target[i] = (byte) number;
+            number >>>= 8;
         }
     }
 
@@ -2,17 +2,22 @@ package de.qabel.core.drop.http;
 
 import de.qabel.core.http.HTTPResult;
 import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.apache.james.mime4j.MimeException;
 import org.apache.james.mime4j.stream.EntityState;
 import org.apache.james.mime4j.stream.MimeTokenStream;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URI;
-import java.net.URLConnection;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -20,30 +25,34 @@ import java.util.Date;
 
 
 public class DropHTTP {
+    private final CloseableHttpClient httpClient;
 
-    public HTTPResult<?> send(URI uri, byte[] message) {
+    public DropHTTP() {
+        this(DropHttpClients.shared());
+    }
+
+    /**
+     * @param httpClient client for all requests, connections are kept alive between requests
+     */
+    public DropHTTP(CloseableHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * @throws IOException if the request could not be sent, the status of a completed request is in the result
+     */
+    public HTTPResult<?> send(URI uri, byte[] message) throws IOException {
         HTTPResult<?> result = new HTTPResult<>();
-        HttpURLConnection conn = (HttpURLConnection) setupConnection(uri);
-        conn.setDoOutput(true); // indicates POST method
-        conn.setDoInput(true);
-        conn.setRequestProperty("Content-Type", "application/octet-stream");
-        conn.setRequestProperty("Authorization", "Client Qabel");
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Authorization", "Client Qabel");
+        request.setEntity(new ByteArrayEntity(message, ContentType.APPLICATION_OCTET_STREAM));
 
-        // conn.setFixedLengthStreamingMode();
-        DataOutputStream out;
+        CloseableHttpResponse response = httpClient.execute(request);
         try {
-            out = new DataOutputStream(conn.getOutputStream());
-            out.write(message);
-            out.flush();
-            out.close();
-            result.setResponseCode(conn.getResponseCode());
-            result.setOk(conn.getResponseCode() == 200);
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            result.setResponseCode(response.getStatusLine().getStatusCode());
+            result.setOk(result.getResponseCode() == 200);
         } finally {
-            conn.disconnect();
-
+            release(response);
         }
         return result;
     }
@@ -54,23 +63,23 @@ public class DropHTTP {
 
     public HTTPResult<Collection<byte[]>> receiveMessages(URI uri, long sinceDate) throws IOException {
         HTTPResult<Collection<byte[]>> result = new HTTPResult<>();
-        HttpURLConnection conn = (HttpURLConnection) setupConnection(uri);
-        conn.setIfModifiedSince(sinceDate);
         Collection<byte[]> messages = new ArrayList<>();
+        CloseableHttpResponse response = httpClient.execute(get(uri, sinceDate));
         try {
-            conn.setRequestMethod("GET");
-            result.setResponseCode(conn.getResponseCode());
-            result.setOk(conn.getResponseCode() == 200);
+            result.setResponseCode(response.getStatusLine().getStatusCode());
+            result.setOk(result.getResponseCode() == 200);
             if (result.isOk()) {
-                if (conn.getHeaderField("Last-Modified") != null) {
+                Header lastModified = response.getFirstHeader("Last-Modified");
+                if (lastModified != null) {
                     try {
-                        result.setLastModified(parseDate(conn.getHeaderField("Last-Modified")));
+                        result.setLastModified(parseDate(lastModified.getValue()));
                     } catch (ParseException ignored) {
                     }
                 }
-                InputStream inputstream = conn.getInputStream();
+                InputStream inputstream = response.getEntity().getContent();
+                Header contentType = response.getEntity().getContentType();
                 MimeTokenStream stream = new MimeTokenStream();
-                stream.parseHeadless(inputstream, conn.getContentType());
+                stream.parseHeadless(inputstream, contentType == null ? null : contentType.getValue());
                 for (EntityState state = stream.getState();
                      state != EntityState.T_END_OF_STREAM;
                      state = stream.next()) {
@@ -83,14 +92,18 @@ public class DropHTTP {
         } catch (MimeException e) {
             throw new IllegalStateException("error while parsing mime response: " + e.getMessage(), e);
         } finally {
-            conn.disconnect();
+            release(response);
         }
         result.setData(messages);
         return result;
     }
 
     private Date parseDate(String dateHeader) throws ParseException {
-        return DateUtils.parseDate(dateHeader);
+        Date date = DateUtils.parseDate(dateHeader);
+        if (date == null) {
+            throw new ParseException("Invalid date: " + dateHeader, 0);
+        }
+        return date;
     }
 
     public HTTPResult<?> head(URI uri) throws IOException {
@@ -99,26 +112,29 @@ public class DropHTTP {
 
     public HTTPResult<?> head(URI uri, long sinceDate) throws IOException {
         HTTPResult<?> result = new HTTPResult<>();
-        HttpURLConnection conn = (HttpURLConnection) setupConnection(uri);
-        conn.setIfModifiedSince(sinceDate);
+        CloseableHttpResponse response = httpClient.execute(get(uri, sinceDate));
         try {
-            conn.setRequestMethod("GET");
-            result.setResponseCode(conn.getResponseCode());
-            result.setOk(conn.getResponseCode() == 200);
+            result.setResponseCode(response.getStatusLine().getStatusCode());
+            result.setOk(result.getResponseCode() == 200);
         } finally {
-            conn.disconnect();
+            release(response);
         }
         return result;
     }
 
-    private URLConnection setupConnection(URI uri) {
-        URLConnection conn = null;
-        try {
-            conn = uri.toURL().openConnection();
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+    private HttpGet get(URI uri, long sinceDate) {
+        HttpGet request = new HttpGet(uri);
+        if (sinceDate != 0) {
+            request.setHeader("If-Modified-Since", DateUtils.formatDate(new Date(sinceDate)));
         }
-        return conn;
+        return request;
+    }
+
+    /**
+     * Reads the rest of the response, so the connection is returned to the pool instead of being closed
+     */
+    private void release(CloseableHttpResponse response) throws IOException {
+        EntityUtils.consumeQuietly(response.getEntity());
+        response.close();
     }
 }
@@ -0,0 +1,50 @@
+package de.qabel.core.drop.http
+
+import org.apache.http.config.Registry
+import org.apache.http.config.RegistryBuilder
+import org.apache.http.conn.socket.ConnectionSocketFactory
+import org.apache.http.conn.socket.PlainConnectionSocketFactory
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory
+import org.apache.http.impl.client.CloseableHttpClient
+import org.apache.http.impl.client.HttpClients
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager
+
+/**
+ * HTTP clients for the drop transports that keep connections (and their TLS sessions) alive between requests.
+ */
+object DropHttpClients {
+    /**
+     * Number of pooled connections, also per drop server because most drops live on the same host
+     */
+    const val DEFAULT_CONNECTIONS = 16
+
+    private val sharedClient by lazy { create() }
+
+    /**
+     * @return the client that is shared by all drop transports created without an explicit client
+     */
+    @JvmStatic
+    fun shared(): CloseableHttpClient = sharedClient
+
+    /**
+     * Creates a pooling client that honors the JVM's proxy, TLS and trust store system properties
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun create(maxConnections: Int = DEFAULT_CONNECTIONS): CloseableHttpClient {
+        val connManager = PoolingHttpClientConnectionManager(systemSocketFactories())
+        connManager.maxTotal = maxConnections
+        connManager.defaultMaxPerRoute = maxConnections
+        return HttpClients.custom().useSystemProperties().setConnectionManager(connManager).build()
+    }
+
+    /**
+     * A custom connection manager replaces the one useSystemProperties would build, so its TLS socket factory
+     * has to use the system properties as well
+     */
+    private fun systemSocketFactories(): Registry<ConnectionSocketFactory> =
+        RegistryBuilder.create<ConnectionSocketFactory>()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+            .build()
+}
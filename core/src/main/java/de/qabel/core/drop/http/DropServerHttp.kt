@@ -1,6 +1,7 @@
 package de.qabel.core.drop.http
 
 import de.qabel.core.repository.entities.DropState
+import java.io.Closeable
 import java.net.URI
 
 interface DropServerHttp {
@@ -13,6 +14,7 @@ interface DropServerHttp {
         const val AUTHORIZATION = "Authorization"
         const val X_QABEL_LATEST = "X-Qabel-Latest"
         const val X_QABEL_NEW_SINCE = "X-Qabel-New-Since"
+        const val X_QABEL_DROP = "X-Qabel-Drop"
     }
 
     object QblStatusCodes {
@@ -27,7 +29,44 @@ interface DropServerHttp {
                                      val dropState: DropState,
                                      val dropMessages: List<T>)
 
+    /**
+     * Messages of a drop that are read from the response while they are iterated.
+     * Every message is a separate array that stays valid after the stream is closed.
+     */
+    class MessageStream @JvmOverloads constructor(val statusCode: Int,
+                                                  val eTag: String,
+                                                  val messages: Iterator<ByteArray>,
+                                                  private val onClose: () -> Unit = {}) : Closeable {
+        private var closed = false
+
+        override fun close() {
+            if (!closed) {
+                closed = true
+                onClose()
+            }
+        }
+    }
 
     fun sendBytes(uri: URI, messageBytes: ByteArray)
     fun receiveMessageBytes(uri: URI, eTag: String): Triple<Int, String, Collection<ByteArray>>
+
+    /**
+     * Like [receiveMessageBytes], but the messages are read while the stream is iterated.
+     * The stream must be closed.
+     */
+    fun openMessageStream(uri: URI, eTag: String): MessageStream {
+        val (status, responseETag, messages) = receiveMessageBytes(uri, eTag)
+        return MessageStream(status, responseETag, messages.iterator())
+    }
+
+    /**
+     * Waits up to timeoutSeconds for messages that are newer than the given eTags in any of the drops.
+     * All drops must be hosted by the same drop server, they are subscribed with a single request.
+     *
+     * @param drops drop uris with the eTag of their latest known message, empty if none is known
+     * @return status, eTag and messages of each drop with new messages, empty if nothing arrived in time,
+     * null if the drop server (or this client) does not support subscriptions
+     */
+    fun waitForMessageBytes(drops: Map<URI, String>, timeoutSeconds: Int): Map<URI, Triple<Int, String, Collection<ByteArray>>>? =
+        null
 }
@@ -0,0 +1,10 @@
+package de.qabel.core.repository;
+
+/**
+ * Gets notified when a transaction of a transaction manager has ended
+ */
+public interface TransactionListener {
+    void afterCommit();
+
+    void afterRollback();
+}
@@ -0,0 +1,74 @@
+package de.qabel.core.repository.cache
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Contacts
+import de.qabel.core.config.EntityObservable
+import de.qabel.core.config.EntityObserver
+import de.qabel.core.config.Identity
+import de.qabel.core.contacts.ContactData
+import de.qabel.core.repository.ContactRepository
+import de.qabel.core.repository.exception.EntityNotFoundException
+
+/**
+ * Read-through cache in front of a contact repository.
+ * Searches with [findWithIdentities] are not cached and always go to the delegate.
+ */
+class CachedContactRepository(
+    private val delegate: ContactRepository,
+    private val cache: RepositoryCache
+) : ContactRepository, EntityObservable by delegate {
+
+    init {
+        delegate.attach(EntityObserver { cache.invalidate() })
+    }
+
+    override fun save(contact: Contact, identity: Identity) = modify { delegate.save(contact, identity) }
+
+    override fun delete(contact: Contact, identity: Identity) = modify { delegate.delete(contact, identity) }
+
+    override fun update(contact: Contact, activeIdentities: List<Identity>) =
+        modify { delegate.update(contact, activeIdentities) }
+
+    override fun update(contact: Contact) = modify { delegate.update(contact) }
+
+    override fun persist(contact: Contact, identities: List<Identity>) = modify { delegate.persist(contact, identities) }
+
+    override fun delete(contact: Contact) = modify { delegate.delete(contact) }
+
+    override fun find(id: Int): Contact =
+        cache.contacts.getOrLoad(id) { delegate.find(id) }
+
+    override fun find(identity: Identity): Contacts =
+        Contacts(identity).apply {
+            cache.identityContacts.getOrLoad(identity.id) { delegate.find(identity).contacts.toList() }
+                .forEach { put(it) }
+        }
+
+    /**
+     * Uses the contacts of the identity if they are cached, a single contact is not worth loading all of them
+     */
+    override fun findByKeyId(identity: Identity, keyId: String): Contact {
+        val contacts = cache.identityContacts.peek(identity.id) ?: return delegate.findByKeyId(identity, keyId)
+        return contacts.find { it.keyIdentifier == keyId } ?: throw EntityNotFoundException("Contact not found")
+    }
+
+    override fun findByKeyId(keyId: String): Contact =
+        cache.contacts.getOrLoad(keyId) { delegate.findByKeyId(keyId) }
+
+    override fun exists(contact: Contact): Boolean =
+        cache.contacts.peek(contact.keyIdentifier) != null || delegate.exists(contact)
+
+    override fun findContactWithIdentities(keyId: String): ContactData =
+        cache.contactData.getOrLoad(keyId) { delegate.findContactWithIdentities(keyId) }
+
+    override fun findWithIdentities(searchString: String, status: List<Contact.ContactStatus>,
+                                    excludeIgnored: Boolean): Collection<ContactData> =
+        delegate.findWithIdentities(searchString, status, excludeIgnored)
+
+    private fun modify(change: () -> Unit) =
+        try {
+            change()
+        } finally {
+            cache.invalidate()
+        }
+}
@@ -0,0 +1,45 @@
+package de.qabel.core.repository.cache
+
+import de.qabel.core.config.EntityObservable
+import de.qabel.core.config.EntityObserver
+import de.qabel.core.config.Identities
+import de.qabel.core.config.Identity
+import de.qabel.core.repository.IdentityRepository
+
+/**
+ * Read-through cache in front of an identity repository, detached identities are always loaded from the delegate
+ */
+class CachedIdentityRepository(
+    private val delegate: IdentityRepository,
+    private val cache: RepositoryCache
+) : IdentityRepository, EntityObservable by delegate {
+
+    init {
+        delegate.attach(EntityObserver { cache.invalidate() })
+    }
+
+    override fun find(keyId: String): Identity =
+        cache.identities.getOrLoad(keyId) { delegate.find(keyId) }
+
+    override fun find(keyId: String, detached: Boolean): Identity =
+        if (detached) delegate.find(keyId, true) else find(keyId)
+
+    override fun find(id: Int): Identity =
+        cache.identities.getOrLoad(id) { delegate.find(id) }
+
+    override fun findAll(): Identities =
+        Identities().apply {
+            cache.allIdentities.getOrLoad(Unit) { delegate.findAll().identities.toList() }.forEach { put(it) }
+        }
+
+    override fun save(identity: Identity) = modify { delegate.save(identity) }
+
+    override fun delete(identity: Identity) = modify { delegate.delete(identity) }
+
+    private fun modify(change: () -> Unit) =
+        try {
+            change()
+        } finally {
+            cache.invalidate()
+        }
+}
@@ -0,0 +1,29 @@
+package de.qabel.core.repository.cache
+
+import de.qabel.core.repository.ContactRepository
+import de.qabel.core.repository.EntityManager
+import de.qabel.core.repository.IdentityRepository
+import de.qabel.core.repository.sqlite.ClientDatabase
+import de.qabel.core.repository.sqlite.SqliteContactRepository
+import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
+import de.qabel.core.repository.sqlite.SqliteIdentityRepository
+
+/**
+ * The identity and contact repositories of a client database behind one [RepositoryCache].
+ * Repository bindings provide these instead of the plain sqlite repositories,
+ * both repositories must come from the same instance to share the cache.
+ */
+class CachedRepositories @JvmOverloads constructor(
+    database: ClientDatabase,
+    entityManager: EntityManager,
+    maxEntries: Int = RepositoryCache.DEFAULT_MAX_ENTRIES
+) {
+    val cache = RepositoryCache(database.transactionManager, maxEntries)
+
+    private val sqliteIdentities = SqliteIdentityRepository(database, entityManager)
+
+    val identityRepository: IdentityRepository = CachedIdentityRepository(sqliteIdentities, cache)
+
+    val contactRepository: ContactRepository = CachedContactRepository(
+        SqliteContactRepository(database, entityManager, SqliteDropUrlRepository(database), sqliteIdentities), cache)
+}
@@ -0,0 +1,60 @@
+package de.qabel.core.repository.cache
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Bounded cache that evicts the least recently used entry and counts its hits and misses.
+ * Values loaded while the cache is cleared are not stored, so a load can't bring back invalidated state.
+ * Values are copied when they are stored and when they are handed out, so mutable entities are never shared.
+ */
+class EntityCache<K, V> @JvmOverloads constructor(val maxSize: Int, private val copy: (V) -> V = { it }) {
+
+    private val entries = object : LinkedHashMap<K, V>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?) = size > maxSize
+    }
+    private var generation = 0L
+    private val hitCount = AtomicLong()
+    private val missCount = AtomicLong()
+
+    val hits: Long
+        get() = hitCount.get()
+
+    val misses: Long
+        get() = missCount.get()
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    /**
+     * Cached value of the key without counting a hit or miss
+     */
+    @Synchronized
+    fun peek(key: K): V? = entries[key]?.let(copy)
+
+    fun getOrLoad(key: K, load: () -> V): V {
+        val loadedGeneration = synchronized(this) {
+            val cached = entries[key]
+            if (cached != null) {
+                hitCount.incrementAndGet()
+                return copy(cached)
+            }
+            missCount.incrementAndGet()
+            generation
+        }
+        val value = load()
+        val stored = copy(value)
+        synchronized(this) {
+            if (generation == loadedGeneration) {
+                entries.put(key, stored)
+            }
+        }
+        return value
+    }
+
+    @Synchronized
+    fun clear() {
+        generation++
+        entries.clear()
+    }
+}
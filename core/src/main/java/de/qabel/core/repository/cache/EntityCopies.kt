@@ -0,0 +1,52 @@
+package de.qabel.core.repository.cache
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.config.Prefix
+import de.qabel.core.config.SyncSettingItem
+import de.qabel.core.contacts.ContactData
+
+/**
+ * Copies of cached entities, changes of one caller must neither reach the cache nor other callers.
+ * Keys and drop urls are immutable and shared, observers are not copied.
+ */
+internal object EntityCopies {
+
+    fun copy(identity: Identity): Identity =
+        Identity(identity.alias, identity.dropUrls, identity.primaryKeyPair).apply {
+            copySyncFields(identity, this)
+            email = identity.email
+            emailStatus = identity.emailStatus
+            phone = identity.phone
+            phoneStatus = identity.phoneStatus
+            isUploadEnabled = identity.isUploadEnabled
+            prefixes = identity.prefixes.mapTo(mutableListOf()) { copy(it) }
+        }
+
+    fun copy(contact: Contact): Contact =
+        Contact(contact.alias, contact.dropUrls, contact.ecPublicKey).apply {
+            copySyncFields(contact, this)
+            email = contact.email
+            phone = contact.phone
+            nickName = contact.nickName
+            status = contact.status
+            isIgnored = contact.isIgnored
+        }
+
+    fun copy(original: Prefix): Prefix =
+        Prefix(original.prefix, original.type).apply { account = original.account }
+
+    fun copy(contactData: ContactData): ContactData =
+        ContactData(copy(contactData.contact), copyIdentities(contactData.identities), contactData.isIdentity)
+
+    fun copyIdentities(identities: List<Identity>): List<Identity> = identities.map { copy(it) }
+
+    fun copyContacts(contacts: List<Contact>): List<Contact> = contacts.map { copy(it) }
+
+    private fun copySyncFields(from: SyncSettingItem, to: SyncSettingItem) {
+        to.id = from.id
+        to.created = from.created
+        to.updated = from.updated
+        to.deleted = from.deleted
+    }
+}
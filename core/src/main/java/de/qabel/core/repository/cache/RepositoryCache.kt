@@ -0,0 +1,69 @@
+package de.qabel.core.repository.cache
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.contacts.ContactData
+import de.qabel.core.repository.TransactionListener
+import de.qabel.core.repository.TransactionManager
+import de.qabel.core.repository.sqlite.SqliteTransactionManager
+
+/**
+ * Second level cache shared by [CachedIdentityRepository] and [CachedContactRepository].
+ *
+ * Identities and contacts depend on each other (an identity is stored as a contact, contacts reference
+ * their identities), so every change invalidates the whole cache. Changes are rare compared to lookups.
+ * Rolled back transactions invalidate the cache as well, because entities may have been loaded within them.
+ * Callers get copies of the cached entities, see [EntityCopies].
+ */
+class RepositoryCache @JvmOverloads constructor(
+    transactionManager: TransactionManager? = null,
+    maxEntries: Int = DEFAULT_MAX_ENTRIES
+) : TransactionListener {
+
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 10000
+    }
+
+    /**
+     * Identities by id and by key identifier
+     */
+    internal val identities = EntityCache<Any, Identity>(maxEntries) { EntityCopies.copy(it) }
+    internal val allIdentities = EntityCache<Unit, List<Identity>>(1) { EntityCopies.copyIdentities(it) }
+    /**
+     * Contacts by id and by key identifier
+     */
+    internal val contacts = EntityCache<Any, Contact>(maxEntries) { EntityCopies.copy(it) }
+    /**
+     * Contacts of each identity by identity id
+     */
+    internal val identityContacts = EntityCache<Int, List<Contact>>(maxEntries) { EntityCopies.copyContacts(it) }
+    internal val contactData = EntityCache<String, ContactData>(maxEntries) { EntityCopies.copy(it) }
+
+    private val regions = listOf(identities, allIdentities, contacts, identityContacts, contactData)
+
+    init {
+        (transactionManager as? SqliteTransactionManager)?.addListener(this)
+    }
+
+    val hits: Long
+        get() = regions.map { it.hits }.sum()
+
+    val misses: Long
+        get() = regions.map { it.misses }.sum()
+
+    /**
+     * Share of lookups that have been answered by the cache, 0 before the first lookup
+     */
+    val hitRate: Double
+        get() {
+            val hits = hits
+            val total = hits + misses
+            return if (total == 0L) 0.0 else hits.toDouble() / total
+        }
+
+    fun invalidate() = regions.forEach { it.clear() }
+
+    override fun afterCommit() {}
+
+    override fun afterRollback() = invalidate()
+}
@@ -92,13 +92,7 @@ abstract class BaseRepository<T : BaseEntity>(val relation: DBRelation<T>,
         getResultList(queryBuilder, resultAdapter as ResultAdapter<T>)
 
     protected fun <X> getResultList(queryBuilder: QueryBuilder, hydrator: ResultAdapter<X>): List<X> {
-        return executeQuery(queryBuilder, { it ->
-            val results = mutableListOf<X>()
-            while (it.next()) {
-                results.add(hydrator.hydrateOne(it, entityManager))
-            }
-            results
-        })
+        return executeQuery(queryBuilder, { hydrator.hydrateAll(it, entityManager) })
     }
 
     protected fun <X> getPagingResult(queryBuilder: QueryBuilder, hydrator: ResultAdapter<X>, offset: Int, pageSize: Int): PagingResult<X> {
@@ -108,6 +102,24 @@ abstract class BaseRepository<T : BaseEntity>(val relation: DBRelation<T>,
         return PagingResult(totalSize, results)
     }
 
+    /**
+     * Loads the page after the key ordered by the key fields. One more row than needed is loaded to tell whether
+     * there is a next page, so neither OFFSET nor a count query is needed.
+     * @param key values of the key fields of a result
+     */
+    protected fun <X> getKeysetPage(queryBuilder: QueryBuilder, hydrator: ResultAdapter<X>,
+                                    keyFields: List<Field>, direction: QueryBuilder.Direction,
+                                    after: PageKey?, pageSize: Int, key: (X) -> PageKey): KeysetPage<X> {
+        after?.let { queryBuilder.whereAndAfter(keyFields, it.values, direction) }
+        keyFields.forEach { queryBuilder.orderBy(it.exp(), direction) }
+        queryBuilder.setLimit(pageSize + 1)
+        val results = getResultList(queryBuilder, hydrator)
+        if (results.size <= pageSize) {
+            return KeysetPage(results, null)
+        }
+        return KeysetPage(results.subList(0, pageSize), key(results[pageSize - 1]))
+    }
+
     protected fun executeCount(queryBuilder: QueryBuilder): Int =
         try {
             client.prepare(queryBuilder.countQueryString()).use({ statement ->
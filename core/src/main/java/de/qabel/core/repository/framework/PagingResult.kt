@@ -1,3 +1,13 @@
 package de.qabel.core.repository.framework
 
 data class PagingResult<out T>(val availableRange : Int, val result : List<T>)
+
+/**
+ * Position in a keyset paginated result, the values of the ordering fields of the last row of a page
+ */
+data class PageKey(val values: List<Any>)
+
+/**
+ * Page of a keyset paginated result, [next] continues after the last result and is null on the last page
+ */
+data class KeysetPage<out T>(val result: List<T>, val next: PageKey?)
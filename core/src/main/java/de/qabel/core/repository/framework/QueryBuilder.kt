@@ -110,6 +110,28 @@ class QueryBuilder {
         where.append(")")
     }
 
+    /**
+     * Keyset condition for rows that come after the given values of the ordering fields,
+     * e.g. `a <= ? AND (a < ? OR b < ?)` for two descending fields, which can use an index on the fields
+     */
+    fun whereAndAfter(fields: List<Field>, values: List<Any>, direction: Direction) {
+        val inclusive = if (direction == Direction.ASCENDING) ">=" else "<="
+        val exclusive = if (direction == Direction.ASCENDING) ">" else "<"
+        startWhere(" AND ")
+        where.append("(")
+        fields.forEachIndexed { i, field ->
+            if (i == fields.lastIndex) {
+                where.append(field.exp() + exclusive + "?")
+                params.add(values[i])
+            } else {
+                where.append(field.exp() + inclusive + "? AND (" + field.exp() + exclusive + "? OR ")
+                params.add(values[i])
+                params.add(values[i])
+            }
+        }
+        where.append(")".repeat(fields.size))
+    }
+
     fun whereAndLowerEquals(text: String, vararg fields: DBField) {
         val processedText = text.toLowerCase().plus(WILD_CARD)
         startWhere(" AND ")
@@ -174,6 +196,10 @@ class QueryBuilder {
         paging = " LIMIT $offset, $pageSize"
     }
 
+    fun setLimit(limit: Int) {
+        paging = " LIMIT $limit"
+    }
+
     private fun createQuerySelection() = listOf(from, joins, where, groupBy, orderBy).joinToString(" ")
 
     fun queryString(): String = listOf(select, createQuerySelection(), paging).joinToString(" ")
@@ -8,6 +8,17 @@ interface ResultAdapter<out T> {
 
     fun hydrateOne(resultSet: ResultSet, entityManager: EntityManager, detached : Boolean  = false): T
 
+    /**
+     * Hydrates all remaining rows of the result set
+     */
+    fun hydrateAll(resultSet: ResultSet, entityManager: EntityManager): List<T> {
+        val results = mutableListOf<T>()
+        while (resultSet.next()) {
+            results.add(hydrateOne(resultSet, entityManager))
+        }
+        return results
+    }
+
     fun <T : PersistableEnum<X>, X> enumValue(value: X, values: Array<T>): T =
         values.find { it.type == value } ?: throw PersistenceException("Invalid enum value!")
 
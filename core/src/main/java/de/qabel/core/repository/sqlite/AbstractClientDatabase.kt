@@ -2,6 +2,7 @@ package de.qabel.core.repository.sqlite
 
 import de.qabel.core.repository.TransactionManager
 import de.qabel.core.repository.exception.PersistenceException
+import de.qabel.core.repository.sqlite.ReadConnectionPool.Companion.execute
 import de.qabel.core.repository.sqlite.builder.QueryBuilder
 import de.qabel.core.repository.sqlite.migration.AbstractMigration
 import de.qabel.core.repository.sqlite.migration.MigrationFailedException
@@ -10,14 +11,29 @@ import java.sql.Connection
 import java.sql.PreparedStatement
 import java.sql.SQLException
 
-abstract class AbstractClientDatabase(protected val connection: Connection) : ClientDatabase {
-    var transactionManager: TransactionManager
+/**
+ * @param readers read only connections for queries outside of transactions, switches the database to WAL mode.
+ * Queries of the thread in a transaction stay on the writer connection, so they see the uncommitted changes.
+ */
+abstract class AbstractClientDatabase @JvmOverloads constructor(
+    protected val connection: Connection,
+    private val readers: ReadConnectionPool? = null
+) : ClientDatabase {
+    override var transactionManager: TransactionManager
         protected set
 
+    /**
+     * prepared statements are reused until the database is closed
+     */
+    val statementCache = StatementCache { connection.prepareStatement(it) }
+
     init {
         transactionManager = SqliteTransactionManager(connection)
         //Enable foreign keys
         connection.createStatement().use { statement -> statement.execute("PRAGMA FOREIGN_KEYS = ON") }
+        if (readers != null) {
+            connection.execute(ReadConnectionPool.WRITER_PRAGMAS)
+        }
     }
 
     @Synchronized @Throws(MigrationException::class)
@@ -76,7 +92,17 @@ abstract class AbstractClientDatabase(protected val connection: Connection) : Cl
     @Throws(SQLException::class)
     override fun prepare(sql: String): PreparedStatement {
         logger.trace(sql.replace("\\s+".toRegex(), " ").trim { it <= ' ' })
-        return connection.prepareStatement(sql)
+        if (readers != null && !inTransaction() && isQuery(sql)) {
+            return readers.prepare(sql)
+        }
+        return statementCache.acquire(sql)
+    }
+
+    private fun isQuery(sql: String) = sql.trimStart().startsWith("SELECT", ignoreCase = true)
+
+    private fun inTransaction(): Boolean {
+        val manager = transactionManager
+        return if (manager is SqliteTransactionManager) manager.isInTransaction else !connection.autoCommit
     }
 
     override fun selectFrom(fromTable: String, tableAlias: String): QueryBuilder {
@@ -87,6 +113,13 @@ abstract class AbstractClientDatabase(protected val connection: Connection) : Cl
         return QueryBuilder(this, QueryBuilder.TYPE.UPDATE).update(table)
     }
 
+    @Throws(SQLException::class)
+    override fun close() {
+        readers?.close()
+        statementCache.close()
+        connection.close()
+    }
+
     companion object {
         private val logger = LoggerFactory.getLogger(AbstractClientDatabase::class.java)
     }
@@ -1,5 +1,6 @@
 package de.qabel.core.repository.sqlite
 
+import de.qabel.core.repository.TransactionManager
 import de.qabel.core.repository.sqlite.builder.QueryBuilder
 
 import java.sql.PreparedStatement
@@ -7,6 +8,11 @@ import java.sql.SQLException
 
 interface ClientDatabase: HasVersion {
 
+    /**
+     * runs statements of this database in a transaction
+     */
+    val transactionManager: TransactionManager
+
     /**
      * migrate from the current version to the maximum known version
      */
@@ -30,7 +36,7 @@ interface ClientDatabase: HasVersion {
 
     /**
      * Prepares a statement with the given sql query.
-     * Don't forget to close the statement finally
+     * Don't forget to close the statement finally, closing returns it to the connection's statement cache
      */
     @Throws(SQLException::class)
     fun prepare(sql: String): PreparedStatement
@@ -38,4 +44,10 @@ interface ClientDatabase: HasVersion {
     fun selectFrom(fromTable: String, tableAlias: String): QueryBuilder
 
     fun update(table: String): QueryBuilder
+
+    /**
+     * Closes the connection to the database
+     */
+    @Throws(SQLException::class)
+    fun close()
 }
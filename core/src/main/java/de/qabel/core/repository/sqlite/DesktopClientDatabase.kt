@@ -2,8 +2,10 @@ package de.qabel.core.repository.sqlite
 
 import de.qabel.core.repository.sqlite.migration.*
 import java.sql.Connection
+import java.sql.DriverManager
 
-open class DesktopClientDatabase(connection: Connection) : AbstractClientDatabase(connection) {
+open class DesktopClientDatabase @JvmOverloads constructor(connection: Connection, readers: ReadConnectionPool? = null)
+    : AbstractClientDatabase(connection, readers) {
 
     override var version by PragmaVersionAdapter(connection)
 
@@ -27,4 +29,14 @@ open class DesktopClientDatabase(connection: Connection) : AbstractClientDatabas
             Migration1478079310AccountToken(connection)
         )
     }
+
+    companion object {
+        /**
+         * Opens the database with readers for queries, unless it is in memory
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun open(url: String, readers: Int = ReadConnectionPool.DEFAULT_READERS) =
+            DesktopClientDatabase(DriverManager.getConnection(url), ReadConnectionPool.forUrl(url, readers))
+    }
 }
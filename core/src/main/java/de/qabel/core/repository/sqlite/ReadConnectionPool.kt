@@ -0,0 +1,135 @@
+package de.qabel.core.repository.sqlite
+
+import org.slf4j.LoggerFactory
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Read only connections to a SQLite database file in WAL mode, so queries can run while the writer connection
+ * of the [AbstractClientDatabase] is busy.
+ *
+ * A thread keeps its reader for nested queries (e.g. loading relations while iterating a result) until it has
+ * closed its last statement, statements have to be closed by the thread that prepared them.
+ * Waiting for an idle reader fails after acquireTimeout milliseconds, which usually means a statement was leaked.
+ */
+class ReadConnectionPool(size: Int, private val acquireTimeout: Long = DEFAULT_ACQUIRE_TIMEOUT, open: () -> Connection) {
+    private val idle = ArrayBlockingQueue<Reader>(size)
+    private val all = mutableListOf<Reader>()
+    private val current = ThreadLocal<Reader>()
+
+    init {
+        repeat(size) {
+            Reader(open()).let {
+                all.add(it)
+                idle.add(it)
+            }
+        }
+    }
+
+    /**
+     * Prepares the query on the reader of the current thread, or waits for an idle reader
+     */
+    @Throws(SQLException::class)
+    fun prepare(sql: String): PreparedStatement {
+        val reader = current.get() ?: acquire().apply { current.set(this) }
+        reader.users++
+        try {
+            return ReaderStatement(reader, reader.statements.acquire(sql))
+        } catch (e: SQLException) {
+            release(reader)
+            throw e
+        }
+    }
+
+    private fun acquire(): Reader = idle.poll(acquireTimeout, TimeUnit.MILLISECONDS)
+        ?: throw SQLException("no idle reader connection after ${acquireTimeout}ms, " +
+            "statements have to be closed by the thread that prepared them")
+
+    private fun release(reader: Reader) {
+        if (--reader.users == 0) {
+            current.remove()
+            idle.add(reader)
+        }
+    }
+
+    fun close() {
+        all.forEach {
+            try {
+                it.statements.close()
+                it.connection.close()
+            } catch (e: SQLException) {
+                logger.warn("failed to close reader connection", e)
+            }
+        }
+    }
+
+    private inner class ReaderStatement(val reader: Reader, val delegate: PreparedStatement)
+        : PreparedStatement by delegate {
+        private var released = false
+
+        override fun close() {
+            if (!released) {
+                released = true
+                try {
+                    delegate.close()
+                } finally {
+                    release(reader)
+                }
+            }
+        }
+
+        override fun isClosed() = released || delegate.isClosed
+    }
+
+    private class Reader(val connection: Connection) {
+        val statements = StatementCache { connection.prepareStatement(it) }
+        var users = 0
+    }
+
+    companion object {
+        const val DEFAULT_READERS = 4
+        const val DEFAULT_ACQUIRE_TIMEOUT = 30000L
+
+        /**
+         * Pragmas of all connections, 8 MiB page cache and up to 64 MiB memory mapped reads per connection
+         */
+        internal val CONNECTION_PRAGMAS = listOf("PRAGMA cache_size = -8192", "PRAGMA mmap_size = 67108864")
+
+        /**
+         * WAL lets readers work next to the writer, NORMAL synchronous is durable enough in WAL mode and
+         * only syncs on checkpoints
+         */
+        internal val WRITER_PRAGMAS = listOf("PRAGMA journal_mode = WAL", "PRAGMA synchronous = NORMAL") +
+            CONNECTION_PRAGMAS
+
+        private val READER_PRAGMAS = listOf("PRAGMA query_only = 1") + CONNECTION_PRAGMAS
+
+        private val logger = LoggerFactory.getLogger(ReadConnectionPool::class.java)
+
+        /**
+         * Opens the readers for a database file, in-memory databases can't be shared between connections
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun open(url: String, size: Int = DEFAULT_READERS) = ReadConnectionPool(size, DEFAULT_ACQUIRE_TIMEOUT) {
+            DriverManager.getConnection(url).apply { execute(READER_PRAGMAS) }
+        }
+
+        /**
+         * Opens the readers for a database file, or returns null for in-memory databases or a size of 0
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forUrl(url: String, size: Int = DEFAULT_READERS): ReadConnectionPool? =
+            if (size > 0 && !isInMemory(url)) open(url, size) else null
+
+        private fun isInMemory(url: String) = url.removePrefix("jdbc:sqlite:").let { it.isEmpty() || it.contains(":memory:") }
+
+        internal fun Connection.execute(statements: List<String>) =
+            createStatement().use { statement -> statements.forEach { statement.execute(it) } }
+    }
+}
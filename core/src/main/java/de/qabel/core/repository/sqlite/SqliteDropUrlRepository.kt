@@ -21,6 +21,7 @@ class SqliteDropUrlRepository(database: ClientDatabase, hydrator: Hydrator<DropU
 
     companion object {
         val TABLE_NAME = "drop_url"
+        private const val MAX_IDS_PER_QUERY = 10000
     }
 
     @Deprecated("@todo hide contactId and use findAll(Contact contact) as soon as Identity extends Contact")
@@ -69,20 +70,26 @@ class SqliteDropUrlRepository(database: ClientDatabase, hydrator: Hydrator<DropU
         }
     }
 
+    /**
+     * Drop urls of many contacts, the ids are queried in chunks of [MAX_IDS_PER_QUERY] to keep the statements short
+     */
     override fun findDropUrls(contactIds: List<Int>): Map<Int, List<DropURL>> {
         try {
             val contactDropUrlMap = DefaultHashMap<Int, MutableList<DropURL>>({ LinkedList<DropURL>() })
-            database.prepare(
-                "SELECT contact_id, url " +
-                    "FROM " + TABLE_NAME + " urls " +
-                    "WHERE contact_id IN (" + StringUtils.join(",", contactIds) + ")").use { statement ->
-                statement.executeQuery().use({ results ->
-                    while (results.next()) {
-                        val id = results.getInt(1)
-                        val dropUrl = DropURL(results.getString(2))
-                        contactDropUrlMap.getOrDefault(id).add(dropUrl)
-                    }
-                })
+            for (start in 0 until contactIds.size step MAX_IDS_PER_QUERY) {
+                val chunk = contactIds.subList(start, Math.min(contactIds.size, start + MAX_IDS_PER_QUERY))
+                database.prepare(
+                    "SELECT contact_id, url " +
+                        "FROM " + TABLE_NAME + " urls " +
+                        "WHERE contact_id IN (" + StringUtils.join(",", chunk) + ")").use { statement ->
+                    statement.executeQuery().use({ results ->
+                        while (results.next()) {
+                            val id = results.getInt(1)
+                            val dropUrl = DropURL(results.getString(2))
+                            contactDropUrlMap.getOrDefault(id).add(dropUrl)
+                        }
+                    })
+                }
             }
             return contactDropUrlMap
         } catch (e: SQLException) {
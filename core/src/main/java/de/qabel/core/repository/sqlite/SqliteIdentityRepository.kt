@@ -35,7 +35,7 @@ class SqliteIdentityRepository(
 
     override fun createEntityQuery(): QueryBuilder =
         super.createEntityQuery().apply {
-            select(ContactDB.ALIAS, ContactDB.EMAIL, ContactDB.PHONE)
+            select(ContactDB.ALIAS, ContactDB.EMAIL, ContactDB.PHONE, ContactDB.PUBLIC_KEY)
             innerJoin(ContactDB, IdentityDB.CONTACT_ID)
         }
 
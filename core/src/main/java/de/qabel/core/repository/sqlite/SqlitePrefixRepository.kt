@@ -5,7 +5,9 @@ import de.qabel.core.config.Prefix
 import de.qabel.core.repository.EntityManager
 import de.qabel.core.repository.exception.PersistenceException
 import de.qabel.core.repository.sqlite.hydrator.PrefixHydrator
+import de.qabel.core.util.DefaultHashMap
 import java.sql.SQLException
+import java.util.*
 
 class SqlitePrefixRepository(
     database: ClientDatabase,
@@ -14,6 +16,35 @@ class SqlitePrefixRepository(
     @Throws(PersistenceException::class)
     fun findAll(identity: Identity): Collection<Prefix> = findAll("identity_id=?", identity.id)
 
+    /**
+     * Prefixes of many identities with one query
+     * @return prefixes by identity id, identities without prefixes are missing
+     */
+    @Throws(PersistenceException::class)
+    fun findAll(identityIds: List<Int>): Map<Int, List<Prefix>> {
+        val prefixes = DefaultHashMap<Int, MutableList<Prefix>>({ LinkedList<Prefix>() })
+        if (identityIds.isEmpty()) {
+            return prefixes
+        }
+        val fields = hydrator.getFields("t")
+        // identity_id follows the hydrated fields
+        val identityIdColumn = fields.size + 1
+        val query = "SELECT ${fields.joinToString(", ")}, t.identity_id FROM $TABLE_NAME t " +
+            "WHERE t.identity_id IN (${identityIds.joinToString(",")}) ORDER BY t.id ASC"
+        try {
+            database.prepare(query).use { statement ->
+                statement.executeQuery().use { results ->
+                    while (results.next()) {
+                        prefixes.getOrDefault(results.getInt(identityIdColumn)).add(hydrator.hydrateOne(results))
+                    }
+                }
+            }
+        } catch (e: SQLException) {
+            throw PersistenceException("Error loading prefixes for identities", e)
+        }
+        return prefixes
+    }
+
     override fun getDefaultOrder() = "id ASC"
 
     @Throws(SQLException::class)
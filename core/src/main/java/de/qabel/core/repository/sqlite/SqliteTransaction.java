@@ -1,18 +1,27 @@
 package de.qabel.core.repository.sqlite;
 
 import de.qabel.core.repository.Transaction;
+import de.qabel.core.repository.TransactionListener;
 import de.qabel.core.repository.exception.TransactionException;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 
 public class SqliteTransaction implements Transaction {
     private final Connection connection;
     private final Boolean autocommitState;
+    private final List<TransactionListener> listeners;
 
     public SqliteTransaction(Connection connection, boolean autocommitState) {
+        this(connection, autocommitState, Collections.<TransactionListener>emptyList());
+    }
+
+    public SqliteTransaction(Connection connection, boolean autocommitState, List<TransactionListener> listeners) {
         this.connection = connection;
         this.autocommitState = autocommitState;
+        this.listeners = listeners;
     }
 
     @Override
@@ -24,6 +33,9 @@ public class SqliteTransaction implements Transaction {
         } finally {
             resetAutocommit();
         }
+        for (TransactionListener listener : listeners) {
+            listener.afterCommit();
+        }
     }
 
     @Override
@@ -34,6 +46,9 @@ public class SqliteTransaction implements Transaction {
             throw new TransactionException("failed to rollback transaction", e);
         } finally {
             resetAutocommit();
+            for (TransactionListener listener : listeners) {
+                listener.afterRollback();
+            }
         }
     }
 
@@ -2,32 +2,60 @@ package de.qabel.core.repository.sqlite;
 
 import de.qabel.core.repository.RunnableTransaction;
 import de.qabel.core.repository.Transaction;
+import de.qabel.core.repository.TransactionListener;
 import de.qabel.core.repository.TransactionManager;
 import de.qabel.core.repository.exception.PersistenceException;
 import de.qabel.core.repository.exception.TransactionException;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class SqliteTransactionManager implements TransactionManager {
-    private final Lock lock = new ReentrantLock(true);
     private final Connection connection;
+    private final List<TransactionListener> listeners = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<AtomicInteger> openTransactions = new ThreadLocal<AtomicInteger>() {
+        @Override
+        protected AtomicInteger initialValue() {
+            return new AtomicInteger();
+        }
+    };
 
     public SqliteTransactionManager(Connection connection) {
         this.connection = connection;
     }
 
+    /**
+     * @return true if the current thread has begun a transaction that has not ended yet
+     */
+    public boolean isInTransaction() {
+        return openTransactions.get().get() > 0;
+    }
+
+    /**
+     * The listener is notified after each commit or rollback of a transaction of this manager
+     */
+    public void addListener(TransactionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TransactionListener listener) {
+        listeners.remove(listener);
+    }
+
     @Override
     public Transaction beginTransaction() throws TransactionException {
         boolean oldAutocommit = false;
         try {
             oldAutocommit = connection.getAutoCommit();
             connection.setAutoCommit(false);
-            return new SqliteTransaction(connection, oldAutocommit);
+            return new SqliteTransaction(connection, oldAutocommit, withOwner(openTransactions.get()));
         } catch (SQLException e) {
             try {
                 connection.setAutoCommit(oldAutocommit);
@@ -37,6 +65,35 @@ public class SqliteTransactionManager implements TransactionManager {
         }
     }
 
+    /**
+     * The listeners of a new transaction, the first one ends the transaction for the thread that began it
+     * even if it is committed or rolled back by another thread
+     */
+    private List<TransactionListener> withOwner(final AtomicInteger ownerTransactions) {
+        ownerTransactions.incrementAndGet();
+        final AtomicBoolean ended = new AtomicBoolean(false);
+        List<TransactionListener> transactionListeners = new ArrayList<>(listeners.size() + 1);
+        transactionListeners.add(new TransactionListener() {
+            @Override
+            public void afterCommit() {
+                end();
+            }
+
+            @Override
+            public void afterRollback() {
+                end();
+            }
+
+            private void end() {
+                if (ended.compareAndSet(false, true)) {
+                    ownerTransactions.decrementAndGet();
+                }
+            }
+        });
+        transactionListeners.addAll(listeners);
+        return transactionListeners;
+    }
+
     @Override
     public <T> T transactional(Callable<T> transactionBasedCallback) throws PersistenceException {
         Transaction transaction = beginTransaction();
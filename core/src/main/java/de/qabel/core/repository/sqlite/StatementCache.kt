@@ -0,0 +1,118 @@
+package de.qabel.core.repository.sqlite
+
+import org.slf4j.LoggerFactory
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.util.*
+
+/**
+ * Keeps idle prepared statements of one connection for reuse, least recently used statements are closed
+ * when more than maxSize are idle.
+ * A statement that is acquired twice at the same time is prepared twice, so concurrent users never share one.
+ * Closing an acquired statement releases it to the cache, using it afterwards throws a [SQLException].
+ */
+class StatementCache(private val maxSize: Int = DEFAULT_SIZE, private val prepare: (String) -> PreparedStatement) {
+    private val idle = object : LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CachedStatement>): Boolean {
+            if (size <= maxSize) {
+                return false
+            }
+            closeQuietly(eldest.value)
+            return true
+        }
+    }
+    private var closed = false
+
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+
+    @Synchronized @Throws(SQLException::class)
+    fun acquire(sql: String): PreparedStatement {
+        if (closed) {
+            throw SQLException("statement cache is closed")
+        }
+        val cached = idle.remove(sql)
+        if (cached != null) {
+            hits++
+            cached.released = false
+            return cached.statement
+        }
+        misses++
+        return CachedStatement(sql, prepare(sql)).statement
+    }
+
+    @Synchronized
+    private fun release(statement: CachedStatement) {
+        try {
+            if (closed) {
+                throw SQLException("statement cache is closed")
+            }
+            statement.delegate.clearParameters()
+            statement.delegate.clearBatch()
+        } catch (e: SQLException) {
+            closeQuietly(statement)
+            return
+        }
+        idle.put(statement.sql, statement)?.let { closeQuietly(it) }
+    }
+
+    /**
+     * Closes all idle statements, statements in use are closed when they are released
+     */
+    @Synchronized
+    fun close() {
+        closed = true
+        idle.values.forEach { closeQuietly(it) }
+        idle.clear()
+    }
+
+    private fun closeQuietly(statement: CachedStatement) {
+        try {
+            statement.delegate.close()
+        } catch (e: SQLException) {
+            logger.warn("failed to close cached statement", e)
+        }
+    }
+
+    private inner class CachedStatement(val sql: String, val delegate: PreparedStatement) : InvocationHandler {
+        var released = false
+        val statement = Proxy.newProxyInstance(PreparedStatement::class.java.classLoader,
+            arrayOf(PreparedStatement::class.java), this) as PreparedStatement
+
+        override fun invoke(proxy: Any, method: Method, args: Array<out Any?>?): Any? = when (method.name) {
+            "close" -> close()
+            "isClosed" -> released || delegate.isClosed
+            "equals" -> proxy === args?.get(0)
+            "hashCode" -> System.identityHashCode(proxy)
+            "toString" -> "CachedStatement($sql)"
+            else -> {
+                if (released) {
+                    throw SQLException("statement is closed: $sql")
+                }
+                try {
+                    method.invoke(delegate, *(args ?: arrayOf<Any?>()))
+                } catch (e: InvocationTargetException) {
+                    throw e.targetException
+                }
+            }
+        }
+
+        private fun close() {
+            if (!released) {
+                released = true
+                release(this)
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_SIZE = 64
+        private val logger = LoggerFactory.getLogger(StatementCache::class.java)
+    }
+}
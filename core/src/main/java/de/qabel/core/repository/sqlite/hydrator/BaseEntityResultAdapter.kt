@@ -14,13 +14,55 @@ abstract class BaseEntityResultAdapter<T : BaseEntity>(val relation: DBRelation<
         if (!detached && entityManager.contains(relation.ENTITY_CLASS, id)) {
             return entityManager.get(relation.ENTITY_CLASS, id)
         }
-        return hydrateEntity(id, resultSet, entityManager, detached).apply {
-            if (!detached) {
-                entityManager.put(relation.ENTITY_CLASS, this, id)
+        val entity = hydrateEntity(id, resultSet, entityManager, detached)
+        hydrateRelations(mapOf(relationKey(id, resultSet) to entity), entityManager)
+        if (!detached) {
+            entityManager.put(relation.ENTITY_CLASS, entity, id)
+        }
+        return entity
+    }
+
+    /**
+     * Hydrates the rows first and loads the relations of all new entities afterwards,
+     * so a list of entities needs one query per relation instead of one per entity.
+     * New entities are put into the entity manager only after their relations are loaded,
+     * so a failing relation query leaves no incomplete entities behind.
+     */
+    override fun hydrateAll(resultSet: ResultSet, entityManager: EntityManager): List<T> {
+        val results = mutableListOf<T>()
+        val hydrated = linkedMapOf<Int, T>()
+        val hydratedById = linkedMapOf<Int, T>()
+        while (resultSet.next()) {
+            val id = resultSet.getInt(relation.ID.alias())
+            val known = hydratedById[id] ?: if (entityManager.contains(relation.ENTITY_CLASS, id)) {
+                entityManager.get(relation.ENTITY_CLASS, id)
+            } else null
+            if (known != null) {
+                results.add(known)
+            } else {
+                val entity = hydrateEntity(id, resultSet, entityManager, false)
+                hydrated.put(relationKey(id, resultSet), entity)
+                hydratedById.put(id, entity)
+                results.add(entity)
             }
         }
+        if (hydrated.isNotEmpty()) {
+            hydrateRelations(hydrated, entityManager)
+        }
+        hydratedById.forEach { entityManager.put(relation.ENTITY_CLASS, it.value, it.key) }
+        return results
     }
 
     abstract protected fun hydrateEntity(entityId : Int, resultSet: ResultSet, entityManager: EntityManager, detached: Boolean): T
 
+    /**
+     * Key of the row that the relations of the entity refer to, the entity id by default
+     */
+    open protected fun relationKey(entityId: Int, resultSet: ResultSet): Int = entityId
+
+    /**
+     * Loads the one-to-many relations of freshly hydrated entities, mapped by their [relationKey]
+     */
+    open protected fun hydrateRelations(entities: Map<Int, T>, entityManager: EntityManager) {}
+
 }
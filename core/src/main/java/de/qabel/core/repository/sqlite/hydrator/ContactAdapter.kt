@@ -21,7 +21,13 @@ class ContactAdapter(private val dropUrlRepository: DropUrlRepository) : BaseEnt
             status = Contact.ContactStatus.values().find { it.status == statusInt }
             isIgnored = resultSet.getBoolean(ContactDB.IGNORED.alias())
             nickName = resultSet.getString(ContactDB.NICKNAME.alias()) ?: ""
-            dropUrlRepository.findAll(this).forEach { addDrop(it) }
+        }
+    }
+
+    override fun hydrateRelations(entities: Map<Int, Contact>, entityManager: EntityManager) {
+        dropUrlRepository.findDropUrls(entities.keys.toList()).forEach {
+            val contact = entities[it.key] ?: return@forEach
+            it.value.forEach { contact.addDrop(it) }
         }
     }
 }
@@ -3,6 +3,7 @@ package de.qabel.core.repository.sqlite.hydrator
 import de.qabel.core.config.Identity
 import de.qabel.core.config.VerificationStatus
 import de.qabel.core.crypto.QblECKeyPair
+import de.qabel.core.crypto.QblECPublicKey
 import de.qabel.core.drop.DropURL
 import de.qabel.core.repository.DropUrlRepository
 import de.qabel.core.repository.EntityManager
@@ -17,9 +18,11 @@ class IdentityAdapter(private val dropURLRepository: DropUrlRepository,
 
     override fun hydrateEntity(entityId: Int, resultSet: ResultSet, entityManager: EntityManager, detached: Boolean): Identity {
         with(resultSet) {
-            val contactId = getInt(IdentityDB.CONTACT_ID.alias())
             val privateKey = Hex.decode(getString(IdentityDB.PRIVATE_KEY.alias()))
-            return Identity(getString(ContactDB.ALIAS.alias()), mutableListOf<DropURL>(), QblECKeyPair(privateKey)).apply {
+            //the identity contact stores the public key, so it doesn't need to be derived again
+            val publicKey = QblECPublicKey(Hex.decode(getString(ContactDB.PUBLIC_KEY.alias())))
+            return Identity(getString(ContactDB.ALIAS.alias()), mutableListOf<DropURL>(),
+                QblECKeyPair(privateKey, publicKey)).apply {
                 id = entityId
                 isUploadEnabled = getBoolean(IdentityDB.UPLOAD_ENABLED.alias())
                 phone = getString(ContactDB.PHONE.alias()) ?: ""
@@ -27,15 +30,22 @@ class IdentityAdapter(private val dropURLRepository: DropUrlRepository,
 
                 email = getString(ContactDB.EMAIL.alias()) ?: ""
                 emailStatus = enumValue(getInt(IdentityDB.EMAIL_STATUS.alias()), VerificationStatus.values())
-
-                prefixes = prefixRepository.findAll(this).toMutableList()
-                dropURLRepository.findDropUrls(listOf(contactId)).forEach {
-                    if (it.key == contactId) {
-                        it.value.forEach { addDrop(it) }
-                    }
-                }
             }
         }
     }
 
+    /**
+     * The drop urls of an identity belong to its contact
+     */
+    override fun relationKey(entityId: Int, resultSet: ResultSet): Int = resultSet.getInt(IdentityDB.CONTACT_ID.alias())
+
+    override fun hydrateRelations(entities: Map<Int, Identity>, entityManager: EntityManager) {
+        val prefixes = prefixRepository.findAll(entities.values.map { it.id })
+        entities.values.forEach { it.prefixes = prefixes[it.id]?.toMutableList() ?: mutableListOf() }
+        dropURLRepository.findDropUrls(entities.keys.toList()).forEach {
+            val identity = entities[it.key] ?: return@forEach
+            it.value.forEach { identity.addDrop(it) }
+        }
+    }
+
 }
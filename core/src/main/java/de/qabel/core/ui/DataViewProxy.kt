@@ -1,5 +1,7 @@
 package de.qabel.core.ui
 
+import de.qabel.core.repository.framework.KeysetPage
+import de.qabel.core.repository.framework.PageKey
 import de.qabel.core.repository.framework.PagingResult
 import rx.Observable
 
@@ -39,11 +41,28 @@ class DataViewProxy<in T>(private val loader: (offset: Int, pageSize: Int) -> Ob
     fun canLoadMore() = !loading && (total < 0 || dataView.getCount() < total)
 
     fun incRange(addedItemCount: Int) {
-        total += addedItemCount
+        if (total >= 0) total += addedItemCount
     }
 
     fun decRange(removedItemCount: Int) {
-        total -= removedItemCount
+        if (total >= 0) total -= removedItemCount
+    }
+
+    companion object {
+
+        /**
+         * Proxy for a keyset paginated loader, the total is unknown until the last page has been loaded
+         */
+        fun <T> keyset(loader: (after: PageKey?, pageSize: Int) -> Observable<KeysetPage<T>>,
+                       dataView: DataView<T>, pageSize: Int = 25): DataViewProxy<T> {
+            var next: PageKey? = null
+            return DataViewProxy({ offset, size ->
+                loader(if (offset == 0) null else next, size).map {
+                    next = it.next
+                    PagingResult(if (it.next == null) offset + it.result.size else -1, it.result)
+                }
+            }, dataView, pageSize)
+        }
     }
 
 }
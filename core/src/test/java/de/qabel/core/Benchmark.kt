@@ -0,0 +1,24 @@
+package de.qabel.core
+
+import org.junit.Assume
+
+/**
+ * Benchmarks live next to the tests but are skipped unless the `qabel.benchmark` property is set,
+ * e.g. `./gradlew :box:test -Dqabel.benchmark=true --tests '*Benchmark'`
+ */
+fun assumeBenchmark() = Assume.assumeTrue(
+    "benchmarks are disabled, enable with -Dqabel.benchmark=true",
+    !System.getProperty("qabel.benchmark").isNullOrEmpty()
+)
+
+/**
+ * Runs the block `warmups + runs` times and returns the mean runtime of the measured runs in nanoseconds
+ */
+fun measure(name: String, warmups: Int = 1, runs: Int = 3, block: () -> Unit): Double {
+    repeat(warmups) { block() }
+    val start = System.nanoTime()
+    repeat(runs) { block() }
+    val nanos = (System.nanoTime() - start).toDouble() / runs
+    println("%-50s %12.3f ms/op".format(name, nanos / 1e6))
+    return nanos
+}
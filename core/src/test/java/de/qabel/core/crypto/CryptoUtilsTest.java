@@ -47,6 +47,29 @@ public class CryptoUtilsTest {
         }
     }
 
+    @Test
+    public void cipherProvidersShareFormat() throws Exception {
+        KeyParameter key = cu.generateSymmetricKey();
+        byte[] plaintext = cu.getRandomBytes(100000);
+        CryptoUtils spongy = new CryptoUtils(SymmetricCipherProviders.SPONGY_CASTLE, 4096);
+        CryptoUtils jce = new CryptoUtils(SymmetricCipherProviders.JCE, 1000);
+        File decrypted = File.createTempFile("decrypted", ".tmp");
+
+        try {
+            for (CryptoUtils[] pair : new CryptoUtils[][]{{spongy, jce}, {jce, spongy}}) {
+                ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+                assertTrue(pair[0].encryptStreamAuthenticatedSymmetric(
+                    new ByteArrayInputStream(plaintext), ciphertext, key, null));
+
+                assertTrue(pair[1].decryptFileAuthenticatedSymmetricAndValidateTag(
+                    new ByteArrayInputStream(ciphertext.toByteArray()), decrypted, key));
+                assertArrayEquals(plaintext, Files.readAllBytes(decrypted.toPath()));
+            }
+        } finally {
+            decrypted.delete();
+        }
+    }
+
     @Test
     public void allowsForConcurrentDecryption() throws Exception {
         final KeyParameter key = new KeyParameter(Hex.decode("feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308"));
@@ -118,6 +141,72 @@ public class CryptoUtilsTest {
         assertFalse(result);
     }
 
+    @Test
+    public void encryptingInputStreamMatchesEncryptedStream() throws IOException, InvalidKeyException {
+        KeyParameter key = new KeyParameter(Hex.decode("feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308"));
+        byte[] nonce = Hex.decode("cafebabefacedbaddecaf888");
+        byte[] plaintext = cu.getRandomBytes(3 * 4096 + 17);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        cu.encryptStreamAuthenticatedSymmetric(new ByteArrayInputStream(plaintext), expected, key, nonce);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        InputStream encrypting = cu.encryptingInputStream(new ByteArrayInputStream(plaintext), key, nonce);
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = encrypting.read(buffer)) >= 0) {
+            actual.write(buffer, 0, read);
+        }
+
+        assertEquals(plaintext.length + CryptoUtils.SYMM_OVERHEAD_BYTE, actual.size());
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void decryptingInputStreamYieldsPlaintext() throws IOException, InvalidKeyException {
+        KeyParameter key = new KeyParameter(Hex.decode("feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308"));
+        byte[] plaintext = cu.getRandomBytes(3 * 4096 + 17);
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        cu.encryptStreamAuthenticatedSymmetric(new ByteArrayInputStream(plaintext), ciphertext, key, null);
+
+        DecryptingInputStream decrypting = cu.decryptingInputStream(new ByteArrayInputStream(ciphertext.toByteArray()), key);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+        while ((read = decrypting.read(buffer)) >= 0) {
+            actual.write(buffer, 0, read);
+        }
+        decrypting.close();
+
+        assertTrue(decrypting.isAuthenticated());
+        assertArrayEquals(plaintext, actual.toByteArray());
+    }
+
+    @Test
+    public void decryptingInputStreamFailsOnInvalidTag() throws IOException, InvalidKeyException {
+        KeyParameter key = new KeyParameter(Hex.decode("feffe9928665731c6d6a8f9467308308feffe9928665731c6d6a8f9467308308"));
+        ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
+        cu.encryptStreamAuthenticatedSymmetric(new ByteArrayInputStream(cu.getRandomBytes(5000)), ciphertext, key, null);
+        byte[] modified = ciphertext.toByteArray();
+        modified[20] ^= 0x01;
+
+        DecryptingInputStream decrypting = cu.decryptingInputStream(new ByteArrayInputStream(modified), key);
+        byte[] buffer = new byte[1000];
+        try {
+            while (decrypting.read(buffer) >= 0) {
+                // consume everything
+            }
+            fail("reading modified ciphertext to the end must fail");
+        } catch (IOException expected) {
+        }
+        try {
+            decrypting.close();
+            fail("closing stream with invalid tag must fail");
+        } catch (IOException expected) {
+        }
+        assertFalse(decrypting.isAuthenticated());
+    }
+
     /**
      * Test data from "Cryptography in NaCl" paper (http://cr.yp.to/highspeed/naclcrypto-20090310.pdf)
      */
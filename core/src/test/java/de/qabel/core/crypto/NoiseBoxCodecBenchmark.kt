@@ -0,0 +1,71 @@
+package de.qabel.core.crypto
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+
+/**
+ * Creating and reading drop sized noise boxes, reports throughput and heap allocation per box
+ */
+class NoiseBoxCodecBenchmark {
+    private val boxes = 1000
+    private val warmups = 2
+    private val runs = 5
+    private val appDataSize = 2000
+    private val padLen = 48
+    private val sender = QblECKeyPair()
+    private val receiver = QblECKeyPair()
+    private val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+
+    @Test
+    fun cryptoUtils() {
+        assumeBenchmark()
+        val cu = CryptoUtils()
+        val appData = cu.getRandomBytes(appDataSize)
+        val box = cu.createBox(sender, receiver.pub, appData, padLen)
+
+        report("CryptoUtils.createBox") { cu.createBox(sender, receiver.pub, appData, padLen) }
+        report("CryptoUtils.readBox") { cu.readBox(receiver, box) }
+    }
+
+    @Test
+    fun heapBuffers() {
+        assumeBenchmark()
+        benchmarkCodec("heap", ByteBuffer::allocate)
+    }
+
+    @Test
+    fun directBuffers() {
+        assumeBenchmark()
+        benchmarkCodec("direct", ByteBuffer::allocateDirect)
+    }
+
+    private fun benchmarkCodec(name: String, allocate: (Int) -> ByteBuffer) {
+        val codec = NoiseBoxCodec()
+        val appData = allocate(appDataSize).apply { put(CryptoUtils().getRandomBytes(appDataSize)) }
+        val box = allocate(NoiseBoxCodec.boxSize(appDataSize, padLen))
+        val plaintext = allocate(box.capacity())
+
+        report("NoiseBoxCodec.createBox ($name)") {
+            appData.clear()
+            box.clear()
+            codec.createBox(sender, receiver.pub, appData, padLen, box)
+        }
+        report("NoiseBoxCodec.readBox ($name)") {
+            box.flip()
+            plaintext.clear()
+            codec.readBox(receiver, box, plaintext, null)
+        }
+    }
+
+    private fun report(name: String, op: () -> Unit) {
+        val thread = Thread.currentThread().id
+        val before = threads.getThreadAllocatedBytes(thread)
+        val nanos = measure("$name x$boxes", warmups, runs) { repeat(boxes) { op() } }
+        val allocated = threads.getThreadAllocatedBytes(thread) - before
+        val measuredBoxes = boxes * (warmups + runs)
+        println("%-50s %12.0f ops/s %10d B/op".format(name, boxes * 1e9 / nanos, allocated / measuredBoxes))
+    }
+}
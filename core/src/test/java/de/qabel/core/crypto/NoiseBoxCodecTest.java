@@ -0,0 +1,113 @@
+package de.qabel.core.crypto;
+
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.util.encoders.Hex;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class NoiseBoxCodecTest {
+    private final CryptoUtils cu = new CryptoUtils();
+    private final NoiseBoxCodec codec = new NoiseBoxCodec();
+    private final QblECKeyPair aliceKey = new QblECKeyPair();
+    private final QblECKeyPair bobKey = new QblECKeyPair();
+
+    @Test
+    public void readsBoxesOfCryptoUtils() throws Exception {
+        for (int padLen : new int[]{0, 7, 1000}) {
+            byte[] appData = cu.getRandomBytes(300);
+            byte[] box = cu.createBox(aliceKey, bobKey.getPub(), appData, padLen);
+
+            ByteBuffer plaintext = ByteBuffer.allocate(box.length);
+            QblECPublicKey sender = codec.readBox(bobKey, ByteBuffer.wrap(box), plaintext, null);
+
+            assertEquals(aliceKey.getPub(), sender);
+            assertArrayEquals(appData, Arrays.copyOf(plaintext.array(), plaintext.position()));
+        }
+    }
+
+    @Test
+    public void createsBoxesReadableByCryptoUtils() throws Exception {
+        for (int padLen : new int[]{0, 7, 1000}) {
+            byte[] appData = cu.getRandomBytes(300);
+            ByteBuffer box = ByteBuffer.allocate(NoiseBoxCodec.boxSize(appData.length, padLen));
+
+            codec.createBox(aliceKey, bobKey.getPub(), ByteBuffer.wrap(appData), padLen, box);
+
+            assertFalse(box.hasRemaining());
+            DecryptedPlaintext plaintext = cu.readBox(bobKey, box.array());
+            assertEquals(aliceKey.getPub(), plaintext.getSenderKey());
+            assertArrayEquals(appData, plaintext.getPlaintext());
+        }
+    }
+
+    @Test
+    public void createsDeterministicBoxForEphemeralKey() throws Exception {
+        QblECKeyPair ephKey = new QblECKeyPair();
+        byte[] appData = "n0i$e".getBytes();
+        ByteBuffer first = ByteBuffer.allocate(NoiseBoxCodec.boxSize(appData.length, 0));
+        ByteBuffer second = ByteBuffer.allocate(NoiseBoxCodec.boxSize(appData.length, 0));
+
+        codec.createBox(aliceKey, bobKey.getPub(), ByteBuffer.wrap(appData), 0, first, ephKey);
+        new NoiseBoxCodec().createBox(aliceKey, bobKey.getPub(), ByteBuffer.wrap(appData), 0, second, ephKey);
+
+        assertArrayEquals(first.array(), second.array());
+        assertArrayEquals(ephKey.getPub().getKey(), Arrays.copyOf(first.array(), QblECPublicKey.KEY_SIZE_BYTE));
+    }
+
+    @Test
+    public void worksOnDirectBuffers() throws Exception {
+        byte[] appData = cu.getRandomBytes(5000);
+        ByteBuffer box = ByteBuffer.allocateDirect(NoiseBoxCodec.boxSize(appData.length, 100));
+        ByteBuffer input = ByteBuffer.allocateDirect(appData.length);
+        input.put(appData).flip();
+
+        codec.createBox(aliceKey, bobKey.getPub(), input, 100, box);
+        box.flip();
+        ByteBuffer plaintext = ByteBuffer.allocateDirect(box.remaining());
+        QblECPublicKey sender = codec.readBox(bobKey, box, plaintext, new EcdhCache());
+
+        assertEquals(aliceKey.getPub(), sender);
+        plaintext.flip();
+        byte[] result = new byte[plaintext.remaining()];
+        plaintext.get(result);
+        assertArrayEquals(appData, result);
+    }
+
+    @Test
+    public void readsBoxFromGoImplementation() throws Exception {
+        byte[] box = Hex.decode("a63794c4f7033b9c769023f28c12390a7b89296452a4695e35a952625839ae2d9d19715ba2130a6ae49aaf0ea5ab3eacededbb7676724618abb1fe648328086ed253a75d9672540c319114c4891cc6a1356ae7a8f3c9866c704b145efaa0313c9e52f609a4f6c41070ad4741c3ef637e7b7e0a7a7b03a0261607a9");
+        QblECKeyPair bobKey = new QblECKeyPair(Hex.decode("a0c2b2bcb68bbe50b01181bfbcbff28ee00f37e44103d3a591dbae6cd5fb9f6a"));
+        ByteBuffer plaintext = ByteBuffer.allocate(box.length);
+
+        QblECPublicKey sender = codec.readBox(bobKey, ByteBuffer.wrap(box), plaintext, null);
+
+        assertEquals("orange submarine", new String(plaintext.array(), 0, plaintext.position()));
+        assertArrayEquals(Hex.decode("2be41e402667281cfe50699fed0b5d73f753392a6dc277126bd0bfb5217dcf33"), sender.getKey());
+    }
+
+    @Test(expected = InvalidCipherTextException.class)
+    public void rejectsTamperedBox() throws Exception {
+        byte[] box = cu.createBox(aliceKey, bobKey.getPub(), "n0i$e".getBytes(), 0);
+        box[box.length - 1] ^= 1;
+
+        codec.readBox(bobKey, ByteBuffer.wrap(box), ByteBuffer.allocate(box.length), null);
+    }
+
+    @Test(expected = InvalidCipherTextException.class)
+    public void rejectsTruncatedBox() throws Exception {
+        codec.readBox(bobKey, ByteBuffer.wrap(new byte[40]), ByteBuffer.allocate(40), null);
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void rejectsTooSmallOutput() {
+        byte[] appData = "n0i$e".getBytes();
+        ByteBuffer box = ByteBuffer.allocate(NoiseBoxCodec.boxSize(appData.length, 0) - 1);
+
+        codec.createBox(aliceKey, bobKey.getPub(), ByteBuffer.wrap(appData), 0, box);
+    }
+}
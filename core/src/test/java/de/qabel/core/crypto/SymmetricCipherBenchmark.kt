@@ -0,0 +1,53 @@
+package de.qabel.core.crypto
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.OutputStream
+
+/**
+ * Throughput of file encryption and decryption with the symmetric cipher providers
+ */
+class SymmetricCipherBenchmark {
+    private val size = 64 * 1024 * 1024
+    private val discard = object : OutputStream() {
+        override fun write(b: Int) {}
+        override fun write(b: ByteArray, off: Int, len: Int) {}
+    }
+
+    @Test
+    fun compareProviders() {
+        assumeBenchmark()
+        val plaintext = CryptoUtils().getRandomBytes(size)
+        val key = CryptoUtils().generateSymmetricKey()
+        val target = File.createTempFile("decrypted", ".tmp")
+        try {
+            listOf(
+                SymmetricCipherProviders.SPONGY_CASTLE to 4096,
+                SymmetricCipherProviders.SPONGY_CASTLE to 65536,
+                SymmetricCipherProviders.JCE to 4096,
+                SymmetricCipherProviders.JCE to 65536
+            ).forEach {
+                val (provider, bufferSize) = it
+                val cu = CryptoUtils(provider, bufferSize)
+                val name = "${provider.name} ${bufferSize / 1024} KiB"
+                val ciphertext = ByteArrayOutputStream(size + 64).apply {
+                    cu.encryptStreamAuthenticatedSymmetric(ByteArrayInputStream(plaintext), this, key, null)
+                }.toByteArray()
+
+                val encrypt = measure("encrypt 64 MiB, $name", warmups = 1, runs = 3) {
+                    cu.encryptStreamAuthenticatedSymmetric(ByteArrayInputStream(plaintext), discard, key, null)
+                }
+                val decrypt = measure("decrypt 64 MiB to file, $name", warmups = 1, runs = 3) {
+                    cu.decryptFileAuthenticatedSymmetricAndValidateTag(ByteArrayInputStream(ciphertext), target, key)
+                }
+                println("%-50s %8.1f MiB/s encrypt %8.1f MiB/s decrypt".format(name, 64e9 / encrypt, 64e9 / decrypt))
+            }
+        } finally {
+            target.delete()
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package de.qabel.core.crypto;
+
+import org.junit.Test;
+import org.spongycastle.crypto.InvalidCipherTextException;
+import org.spongycastle.crypto.modes.AEADBlockCipher;
+import org.spongycastle.crypto.params.AEADParameters;
+import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.util.encoders.Hex;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SymmetricCipherProvidersTest {
+    private static final SymmetricCipherProvider[] PROVIDERS = {
+        SymmetricCipherProviders.SPONGY_CASTLE, SymmetricCipherProviders.JCE
+    };
+
+    @Test
+    public void providersPassTestVectors() throws Exception {
+        for (SymmetricCipherProvider provider : PROVIDERS) {
+            assertTrue(provider.getName(), SymmetricCipherProviders.passesTestVectors(provider));
+        }
+    }
+
+    @Test
+    public void providersPassTestVectorsInChunks() throws Exception {
+        for (SymmetricCipherProvider provider : PROVIDERS) {
+            for (String[] vector : SymmetricCipherProviders.TEST_VECTORS) {
+                byte[] key = Hex.decode(vector[0]);
+                byte[] nonce = Hex.decode(vector[1]);
+                byte[] plaintext = Hex.decode(vector[2]);
+                byte[] aad = Hex.decode(vector[3]);
+                byte[] ciphertext = Hex.decode(vector[4]);
+                for (int chunk : new int[]{1, 7, 16, 17}) {
+                    String message = provider.getName() + ", " + plaintext.length + " bytes in chunks of " + chunk;
+                    assertArrayEquals(message, ciphertext,
+                        crypt(provider.createGcmCipher(true), true, key, nonce, aad, plaintext, chunk));
+                    assertArrayEquals(message, plaintext,
+                        crypt(provider.createGcmCipher(false), false, key, nonce, aad, ciphertext, chunk));
+                }
+            }
+        }
+    }
+
+    @Test(expected = InvalidCipherTextException.class)
+    public void jceRejectsModifiedTag() throws Exception {
+        String[] vector = SymmetricCipherProviders.TEST_VECTORS[3];
+        byte[] ciphertext = Hex.decode(vector[4]);
+        ciphertext[ciphertext.length - 1] ^= 1;
+
+        crypt(SymmetricCipherProviders.JCE.createGcmCipher(false), false, Hex.decode(vector[0]),
+            Hex.decode(vector[1]), Hex.decode(vector[3]), ciphertext, 16);
+    }
+
+    @Test
+    public void jceResetsDecryption() throws Exception {
+        String[] vector = SymmetricCipherProviders.TEST_VECTORS[3];
+        byte[] key = Hex.decode(vector[0]);
+        byte[] nonce = Hex.decode(vector[1]);
+        byte[] aad = Hex.decode(vector[3]);
+        byte[] ciphertext = Hex.decode(vector[4]);
+        JceGcmCipher cipher = new JceGcmCipher();
+        cipher.init(false, new AEADParameters(new KeyParameter(key), 128, nonce, aad));
+        cipher.processBytes(ciphertext, 0, 20, new byte[64], 0);
+
+        cipher.reset();
+        byte[] plaintext = new byte[cipher.getOutputSize(ciphertext.length)];
+        int written = cipher.processBytes(ciphertext, 0, ciphertext.length, plaintext, 0);
+        written += cipher.doFinal(plaintext, written);
+        assertArrayEquals(Hex.decode(vector[2]), Arrays.copyOf(plaintext, written));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void jceDoesNotReuseNonceForEncryption() throws Exception {
+        JceGcmCipher cipher = new JceGcmCipher();
+        cipher.init(true, new AEADParameters(new KeyParameter(new byte[32]), 128, new byte[12]));
+        cipher.reset();
+    }
+
+    @Test
+    public void probeChoosesJce() {
+        assertSame(SymmetricCipherProviders.JCE, SymmetricCipherProviders.probe());
+    }
+
+    private static byte[] crypt(AEADBlockCipher cipher, boolean forEncryption, byte[] key, byte[] nonce, byte[] aad,
+                                byte[] in, int chunk) throws InvalidCipherTextException {
+        cipher.init(forEncryption, new AEADParameters(new KeyParameter(key), 128, nonce));
+        cipher.processAADBytes(aad, 0, aad.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[chunk + 64];
+        for (int offset = 0; offset < in.length; offset += chunk) {
+            int written = cipher.processBytes(in, offset, Math.min(chunk, in.length - offset), buffer, 0);
+            out.write(buffer, 0, written);
+        }
+        out.write(buffer, 0, cipher.doFinal(buffer, 0));
+        return out.toByteArray();
+    }
+}
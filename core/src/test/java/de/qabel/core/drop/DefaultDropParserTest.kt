@@ -3,7 +3,11 @@ package de.qabel.core.drop
 import de.qabel.core.config.Identities
 import de.qabel.core.config.IdentityTestFactory
 import de.qabel.core.crypto.BinaryDropMessageV0
+import de.qabel.core.crypto.EcdhCache
+import de.qabel.core.exceptions.QblDropParseException
+import de.qabel.core.exceptions.QblException
 import org.junit.Test
+import java.util.concurrent.Executors
 
 import org.junit.Assert.*
 
@@ -23,4 +27,32 @@ class DefaultDropParserTest {
         assertEquals(dropMessage.dropPayload, parsedMessage.dropPayload)
     }
 
+    @Test
+    fun parsesBatchInOrderForAllReceivers() {
+        val sender = IdentityTestFactory().create()
+        val receivers = (1..3).map { IdentityTestFactory().create() }
+        val messages = (0..7).map { DropMessage(sender, "payload$it", "text") }
+        val bytes = messages.mapIndexed { i, message ->
+            BinaryDropMessageV0(message).assembleMessageFor(receivers[i % 3].toContact(), sender)
+        }
+        val cache = EcdhCache()
+        val errors = mutableListOf<QblException>()
+
+        // a single thread keeps the cache statistics deterministic
+        val executor = Executors.newSingleThreadExecutor()
+        val parsed = try {
+            DefaultDropParser(executor, cache).parseAll(
+                bytes + bytes[0].copyOf().apply { this[50] = (this[50] + 1).toByte() },
+                Identities().apply { receivers.forEach { put(it) } }) { errors.add(it) }
+        } finally {
+            executor.shutdown()
+        }
+
+        assertEquals(messages.map { it.dropPayload }, parsed.map { it.second.dropPayload })
+        assertEquals((0..7).map { receivers[it % 3].keyIdentifier }, parsed.map { it.first.keyIdentifier })
+        assertEquals(1, errors.size)
+        assertTrue(errors[0] is QblDropParseException)
+        assertEquals(3L, cache.misses)
+        assertEquals(5L, cache.hits)
+    }
 }
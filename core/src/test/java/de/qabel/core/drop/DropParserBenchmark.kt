@@ -0,0 +1,34 @@
+package de.qabel.core.drop
+
+import de.qabel.core.config.Identities
+import de.qabel.core.config.IdentityTestFactory
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.crypto.BinaryDropMessageV0
+import de.qabel.core.measure
+import org.junit.Test
+
+/**
+ * Receiving a batch of drop messages for one of several identities
+ */
+class DropParserBenchmark {
+    @Test
+    fun parseBatch() {
+        assumeBenchmark()
+        val senders = (1..5).map { IdentityTestFactory().create() }
+        val identities = (1..5).map { IdentityTestFactory().create() }
+        val receivers = Identities().apply { identities.forEach { put(it) } }
+        val messages = (0..199).map {
+            val sender = senders[it % senders.size]
+            BinaryDropMessageV0(DropMessage(sender, "payload$it", "text"))
+                .assembleMessageFor(identities[it % identities.size].toContact(), sender)
+        }
+
+        val parser = DefaultDropParser()
+        measure("parse 200 messages one by one", warmups = 2, runs = 5) {
+            messages.forEach { DefaultDropParser().parse(it, receivers) }
+        }
+        measure("parse 200 messages as batch", warmups = 2, runs = 5) {
+            parser.parseAll(messages, receivers)
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package de.qabel.core.drop
+
+import com.sun.net.httpserver.HttpServer
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.config.IdentityTestFactory
+import de.qabel.core.drop.http.DropHttpClients
+import de.qabel.core.drop.http.DropServerHttp.QblStatusCodes
+import de.qabel.core.measure
+import de.qabel.core.repository.entities.DropState
+import org.junit.Test
+import java.net.InetSocketAddress
+import java.util.concurrent.Executors
+
+/**
+ * One refresh cycle over 40 drops of a local drop server that answers after 20 ms
+ */
+class DropPollerBenchmark {
+    @Test
+    fun pollDrops() {
+        assumeBenchmark()
+        val server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.executor = Executors.newFixedThreadPool(16)
+        server.createContext("/") { exchange ->
+            Thread.sleep(20)
+            exchange.sendResponseHeaders(QblStatusCodes.EMPTY_DROP, -1)
+            exchange.close()
+        }
+        server.start()
+        val httpClient = DropHttpClients.create()
+        try {
+            val identity = IdentityTestFactory().create()
+            val connector = MainDropConnector(MainDropServer(httpClient))
+            val requests = (0..39).map {
+                val url = "http://127.0.0.1:${server.address.port}/abcdefghijklmnopqrstuvwxyzabcdefghijklm%04d".format(it)
+                DropPoller.Request(identity, DropURL(url), DropState(url))
+            }
+
+            listOf(1, 4, 8, 16).forEach { parallelism ->
+                val executor = Executors.newFixedThreadPool(parallelism)
+                val poller = DropPoller(connector, executor)
+                measure("poll 40 drops, parallelism $parallelism", warmups = 1, runs = 5) {
+                    poller.poll(requests).forEach { it.get() }
+                }
+                executor.shutdown()
+            }
+        } finally {
+            httpClient.close()
+            server.stop(0)
+        }
+    }
+}
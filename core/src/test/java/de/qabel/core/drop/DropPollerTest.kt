@@ -0,0 +1,79 @@
+package de.qabel.core.drop
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.config.IdentityTestFactory
+import de.qabel.core.drop.http.DropServerHttp.DropServerResponse
+import de.qabel.core.repository.entities.DropState
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+class DropPollerTest {
+    private val executor = Executors.newFixedThreadPool(3)
+    private val identity = IdentityTestFactory().create()
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    private class SlowConnector : DropConnector {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+
+        override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+            throw UnsupportedOperationException()
+        }
+
+        override fun receiveDropMessages(identity: Identity, dropUrl: DropURL, dropState: DropState)
+            : DropServerResponse<DropMessage> {
+            val current = running.incrementAndGet()
+            synchronized(maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), current))
+            }
+            try {
+                Thread.sleep(20)
+                if (dropUrl.uri.path.endsWith("broken")) {
+                    throw IllegalStateException("drop unavailable")
+                }
+                return DropServerResponse(200, dropState.apply { eTag = "etag" }, emptyList())
+            } finally {
+                running.decrementAndGet()
+            }
+        }
+    }
+
+    private fun request(path: String) =
+        DropPoller.Request(identity, DropURL("http://localhost/$path"), DropState("http://localhost/$path"))
+
+    @Test
+    fun pollsConcurrentlyWithBoundedParallelism() {
+        val connector = SlowConnector()
+        val requests = (0..9).map { request("abcdefghijklmnopqrstuvwxyzabcdefghijklmnop$it") }
+
+        val results = DropPoller(connector, executor).poll(requests)
+
+        assertEquals(requests, results.map { it.request })
+        assertEquals(3, connector.maxRunning.get())
+        results.forEach {
+            assertEquals("etag", it.get().dropState.eTag)
+            assertTrue(it.durationMillis >= 20)
+        }
+    }
+
+    @Test
+    fun reportsErrorsPerDrop() {
+        val requests = listOf(request("abcdefghijklmnopqrstuvwxyzabcdefghijkbroken"),
+            request("abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq"))
+
+        val results = DropPoller(SlowConnector(), executor).poll(requests)
+
+        assertNull(results[0].response)
+        assertTrue(results[0].error is IllegalStateException)
+        assertNotNull(results[1].response)
+        assertNull(results[1].error)
+    }
+}
@@ -0,0 +1,123 @@
+package de.qabel.core.drop
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.config.IdentityTestFactory
+import de.qabel.core.drop.http.DropServerHttp.DropServerResponse
+import de.qabel.core.repository.entities.DropState
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class DropSubscriptionTest {
+    private val identity = IdentityTestFactory().create()
+    private val config = DropSubscriptionConfig(1, 10, 40)
+    private val drop = "http://localhost/abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq"
+    private val otherServerDrop = "http://otherhost/abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq"
+
+    private inner class PollingConnector : DropConnector {
+        val polls = AtomicInteger()
+
+        override fun sendDropMessage(identity: Identity, contact: Contact, message: DropMessage, server: DropURL) {
+            throw UnsupportedOperationException()
+        }
+
+        override fun receiveDropMessages(identity: Identity, dropUrl: DropURL, dropState: DropState)
+            : DropServerResponse<DropMessage> {
+            val messages = if (polls.incrementAndGet() == 1) listOf(DropMessage(identity, "polled", "test")) else emptyList()
+            return DropServerResponse(200, dropState.apply { eTag = "etag" }, messages)
+        }
+    }
+
+    @Test
+    fun pollsWithoutLongPoll() {
+        val connector = PollingConnector()
+        val state = DropState(drop)
+        val received = CountDownLatch(1)
+
+        val subscription = DropSubscription(connector, identity, listOf(state), config).observable()
+            .subscribe { received.countDown() }
+        try {
+            assertTrue(received.await(5, TimeUnit.SECONDS))
+            assertEquals("etag", state.eTag)
+        } finally {
+            subscription.unsubscribe()
+        }
+    }
+
+    @Test
+    fun fallsBackToPollingIfLongPollIsUnsupported() {
+        val connector = PollingConnector()
+        val received = CountDownLatch(1)
+
+        val subscription = DropSubscription(connector, identity, listOf(DropState(drop)), config) { receiver, states, timeout ->
+            null
+        }.observable().subscribe { received.countDown() }
+        try {
+            assertTrue(received.await(5, TimeUnit.SECONDS))
+        } finally {
+            subscription.unsubscribe()
+        }
+    }
+
+    @Test
+    fun fallsBackToPollingIfLongPollKeepsFailing() {
+        val connector = PollingConnector()
+        val longPolls = AtomicInteger()
+        val received = CountDownLatch(1)
+
+        val subscription = DropSubscription(connector, identity, listOf(DropState(drop)), config) { receiver, states, timeout ->
+            longPolls.incrementAndGet()
+            throw IllegalStateException("subscription failed")
+        }.observable().subscribe { received.countDown() }
+        try {
+            assertTrue(received.await(5, TimeUnit.SECONDS))
+        } finally {
+            subscription.unsubscribe()
+        }
+        assertEquals(config.maxLongPollFailures, longPolls.get())
+    }
+
+    @Test
+    fun longPollsEveryServerOnce() {
+        val connector = PollingConnector()
+        val polled = CopyOnWriteArrayList<List<String>>()
+        val received = CountDownLatch(2)
+        val states = listOf(DropState(drop), DropState(otherServerDrop))
+
+        val subscription = DropSubscription(connector, identity, states, config) { receiver, dropStates, timeout ->
+            assertEquals(config.longPollTimeoutSeconds, timeout)
+            polled.add(dropStates.map { it.drop })
+            Thread.sleep(10)
+            listOf(DropMessage(receiver, "pushed", "test"))
+        }.observable().subscribe { received.countDown() }
+        try {
+            assertTrue(received.await(5, TimeUnit.SECONDS))
+        } finally {
+            subscription.unsubscribe()
+        }
+        assertEquals(0, connector.polls.get())
+        assertTrue(polled.contains(listOf(drop)))
+        assertTrue(polled.contains(listOf(otherServerDrop)))
+    }
+
+    @Test
+    fun intervalDoublesUntilMessagesArrive() {
+        val interval = AdaptivePollInterval(100, 500)
+
+        assertEquals(100, interval.next(false))
+        assertEquals(200, interval.next(false))
+        assertEquals(400, interval.next(false))
+        assertEquals(500, interval.next(false))
+        assertEquals(500, interval.next(false))
+        assertEquals(100, interval.next(true))
+        assertEquals(100, interval.next(false))
+        assertEquals(200, interval.currentMillis)
+
+        interval.reset()
+        assertEquals(100, interval.currentMillis)
+    }
+}
@@ -0,0 +1,42 @@
+package de.qabel.core.drop
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.nio.ByteBuffer
+import java.util.concurrent.Executors
+
+/**
+ * Proof of work calculation for fixed inputs, on one and on all cores
+ */
+class ProofOfWorkBenchmark {
+    private val executor = Executors.newCachedThreadPool()
+
+    @Before
+    fun setUp() = assumeBenchmark()
+
+    @After
+    fun tearDown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun difficulties() {
+        val cores = Runtime.getRuntime().availableProcessors()
+        for (difficulty in 16..28 step 4) {
+            for (parallelism in setOf(1, cores)) {
+                var run = 0
+                measure("difficulty $difficulty, parallelism $parallelism", warmups = 1, runs = RUNS) {
+                    val fix = ByteBuffer.allocate(72).putInt(run++).array()
+                    ProofOfWork.calculatePow(ByteArray(ProofOfWork.hashLength), fix, difficulty, executor, parallelism, 0L)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val RUNS = 4
+    }
+}
@@ -1,14 +1,29 @@
 package de.qabel.core.drop;
 
 import de.qabel.core.drop.ProofOfWork;
+import org.junit.After;
 import org.junit.Test;
 import org.spongycastle.crypto.digests.SHA256Digest;
 import org.spongycastle.util.encoders.Base64;
 import org.spongycastle.util.encoders.Hex;
 
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 public class ProofOfWorkTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
     @Test
     public void proofOfWorkTest() {
         SHA256Digest digest = new SHA256Digest();
@@ -30,4 +45,62 @@ public class ProofOfWorkTest {
         assertEquals(Base64.decode(pow.getProofOfWorkHashB64())[0], 0);
         assertEquals(Base64.decode(pow.getProofOfWorkHashB64())[1], 0);
     }
+
+    @Test
+    public void enoughZerosCountsBitsFromLeastSignificant() {
+        Random random = new Random(42);
+        byte[] hash = new byte[ProofOfWork.hashLength];
+        for (int i = 0; i < 10000; i++) {
+            random.nextBytes(hash);
+            hash[0] = 0;
+            hash[1] &= random.nextInt(256);
+            hash[2] &= random.nextInt(256);
+            for (int zeros = 0; zeros <= 32; zeros++) {
+                assertEquals(enoughZerosBitwise(hash, zeros), ProofOfWork.enoughZeros(hash, zeros));
+            }
+        }
+    }
+
+    private static boolean enoughZerosBitwise(byte[] hash, int leadingZeros) {
+        for (int i = 0; i < leadingZeros; i++) {
+            if ((hash[i / 8] >> i % 8 & 1) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void writesLongBigEndian() {
+        byte[] target = new byte[ProofOfWork.longLength];
+        for (long number : new long[]{0L, 1L, 255L, 256L, -1L, Long.MAX_VALUE, 0x0102030405060708L}) {
+            ProofOfWork.writeLong(target, number);
+            assertArrayEquals(ProofOfWork.toByteArray(number), target);
+        }
+    }
+
+    @Test
+    public void parallelSearchFindsSmallestCounter() throws Exception {
+        byte[] fix = Hex.decode("257157de4b0551abcdef");
+        byte[] sequential = new byte[ProofOfWork.hashLength];
+        byte[] parallel = new byte[ProofOfWork.hashLength];
+
+        long counter = ProofOfWork.calculatePow(sequential, fix, 12, executor, 1, 0L);
+
+        assertEquals(counter, ProofOfWork.calculatePow(parallel, fix, 12, executor, 4, 0L));
+        assertArrayEquals(sequential, parallel);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void timesOut() throws Exception {
+        ProofOfWork.calculate(200, Hex.decode("257157de4b0551"), Hex.decode("abcdef"),
+            executor, 2, 50L, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void stopsOnInterrupt() throws Exception {
+        Thread.currentThread().interrupt();
+        ProofOfWork.calculate(200, Hex.decode("257157de4b0551"), Hex.decode("abcdef"),
+            executor, 2, 0L, TimeUnit.MILLISECONDS);
+    }
 }
@@ -20,7 +20,7 @@ public class DropHTTPTest {
         shouldContainMessagesUri, shouldContainNoNewMessagesSinceDateUri;
 
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         try {
             workingUri = new URI(TestServer.DROP + "/abcdefghijklmnopqrstuvwxyzabcdefgworkingUrl");
 
@@ -59,7 +59,7 @@ public class DropHTTPTest {
 
     // POST 400
     @Test
-    public void postMessageNotGivenOrInvalid() {
+    public void postMessageNotGivenOrInvalid() throws Exception {
         // Given
         DropHTTP dHTTP = new DropHTTP();
         String message = "";
@@ -72,7 +72,7 @@ public class DropHTTPTest {
 
     // POST 413
     @Test
-    public void postMessageTooBig() {
+    public void postMessageTooBig() throws Exception {
         // Given
         DropHTTP dHTTP = new DropHTTP();
         char[] chars = new char[2574]; // one byte more than the server accepts
@@ -0,0 +1,286 @@
+package de.qabel.core.http
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import de.qabel.core.config.Contact
+import de.qabel.core.config.IdentityTestFactory
+import de.qabel.core.crypto.BinaryDropMessageV0
+import de.qabel.core.drop.DropMessage
+import de.qabel.core.drop.DropSubscriptionConfig
+import de.qabel.core.drop.DropURL
+import de.qabel.core.drop.MainDropConnector
+import de.qabel.core.drop.MainDropServer
+import de.qabel.core.repository.entities.DropState
+import de.qabel.core.drop.http.DropHttpClients
+import de.qabel.core.drop.http.DropServerHttp.QblHeaders
+import de.qabel.core.drop.http.DropServerHttp.QblStatusCodes
+import org.apache.commons.io.IOUtils
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import rx.observers.TestSubscriber
+import java.io.ByteArrayOutputStream
+import java.net.InetSocketAddress
+import java.net.URI
+import java.util.*
+
+/**
+ * MainDropServer against an in-process HTTP server
+ */
+class MainDropServerLocalTest {
+    private lateinit var server: HttpServer
+    private lateinit var uri: URI
+    private val httpClient = DropHttpClients.create()
+    private val dropServer = MainDropServer(httpClient)
+    private val clientPorts = Collections.synchronizedSet(mutableSetOf<Int>())
+    private val subscriptions = Collections.synchronizedList(mutableListOf<JsonObject>())
+    private val pushed = Collections.synchronizedMap(mutableMapOf<String, ByteArray>())
+    private val posted = Collections.synchronizedList(mutableListOf<ByteArray>())
+    @Volatile private var rejectSubscriptions = false
+
+    @Before
+    fun setUp() {
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/") { exchange ->
+            clientPorts.add(exchange.remoteAddress.port)
+            if (exchange.requestURI.path == "/subscribe") {
+                subscribe(exchange)
+            } else if (exchange.requestMethod == "POST") {
+                assertEquals("Client Qabel", exchange.requestHeaders.getFirst(QblHeaders.AUTHORIZATION))
+                posted.add(IOUtils.toByteArray(exchange.requestBody))
+                exchange.sendResponseHeaders(QblStatusCodes.OK, -1)
+            } else if (exchange.requestHeaders.getFirst(QblHeaders.X_QABEL_NEW_SINCE) == "2") {
+                exchange.sendResponseHeaders(QblStatusCodes.NOT_MODIFIED, -1)
+            } else {
+                val body = ByteArrayOutputStream()
+                posted.forEach {
+                    body.write("--boundary\r\nContent-Type: application/octet-stream\r\n\r\n".toByteArray())
+                    body.write(it)
+                    body.write("\r\n".toByteArray())
+                }
+                body.write("--boundary--\r\n".toByteArray())
+                exchange.responseHeaders.add("Content-Type", "multipart/mixed; boundary=boundary")
+                exchange.responseHeaders.add(QblHeaders.X_QABEL_LATEST, posted.size.toString())
+                val bytes = body.toByteArray()
+                exchange.sendResponseHeaders(QblStatusCodes.OK, bytes.size.toLong())
+                exchange.responseBody.write(bytes)
+            }
+            exchange.close()
+        }
+        server.start()
+        uri = URI("http://127.0.0.1:${server.address.port}/drop")
+    }
+
+    private fun subscribe(exchange: HttpExchange) {
+        val request = JsonParser().parse(IOUtils.toString(exchange.requestBody)).asJsonObject
+        subscriptions.add(request)
+        if (request.getAsJsonObject("drops").has("unsupported")) {
+            exchange.sendResponseHeaders(404, -1)
+            return
+        }
+        if (rejectSubscriptions) {
+            exchange.sendResponseHeaders(QblStatusCodes.INVALID, -1)
+            return
+        }
+        val body = ByteArrayOutputStream()
+        request.getAsJsonObject("drops").entrySet().forEach {
+            body.write(("--boundary\r\n${QblHeaders.X_QABEL_DROP}: ${it.key}\r\n" +
+                "${QblHeaders.X_QABEL_LATEST}: ${it.key}-1\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").toByteArray())
+            body.write(pushed[it.key] ?: "for ${it.key}".toByteArray())
+            body.write("\r\n".toByteArray())
+        }
+        body.write("--boundary--\r\n".toByteArray())
+        exchange.responseHeaders.add("Content-Type", "multipart/mixed; boundary=boundary")
+        val bytes = body.toByteArray()
+        exchange.sendResponseHeaders(QblStatusCodes.OK, bytes.size.toLong())
+        exchange.responseBody.write(bytes)
+    }
+
+    @After
+    fun tearDown() {
+        httpClient.close()
+        server.stop(0)
+    }
+
+    @Test
+    fun sendsAndReceivesMessages() {
+        dropServer.sendBytes(uri, "first".toByteArray())
+        dropServer.sendBytes(uri, "second".toByteArray())
+
+        val (status, eTag, messages) = dropServer.receiveMessageBytes(uri, "")
+
+        assertEquals(QblStatusCodes.OK, status)
+        assertEquals("2", eTag)
+        assertEquals(listOf("first", "second"), messages.map { String(it) })
+    }
+
+    @Test
+    fun notModified() {
+        val (status, eTag, messages) = dropServer.receiveMessageBytes(uri, "2")
+
+        assertEquals(QblStatusCodes.NOT_MODIFIED, status)
+        assertEquals("", eTag)
+        assertTrue(messages.isEmpty())
+    }
+
+    @Test
+    fun reusesConnection() {
+        // the JDK test server closes the connection after a 304, so only full responses are requested
+        repeat(5) {
+            dropServer.sendBytes(uri, "message".toByteArray())
+            dropServer.receiveMessageBytes(uri, "")
+        }
+
+        assertEquals(1, clientPorts.size)
+    }
+
+    @Test
+    fun streamsMessagesIntoSeparateArrays() {
+        dropServer.sendBytes(uri, ByteArray(BinaryDropMessageV0.MESSAGE_SIZE) { 'a'.toByte() })
+        dropServer.sendBytes(uri, ByteArray(BinaryDropMessageV0.MESSAGE_SIZE) { 'b'.toByte() })
+        dropServer.sendBytes(uri, "short".toByteArray())
+
+        dropServer.openMessageStream(uri, "").use {
+            assertEquals(QblStatusCodes.OK, it.statusCode)
+            assertEquals("3", it.eTag)
+            val first = it.messages.next()
+            assertTrue(first.all { it == 'a'.toByte() })
+            val second = it.messages.next()
+            assertNotSame(first, second)
+            assertTrue(first.all { it == 'a'.toByte() })
+            assertTrue(second.all { it == 'b'.toByte() })
+            assertEquals("short", String(it.messages.next()))
+            assertFalse(it.messages.hasNext())
+        }
+    }
+
+    @Test
+    fun connectorDecodesMessagesFromStream() {
+        val receiver = IdentityTestFactory().create()
+        val sender = IdentityTestFactory().create()
+        dropServer.sendBytes(uri, BinaryDropMessageV0(DropMessage(sender, "first", "test"))
+            .assembleMessageFor(receiver.toContact(), sender))
+        dropServer.sendBytes(uri, "invalid".toByteArray())
+        dropServer.sendBytes(uri, BinaryDropMessageV0(DropMessage(sender, "second", "test"))
+            .assembleMessageFor(receiver.toContact(), sender))
+        val dropUrl = DropURL(uri.resolve("abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq").toString())
+        val state = DropState(dropUrl.toString())
+
+        val received = MainDropConnector(dropServer)
+            .receiveDropMessageStream(receiver, dropUrl, state)
+            .toList().toBlocking().single()
+
+        assertEquals(listOf("first", "second"), received.map { it.dropPayload })
+        assertEquals("3", state.eTag)
+    }
+
+    @Test
+    fun connectorDecodesStreamedMessagesOneRequestAtATime() {
+        val receiver = IdentityTestFactory().create()
+        val sender = IdentityTestFactory().create()
+        listOf("first", "second", "third").forEach {
+            dropServer.sendBytes(uri, BinaryDropMessageV0(DropMessage(sender, it, "test"))
+                .assembleMessageFor(receiver.toContact(), sender))
+        }
+        val dropUrl = DropURL(uri.resolve("abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq").toString())
+        val subscriber = TestSubscriber<DropMessage>(0L)
+
+        MainDropConnector(dropServer)
+            .receiveDropMessageStream(receiver, dropUrl, DropState(dropUrl.toString()))
+            .subscribe(subscriber)
+        repeat(3) {
+            subscriber.requestMore(1)
+            assertEquals(it + 1, subscriber.onNextEvents.size)
+        }
+        subscriber.requestMore(1)
+
+        subscriber.assertCompleted()
+        assertEquals(listOf("first", "second", "third"), subscriber.onNextEvents.map { it.dropPayload })
+    }
+
+    @Test
+    fun connectorBroadcastsToEveryContact() {
+        val sender = IdentityTestFactory().create()
+        val receivers = (1..3).map { IdentityTestFactory().create() }
+        val dropUrl = DropURL(uri.resolve("abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq").toString())
+        val contacts = receivers.map { Contact(it.alias, listOf(dropUrl), it.ecPublicKey) }
+        val unreachable = Contact("unreachable", emptyList(), receivers[0].ecPublicKey)
+
+        val results = MainDropConnector(dropServer)
+            .broadcastDropMessage(sender, contacts + unreachable, DropMessage(sender, "broadcast", "test"))
+
+        assertEquals(contacts + unreachable, results.map { it.contact })
+        assertEquals(listOf(true, true, true, false), results.map { it.sent })
+        assertEquals(3, posted.size)
+        receivers.forEach { receiver ->
+            val decrypted = posted.mapNotNull { BinaryDropMessageV0(it).disassembleMessage(receiver) }
+            assertEquals(listOf("broadcast"), decrypted.map { it.dropPayload })
+        }
+    }
+
+    @Test
+    fun waitsForMessagesOfManyDrops() {
+        val first = uri.resolve("first")
+        val second = uri.resolve("second")
+
+        val responses = dropServer.waitForMessageBytes(mapOf(first to "", second to "e2"), 5)
+
+        val request = subscriptions.single()
+        assertEquals(5, request.get("timeout").asInt)
+        assertEquals("e2", request.getAsJsonObject("drops").get("second").asString)
+        assertEquals(setOf(first, second), responses!!.keys)
+        val (status, eTag, messages) = responses[first]!!
+        assertEquals(QblStatusCodes.OK, status)
+        assertEquals("first-1", eTag)
+        assertEquals(listOf("for first"), messages.map { String(it) })
+    }
+
+    @Test
+    fun subscriptionsUnsupported() {
+        assertNull(dropServer.waitForMessageBytes(mapOf(uri.resolve("unsupported") to ""), 5))
+    }
+
+    @Test
+    fun subscriptionsRejectedAsInvalidDrop() {
+        rejectSubscriptions = true
+
+        assertNull(dropServer.waitForMessageBytes(mapOf(uri.resolve("first") to ""), 5))
+    }
+
+    @Test
+    fun connectorPollsIfServerRejectsSubscriptions() {
+        rejectSubscriptions = true
+        val receiver = IdentityTestFactory().create()
+        val sender = IdentityTestFactory().create()
+        dropServer.sendBytes(uri, BinaryDropMessageV0(DropMessage(sender, "polled", "test"))
+            .assembleMessageFor(receiver.toContact(), sender))
+        val state = DropState(uri.resolve("abcdefghijklmnopqrstuvwxyzabcdefghijklmnopq").toString())
+
+        val received = MainDropConnector(dropServer)
+            .subscribe(receiver, listOf(state), DropSubscriptionConfig(1, 10, 100))
+            .toBlocking().first()
+
+        assertEquals("polled", received.dropPayload)
+        assertEquals(1, subscriptions.size)
+    }
+
+    @Test
+    fun connectorSubscribesAtServer() {
+        val receiver = IdentityTestFactory().create()
+        val sender = IdentityTestFactory().create()
+        val message = DropMessage(sender, "pushed", "test")
+        pushed["pushed"] = BinaryDropMessageV0(message).assembleMessageFor(receiver.toContact(), sender)
+        val state = DropState(uri.resolve("pushed").toString())
+
+        val received = MainDropConnector(dropServer)
+            .subscribe(receiver, listOf(state), DropSubscriptionConfig(1, 10, 100))
+            .toBlocking().first()
+
+        assertEquals("pushed", received.dropPayload)
+        assertEquals("pushed-1", state.eTag)
+    }
+}
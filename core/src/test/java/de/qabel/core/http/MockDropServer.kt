@@ -10,11 +10,13 @@ class MockDropServer : DropServerHttp {
     private val messages = DefaultHashMap<URI, MutableList<ByteArray>>({ mutableListOf() })
     private val eTags = DefaultHashMap<URI, MutableList<Long>>({ mutableListOf() })
 
+    @Synchronized
     override fun sendBytes(uri: URI, messageBytes: ByteArray) {
         messages.getOrDefault(uri).add(messageBytes)
         eTags.getOrDefault(uri).add(System.currentTimeMillis())
     }
 
+    @Synchronized
     override fun receiveMessageBytes(uri: URI, eTag: String): Triple<Int, String, Collection<ByteArray>> {
         var responseETag = ""
         val messages = if (!eTag.isEmpty()) {
@@ -0,0 +1,53 @@
+package de.qabel.core.repository
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.config.Identity
+import de.qabel.core.config.factory.IdentityBuilder
+import de.qabel.core.dropUrlGenerator
+import de.qabel.core.repository.sqlite.ClientDatabase
+import de.qabel.core.repository.sqlite.DesktopClientDatabase
+import de.qabel.core.repository.sqlite.SqliteContactRepository
+import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
+import de.qabel.core.repository.sqlite.SqliteIdentityRepository
+import org.junit.After
+import org.junit.Before
+import org.junit.BeforeClass
+import java.sql.Connection
+import java.sql.DriverManager
+
+/**
+ * In-memory client database with the identity and contact repositories and a saved identity for benchmarks.
+ * Subclasses add their data in their own @Before method, which runs after this setup.
+ */
+abstract class AbstractSqliteBenchmark {
+    protected lateinit var connection: Connection
+    protected lateinit var database: ClientDatabase
+    protected lateinit var em: EntityManager
+    protected lateinit var dropUrlRepo: SqliteDropUrlRepository
+    protected lateinit var identityRepo: SqliteIdentityRepository
+    protected lateinit var contactRepo: SqliteContactRepository
+    protected lateinit var identity: Identity
+
+    protected open fun createDatabase(connection: Connection): ClientDatabase = DesktopClientDatabase(connection)
+
+    @Before
+    fun setUpDatabase() {
+        connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+        database = createDatabase(connection)
+        database.migrate()
+        em = EntityManager()
+        dropUrlRepo = SqliteDropUrlRepository(database)
+        identityRepo = SqliteIdentityRepository(database, em)
+        contactRepo = SqliteContactRepository(database, em, dropUrlRepo, identityRepo)
+        identity = IdentityBuilder(dropUrlGenerator).withAlias("identity").build()
+        identityRepo.save(identity)
+    }
+
+    @After
+    fun tearDownDatabase() = connection.close()
+
+    companion object {
+        @BeforeClass @JvmStatic
+        fun assumeEnabled() = assumeBenchmark()
+    }
+}
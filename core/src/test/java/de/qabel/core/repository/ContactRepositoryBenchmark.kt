@@ -0,0 +1,41 @@
+package de.qabel.core.repository
+
+import de.qabel.core.config.Contact
+import de.qabel.core.crypto.QblECKeyPair
+import de.qabel.core.dropUrlGenerator
+import de.qabel.core.measure
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.Callable
+
+/**
+ * Loading the contact list of an identity with 1k, 10k and 50k contacts
+ */
+class ContactRepositoryBenchmark : AbstractSqliteBenchmark() {
+    private val sizes = listOf(1000, 10000, 50000)
+
+    private fun addContacts(count: Int) = database.transactionManager.transactional(Callable {
+        repeat(count) {
+            val contact = Contact("contact $it", listOf(dropUrlGenerator.generateUrl()), QblECKeyPair().pub)
+            contactRepo.persist(contact, listOf(identity))
+        }
+    })
+
+    @Test
+    fun loadContactList() {
+        var contacts = 0
+        sizes.forEach { size ->
+            addContacts(size - contacts)
+            contacts = size
+
+            measure("load $size contacts with batched drop urls", warmups = 1, runs = 3) {
+                em.clear()
+                assertEquals(size, contactRepo.find(identity).contacts.size)
+            }
+            measure("load $size contacts with a drop url query each", warmups = 1, runs = 3) {
+                em.clear()
+                contactRepo.find(identity).contacts.forEach { dropUrlRepo.findAll(it) }
+            }
+        }
+    }
+}
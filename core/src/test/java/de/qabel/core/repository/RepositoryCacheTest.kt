@@ -0,0 +1,151 @@
+package de.qabel.core.repository
+
+import de.qabel.core.config.Contact
+import de.qabel.core.config.Identity
+import de.qabel.core.config.Prefix
+import de.qabel.core.config.factory.IdentityBuilder
+import de.qabel.core.crypto.QblECKeyPair
+import de.qabel.core.dropUrlGenerator
+import de.qabel.core.repository.cache.CachedContactRepository
+import de.qabel.core.repository.cache.CachedIdentityRepository
+import de.qabel.core.repository.cache.CachedRepositories
+import de.qabel.core.repository.cache.EntityCache
+import de.qabel.core.repository.cache.RepositoryCache
+import de.qabel.core.repository.exception.TransactionException
+import de.qabel.core.repository.sqlite.ClientDatabase
+import de.qabel.core.repository.sqlite.SqliteContactRepository
+import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
+import de.qabel.core.repository.sqlite.SqliteIdentityRepository
+import org.hamcrest.Matchers.*
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.concurrent.Callable
+
+class RepositoryCacheTest : AbstractSqliteRepositoryTest<CachedContactRepository>() {
+
+    private lateinit var cache: RepositoryCache
+    private lateinit var sqliteContacts: SqliteContactRepository
+    private lateinit var identities: CachedIdentityRepository
+    private lateinit var identity: Identity
+
+    override fun createRepo(clientDatabase: ClientDatabase, em: EntityManager): CachedContactRepository {
+        cache = RepositoryCache(clientDatabase.transactionManager)
+        val sqliteIdentities = SqliteIdentityRepository(clientDatabase, em)
+        sqliteContacts = SqliteContactRepository(clientDatabase, em, SqliteDropUrlRepository(clientDatabase),
+            sqliteIdentities)
+        identities = CachedIdentityRepository(sqliteIdentities, cache)
+        identity = IdentityBuilder(dropUrlGenerator).withAlias("identity").build()
+        identities.save(identity)
+        return CachedContactRepository(sqliteContacts, cache)
+    }
+
+    private fun createContact(alias: String) =
+        Contact(alias, listOf(dropUrlGenerator.generateUrl()), QblECKeyPair().pub)
+
+    @Test
+    fun servesRepeatedLookupsFromCache() {
+        val contact = createContact("contact")
+        repo.save(contact, identity)
+
+        assertEquals(identities.findAll().identities.single(), identities.findAll().identities.single())
+        assertEquals(contact, repo.findByKeyId(contact.keyIdentifier))
+        assertEquals(contact, repo.findByKeyId(contact.keyIdentifier))
+        assertThat(repo.find(identity).contacts, contains(contact))
+        assertEquals(contact, repo.findByKeyId(identity, contact.keyIdentifier))
+
+        assertEquals(2L, cache.hits)
+        assertEquals(3L, cache.misses)
+        assertEquals(0.4, cache.hitRate, 0.001)
+    }
+
+    @Test
+    fun handsOutCopies() {
+        val contact = createContact("contact")
+        repo.save(contact, identity)
+        val prefix = Prefix("prefix").apply { account = "account" }
+        identity.prefixes.add(prefix)
+        identities.save(identity)
+
+        val cachedContact = repo.findByKeyId(contact.keyIdentifier)
+        cachedContact.alias = "changed"
+        val cachedIdentity = identities.find(identity.id)
+        cachedIdentity.alias = "changed"
+        cachedIdentity.prefixes.single().account = "changed"
+
+        val reloadedContact = repo.findByKeyId(contact.keyIdentifier)
+        assertNotSame(cachedContact, reloadedContact)
+        assertEquals("contact", reloadedContact.alias)
+        assertEquals(contact.dropUrls, reloadedContact.dropUrls)
+        val reloadedIdentity = identities.find(identity.id)
+        assertEquals("identity", reloadedIdentity.alias)
+        assertEquals("account", reloadedIdentity.prefixes.single().account)
+        assertEquals(identity.primaryKeyPair, reloadedIdentity.primaryKeyPair)
+        assertEquals(2L, cache.hits)
+    }
+
+    @Test
+    fun repositoriesShareTheCache() {
+        val repositories = CachedRepositories(clientDatabase, EntityManager())
+        val contact = createContact("contact")
+        repositories.contactRepository.save(contact, identity)
+
+        repositories.identityRepository.find(identity.id)
+        repositories.identityRepository.find(identity.id)
+        repositories.contactRepository.findByKeyId(contact.keyIdentifier)
+        repositories.identityRepository.save(identity)
+        repositories.contactRepository.findByKeyId(contact.keyIdentifier)
+
+        assertEquals(1L, repositories.cache.hits)
+        assertEquals(3L, repositories.cache.misses)
+    }
+
+    @Test
+    fun invalidatesOnChanges() {
+        repo.save(createContact("first"), identity)
+        assertThat(repo.find(identity).contacts, hasSize(1))
+
+        repo.save(createContact("second"), identity)
+        assertThat(repo.find(identity).contacts, hasSize(2))
+
+        identities.findAll()
+        identities.save(IdentityBuilder(dropUrlGenerator).withAlias("other").build())
+        assertThat(identities.findAll().identities, hasSize(2))
+    }
+
+    @Test
+    fun invalidatesOnChangesBehindTheCache() {
+        assertThat(repo.find(identity).contacts, empty())
+
+        sqliteContacts.save(createContact("contact"), identity)
+
+        assertThat(repo.find(identity).contacts, hasSize(1))
+    }
+
+    @Test
+    fun invalidatesOnRollback() {
+        try {
+            clientDatabase.transactionManager.transactional(Callable {
+                sqliteContacts.persist(createContact("contact"), listOf(identity))
+                assertThat(repo.find(identity).contacts, hasSize(1))
+                throw IllegalStateException("rollback")
+            })
+            fail("transaction should have failed")
+        } catch (expected: TransactionException) {
+        }
+
+        assertThat(repo.find(identity).contacts, empty())
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsedEntry() {
+        val entityCache = EntityCache<Int, String>(2)
+        entityCache.getOrLoad(1) { "first" }
+        entityCache.getOrLoad(2) { "second" }
+        entityCache.getOrLoad(1) { "first" }
+        entityCache.getOrLoad(3) { "third" }
+
+        assertEquals(2, entityCache.size)
+        assertEquals("first", entityCache.peek(1))
+        assertNull(entityCache.peek(2))
+    }
+}
@@ -6,9 +6,11 @@ import de.qabel.core.config.Identity
 import de.qabel.core.config.factory.DropUrlGenerator
 import de.qabel.core.config.factory.IdentityBuilder
 import de.qabel.core.crypto.QblECPublicKey
+import de.qabel.core.drop.DropURL
 import de.qabel.core.dropUrlGenerator
 import de.qabel.core.extensions.assertThrows
 import de.qabel.core.repository.exception.EntityNotFoundException
+import de.qabel.core.repository.exception.PersistenceException
 import de.qabel.core.repository.sqlite.ClientDatabase
 import de.qabel.core.repository.sqlite.SqliteContactRepository
 import de.qabel.core.repository.sqlite.SqliteDropUrlRepository
@@ -143,6 +145,21 @@ class SqliteContactRepositoryTest : AbstractSqliteRepositoryTest<SqliteContactRe
         compareDropUrls(loaded)
     }
 
+    @Test
+    fun loadsDropUrlsOfAllFoundContacts() {
+        contact.addDrop(dropUrlGenerator.generateUrl())
+        otherContact.addDrop(dropUrlGenerator.generateUrl())
+        otherContact.addDrop(dropUrlGenerator.generateUrl())
+        repo.save(contact, identity)
+        repo.save(otherContact, identity)
+        em.clear()
+
+        val loaded = repo.find(identity).contacts.associateBy { it.keyIdentifier }
+
+        assertEquals(contact.dropUrls, loaded[contact.keyIdentifier]!!.dropUrls)
+        assertEquals(otherContact.dropUrls, loaded[otherContact.keyIdentifier]!!.dropUrls)
+    }
+
     @Test
     fun providesEmptyContactListByDefault() {
         val contacts = repo.find(identity)
@@ -340,6 +357,25 @@ class SqliteContactRepositoryTest : AbstractSqliteRepositoryTest<SqliteContactRe
         assertTrue(identityContactDetails.isIdentity)
     }
 
+    @Test
+    fun doesNotKeepContactsWhoseRelationsFailed() {
+        repo.save(contact, identity)
+        repo.save(otherContact, identity)
+        val dropUrlRepository = SqliteDropUrlRepository(clientDatabase, DropURLHydrator())
+        val failingDropUrls = object : DropUrlRepository by dropUrlRepository {
+            override fun findDropUrls(contactIds: List<Int>): Map<Int, List<DropURL>> =
+                throw PersistenceException("drop urls failed")
+        }
+        val entityManager = EntityManager()
+        val failingRepo = SqliteContactRepository(clientDatabase, entityManager, failingDropUrls, identityRepository)
+
+        assertThrows(PersistenceException::class) { failingRepo.find(contact.id) }
+        assertThrows(PersistenceException::class) { failingRepo.find(identity) }
+
+        assertFalse(entityManager.contains(Contact::class.java, contact.id))
+        assertFalse(entityManager.contains(Contact::class.java, otherContact.id))
+    }
+
     private fun attachEntityObserver() {
         repo.attach(EntityObserver { hasCalled = true })
     }
@@ -3,6 +3,7 @@ package de.qabel.core.repository
 import de.qabel.core.config.*
 import de.qabel.core.config.factory.DropUrlGenerator
 import de.qabel.core.config.factory.IdentityBuilder
+import de.qabel.core.crypto.QblECKeyPair
 import de.qabel.core.dropUrlGenerator
 import de.qabel.core.extensions.CoreTestCase
 import de.qabel.core.extensions.assertThrows
@@ -125,6 +126,38 @@ class SqliteIdentityRepositoryTest : AbstractSqliteRepositoryTest<SqliteIdentity
         assertTrue(identity.isUploadEnabled)
     }
 
+    @Test
+    fun loadsKeyPairWithStoredPublicKey() {
+        val identity = identityBuilder.build()
+        repo.save(identity)
+        em.clear()
+
+        val loaded = repo.find(identity.keyIdentifier).primaryKeyPair
+
+        assertEquals(identity.primaryKeyPair, loaded)
+        val other = QblECKeyPair()
+        assertArrayEquals(other.ECDH(identity.ecPublicKey), loaded.ECDH(other.pub))
+    }
+
+    @Test
+    fun loadsRelationsOfAllIdentities() {
+        val identity = identityBuilder.build().apply { prefixes.add(Prefix("first prefix")) }
+        val otherIdentity = IdentityBuilder(dropUrlGenerator).withAlias("other").build().apply {
+            prefixes.add(Prefix("second prefix"))
+            prefixes.add(Prefix("third prefix"))
+        }
+        repo.save(identity)
+        repo.save(otherIdentity)
+        em.clear()
+
+        val loaded = repo.findAll().identities.associateBy { it.keyIdentifier }
+
+        listOf(identity, otherIdentity).forEach {
+            assertEquals(it.dropUrls, loaded[it.keyIdentifier]!!.dropUrls)
+            assertEquals(it.prefixes, loaded[it.keyIdentifier]!!.prefixes)
+        }
+    }
+
     @Test
     fun alwaysLoadsTheSameInstance() {
         val identity = identityBuilder.build()
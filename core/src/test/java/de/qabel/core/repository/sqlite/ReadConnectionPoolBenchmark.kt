@@ -0,0 +1,99 @@
+package de.qabel.core.repository.sqlite
+
+import de.qabel.core.assumeBenchmark
+import de.qabel.core.measure
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.sql.DriverManager
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+/**
+ * Queries of 4 threads while another thread keeps writing, on the single connection and with a reader pool
+ */
+class ReadConnectionPoolBenchmark {
+    private val threads = 4
+    private val queriesPerThread = 500
+    private val rows = 10000
+
+    private val files = mutableListOf<File>()
+
+    @Before
+    fun setUp() = assumeBenchmark()
+
+    @After
+    fun tearDown() = files.forEach { it.delete() }
+
+    private fun createUrl() = "jdbc:sqlite:" + File.createTempFile("qabel_", ".sqlite").apply { files.add(this) }.absolutePath
+
+    private fun createDatabase(url: String, readers: ReadConnectionPool? = null): DesktopClientDatabase =
+        DesktopClientDatabase(DriverManager.getConnection(url), readers).apply {
+            migrate()
+            prepare("CREATE TABLE IF NOT EXISTS test (id INTEGER PRIMARY KEY, value INTEGER)").use { it.execute() }
+            transactionManager.transactional(Callable {
+                prepare("INSERT INTO test (value) VALUES (?)").use { statement ->
+                    repeat(rows) {
+                        statement.setInt(1, it)
+                        statement.execute()
+                    }
+                }
+            })
+        }
+
+    private fun query(database: ClientDatabase, value: Int) =
+        database.prepare("SELECT COUNT(*) FROM test WHERE value > ?").use {
+            it.setInt(1, value)
+            it.executeQuery().use { it.next() }
+        }
+
+    private fun write(database: ClientDatabase, value: Int) =
+        database.transactionManager.transactional(Callable {
+            database.prepare("UPDATE test SET value = ? WHERE id = ?").use {
+                it.setInt(1, value)
+                it.setInt(2, value % rows + 1)
+                it.execute()
+            }
+        })
+
+    private fun measureReads(name: String, database: ClientDatabase) {
+        val writing = AtomicBoolean(true)
+        val writer = thread {
+            var i = 0
+            while (writing.get()) {
+                write(database, i++)
+            }
+        }
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val nanos = measure(name, warmups = 1, runs = 3) {
+                (1..threads).map {
+                    executor.submit(Callable { repeat(queriesPerThread) { query(database, it) } })
+                }.forEach { it.get() }
+            }
+            println("%-50s %12.0f queries/s".format(name, threads * queriesPerThread / (nanos / 1e9)))
+        } finally {
+            writing.set(false)
+            writer.join()
+            executor.shutdown()
+            executor.awaitTermination(1, TimeUnit.MINUTES)
+        }
+    }
+
+    @Test
+    fun readWhileWriting() {
+        createDatabase(createUrl()).let {
+            measureReads("single connection", it)
+            it.close()
+        }
+        val url = createUrl()
+        createDatabase(url, ReadConnectionPool.open(url, threads)).let {
+            measureReads("$threads readers in WAL mode", it)
+            it.close()
+        }
+    }
+}
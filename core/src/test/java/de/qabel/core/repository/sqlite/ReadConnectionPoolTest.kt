@@ -0,0 +1,154 @@
+package de.qabel.core.repository.sqlite
+
+import de.qabel.core.repository.exception.TransactionException
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.sql.DriverManager
+import java.sql.SQLException
+import java.util.concurrent.Callable
+import kotlin.concurrent.thread
+
+class ReadConnectionPoolTest {
+    private lateinit var file: File
+    private lateinit var url: String
+    private lateinit var database: DesktopClientDatabase
+
+    @Before
+    fun setUp() {
+        file = File.createTempFile("qabel_", ".sqlite")
+        url = "jdbc:sqlite:" + file.absolutePath
+        database = DesktopClientDatabase(DriverManager.getConnection(url), ReadConnectionPool.open(url, 1))
+        database.migrate()
+        database.prepare("CREATE TABLE test (value INTEGER)").use { it.execute() }
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+        file.delete()
+    }
+
+    private fun insert(value: Int) =
+        database.prepare("INSERT INTO test (value) VALUES (?)").use {
+            it.setInt(1, value)
+            it.execute()
+        }
+
+    private fun count(): Int =
+        database.prepare("SELECT COUNT(*) FROM test").use {
+            it.executeQuery().use { it.next(); it.getInt(1) }
+        }
+
+    @Test
+    fun switchesToWal() {
+        database.prepare("PRAGMA journal_mode").use {
+            it.executeQuery().use {
+                it.next()
+                assertEquals("wal", it.getString(1))
+            }
+        }
+    }
+
+    @Test
+    fun opensReadersForDatabaseFiles() {
+        assertNotNull(ReadConnectionPool.forUrl(url)?.apply { close() })
+        assertNull(ReadConnectionPool.forUrl(url, 0))
+        assertNull(ReadConnectionPool.forUrl("jdbc:sqlite::memory:"))
+        assertNull(ReadConnectionPool.forUrl("jdbc:sqlite:"))
+    }
+
+    @Test
+    fun inMemoryDatabasesStayOnOneConnection() {
+        DesktopClientDatabase.open("jdbc:sqlite::memory:").apply {
+            migrate()
+            prepare("PRAGMA journal_mode").use {
+                it.executeQuery().use {
+                    it.next()
+                    assertEquals("memory", it.getString(1))
+                }
+            }
+            close()
+        }
+    }
+
+    @Test(expected = SQLException::class)
+    fun queriesRunOnReadOnlyConnections() {
+        database.prepare("SELECT value FROM test").use { statement ->
+            statement.connection.createStatement().use { it.execute("DELETE FROM test") }
+        }
+    }
+
+    @Test
+    fun readersSeeCommittedChanges() {
+        insert(1)
+        assertEquals(1, count())
+    }
+
+    @Test
+    fun queriesInTransactionsSeeUncommittedChanges() {
+        try {
+            database.transactionManager.transactional(Callable {
+                insert(1)
+                assertEquals(1, count())
+                throw IllegalStateException("rollback")
+            })
+        } catch (expected: TransactionException) {
+        }
+        assertEquals(0, count())
+    }
+
+    @Test
+    fun nestedQueriesShareTheReaderOfTheThread() {
+        insert(1)
+        insert(2)
+        val values = mutableListOf<Int>()
+        database.prepare("SELECT value FROM test ORDER BY value").use {
+            it.executeQuery().use {
+                while (it.next()) {
+                    values.add(it.getInt(1))
+                    assertEquals(2, count())
+                }
+            }
+        }
+        assertEquals(listOf(1, 2), values)
+    }
+
+    @Test
+    fun transactionsAreTrackedPerThread() {
+        val manager = database.transactionManager as SqliteTransactionManager
+        val transaction = manager.beginTransaction()
+        thread { manager.beginTransaction().commit() }.join()
+
+        assertTrue(manager.isInTransaction)
+        transaction.commit()
+        assertFalse(manager.isInTransaction)
+    }
+
+    @Test
+    fun failsIfNoReaderGetsIdle() {
+        val pool = ReadConnectionPool(1, 100) { DriverManager.getConnection(url) }
+        val leaked = pool.prepare("SELECT 1")
+        var failure: Exception? = null
+        thread {
+            try {
+                pool.prepare("SELECT 1")
+            } catch (e: SQLException) {
+                failure = e
+            }
+        }.join()
+
+        assertNotNull(failure)
+        leaked.close()
+        pool.close()
+    }
+
+    @Test(expected = SQLException::class)
+    fun closedStatementsCannotBeUsed() {
+        val statement = database.prepare("SELECT 1")
+        statement.close()
+        statement.executeQuery()
+    }
+}
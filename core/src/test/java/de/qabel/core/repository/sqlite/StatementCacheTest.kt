@@ -0,0 +1,76 @@
+package de.qabel.core.repository.sqlite
+
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.sql.DriverManager
+import java.sql.SQLException
+
+class StatementCacheTest {
+    private val connection = DriverManager.getConnection("jdbc:sqlite::memory:")
+    private val cache = StatementCache(2) { connection.prepareStatement(it) }
+
+    @After
+    fun tearDown() {
+        cache.close()
+        connection.close()
+    }
+
+    @Test
+    fun reusesReleasedStatements() {
+        val statement = cache.acquire("SELECT 1")
+        statement.close()
+
+        assertSame(statement, cache.acquire("SELECT 1"))
+        assertEquals(1, cache.hits)
+        assertEquals(1, cache.misses)
+    }
+
+    @Test
+    fun preparesStatementsInUseAgain() {
+        val statement = cache.acquire("SELECT 1")
+
+        assertNotSame(statement, cache.acquire("SELECT 1"))
+        assertEquals(2, cache.misses)
+    }
+
+    @Test
+    fun clearsParametersOnRelease() {
+        val statement = cache.acquire("SELECT ?")
+        statement.setInt(1, 42)
+        statement.close()
+        assertTrue(statement.isClosed)
+
+        val reused = cache.acquire("SELECT ?")
+        assertFalse(reused.isClosed)
+        reused.setInt(1, 23)
+        tryWith(reused.executeQuery()) {
+            next()
+            assertEquals(23, getInt(1))
+        }
+    }
+
+    @Test
+    fun closesLeastRecentlyUsedStatements() {
+        val statements = listOf("SELECT 1", "SELECT 2", "SELECT 3").map { cache.acquire(it) }
+        statements.forEach { it.close() }
+
+        assertNotSame(statements[0], cache.acquire("SELECT 1"))
+        assertSame(statements[2], cache.acquire("SELECT 3"))
+    }
+
+    @Test(expected = SQLException::class)
+    fun closedStatementsCannotBeUsed() {
+        val statement = cache.acquire("SELECT ?")
+        statement.close()
+
+        statement.setInt(1, 42)
+    }
+
+    @Test(expected = SQLException::class)
+    fun closedCacheDoesNotPrepare() {
+        cache.close()
+
+        cache.acquire("SELECT 1")
+    }
+}
@@ -45,6 +45,18 @@ class DataViewProxyTest {
         assertFalse(dataProxy.canLoadMore())
     }
 
+    @Test
+    fun loadMoreByKeyset() {
+        val keysetProxy = DataViewProxy.keyset({ after, p -> dataLoader.loadAfter(after, p) }, dataView, testPageSize)
+        keysetProxy.load()
+        (0.until(3)).forEach {
+            assertTrue(keysetProxy.canLoadMore())
+            keysetProxy.loadMore()
+        }
+        assertThat(dataView.getCount(), equalTo(testPageSize * 4))
+        assertFalse(keysetProxy.canLoadMore())
+    }
+
     @Test
     fun testModifyRange() {
         (0.until(4)).forEach { dataProxy.loadMore() }
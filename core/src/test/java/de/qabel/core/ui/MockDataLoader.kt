@@ -1,5 +1,7 @@
 package de.qabel.core.ui
 
+import de.qabel.core.repository.framework.KeysetPage
+import de.qabel.core.repository.framework.PageKey
 import de.qabel.core.repository.framework.PagingResult
 import rx.Observable
 import rx.lang.kotlin.toSingletonObservable
@@ -21,4 +23,11 @@ class MockDataLoader(val size: Int, val data: MutableList<String> = ArrayList<St
         return PagingResult(data.size, data.filterIndexed { i, s -> i >= offset && i < limit }).toSingletonObservable()
     }
 
+    fun loadAfter(after: PageKey?, pageSize: Int): Observable<KeysetPage<String>> {
+        val offset = after?.let { data.indexOf(it.values.single()) + 1 } ?: 0
+        val page = data.drop(offset).take(pageSize)
+        val next = if (offset + pageSize < data.size) PageKey(listOf(page.last())) else null
+        return KeysetPage(page, next).toSingletonObservable()
+    }
+
 }